@@ -6,6 +6,7 @@ package org.ligoj.app.plugin.ldap.dao;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.IteratorUtils;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
@@ -15,6 +16,7 @@ import org.ligoj.app.iam.IContainerRepository;
 import org.ligoj.app.iam.dao.CacheContainerRepository;
 import org.ligoj.app.iam.model.CacheContainer;
 import org.ligoj.app.model.ContainerType;
+import org.ligoj.app.plugin.id.DnUtils;
 import org.ligoj.bootstrap.core.json.InMemoryPagination;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -22,6 +24,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 
+import javax.naming.directory.SearchControls;
 import java.util.*;
 
 /**
@@ -48,6 +51,24 @@ public abstract class AbstractContainerLdapRepository<T extends ContainerOrg, C
 	 */
 	private final ContainerType type;
 
+	/**
+	 * Index of the cached containers by DN, rebuilt with each published snapshot and maintained with the creations and
+	 * deletions, including the ones of the other cluster members.
+	 */
+	protected final DnIndex<T> index = new DnIndex<>();
+
+	/**
+	 * The containers the index has been rebuilt from.
+	 */
+	private Map<String, T> indexed;
+
+	/**
+	 * Additional attributes returned by the scans of the containers, besides the mapped ones. By default, only the
+	 * mapped attributes are transferred.
+	 */
+	@Setter
+	protected String[] scanAttributes = ArrayUtils.EMPTY_STRING_ARRAY;
+
 	protected AbstractContainerLdapRepository(final ContainerType type) {
 		super(type.name().toLowerCase(Locale.ENGLISH));
 		this.type = type;
@@ -69,6 +90,37 @@ public abstract class AbstractContainerLdapRepository<T extends ContainerOrg, C
 	 */
 	protected abstract T newContainer(String dn, String cn);
 
+	/**
+	 * Return the LDAP attributes mapped to the container by this repository.
+	 *
+	 * @return The mapped attribute names.
+	 */
+	protected abstract String[] getMappedAttributes();
+
+	/**
+	 * Return the attributes returned by the scans of the containers: the mapped ones and the configured additional
+	 * ones.
+	 *
+	 * @return The attribute names to retrieve.
+	 */
+	protected String[] getReturnedAttributes() {
+		return ArrayUtils.addAll(getMappedAttributes(), scanAttributes);
+	}
+
+	/**
+	 * Return the subtree search controls retrieving the given attributes only.
+	 *
+	 * @param attributes The attribute names to retrieve.
+	 * @return The search controls.
+	 */
+	protected SearchControls newSearchControls(final String... attributes) {
+		final var searchControls = new SearchControls();
+		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		searchControls.setReturningAttributes(attributes);
+		searchControls.setReturningObjFlag(false);
+		return searchControls;
+	}
+
 	@Override
 	public T create(final String dn, final String cn) {
 		final var container = newContainer(dn, cn);
@@ -81,6 +133,55 @@ public abstract class AbstractContainerLdapRepository<T extends ContainerOrg, C
 		return container;
 	}
 
+	/**
+	 * Rebuild the index from the given containers, unless it has already been rebuilt from this instance.
+	 *
+	 * @param containers The containers to index, the ones of a fetch or of a published snapshot.
+	 */
+	public void reindex(final Map<String, T> containers) {
+		synchronized (index) {
+			if (containers != indexed) {
+				index.reset(containers.values());
+				indexed = containers;
+			}
+		}
+	}
+
+	/**
+	 * Add to the index a container added to the cache without this repository, by another cluster member.
+	 *
+	 * @param container The cached container.
+	 */
+	public void index(final T container) {
+		index.put(container);
+	}
+
+	/**
+	 * Remove from the index a container removed from the cache without this repository, by another cluster member. The
+	 * containers below are kept.
+	 *
+	 * @param dn The DN of the removed container.
+	 */
+	public void unindex(final String dn) {
+		index.remove(dn);
+	}
+
+	/**
+	 * Return the cached containers being equal or child of the given DN. The index is used when it contains this DN
+	 * with the cached instance, otherwise all the containers are scanned. The index is not up-to-date when the cache
+	 * has been swapped with the snapshot of another cluster member.
+	 *
+	 * @param dn The DN of the subtree.
+	 * @return The containers of this subtree.
+	 */
+	protected List<T> findAllInSubtree(final String dn) {
+		final var indexed = index.get(dn);
+		if (indexed == null || indexed != findAll().get(indexed.getId())) {
+			return findAll().values().stream().filter(c -> DnUtils.equalsOrParentOf(dn, c.getDn())).toList();
+		}
+		return index.subtree(dn);
+	}
+
 	@Override
 	public Page<T> findAll(final Set<T> groups, final String criteria, final Pageable pageable,
 			final Map<String, Comparator<T>> customComparators) {
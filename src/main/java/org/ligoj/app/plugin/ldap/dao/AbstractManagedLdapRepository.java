@@ -17,6 +17,12 @@ import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.filter.EqualsFilter;
 import org.springframework.ldap.filter.OrFilter;
 
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Stream;
 
 /**
@@ -35,6 +41,36 @@ public abstract class AbstractManagedLdapRepository<T extends ResourceOrg> {
 	@Getter
 	protected LdapTemplate template;
 
+	/**
+	 * Native client used for the bulk scans instead of the template. When <code>null</code>, the template is used.
+	 */
+	@Setter
+	@Getter
+	protected UnboundIdClient searchClient;
+
+	/**
+	 * Native client used for the pipelined bulk writes. When <code>null</code>, the writes are sent one by one with
+	 * the template.
+	 */
+	@Setter
+	@Getter
+	protected UnboundIdClient writeClient;
+
+	/**
+	 * Capabilities of the server, selecting the strategies of this repository.
+	 */
+	@Setter
+	@Getter
+	protected DirectoryCapabilities capabilities = DirectoryCapabilities.UNKNOWN;
+
+	/**
+	 * Optional write-behind queue merging the modifications of a same DN. When <code>null</code>, each modification
+	 * is applied immediately.
+	 */
+	@Setter
+	@Getter
+	protected CoalescingModifyQueue modifyQueue;
+
 	/**
 	 * LDAP class name of this container.
 	 */
@@ -64,19 +100,109 @@ public abstract class AbstractManagedLdapRepository<T extends ResourceOrg> {
 	}
 
 	/**
-	 * Unbind the given DN, ignoring its failure.
+	 * Unbind the given DN and all its descendants, ignoring its failure. When the server supports the tree delete
+	 * control, the whole subtree is deleted by the server with a single request.
 	 *
 	 * @param dn DN to unbind.
 	 */
 	protected void unbind(final String dn) {
+		drain(dn);
 		try {
-			template.unbind(dn, true);
+			if (capabilities.isTreeDelete()) {
+				deleteTree(dn);
+			} else if (writeClient == null) {
+				template.unbind(dn, true);
+			} else {
+				pinReads(0);
+				writeClient.deleteSubtree(dn);
+			}
 		} catch (final NameNotFoundException nne) {
 			// Already deleted user, ignore this error
 			log.warn("{} LDAP entry {} seems to have been deleted from the LDAP repository", typeName, dn);
 		}
 	}
 
+	/**
+	 * Delete the given entry and all its descendants with the tree delete control.
+	 *
+	 * @param dn The DN of the subtree to delete.
+	 */
+	private void deleteTree(final String dn) {
+		if (writeClient == null) {
+			final var name = org.springframework.ldap.support.LdapUtils.newLdapName(dn);
+			template.executeReadWrite(ctx -> {
+				final var ldapCtx = (LdapContext) ctx;
+				ldapCtx.setRequestControls(new Control[]{new BasicControl(DirectoryCapabilities.TREE_DELETE, true, null)});
+				try {
+					ctx.unbind(name);
+				} finally {
+					ldapCtx.setRequestControls(null);
+				}
+				return null;
+			});
+		} else {
+			pinReads(0);
+			writeClient.deleteTree(dn);
+		}
+	}
+
+	/**
+	 * Route the next reads of the caller to the primary server. Used by the writes not requesting a read-write context
+	 * of the template from this thread: the native client writes and the write-behind queue.
+	 *
+	 * @param delay Additional delay in milliseconds before the write is actually sent.
+	 */
+	protected void pinReads(final long delay) {
+		if (template != null && template.getContextSource() instanceof ReadWriteContextSource readWrite) {
+			readWrite.pin(delay);
+		}
+	}
+
+	/**
+	 * Apply the given modifications to an entry, and wait for their completion.
+	 *
+	 * @param dn            The DN of the entry to modify.
+	 * @param modifications The modifications to apply.
+	 */
+	protected void modify(final String dn, final ModificationItem... modifications) {
+		try {
+			modifyAsync(dn, modifications).join();
+		} catch (final CompletionException e) {
+			if (e.getCause() instanceof RuntimeException re) {
+				throw re;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Apply the given modifications to an entry. With the write-behind queue, they may be merged with other
+	 * modifications of the same entry.
+	 *
+	 * @param dn            The DN of the entry to modify.
+	 * @param modifications The modifications to apply.
+	 * @return The completion of these modifications. Already completed without write-behind queue.
+	 */
+	protected CompletableFuture<Void> modifyAsync(final String dn, final ModificationItem... modifications) {
+		if (modifyQueue == null) {
+			template.modifyAttributes(org.springframework.ldap.support.LdapUtils.newLdapName(dn), modifications);
+			return CompletableFuture.completedFuture(null);
+		}
+		pinReads(modifyQueue.getWindow());
+		return modifyQueue.submit(dn, modifications);
+	}
+
+	/**
+	 * Apply the queued modifications of the given entry before a direct write of this entry.
+	 *
+	 * @param dn The DN of the entry to write.
+	 */
+	protected void drain(final String dn) {
+		if (modifyQueue != null) {
+			modifyQueue.drain(dn);
+		}
+	}
+
 	/**
 	 * Bind the given entry into a context. If the bind fails, a validation exception is generated.
 	 *
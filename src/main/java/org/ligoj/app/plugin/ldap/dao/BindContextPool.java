@@ -0,0 +1,157 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.support.LdapUtils;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.Supplier;
+
+/**
+ * Pool of LDAP connections dedicated to the credential checks. A released connection is kept open and is re-bound
+ * with the next checked credentials, so an authentication costs a single bind request instead of a new connection.
+ */
+@Slf4j
+public class BindContextPool {
+
+	/**
+	 * Source of the dedicated (not shared) connections, resolved with the first connection.
+	 */
+	private final Supplier<ContextSource> contextSource;
+
+	/**
+	 * Idle connections, the most recently used first.
+	 */
+	private final Deque<LdapContext> idle = new ConcurrentLinkedDeque<>();
+
+	/**
+	 * Maximal amount of kept idle connections.
+	 */
+	@Setter
+	@Getter
+	private int maxIdle = 8;
+
+	/**
+	 * When <code>true</code>, the credential checks are refused and the released connections are closed instead of
+	 * being kept.
+	 */
+	@Getter
+	private volatile boolean closed;
+
+	/**
+	 * Constructor with the source of dedicated connections.
+	 *
+	 * @param contextSource The source of the dedicated connections.
+	 */
+	public BindContextPool(final ContextSource contextSource) {
+		this(() -> contextSource);
+	}
+
+	/**
+	 * Constructor with the provider of the source of dedicated connections, resolved with the first connection.
+	 *
+	 * @param contextSource The provider of the source of the dedicated connections.
+	 */
+	public BindContextPool(final Supplier<ContextSource> contextSource) {
+		this.contextSource = contextSource;
+	}
+
+	/**
+	 * Check the given credentials.
+	 *
+	 * @param dn       The absolute DN of the entry to bind.
+	 * @param password The clear password.
+	 * @return <code>true</code> when the bind succeeded.
+	 * @throws IllegalStateException When this pool is closed.
+	 */
+	public boolean authenticate(final String dn, final String password) {
+		if (closed) {
+			throw new IllegalStateException("Closed bind connection pool");
+		}
+		if (StringUtils.isEmpty(password)) {
+			// Prevent the unauthenticated bind
+			return false;
+		}
+		final var pooled = idle.pollFirst();
+		if (pooled != null) {
+			try {
+				// Re-bind the established connection
+				pooled.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+				pooled.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+				pooled.reconnect(null);
+				release(pooled);
+				return true;
+			} catch (final javax.naming.AuthenticationException e) {
+				log.info("Bind failed for {}: {}", dn, e.getMessage());
+				LdapUtils.closeContext(pooled);
+				return false;
+			} catch (final NamingException e) {
+				// This connection is no more usable, use a new one
+				log.info("Pooled bind connection discarded: {}", e.getMessage());
+				LdapUtils.closeContext(pooled);
+			}
+		}
+		return authenticateNew(dn, password);
+	}
+
+	/**
+	 * Check the given credentials with a new connection.
+	 */
+	private boolean authenticateNew(final String dn, final String password) {
+		try {
+			final var context = contextSource.get().getContext(dn, password);
+			if (context instanceof LdapContext ldapContext) {
+				release(ldapContext);
+			} else {
+				LdapUtils.closeContext(context);
+			}
+			return true;
+		} catch (final org.springframework.ldap.NamingException e) {
+			log.info("Bind failed for {}: {}", dn, e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Return the bound connection to the idle ones, or close it when there are enough idle connections.
+	 */
+	private void release(final LdapContext context) {
+		try {
+			// Do not keep the credentials of the last bound entry
+			context.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+		} catch (final NamingException e) {
+			LdapUtils.closeContext(context);
+			return;
+		}
+		if (!closed && idle.size() < maxIdle) {
+			idle.offerFirst(context);
+			if (closed) {
+				// Closed meanwhile
+				close();
+			}
+		} else {
+			LdapUtils.closeContext(context);
+		}
+	}
+
+	/**
+	 * Close all idle connections, and the connections in use once released.
+	 */
+	public void close() {
+		closed = true;
+		LdapContext context;
+		while ((context = idle.pollFirst()) != null) {
+			LdapUtils.closeContext(context);
+		}
+	}
+}
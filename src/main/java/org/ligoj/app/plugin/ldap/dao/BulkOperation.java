@@ -0,0 +1,29 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+/**
+ * Operation applied to several users at once.
+ */
+public enum BulkOperation {
+	/**
+	 * Lock the users not yet locked.
+	 */
+	LOCK,
+
+	/**
+	 * Unlock the locked and not isolated users.
+	 */
+	UNLOCK,
+
+	/**
+	 * Lock and move to the quarantine company the users not yet isolated.
+	 */
+	ISOLATE,
+
+	/**
+	 * Move back to their company and unlock the isolated users.
+	 */
+	RESTORE
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+/**
+ * Result of a bulk operation for a user.
+ *
+ * @param id      The user identifier.
+ * @param status  The outcome of the operation.
+ * @param message The failure message. <code>null</code> when the operation succeeded.
+ */
+public record BulkResult(String id, Status status, String message) {
+
+	/**
+	 * Outcome of a bulk operation for a user.
+	 */
+	public enum Status {
+		/**
+		 * The operation has been applied.
+		 */
+		DONE,
+
+		/**
+		 * The user was already in the expected state.
+		 */
+		SKIPPED,
+
+		/**
+		 * The operation failed, at least partially.
+		 */
+		FAILED,
+
+		/**
+		 * The user does not exist.
+		 */
+		NOT_FOUND,
+
+		/**
+		 * The caller has no write delegate on the company of the user.
+		 */
+		FORBIDDEN
+	}
+}
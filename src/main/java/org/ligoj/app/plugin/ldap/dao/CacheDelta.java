@@ -0,0 +1,118 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.ligoj.app.iam.CompanyOrg;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A mutation of the in-memory cache, sent to the other cluster members. Only plain values are carried, not the cached
+ * instances.
+ *
+ * @param type      The type of the mutated resource.
+ * @param operation The mutation.
+ * @param id        The identifier of the mutated resource.
+ * @param target    The identifier of the group for the membership mutations, otherwise <code>null</code>.
+ * @param fields    The fields of the created or updated resource. Empty for the other mutations.
+ */
+public record CacheDelta(CacheDataType type, Operation operation, String id, String target,
+		HashMap<String, Serializable> fields) implements Serializable {
+
+	@Serial
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The cache mutations. A reload means all the resources of the type have been reloaded from LDAP. A batch carries
+	 * several mutations applied as a single version.
+	 */
+	public enum Operation {
+		CREATE, UPDATE, DELETE, ADD_MEMBER, REMOVE_MEMBER, EMPTY, RELOAD, BATCH
+	}
+
+	/**
+	 * Return the delta of a created or updated user.
+	 *
+	 * @param operation The mutation.
+	 * @param user      The user.
+	 * @return The delta with the fields of the user.
+	 */
+	public static CacheDelta of(final Operation operation, final UserOrg user) {
+		final var fields = new HashMap<String, Serializable>();
+		fields.put("dn", user.getDn());
+		fields.put("firstName", user.getFirstName());
+		fields.put("lastName", user.getLastName());
+		fields.put("company", user.getCompany());
+		fields.put("department", user.getDepartment());
+		fields.put("localId", user.getLocalId());
+		fields.put("locked", Optional.ofNullable(user.getLocked()).map(Instant::toEpochMilli).orElse(null));
+		fields.put("lockedBy", user.getLockedBy());
+		fields.put("isolated", user.getIsolated());
+		fields.put("secured", user.isSecured());
+		fields.put("mails", user.getMails() == null ? null : new ArrayList<>(user.getMails()));
+		fields.put("groups", user.getGroups() == null ? null : new ArrayList<>(user.getGroups()));
+		fields.put("customAttributes", user.getCustomAttributes() == null ? null : new HashMap<>(user.getCustomAttributes()));
+		return new CacheDelta(CacheDataType.USER, operation, user.getId(), null, fields);
+	}
+
+	/**
+	 * Return the delta of a created group.
+	 *
+	 * @param group The group.
+	 * @return The delta with the DN and the name of the group.
+	 */
+	public static CacheDelta of(final GroupOrg group) {
+		final var fields = new HashMap<String, Serializable>();
+		fields.put("dn", group.getDn());
+		fields.put("name", group.getName());
+		return new CacheDelta(CacheDataType.GROUP, Operation.CREATE, group.getId(), null, fields);
+	}
+
+	/**
+	 * Return the delta of a created company.
+	 *
+	 * @param company The company.
+	 * @return The delta with the DN and the name of the company.
+	 */
+	public static CacheDelta of(final CompanyOrg company) {
+		final var fields = new HashMap<String, Serializable>();
+		fields.put("dn", company.getDn());
+		fields.put("name", company.getName());
+		return new CacheDelta(CacheDataType.COMPANY, Operation.CREATE, company.getId(), null, fields);
+	}
+
+	/**
+	 * Return the delta of several mutations, applied by the other members as a single version.
+	 *
+	 * @param deltas The mutations, in their application order. Must not be empty.
+	 * @return The delta carrying the given mutations, with the type of the first one.
+	 */
+	public static CacheDelta of(final List<CacheDelta> deltas) {
+		final var fields = new HashMap<String, Serializable>();
+		fields.put("deltas", new ArrayList<>(deltas));
+		return new CacheDelta(deltas.getFirst().type(), Operation.BATCH, null, null, fields);
+	}
+
+	/**
+	 * Return the delta of a mutation without field.
+	 *
+	 * @param type      The type of the mutated resource.
+	 * @param operation The mutation.
+	 * @param id        The identifier of the mutated resource.
+	 * @param target    The identifier of the group for the membership mutations.
+	 * @return The delta.
+	 */
+	public static CacheDelta of(final CacheDataType type, final Operation operation, final String id, final String target) {
+		return new CacheDelta(type, operation, id, target, new HashMap<>());
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.hazelcast.cache.HazelcastCacheManager;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.ligoj.app.iam.ResourceOrg;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+import org.ligoj.bootstrap.resource.system.cache.CacheConfigurer;
+import org.ligoj.bootstrap.resource.system.cache.CacheManagerAware;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Role;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Coordinate the cache refreshes of the cluster members: a single member scans the directory under a cluster lock and
+ * publishes the resulting snapshot, the other members waiting for this lock swap in this snapshot without LDAP
+ * request. Between two refreshes, the mutations of the in-memory cache are sent to the other members. Without cluster,
+ * the refresh and the mutations are local.
+ */
+@Component
+@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+@Slf4j
+public class CacheLdapCluster implements CacheManagerAware {
+
+	/**
+	 * Distributed map holding the refresh lock and the last snapshot.
+	 */
+	static final String MAP = "id-ldap-refresh";
+
+	/**
+	 * Key of the refresh lock.
+	 */
+	private static final String LOCK = "lock";
+
+	/**
+	 * Key of the last snapshot.
+	 */
+	static final String SNAPSHOT = "snapshot";
+
+	/**
+	 * Key prefix of the last data of a type reloaded by a member.
+	 */
+	static final String RELOADED = "reloaded-";
+
+	/**
+	 * Topic of the in-memory cache mutations.
+	 */
+	static final String TOPIC = "id-ldap-delta";
+
+	/**
+	 * Maximal size in bytes of a deserialized snapshot, compressed or not.
+	 */
+	static final long MAX_SNAPSHOT_SIZE = 512L * 1024 * 1024;
+
+	/**
+	 * Classes accepted in a snapshot: the cached entities, their attributes and the collections holding them. Any other
+	 * class is rejected before its instantiation.
+	 */
+	private static final ObjectInputFilter SNAPSHOT_FILTER = ObjectInputFilter.Config.createFilter("maxbytes="
+			+ MAX_SNAPSHOT_SIZE + ";maxdepth=100;org.ligoj.app.iam.*;org.ligoj.bootstrap.core.*;"
+			+ "org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository$CacheDataType;java.lang.*;java.util.*;java.time.*;"
+			+ "javax.naming.ldap.*;!*");
+
+	/**
+	 * A snapshot completed at most this delay in milliseconds before a refresh request is swapped in, instead of a
+	 * new scan.
+	 */
+	@Setter
+	private long tolerance = Duration.ofMinutes(1).toMillis();
+
+	/**
+	 * Maximal wait in milliseconds of the member scanning the directory. After this delay, the refresh is local.
+	 */
+	@Setter
+	private long timeout = Duration.ofMinutes(10).toMillis();
+
+	private HazelcastInstance hazelcast;
+
+	/**
+	 * Listener of the mutations of the other members.
+	 */
+	private Consumer<CacheDelta> listener;
+
+	private boolean listening;
+
+	/**
+	 * Thread applying the mutations of the other members, in the order they are received, outside the event threads of
+	 * Hazelcast.
+	 */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		final var thread = new Thread(r, "ldap-cache-delta");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@Override
+	public void onCreate(final HazelcastCacheManager cacheManager, final CacheConfigurer configurer) {
+		setHazelcast(cacheManager.getHazelcastInstance());
+	}
+
+	/**
+	 * Set the Hazelcast instance shared by the members.
+	 *
+	 * @param hazelcast The Hazelcast instance.
+	 */
+	public synchronized void setHazelcast(final HazelcastInstance hazelcast) {
+		this.hazelcast = hazelcast;
+		listen();
+	}
+
+	/**
+	 * Register the listener of the cache mutations of the other members.
+	 *
+	 * @param listener The listener applying the mutations.
+	 */
+	public synchronized void subscribe(final Consumer<CacheDelta> listener) {
+		this.listener = listener;
+		listen();
+	}
+
+	/**
+	 * Listen the topic once both the Hazelcast instance and the listener are available.
+	 */
+	private void listen() {
+		if (hazelcast != null && listener != null && !listening) {
+			hazelcast.<CacheDelta>getTopic(TOPIC).addMessageListener(m -> {
+				if (!m.getPublishingMember().localMember()) {
+					final var delta = m.getMessageObject();
+					executor.execute(() -> accept(delta));
+				}
+			});
+			listening = true;
+		}
+	}
+
+	/**
+	 * Apply a mutation of another member, a failure does not stop the next mutations.
+	 */
+	private void accept(final CacheDelta delta) {
+		try {
+			listener.accept(delta);
+		} catch (final RuntimeException e) {
+			log.error("Unable to apply the cache mutation {} {} of another member", delta.operation(), delta.id(), e);
+		}
+	}
+
+	/**
+	 * Send a mutation of the in-memory cache to the other members. Without cluster, nothing is sent.
+	 *
+	 * @param delta The mutation.
+	 */
+	public void publish(final CacheDelta delta) {
+		if (isClustered()) {
+			hazelcast.<CacheDelta>getTopic(TOPIC).publish(delta);
+		}
+	}
+
+	/**
+	 * Return <code>true</code> when there are other members.
+	 */
+	private boolean isClustered() {
+		return hazelcast != null && hazelcast.getCluster().getMembers().size() > 1;
+	}
+
+	/**
+	 * Return fresh data, either from a snapshot published by another member since the given request time, either from
+	 * the given loader. In the last case, the loaded data are published to the other members.
+	 *
+	 * @param loader    The loader scanning the directory.
+	 * @param requested The refresh request time of this member.
+	 * @return The fresh data.
+	 */
+	public Map<CacheDataType, Map<String, ? extends ResourceOrg>> refresh(
+			final Supplier<Map<CacheDataType, Map<String, ? extends ResourceOrg>>> loader, final long requested) {
+		if (!isClustered()) {
+			// Single member
+			return loader.get();
+		}
+
+		final IMap<String, byte[]> map = hazelcast.getMap(MAP);
+		try {
+			if (!map.tryLock(LOCK, timeout, TimeUnit.MILLISECONDS)) {
+				log.warn("Cluster refresh lock not acquired after {}ms, refresh locally", timeout);
+				return loader.get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return loader.get();
+		}
+		try {
+			final var snapshot = decode(map.get(SNAPSHOT), requested - tolerance);
+			if (snapshot != null) {
+				log.info("Refresh cache from the snapshot of another member");
+				return snapshot;
+			}
+
+			// This member scans the directory and shares the result
+			final var data = loader.get();
+			final var encoded = encode(data);
+			if (encoded != null) {
+				map.set(SNAPSHOT, encoded);
+				log.info("Directory snapshot published to the cluster, {} bytes", encoded.length);
+			}
+			return data;
+		} finally {
+			map.unlock(LOCK);
+		}
+	}
+
+	/**
+	 * Share the data of a type reloaded by this member, so the other members swap them in without LDAP request. Without
+	 * cluster, nothing is shared.
+	 *
+	 * @param type The reloaded data type.
+	 * @param data The reloaded data, as fetched from LDAP.
+	 */
+	public void share(final CacheDataType type, final Map<String, ? extends ResourceOrg> data) {
+		if (isClustered()) {
+			final var encoded = encode(Map.of(type, data));
+			if (encoded != null) {
+				hazelcast.<String, byte[]>getMap(MAP).set(RELOADED + type, encoded);
+				log.info("Reloaded {} published to the cluster, {} bytes", type, encoded.length);
+			}
+		}
+	}
+
+	/**
+	 * Return the data of a type last reloaded by another member.
+	 *
+	 * @param type The reloaded data type.
+	 * @return The reloaded data, as fetched from LDAP, or <code>null</code> when missing or not readable.
+	 */
+	public Map<String, ? extends ResourceOrg> fetch(final CacheDataType type) {
+		if (hazelcast == null) {
+			return null;
+		}
+		final var data = decode(hazelcast.<String, byte[]>getMap(MAP).get(RELOADED + type), 0);
+		return data == null ? null : data.get(type);
+	}
+
+	/**
+	 * Serialize and compress the given data, prefixed by the current time.
+	 *
+	 * @param data The data to serialize.
+	 * @return The serialized data, or <code>null</code> when the data cannot be serialized.
+	 */
+	static byte[] encode(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data) {
+		final var bytes = new ByteArrayOutputStream();
+		try (var out = new ObjectOutputStream(new GZIPOutputStream(bytes))) {
+			out.writeLong(System.currentTimeMillis());
+			out.writeObject(new HashMap<>(data));
+		} catch (final IOException e) {
+			log.warn("Unable to serialize the directory snapshot, the other members will scan the directory", e);
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserialize the given data when not older than the given time. Only the classes of the cached data are accepted,
+	 * and the size of the data is bounded.
+	 *
+	 * @param encoded   The serialized data. May be <code>null</code>.
+	 * @param notBefore The minimal time of the snapshot.
+	 * @return The deserialized data, or <code>null</code> when missing, too old, too large or not readable.
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<CacheDataType, Map<String, ? extends ResourceOrg>> decode(final byte[] encoded, final long notBefore) {
+		if (encoded == null) {
+			return null;
+		}
+		if (encoded.length > MAX_SNAPSHOT_SIZE) {
+			log.warn("Directory snapshot of {} bytes ignored, too large", encoded.length);
+			return null;
+		}
+		try (var in = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(encoded)))) {
+			in.setObjectInputFilter(SNAPSHOT_FILTER);
+			if (in.readLong() < notBefore) {
+				// Outdated snapshot
+				return null;
+			}
+			return (Map<CacheDataType, Map<String, ? extends ResourceOrg>>) in.readObject();
+		} catch (final IOException | ClassNotFoundException e) {
+			log.warn("Unable to read the directory snapshot", e);
+			return null;
+		}
+	}
+}
@@ -3,23 +3,35 @@
  */
 package org.ligoj.app.plugin.ldap.dao;
 
-import java.util.Map;
-import java.util.Optional;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.cache.annotation.CacheResult;
 
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.ligoj.app.iam.CompanyOrg;
 import org.ligoj.app.iam.GroupOrg;
 import org.ligoj.app.iam.ResourceOrg;
+import org.ligoj.app.iam.SimpleUser;
 import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.DnUtils;
 import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository;
+import org.ligoj.app.plugin.ldap.dao.CacheDelta.Operation;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
- * LDAP in-memory cache with JPA back-end cache.
+ * LDAP in-memory cache with JPA back-end cache. The in-memory data is published as versions: the writers build the
+ * next version under a lock and publish it atomically, the readers never lock and never see a collection being
+ * modified.
  */
 @Component
 @Slf4j
@@ -37,45 +49,831 @@ public class CacheLdapRepository extends AbstractMemCacheRepository {
 	@Override
 	public Map<CacheDataType, Map<String, ? extends ResourceOrg>> getData() {
 		self.ensureCachedData();
-		return Optional.ofNullable(data).orElseGet(this::refreshData);
+		self.ensureCachedCompanies();
+		self.ensureCachedGroups();
+		return Optional.ofNullable(published).orElseGet(this::refreshData);
 	}
 
 	/**
-	 * Ensure the fresh data computed when there is no cached LDAP data.
+	 * Ensure the fresh data computed when there is no cached LDAP data. Once loaded, the expired data are refreshed in
+	 * the background while the previous version is served.
 	 *
 	 * @return <code>true</code>, required by JSR-107.
 	 */
 	@CacheResult(cacheName = "id-ldap-data")
 	public boolean ensureCachedData() {
-		refreshData();
+		if (published == null) {
+			refreshData();
+		} else {
+			refreshIfOutdated(CacheDataType.USER);
+		}
+		return true;
+	}
+
+	/**
+	 * Ensure the fresh companies, with their own expiration.
+	 *
+	 * @return <code>true</code>, required by JSR-107.
+	 */
+	@CacheResult(cacheName = "id-ldap-companies")
+	public boolean ensureCachedCompanies() {
+		refreshIfOutdated(CacheDataType.COMPANY);
+		return true;
+	}
+
+	/**
+	 * Ensure the fresh groups, with their own expiration.
+	 *
+	 * @return <code>true</code>, required by JSR-107.
+	 */
+	@CacheResult(cacheName = "id-ldap-groups")
+	public boolean ensureCachedGroups() {
+		refreshIfOutdated(CacheDataType.GROUP);
 		return true;
 	}
 
+	/**
+	 * A data type loaded less than this delay in milliseconds ago is not refreshed by its expiration. Avoid the reload
+	 * of the groups and the companies just after a complete refresh.
+	 */
+	private static final long MIN_AGE = Duration.ofMinutes(1).toMillis();
+
 	private final Object cacheLock = new Object();
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Published version of the data, read without lock. Neither its maps nor its entities are modified once published:
+	 * a writer copies the changed maps and entities, updates the copies, then publishes a new version sharing the
+	 * unchanged parts.
+	 */
+	private volatile Map<CacheDataType, Map<String, ? extends ResourceOrg>> published;
+
+	/**
+	 * Next version being built by the current mutation, <code>null</code> outside a mutation. Only accessed with the
+	 * lock.
+	 */
+	private Map<CacheDataType, Map<String, ? extends ResourceOrg>> draft;
+
+	/**
+	 * Data types of which the map of the next version is already a copy.
+	 */
+	private final Set<CacheDataType> drafted = EnumSet.noneOf(CacheDataType.class);
+
+	/**
+	 * Entities of the next version being copies, so updated in place by the current mutation.
+	 */
+	private final Set<ResourceOrg> copies = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * Number of the published version, incremented by each refresh and each mutation.
+	 */
+	@Getter
+	private volatile long version;
+
+	/**
+	 * Load time of each data type.
+	 */
+	private final Map<CacheDataType, Long> loaded = new ConcurrentHashMap<>();
+
+	/**
+	 * Data types being reloaded in the background.
+	 */
+	private final Set<CacheDataType> reloading = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Thread reloading the expired data types, while the previous version is served.
+	 */
+	private final ExecutorService reloader = Executors.newSingleThreadExecutor(r -> {
+		final var thread = new Thread(r, "ldap-cache-reload");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Amount of completed refreshes of this member. The database refresh time is not updated when only the differences
+	 * are written.
+	 */
+	private volatile long refreshes;
+
+	/**
+	 * Coordinator of the refreshes and the mutations of the cluster members. When <code>null</code>, each member scans
+	 * the directory and the mutations are local.
+	 */
+	protected CacheLdapCluster cluster;
+
+	/**
+	 * Set the coordinator of the cluster members and apply the mutations of the other members.
+	 *
+	 * @param cluster The coordinator of the cluster members.
+	 */
+	@Autowired(required = false)
+	public void setCluster(final CacheLdapCluster cluster) {
+		this.cluster = cluster;
+		cluster.subscribe(this::apply);
+	}
+
 	@Override
 	protected Map<CacheDataType, Map<String, ? extends ResourceOrg>> refreshData() {
 		final var refreshTime = cache.getCacheRefreshTime();
+		final var refreshCount = refreshes;
 		synchronized (cacheLock) {
 			final var currentRefreshTime = cache.getCacheRefreshTime();
 			final var now = System.currentTimeMillis();
-			if (refreshTime != currentRefreshTime) {
+			if (refreshTime != currentRefreshTime || refreshCount != refreshes) {
 				// Ignore subsequent refresh
 				log.info("Another refresh just finished, new age is {}", DurationFormatUtils.formatDurationHMS(now - cache.getCacheRefreshTime()));
-				return this.data;
+				return this.published;
 			}
 			if (refreshTime == 0) {
 				log.info("Refresh cache requested, first time load");
 			} else {
 				log.info("Refresh cache requested, age is {}", DurationFormatUtils.formatDurationHMS(now - refreshTime));
 			}
-			final var data = super.refreshData();
+			final var data = cluster == null ? load() : cluster.refresh(this::load, now);
+			commit(data);
+			refreshes++;
+			Arrays.stream(CacheDataType.values()).forEach(t -> loaded.put(t, now));
+			log.info("Complete refresh took {}", DurationFormatUtils.formatDurationHMS(System.currentTimeMillis() - now));
+			return data;
+		}
+	}
+
+	/**
+	 * Scan the directory and synchronize the database cache shared by the cluster members. Only the differences with
+	 * the previous data are written, unless they are too large.
+	 *
+	 * @return The fresh LDAP data.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<CacheDataType, Map<String, ? extends ResourceOrg>> load() {
+		final var previous = this.published;
+		final var start = System.currentTimeMillis();
+		final var data = super.refreshData();
+		final var scanned = System.currentTimeMillis();
+		if (previous == null || !CacheLdapSync.sync(cache, previous, data)) {
+			// First load or large changes
 			cache.reset((Map<String, CompanyOrg>) data.get(CacheDataType.COMPANY),
 					(Map<String, GroupOrg>) data.get(CacheDataType.GROUP),
 					(Map<String, UserOrg>) data.get(CacheDataType.USER));
-			log.info("Complete refresh took {}", DurationFormatUtils.formatDurationHMS(System.currentTimeMillis() - now));
-			return data;
+		}
+		log.info("Refresh stages: directory {}ms, database {}ms", scanned - start, System.currentTimeMillis() - scanned);
+		return data;
+	}
+
+	/**
+	 * Reload in the background the given data type when not loaded recently. The previous version is served until the
+	 * reload completes, and the reloads of a same type are not queued. The users are reloaded with all the data.
+	 */
+	private void refreshIfOutdated(final CacheDataType type) {
+		if (published == null || System.currentTimeMillis() - loaded.getOrDefault(type, 0L) < MIN_AGE
+				|| !reloading.add(type)) {
+			return;
+		}
+		reloader.execute(() -> {
+			try {
+				refresh(type);
+			} catch (final RuntimeException e) {
+				log.error("Background reload of {} failed, the previous version is kept", type, e);
+			} finally {
+				reloading.remove(type);
+			}
+		});
+	}
+
+	/**
+	 * Reload from LDAP the data of the given type only, and synchronize the database cache. The groups are linked to
+	 * the cached users without user scan. The users cannot be reloaded without their groups, so a complete refresh is
+	 * done for them. The reloaded data are shared with the other cluster members: they swap them in without LDAP
+	 * request and without writing the shared database cache.
+	 *
+	 * @param type The data type to reload.
+	 */
+	public void refresh(final CacheDataType type) {
+		if (type == CacheDataType.USER || published == null) {
+			refreshData();
+			return;
+		}
+		if (reload(type, true)) {
+			publish(CacheDelta.of(type, Operation.RELOAD, null, null));
+		}
+	}
+
+	/**
+	 * Reload from LDAP the data of the given type, either the companies, either the groups. The directory is read
+	 * without the lock, unless the data have been mutated meanwhile: the read is then done again with the lock, so no
+	 * mutation is lost.
+	 *
+	 * @param type    The data type to reload.
+	 * @param persist When <code>true</code>, the database cache is synchronized and the data are shared with the
+	 *                other members.
+	 * @return <code>true</code> when the data have been reloaded, <code>false</code> when not yet loaded.
+	 */
+	private boolean reload(final CacheDataType type, final boolean persist) {
+		if (published == null) {
+			return false;
+		}
+		final var start = System.currentTimeMillis();
+		final var before = version;
+		var fresh = fetch(type, persist);
+		synchronized (cacheLock) {
+			if (published == null) {
+				return false;
+			}
+			if (version != before) {
+				log.info("Cache mutated during the reload of {}, read again", type);
+				fresh = fetch(type, persist);
+			}
+			final var fetched = System.currentTimeMillis();
+			install(type, fresh, persist);
+			log.info("Reload of {} stages: directory {}ms, database {}ms", type, fetched - start,
+					System.currentTimeMillis() - fetched);
+		}
+		return true;
+	}
+
+	/**
+	 * Read from LDAP the data of the given type, the groups being not yet linked to the users.
+	 *
+	 * @param type  The data type to read.
+	 * @param share When <code>true</code>, the data are shared with the other members.
+	 * @return The fresh data.
+	 */
+	private Map<String, ? extends ResourceOrg> fetch(final CacheDataType type, final boolean share) {
+		final var configuration = iamProvider[0].getConfiguration();
+		final Map<String, ? extends ResourceOrg> fresh = type == CacheDataType.COMPANY
+				? ((CompanyLdapRepository) configuration.getCompanyRepository()).fetchAll()
+				: configuration.getGroupRepository().findAllNoCache();
+		if (share && cluster != null) {
+			// Shared before the linking replacing the member DNs, so the other members link them the same way
+			cluster.share(type, fresh);
+		}
+		return fresh;
+	}
+
+	/**
+	 * Publish the reloaded data of the given type, must be called with the lock.
+	 *
+	 * @param type    The reloaded data type.
+	 * @param fresh   The reloaded data, the groups being not yet linked to the users.
+	 * @param persist When <code>true</code>, the database cache is synchronized.
+	 */
+	@SuppressWarnings("unchecked")
+	private void install(final CacheDataType type, final Map<String, ? extends ResourceOrg> fresh,
+			final boolean persist) {
+		final var previous = this.published;
+		final var next = new EnumMap<CacheDataType, Map<String, ? extends ResourceOrg>>(previous);
+		if (type == CacheDataType.GROUP) {
+			// The changed users are copied into the next version
+			final var linked = ((UserLdapRepository) iamProvider[0].getConfiguration().getUserRepository())
+					.linkGroups(users(), groups(), (Map<String, GroupOrg>) fresh);
+			if (!linked.isEmpty()) {
+				final var linkedUsers = new HashMap<>(users());
+				linkedUsers.putAll(linked);
+				next.put(CacheDataType.USER, linkedUsers);
+			}
+		}
+		next.put(type, fresh);
+		if (persist && !CacheLdapSync.sync(cache, previous, next)) {
+			cache.reset((Map<String, CompanyOrg>) next.get(CacheDataType.COMPANY),
+					(Map<String, GroupOrg>) next.get(CacheDataType.GROUP),
+					(Map<String, UserOrg>) next.get(CacheDataType.USER));
+		}
+		commit(next);
+		loaded.put(type, System.currentTimeMillis());
+	}
+
+	/**
+	 * Send the given mutation to the other members. Within a transaction, the mutation is sent once the database cache
+	 * is committed, and not sent on rollback: the other members read this database cache.
+	 */
+	private void publish(final CacheDelta delta) {
+		if (cluster == null) {
+			return;
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					cluster.publish(delta);
+				}
+			});
+		} else {
+			cluster.publish(delta);
+		}
+	}
+
+	/**
+	 * Apply the given change to the in-memory cache with the lock: the change builds the next version, published once
+	 * complete. When the data is not yet loaded, the change is ignored: the next load includes it. When the change
+	 * fails, nothing is published.
+	 */
+	private void mutate(final Runnable change) {
+		synchronized (cacheLock) {
+			if (published != null) {
+				draft = new EnumMap<>(published);
+				try {
+					change.run();
+					if (!drafted.isEmpty()) {
+						swap(draft);
+					}
+					version++;
+				} finally {
+					draft = null;
+					drafted.clear();
+					copies.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Publish the given version of the data, and rebuild the indexes of the containers not fetched by this member.
+	 */
+	private void commit(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> next) {
+		swap(next);
+		version++;
+		companyRepository().ifPresent(r -> r.reindex(companies()));
+		groupRepository().ifPresent(r -> r.reindex(groups()));
+	}
+
+	/**
+	 * Return the LDAP company repository maintaining an index of the cached companies.
+	 */
+	private Optional<CompanyLdapRepository> companyRepository() {
+		return iamProvider[0].getConfiguration().getCompanyRepository() instanceof CompanyLdapRepository r ? Optional.of(r)
+				: Optional.empty();
+	}
+
+	/**
+	 * Return the LDAP group repository maintaining an index of the cached groups.
+	 */
+	private Optional<GroupLdapRepository> groupRepository() {
+		return iamProvider[0].getConfiguration().getGroupRepository() instanceof GroupLdapRepository r ? Optional.of(r)
+				: Optional.empty();
+	}
+
+	/**
+	 * Replace the published data, the version is incremented once by the whole mutation.
+	 */
+	private void swap(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> next) {
+		this.data = next;
+		this.published = next;
+	}
+
+	@Override
+	public UserOrg create(final UserOrg user) {
+		cache.create(user);
+
+		// The caller keeps its instance, a copy is published
+		mutate(() -> put(CacheDataType.USER, copy(user)));
+		publish(CacheDelta.of(Operation.CREATE, user));
+		return user;
+	}
+
+	@Override
+	public GroupOrg create(final GroupOrg group) {
+		cache.create(group, Collections.emptyMap());
+		mutate(() -> put(CacheDataType.GROUP, group));
+		publish(CacheDelta.of(group));
+		return group;
+	}
+
+	@Override
+	public CompanyOrg create(final CompanyOrg company) {
+		cache.create(company);
+		mutate(() -> createCompany(company));
+		publish(CacheDelta.of(company));
+		return company;
+	}
+
+	@Override
+	public void update(final UserOrg user) {
+		cache.update(user);
+		mutate(() -> updateUser(user));
+		publish(CacheDelta.of(Operation.UPDATE, user));
+	}
+
+	/**
+	 * Update several users with a single mutation: the database cache is updated within the current transaction, a
+	 * single version is published, and a single delta is sent to the other members.
+	 *
+	 * @param users The updated users.
+	 */
+	public void update(final Collection<UserOrg> users) {
+		if (users.isEmpty()) {
+			return;
+		}
+		users.forEach(cache::update);
+		mutate(() -> users.forEach(this::updateUser));
+		publish(CacheDelta.of(users.stream().map(u -> CacheDelta.of(Operation.UPDATE, u)).toList()));
+	}
+
+	@Override
+	public void delete(final UserOrg user) {
+		cache.delete(user);
+		mutate(() -> deleteUser(user.getId()));
+		publish(CacheDelta.of(CacheDataType.USER, Operation.DELETE, user.getId(), null));
+	}
+
+	@Override
+	public void delete(final GroupOrg group) {
+		cache.delete(group);
+		mutate(() -> deleteGroup(group.getId()));
+		publish(CacheDelta.of(CacheDataType.GROUP, Operation.DELETE, group.getId(), null));
+	}
+
+	@Override
+	public void delete(final CompanyOrg company) {
+		cache.delete(company);
+		mutate(() -> remove(CacheDataType.COMPANY, company.getId()));
+		publish(CacheDelta.of(CacheDataType.COMPANY, Operation.DELETE, company.getId(), null));
+	}
+
+	/**
+	 * Delete several companies with a single mutation: the database cache is updated within the current transaction
+	 * in the given order, a single version is published, and a single delta is sent to the other members.
+	 *
+	 * @param companies The deleted companies, the children before their parent.
+	 */
+	public void delete(final Collection<CompanyOrg> companies) {
+		if (companies.isEmpty()) {
+			return;
+		}
+		companies.forEach(cache::delete);
+		mutate(() -> companies.forEach(c -> remove(CacheDataType.COMPANY, c.getId())));
+		publish(CacheDelta.of(companies.stream()
+				.map(c -> CacheDelta.of(CacheDataType.COMPANY, Operation.DELETE, c.getId(), null)).toList()));
+	}
+
+	@Override
+	public void addUserToGroup(final UserOrg user, final GroupOrg group) {
+		cache.addUserToGroup(user, group);
+		mutate(() -> addUser(user.getId(), group.getId()));
+		publish(CacheDelta.of(CacheDataType.USER, Operation.ADD_MEMBER, user.getId(), group.getId()));
+	}
+
+	@Override
+	public void removeUserFromGroup(final UserOrg user, final GroupOrg group) {
+		cache.removeUserFromGroup(user, group);
+		mutate(() -> removeUser(user.getId(), group.getId()));
+		publish(CacheDelta.of(CacheDataType.USER, Operation.REMOVE_MEMBER, user.getId(), group.getId()));
+	}
+
+	@Override
+	public void addGroupToGroup(final GroupOrg subGroup, final GroupOrg group) {
+		cache.addGroupToGroup(subGroup, group);
+		mutate(() -> addGroup(subGroup.getId(), group.getId()));
+		publish(CacheDelta.of(CacheDataType.GROUP, Operation.ADD_MEMBER, subGroup.getId(), group.getId()));
+	}
+
+	@Override
+	public void removeGroupFromGroup(final GroupOrg subGroup, final GroupOrg group) {
+		cache.removeGroupFromGroup(subGroup, group);
+		mutate(() -> removeGroup(subGroup.getId(), group.getId()));
+		publish(CacheDelta.of(CacheDataType.GROUP, Operation.REMOVE_MEMBER, subGroup.getId(), group.getId()));
+	}
+
+	@Override
+	public void empty(final GroupOrg group, final Map<String, UserOrg> users) {
+		cache.empty(group, users);
+		mutate(() -> emptyGroup(group.getId()));
+		publish(CacheDelta.of(CacheDataType.GROUP, Operation.EMPTY, group.getId(), null));
+	}
+
+	/**
+	 * Apply to the in-memory cache a mutation of another member. The database cache is shared, so it is not updated.
+	 * When this member has not yet loaded the data, the mutation is ignored: the next load includes it.
+	 *
+	 * @param delta The mutation.
+	 */
+	protected void apply(final CacheDelta delta) {
+		if (delta.operation() == Operation.RELOAD) {
+			applyReload(delta.type());
+			return;
+		}
+		mutate(() -> applyDelta(delta));
+	}
+
+	/**
+	 * Apply a mutation, or each mutation of a batch.
+	 */
+	@SuppressWarnings("unchecked")
+	private void applyDelta(final CacheDelta delta) {
+		if (delta.operation() == Operation.BATCH) {
+			((List<CacheDelta>) delta.fields().get("deltas")).forEach(this::applyDelta);
+			return;
+		}
+		switch (delta.type()) {
+			case USER -> applyUser(delta);
+			case GROUP -> applyGroup(delta);
+			default -> applyCompany(delta);
+		}
+	}
+
+	/**
+	 * Swap in the data of a type reloaded by another member, read without LDAP request. When these data cannot be read,
+	 * the directory is read. The database cache is already synchronized by the other member.
+	 */
+	private void applyReload(final CacheDataType type) {
+		final var shared = Optional.ofNullable(cluster).map(c -> c.fetch(type)).orElse(null);
+		if (shared == null) {
+			reload(type, false);
+			return;
+		}
+		synchronized (cacheLock) {
+			if (published != null) {
+				install(type, shared, false);
+				log.info("Reload of {} from another member", type);
+			}
+		}
+	}
+
+	/**
+	 * Apply a user mutation.
+	 */
+	@SuppressWarnings("unchecked")
+	private void applyUser(final CacheDelta delta) {
+		switch (delta.operation()) {
+			case CREATE, UPDATE -> {
+				final var user = users().get(delta.id());
+				final var updated = user == null ? new UserOrg() : draftUser(delta.id());
+				final var fields = delta.fields();
+				updated.setId(delta.id());
+				updated.setDn((String) fields.get("dn"));
+				updated.setFirstName((String) fields.get("firstName"));
+				updated.setLastName((String) fields.get("lastName"));
+				updated.setCompany((String) fields.get("company"));
+				updated.setDepartment((String) fields.get("department"));
+				updated.setLocalId((String) fields.get("localId"));
+				updated.setLocked(Optional.ofNullable((Long) fields.get("locked")).map(Instant::ofEpochMilli).orElse(null));
+				updated.setLockedBy((String) fields.get("lockedBy"));
+				updated.setIsolated((String) fields.get("isolated"));
+				updated.setSecured(Boolean.TRUE.equals(fields.get("secured")));
+				updated.setMails((List<String>) fields.get("mails"));
+				updated.setCustomAttributes((Map<String, String>) fields.get("customAttributes"));
+				if (user == null) {
+					updated.setGroups(new ArrayList<>());
+					put(CacheDataType.USER, updated);
+					copies.add(updated);
+				}
+
+				// Update both sides of the memberships
+				final var newGroups = Optional.ofNullable((List<String>) fields.get("groups")).orElse(List.of());
+				new ArrayList<>(updated.getGroups()).stream().filter(g -> !newGroups.contains(g))
+						.forEach(g -> removeUser(delta.id(), g));
+				newGroups.forEach(g -> addUser(delta.id(), g));
+			}
+			case DELETE -> deleteUser(delta.id());
+			case ADD_MEMBER -> addUser(delta.id(), delta.target());
+			case REMOVE_MEMBER -> removeUser(delta.id(), delta.target());
+			default -> log.warn("Unsupported user cache mutation {}", delta.operation());
+		}
+	}
+
+	/**
+	 * Apply a group mutation.
+	 */
+	private void applyGroup(final CacheDelta delta) {
+		switch (delta.operation()) {
+			case CREATE -> {
+				final var group = new GroupOrg((String) delta.fields().get("dn"), (String) delta.fields().get("name"),
+						new HashSet<>());
+				put(CacheDataType.GROUP, group);
+				groupRepository().ifPresent(r -> r.index(group));
+			}
+			case DELETE -> {
+				Optional.ofNullable(groups().get(delta.id()))
+						.ifPresent(g -> groupRepository().ifPresent(r -> r.unindex(g.getDn())));
+				deleteGroup(delta.id());
+			}
+			case ADD_MEMBER -> addGroup(delta.id(), delta.target());
+			case REMOVE_MEMBER -> removeGroup(delta.id(), delta.target());
+			case EMPTY -> emptyGroup(delta.id());
+			default -> log.warn("Unsupported group cache mutation {}", delta.operation());
+		}
+	}
+
+	/**
+	 * Apply a company mutation.
+	 */
+	private void applyCompany(final CacheDelta delta) {
+		if (delta.operation() == Operation.CREATE) {
+			final var company = new CompanyOrg((String) delta.fields().get("dn"), (String) delta.fields().get("name"));
+			createCompany(company);
+			companyRepository().ifPresent(r -> r.index(company));
+		} else if (delta.operation() == Operation.DELETE) {
+			Optional.ofNullable(companies().get(delta.id()))
+					.ifPresent(c -> companyRepository().ifPresent(r -> r.unindex(c.getDn())));
+			remove(CacheDataType.COMPANY, delta.id());
+		}
+	}
+
+	/*
+	 * The following methods build the next version of the data, and must be called with the lock. A published map or
+	 * entity is never modified: it is copied into the next version on its first change, and the copy is updated.
+	 */
+
+	@SuppressWarnings("unchecked")
+	private Map<String, UserOrg> users() {
+		return (Map<String, UserOrg>) current().get(CacheDataType.USER);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, GroupOrg> groups() {
+		return (Map<String, GroupOrg>) current().get(CacheDataType.GROUP);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, CompanyOrg> companies() {
+		return (Map<String, CompanyOrg>) current().get(CacheDataType.COMPANY);
+	}
+
+	/**
+	 * Return the version being built by the current mutation, or the published one.
+	 */
+	private Map<CacheDataType, Map<String, ? extends ResourceOrg>> current() {
+		return draft == null ? published : draft;
+	}
+
+	/**
+	 * Return the map of the next version for the given data type, copied on the first change.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, ResourceOrg> writable(final CacheDataType type) {
+		if (drafted.add(type)) {
+			draft.put(type, new HashMap<>(draft.get(type)));
+		}
+		return (Map<String, ResourceOrg>) draft.get(type);
+	}
+
+	/**
+	 * Add or replace the given resource in the next version.
+	 */
+	private void put(final CacheDataType type, final ResourceOrg resource) {
+		writable(type).put(resource.getId(), resource);
+	}
+
+	/**
+	 * Remove the given resource from the next version.
+	 */
+	private void remove(final CacheDataType type, final String id) {
+		if (current().get(type).containsKey(id)) {
+			writable(type).remove(id);
+		}
+	}
+
+	/**
+	 * Return a copy of the given user, with its own collections. A cached user is changed through such copy.
+	 *
+	 * @param user The user to copy.
+	 * @return The copy of the given user.
+	 */
+	static UserOrg copy(final UserOrg user) {
+		final var copy = new UserOrg();
+		user.copy((SimpleUser) copy);
+		copy.setDn(user.getDn());
+		copy.setSecured(user.isSecured());
+		copy.setMails(user.getMails() == null ? null : new ArrayList<>(user.getMails()));
+		copy.setCustomAttributes(user.getCustomAttributes() == null ? null : new HashMap<>(user.getCustomAttributes()));
+		copy.setGroups(user.getGroups() == null ? new ArrayList<>() : new ArrayList<>(user.getGroups()));
+		return copy;
+	}
+
+	/**
+	 * Return a copy of the given group, with its own collections.
+	 */
+	private static GroupOrg copy(final GroupOrg group) {
+		final var copy = new GroupOrg(group.getDn(), group.getName(), new HashSet<>(group.getMembers()));
+		copy.setSubGroups(new HashSet<>(group.getSubGroups()));
+		copy.setParent(group.getParent());
+		return copy;
+	}
+
+	/**
+	 * Return the user of the next version to update, copied on its first change.
+	 */
+	private UserOrg draftUser(final String id) {
+		final var user = users().get(id);
+		if (copies.contains(user)) {
+			return user;
+		}
+		final var copy = copy(user);
+		put(CacheDataType.USER, copy);
+		copies.add(copy);
+		return copy;
+	}
+
+	/**
+	 * Return the group of the next version to update, copied on its first change.
+	 */
+	private GroupOrg draftGroup(final String id) {
+		final var group = groups().get(id);
+		if (copies.contains(group)) {
+			return group;
+		}
+		final var copy = copy(group);
+		put(CacheDataType.GROUP, copy);
+		copies.add(copy);
+		return copy;
+	}
+
+	/**
+	 * Add a company, completing its LDAP name and its hierarchy when missing.
+	 */
+	private void createCompany(final CompanyOrg company) {
+		if (company.getLdapName() == null) {
+			company.setLdapName(org.springframework.ldap.support.LdapUtils.newLdapName(company.getDn()));
+		}
+		if (company.getCompanyTree() == null) {
+			final var tree = new ArrayList<>(companies().values().stream()
+					.filter(c -> DnUtils.equalsOrParentOf(c.getDn(), company.getDn())).toList());
+			tree.add(company);
+			tree.sort(Comparator.comparing(CompanyOrg::getLdapName));
+			company.setCompanyTree(tree);
+		}
+		put(CacheDataType.COMPANY, company);
+	}
+
+	private void addUser(final String userId, final String groupId) {
+		final var user = users().get(userId);
+		final var group = groups().get(groupId);
+		if (user != null && group != null) {
+			if (!user.getGroups().contains(groupId)) {
+				draftUser(userId).getGroups().add(groupId);
+			}
+			if (!group.getMembers().contains(userId)) {
+				draftGroup(groupId).getMembers().add(userId);
+			}
+		}
+	}
+
+	private void removeUser(final String userId, final String groupId) {
+		final var user = users().get(userId);
+		final var group = groups().get(groupId);
+		if (user != null && user.getGroups().contains(groupId)) {
+			draftUser(userId).getGroups().remove(groupId);
+		}
+		if (group != null && group.getMembers().contains(userId)) {
+			draftGroup(groupId).getMembers().remove(userId);
+		}
+	}
+
+	private void addGroup(final String subGroupId, final String groupId) {
+		final var subGroup = groups().get(subGroupId);
+		final var group = groups().get(groupId);
+		if (subGroup != null && group != null) {
+			draftGroup(subGroupId).setParent(groupId);
+			draftGroup(groupId).getSubGroups().add(subGroupId);
+		}
+	}
+
+	private void removeGroup(final String subGroupId, final String groupId) {
+		final var subGroup = groups().get(subGroupId);
+		final var group = groups().get(groupId);
+		if (subGroup != null && groupId.equals(subGroup.getParent())) {
+			draftGroup(subGroupId).setParent(null);
+		}
+		if (group != null && group.getSubGroups().contains(subGroupId)) {
+			draftGroup(groupId).getSubGroups().remove(subGroupId);
+		}
+	}
+
+	/**
+	 * Remove all the user members of the given group.
+	 */
+	private void emptyGroup(final String groupId) {
+		final var group = groups().get(groupId);
+		if (group != null) {
+			new ArrayList<>(group.getMembers()).forEach(u -> removeUser(u, groupId));
+		}
+	}
+
+	/**
+	 * Copy the attributes of the given user into the next version. The memberships have their own operations.
+	 */
+	private void updateUser(final UserOrg user) {
+		final var current = users().get(user.getId());
+		if (current != null) {
+			final var copy = copy(user);
+			copy.setGroups(new ArrayList<>(current.getGroups()));
+			put(CacheDataType.USER, copy);
+		}
+	}
+
+	private void deleteUser(final String userId) {
+		final var user = users().get(userId);
+		if (user != null) {
+			new ArrayList<>(user.getGroups()).forEach(g -> removeUser(userId, g));
+			remove(CacheDataType.USER, userId);
+		}
+	}
+
+	private void deleteGroup(final String groupId) {
+		final var group = groups().get(groupId);
+		if (group != null) {
+			emptyGroup(groupId);
+			Optional.ofNullable(group.getParent()).ifPresent(p -> removeGroup(groupId, p));
+			new ArrayList<>(group.getSubGroups()).forEach(g -> removeGroup(g, groupId));
+			remove(CacheDataType.GROUP, groupId);
 		}
 	}
 }
@@ -0,0 +1,181 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ligoj.app.iam.CompanyOrg;
+import org.ligoj.app.iam.ContainerOrg;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.ResourceOrg;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+import org.ligoj.app.plugin.id.dao.IdCacheDao;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Synchronize the database cache from the previous and the fresh LDAP data: only the created, updated and deleted
+ * rows are written, instead of a reset of all the tables. The entities are compared with their fingerprint, the plain
+ * values of their persisted fields.
+ */
+@Slf4j
+final class CacheLdapSync {
+
+	/**
+	 * Above this ratio of changed entities, the full reset of the tables is cheaper.
+	 */
+	static final double MAX_CHURN = 0.5;
+
+	private CacheLdapSync() {
+		// Factory pattern
+	}
+
+	/**
+	 * Difference of the entities of a type.
+	 */
+	private record Diff<T>(List<T> created, List<T> updated, List<T> deleted) {
+		private int size() {
+			return created.size() + updated.size() + deleted.size();
+		}
+	}
+
+	/**
+	 * Membership of a user or a group within a group.
+	 */
+	private record Member(String id, String group) {
+	}
+
+	/**
+	 * Return the fingerprint of a user: the fields sent to the other members, including the secured flag, without the
+	 * memberships.
+	 */
+	static Object userFingerprint(final UserOrg user) {
+		final var fields = CacheDelta.of(CacheDelta.Operation.UPDATE, user).fields();
+		fields.remove("groups");
+		return fields;
+	}
+
+	/**
+	 * Return the fingerprint of a company or a group.
+	 */
+	private static Object containerFingerprint(final ContainerOrg container) {
+		return List.of(Objects.toString(container.getDn()), Objects.toString(container.getName()));
+	}
+
+	private static <T> Diff<T> diff(final Map<String, T> previous, final Map<String, T> data,
+			final Function<T, Object> fingerprint) {
+		final var diff = new Diff<T>(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+		if (previous == data) {
+			// Not reloaded type
+			return diff;
+		}
+		data.forEach((id, entity) -> {
+			final var old = previous.get(id);
+			if (old == null) {
+				diff.created.add(entity);
+			} else if (!fingerprint.apply(old).equals(fingerprint.apply(entity))) {
+				diff.updated.add(entity);
+			}
+		});
+		previous.forEach((id, old) -> {
+			if (!data.containsKey(id)) {
+				diff.deleted.add(old);
+			}
+		});
+		return diff;
+	}
+
+	/**
+	 * Return the user memberships from the members of the groups. The users may be shared by the previous and the
+	 * fresh data when only the groups have been reloaded, unlike the groups.
+	 */
+	private static Set<Member> userMembers(final Map<String, GroupOrg> groups) {
+		final var result = new HashSet<Member>();
+		groups.values().forEach(g -> g.getMembers().forEach(u -> result.add(new Member(u, g.getId()))));
+		return result;
+	}
+
+	private static Set<Member> groupMembers(final Map<String, GroupOrg> groups) {
+		final var result = new HashSet<Member>();
+		groups.values().forEach(g -> g.getSubGroups().forEach(s -> result.add(new Member(s, g.getId()))));
+		return result;
+	}
+
+	private static Set<Member> minus(final Set<Member> left, final Set<Member> right) {
+		final var result = new HashSet<>(left);
+		result.removeAll(right);
+		return result;
+	}
+
+	/**
+	 * Write in the database cache the differences between the previous and the fresh data.
+	 *
+	 * @param cache    The database cache.
+	 * @param previous The previous data, as written in the database cache.
+	 * @param data     The fresh data.
+	 * @return <code>false</code> when nothing has been written because the differences are too large, and a reset is
+	 * required.
+	 */
+	@SuppressWarnings("unchecked")
+	static boolean sync(final IdCacheDao cache, final Map<CacheDataType, Map<String, ? extends ResourceOrg>> previous,
+			final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data) {
+		final var oldCompanies = (Map<String, CompanyOrg>) previous.get(CacheDataType.COMPANY);
+		final var oldGroups = (Map<String, GroupOrg>) previous.get(CacheDataType.GROUP);
+		final var oldUsers = (Map<String, UserOrg>) previous.get(CacheDataType.USER);
+		final var companies = (Map<String, CompanyOrg>) data.get(CacheDataType.COMPANY);
+		final var groups = (Map<String, GroupOrg>) data.get(CacheDataType.GROUP);
+		final var users = (Map<String, UserOrg>) data.get(CacheDataType.USER);
+
+		final var companyDiff = diff(oldCompanies, companies, CacheLdapSync::containerFingerprint);
+		final var groupDiff = diff(oldGroups, groups, CacheLdapSync::containerFingerprint);
+		final var userDiff = diff(oldUsers, users, CacheLdapSync::userFingerprint);
+		final var oldUserMembers = userMembers(oldGroups);
+		final var newUserMembers = userMembers(groups);
+		final var oldGroupMembers = groupMembers(oldGroups);
+		final var newGroupMembers = groupMembers(groups);
+		final var addedUsers = minus(newUserMembers, oldUserMembers);
+		final var removedUsers = minus(oldUserMembers, newUserMembers);
+		final var addedGroups = minus(newGroupMembers, oldGroupMembers);
+		final var removedGroups = minus(oldGroupMembers, newGroupMembers);
+
+		final var changes = companyDiff.size() + groupDiff.size() + userDiff.size() + addedUsers.size()
+				+ removedUsers.size() + addedGroups.size() + removedGroups.size();
+		final var total = companies.size() + groups.size() + users.size() + newUserMembers.size() + newGroupMembers.size();
+		if (!companyDiff.updated.isEmpty() || !groupDiff.updated.isEmpty()) {
+			// A moved container implies the update of all its members
+			log.info("Moved companies or groups, reset the database cache");
+			return false;
+		}
+		if (changes > total * MAX_CHURN) {
+			log.info("Too many changes ({}/{}) for a synchronization of the database cache, reset it", changes, total);
+			return false;
+		}
+
+		// Creations and updates, the containers first
+		companyDiff.created.forEach(cache::create);
+		groupDiff.created.forEach(g -> cache.create(g, Collections.emptyMap()));
+		userDiff.created.forEach(cache::create);
+		userDiff.updated.forEach(cache::update);
+
+		// Memberships between existing entities, the ones of the deleted entities are deleted with them
+		addedUsers.stream().filter(m -> groups.containsKey(m.group))
+				.forEach(m -> cache.addUserToGroup(users.get(m.id), groups.get(m.group)));
+		removedUsers.stream().filter(m -> users.containsKey(m.id) && groups.containsKey(m.group))
+				.forEach(m -> cache.removeUserFromGroup(users.get(m.id), groups.get(m.group)));
+		addedGroups.stream().filter(m -> groups.containsKey(m.id) && groups.containsKey(m.group))
+				.forEach(m -> cache.addGroupToGroup(groups.get(m.id), groups.get(m.group)));
+		removedGroups.stream().filter(m -> groups.containsKey(m.id) && groups.containsKey(m.group))
+				.forEach(m -> cache.removeGroupFromGroup(groups.get(m.id), groups.get(m.group)));
+
+		// Deletions, the containers last
+		userDiff.deleted.forEach(cache::delete);
+		groupDiff.deleted.forEach(cache::delete);
+		companyDiff.deleted.forEach(cache::delete);
+		log.info("Database cache synchronized with {} changes: companies +{}/-{}, groups +{}/-{}, users +{}/~{}/-{}",
+				changes, companyDiff.created.size(), companyDiff.deleted.size(), groupDiff.created.size(),
+				groupDiff.deleted.size(), userDiff.created.size(), userDiff.updated.size(), userDiff.deleted.size());
+		return true;
+	}
+}
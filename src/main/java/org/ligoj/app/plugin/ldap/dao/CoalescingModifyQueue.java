@@ -0,0 +1,208 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.support.LdapUtils;
+
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue merging the modifications of a same DN submitted within a short window into a single modify
+ * request. When the merged request fails, each submitted modification is applied alone, so a failure is reported only to
+ * its submitter.<br>
+ * The flushes of a same DN are serialized: a batch is flushed only after the completion of the previous flush of this
+ * DN. A direct write of a DN has to {@link #drain(String)} this DN first.
+ */
+@Slf4j
+public class CoalescingModifyQueue {
+
+	/**
+	 * Modifications of a DN waiting for the end of the window.
+	 */
+	private static class Batch {
+		private final String dn;
+		private final List<ModificationItem[]> modifications = new ArrayList<>();
+		private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+		/**
+		 * Completion of the previous flush of this DN.
+		 */
+		private final CompletableFuture<Void> previous;
+
+		private Batch(final String dn, final CompletableFuture<Void> previous) {
+			this.dn = dn;
+			this.previous = previous;
+		}
+	}
+
+	private final LdapTemplate template;
+
+	/**
+	 * Delay in milliseconds during which the modifications of a DN are merged.
+	 */
+	@Getter
+	private final long window;
+
+	/**
+	 * Pending batches by normalized DN.
+	 */
+	private final Map<String, Batch> batches = new HashMap<>();
+
+	/**
+	 * Last scheduled flush by normalized DN, until its completion. Guarded by {@link #batches}.
+	 */
+	private final Map<String, CompletableFuture<Void>> inFlight = new HashMap<>();
+
+	/**
+	 * Constructor with the template applying the merged modifications.
+	 *
+	 * @param template The template applying the merged modifications.
+	 * @param window   The delay in milliseconds during which the modifications of a DN are merged.
+	 */
+	public CoalescingModifyQueue(final LdapTemplate template, final long window) {
+		this.template = template;
+		this.window = window;
+	}
+
+	/**
+	 * Submit modifications of the given entry. They are applied at the end of the window of this DN, along the other
+	 * modifications of the same DN.
+	 *
+	 * @param dn            The DN of the entry to modify.
+	 * @param modifications The modifications to apply.
+	 * @return The completion of these modifications.
+	 */
+	public CompletableFuture<Void> submit(final String dn, final ModificationItem... modifications) {
+		final var future = new CompletableFuture<Void>();
+		final var key = dn.toLowerCase(Locale.ENGLISH);
+		synchronized (batches) {
+			var batch = batches.get(key);
+			if (batch == null) {
+				// Flush this new batch at the end of the window, and after the previous flush of this DN
+				final var newBatch = new Batch(dn, inFlight.getOrDefault(key, CompletableFuture.completedFuture(null)));
+				batches.put(key, newBatch);
+				track(key, newBatch.previous.thenRunAsync(() -> flush(key, newBatch),
+						CompletableFuture.delayedExecutor(window, TimeUnit.MILLISECONDS)));
+				batch = newBatch;
+			}
+			batch.modifications.add(modifications);
+			batch.futures.add(future);
+		}
+		return future;
+	}
+
+	/**
+	 * Apply now the pending modifications of the given DN, and wait for the completion of its flushes. Has to be
+	 * called before a direct write of this DN, so the queued modifications are not applied after this write.
+	 *
+	 * @param dn The DN of the entry.
+	 */
+	public void drain(final String dn) {
+		final var key = dn.toLowerCase(Locale.ENGLISH);
+		final Batch batch;
+		final CompletableFuture<Void> previous;
+		final var drained = new CompletableFuture<Void>();
+		synchronized (batches) {
+			batch = batches.remove(key);
+			if (batch == null) {
+				previous = inFlight.get(key);
+			} else {
+				// The next batches of this DN wait for this drain
+				previous = batch.previous;
+				track(key, drained);
+			}
+		}
+		if (previous != null) {
+			previous.join();
+		}
+		if (batch != null) {
+			try {
+				apply(batch);
+			} finally {
+				drained.complete(null);
+			}
+		}
+	}
+
+	/**
+	 * Remember the given flush as the last one of a DN, until its completion.
+	 */
+	private void track(final String key, final CompletableFuture<Void> flush) {
+		inFlight.put(key, flush);
+		flush.whenComplete((r, e) -> {
+			synchronized (batches) {
+				inFlight.remove(key, flush);
+			}
+		});
+	}
+
+	/**
+	 * Apply the given batch of modifications, unless it has been drained meanwhile.
+	 */
+	private void flush(final String key, final Batch batch) {
+		synchronized (batches) {
+			if (batches.get(key) != batch) {
+				// Already applied by a drain
+				return;
+			}
+			batches.remove(key);
+		}
+		apply(batch);
+	}
+
+	/**
+	 * Apply the modifications of the given batch.
+	 */
+	private void apply(final Batch batch) {
+		final var name = LdapUtils.newLdapName(batch.dn);
+		try {
+			template.modifyAttributes(name, merge(batch.modifications));
+			batch.futures.forEach(f -> f.complete(null));
+		} catch (final RuntimeException e) {
+			if (batch.futures.size() == 1) {
+				batch.futures.getFirst().completeExceptionally(e);
+				return;
+			}
+
+			// Isolate the failing modifications
+			log.info("Merged modification of {} failed, apply them one by one: {}", batch.dn, e.getMessage());
+			for (var i = 0; i < batch.futures.size(); i++) {
+				try {
+					template.modifyAttributes(name, batch.modifications.get(i));
+					batch.futures.get(i).complete(null);
+				} catch (final RuntimeException e2) {
+					batch.futures.get(i).completeExceptionally(e2);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merge the modifications in submission order. A replacement of an attribute overridden by a later replacement is
+	 * dropped.
+	 *
+	 * @param modifications The submitted modifications.
+	 * @return The merged modifications.
+	 */
+	static ModificationItem[] merge(final List<ModificationItem[]> modifications) {
+		final var merged = new ArrayList<ModificationItem>();
+		modifications.forEach(m -> merged.addAll(Arrays.asList(m)));
+		final var replaced = new HashSet<String>();
+		for (final var iterator = merged.listIterator(merged.size()); iterator.hasPrevious(); ) {
+			final var item = iterator.previous();
+			if (item.getModificationOp() == DirContext.REPLACE_ATTRIBUTE
+					&& !replaced.add(item.getAttribute().getID().toLowerCase(Locale.ENGLISH))) {
+				iterator.remove();
+			}
+		}
+		return merged.toArray(ModificationItem[]::new);
+	}
+}
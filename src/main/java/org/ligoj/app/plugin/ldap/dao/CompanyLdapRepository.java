@@ -14,14 +14,12 @@ import org.ligoj.app.plugin.id.DnUtils;
 import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
 import org.ligoj.bootstrap.core.NamedBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.ldap.NameNotFoundException;
 import org.springframework.ldap.core.DirContextAdapter;
 import org.springframework.ldap.core.DirContextOperations;
 
 import javax.naming.ldap.LdapName;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Map;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -40,6 +38,12 @@ public class CompanyLdapRepository extends AbstractContainerLdapRepository<Compa
 	@Autowired
 	private CacheCompanyRepository cacheCompanyRepository;
 
+	/**
+	 * Optional user repository whose search is started with the fetch of the companies.
+	 */
+	@Setter
+	private UserLdapRepository userRepository;
+
 	/**
 	 * Default constructor for a container of type {@link ContainerType#COMPANY}
 	 */
@@ -72,6 +76,19 @@ public class CompanyLdapRepository extends AbstractContainerLdapRepository<Compa
 	 */
 	@Override
 	public Map<String, CompanyOrg> findAllNoCache() {
+		// The companies are fetched first by the refresh: overlap the user search with the fetch of the containers
+		Optional.ofNullable(userRepository).ifPresent(UserLdapRepository::prefetch);
+		return fetchAll();
+	}
+
+	/**
+	 * Fetch and return all normalized companies, without starting the user search. Used by the refresh of the
+	 * companies only.
+	 *
+	 * @return the companies. Key is the normalized name.
+	 */
+	public Map<String, CompanyOrg> fetchAll() {
+		final var start = System.currentTimeMillis();
 		final var nameToDn = new HashMap<String, CompanyOrg>();
 
 		// Also add the quarantine zone
@@ -80,26 +97,41 @@ public class CompanyLdapRepository extends AbstractContainerLdapRepository<Compa
 		nameToDn.put(quarantine.getId(), quarantine);
 
 		// Complete with LDAP query result
-		template.search(baseDn, newClassesFilter().encode(), (Object ctx) -> (DirContextAdapter) ctx).stream()
-				.map(ldap -> new CompanyOrg(ldap.getDn().toString(), ldap.getStringAttributes("ou")[0]))
-				.forEach(c -> {
-					if (nameToDn.containsKey(c.getId())) {
-						log.warn("Duplicate company name {} with two different DNs: {} and {}. Keep only the first one.",
-								nameToDn.get(c.getId()), c.getId(), c.getDn());
-					} else {
-						nameToDn.put(c.getId(), c);
-					}
-				});
+		final var filter = newClassesFilter().encode();
+		final List<CompanyOrg> companies;
+		if (searchClient == null) {
+			companies = template.search(baseDn, filter, newSearchControls(getReturnedAttributes()),
+					(Object ctx) -> toCompany(LdapEntryReader.of((DirContextAdapter) ctx)));
+		} else {
+			companies = searchClient.search(baseDn, filter, getReturnedAttributes(), this::toCompany);
+		}
+		companies.forEach(c -> {
+			if (nameToDn.containsKey(c.getId())) {
+				log.warn("Duplicate company name {} with two different DNs: {} and {}. Keep only the first one.",
+						nameToDn.get(c.getId()), c.getId(), c.getDn());
+			} else {
+				nameToDn.put(c.getId(), c);
+			}
+		});
 
 		// Complete the hierarchy of companies
 		log.info("Nb LDAP companies {}, keys: {}, ids: {}, names: {}", nameToDn.size(), nameToDn.keySet(),
 				nameToDn.values().stream().map(NamedBean::getId).collect(Collectors.toSet()),
 				nameToDn.values().stream().map(NamedBean::getName).collect(Collectors.toSet()));
 		nameToDn.values().forEach(this::buildLdapName);
-		nameToDn.values().forEach(c -> this.buildHierarchy(nameToDn, c));
+		reindex(nameToDn);
+		nameToDn.values().forEach(c -> buildHierarchy(c, nameToDn));
+		log.info("Companies stages: fetch, map and index {}ms", System.currentTimeMillis() - start);
 		return nameToDn;
 	}
 
+	/**
+	 * Map the given entry to a company, whatever the client library.
+	 */
+	private CompanyOrg toCompany(final LdapEntryReader ldap) {
+		return new CompanyOrg(ldap.getDn(), ldap.getStrings("ou")[0]);
+	}
+
 	/**
 	 * Build the {@link LdapName} instance from the DN. This also requires a valid DN for the given {@link CompanyOrg}
 	 */
@@ -108,13 +140,20 @@ public class CompanyLdapRepository extends AbstractContainerLdapRepository<Compa
 	}
 
 	/**
-	 * Build the company hierarchy from the given {@link CompanyOrg}
+	 * Build the company hierarchy from the given {@link CompanyOrg}. The index is used when it contains the given
+	 * instances, otherwise the given companies are scanned.
+	 *
+	 * @param company   The company to complete.
+	 * @param companies All the companies, including the given one.
 	 */
-	private void buildHierarchy(final Map<String, CompanyOrg> companies, final CompanyOrg company) {
-		// Collect all parents and sorted from parent to the leaf
-		company.setCompanyTree(
-				companies.values().stream().filter(c -> DnUtils.equalsOrParentOf(c.getDn(), company.getDn()))
-						.sorted(Comparator.comparing(CompanyOrg::getLdapName)).toList());
+	private void buildHierarchy(final CompanyOrg company, final Map<String, CompanyOrg> companies) {
+		// Collect all parents, already sorted from parent to the leaf
+		var tree = index.ancestors(company.getDn());
+		if (tree.isEmpty() || tree.getLast() != company || tree.stream().anyMatch(c -> companies.get(c.getId()) != c)) {
+			tree = companies.values().stream().filter(c -> DnUtils.equalsOrParentOf(c.getDn(), company.getDn()))
+					.sorted(Comparator.comparing(CompanyOrg::getLdapName)).toList();
+		}
+		company.setCompanyTree(tree);
 	}
 
 	/**
@@ -128,7 +167,65 @@ public class CompanyLdapRepository extends AbstractContainerLdapRepository<Compa
 
 	@Override
 	public CompanyOrg create(final String dn, final String cn) {
-		return cacheRepository.create(super.create(dn, cn));
+		final var company = cacheRepository.create(super.create(dn, cn));
+		index.put(company);
+		return company;
+	}
+
+	/**
+	 * Re-read from LDAP the subtree of the given company with its users, and update the in-memory cache and the
+	 * database cache of these entries only. The memberships of the cached users are kept.
+	 *
+	 * @param id The cached company identifier.
+	 * @return The outcome of this refresh for each created, updated or deleted entry.
+	 */
+	public List<RefreshResult> refresh(final String id) {
+		final var dn = findById(id).getDn();
+		List<CompanyOrg> fresh;
+		try {
+			fresh = template.search(dn, newClassesFilter().encode(), newSearchControls(getReturnedAttributes()),
+					(Object ctx) -> toCompany(LdapEntryReader.of((DirContextAdapter) ctx)));
+		} catch (final NameNotFoundException e) {
+			fresh = Collections.emptyList();
+		}
+		final var freshIds = fresh.stream().map(CompanyOrg::getId).collect(Collectors.toSet());
+		final var results = new ArrayList<RefreshResult>();
+
+		// New companies, the parents first
+		fresh.forEach(this::buildLdapName);
+		fresh.stream().filter(c -> findById(c.getId()) == null).sorted(Comparator.comparing(this::depth))
+				.forEach(c -> {
+					final var company = cacheRepository.create(c);
+					index.put(company);
+					buildHierarchy(company, findAll());
+					results.add(new RefreshResult(CacheDataType.COMPANY, company.getId(), RefreshResult.Status.CREATED));
+				});
+
+		// Users of this subtree, before the deletion of their companies
+		Optional.ofNullable(userRepository).ifPresent(r -> results.addAll(r.refreshSubtree(dn)));
+
+		// Deleted companies, the children first, evicted with a single mutation
+		final var deleted = findAllInSubtree(dn).stream()
+				.filter(c -> !freshIds.contains(c.getId()) && !c.getId().equals(getQuarantineCompany()))
+				.sorted(Comparator.comparing(this::depth).reversed()).toList();
+		deleted.forEach(c -> {
+			index.removeSubtree(c.getDn());
+			results.add(new RefreshResult(CacheDataType.COMPANY, c.getId(), RefreshResult.Status.DELETED));
+		});
+		cacheRepository.delete(deleted);
+		return results;
+	}
+
+	/**
+	 * Return the amount of RDN of the given company.
+	 */
+	private int depth(final CompanyOrg company) {
+		return org.springframework.ldap.support.LdapUtils.newLdapName(company.getDn()).size();
+	}
+
+	@Override
+	protected String[] getMappedAttributes() {
+		return new String[]{"ou"};
 	}
 
 	@Override
@@ -144,31 +241,24 @@ public class CompanyLdapRepository extends AbstractContainerLdapRepository<Compa
 		context.setAttributeValue("ou", entry.getName());
 	}
 
-	/**
-	 * Remove the company from the memory cache.
-	 *
-	 * @param company The company to remove.
-	 */
-	private void removeFromJavaCache(final CompanyOrg company) {
-		// Update the raw cache
-		findAll().remove(company.getId());
-	}
-
 	@Override
 	public void delete(final CompanyOrg container) {
 
 		/*
 		 * Remove from this company, all companies within (sub LDAP DN) this company. This operation is needed since we
-		 * are not rebuilding the cache from the LDAP. This save a lot of computations.
+		 * are not rebuilding the cache from the LDAP. This save a lot of computations. The children are removed first.
 		 */
-		findAll().values().stream().filter(g -> DnUtils.equalsOrParentOf(container.getDn(), g.getDn())).toList()
-				.forEach(this::removeFromJavaCache);
+		final var subtree = new ArrayList<>(findAllInSubtree(container.getDn()).stream()
+				.filter(c -> !c.getId().equals(container.getId())).sorted(Comparator.comparing(this::depth).reversed())
+				.toList());
+		subtree.add(container);
+		index.removeSubtree(container.getDn());
 
 		// Remove recursively from LDAP the company. Anything that was not nicely cleaned will be deleted there.
 		super.unbind(container.getDn());
 
-		// Also, update the SQL cache
-		cacheRepository.delete(container);
+		// Also, update the memory and the SQL caches with a single mutation
+		cacheRepository.delete(subtree);
 	}
 
 }
@@ -0,0 +1,236 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.RootDSE;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Controls, extended operations and features advertised by the root DSE of a server. The strategies of the
+ * repositories are selected from the paging, tree delete, password modify and assertion capabilities. The sort,
+ * virtual list view, synchronization and permissive modify capabilities are reported only.
+ */
+@Slf4j
+@Getter
+public class DirectoryCapabilities {
+
+	/**
+	 * Simple paged results control, RFC 2696.
+	 */
+	public static final String PAGED_RESULTS = "1.2.840.113556.1.4.319";
+
+	/**
+	 * Server-side sort request control, RFC 2891.
+	 */
+	public static final String SORT = "1.2.840.113556.1.4.473";
+
+	/**
+	 * Virtual list view request control.
+	 */
+	public static final String VLV = "2.16.840.1.113730.3.4.9";
+
+	/**
+	 * Content synchronization request control, RFC 4533.
+	 */
+	public static final String SYNC = "1.3.6.1.4.1.4203.1.9.1.1";
+
+	/**
+	 * Active Directory directory synchronization control.
+	 */
+	public static final String DIR_SYNC = "1.2.840.113556.1.4.841";
+
+	/**
+	 * Tree delete control.
+	 */
+	public static final String TREE_DELETE = "1.2.840.113556.1.4.805";
+
+	/**
+	 * Permissive modify control.
+	 */
+	public static final String PERMISSIVE_MODIFY = "1.2.840.113556.1.4.1413";
+
+	/**
+	 * Assertion control, RFC 4528.
+	 */
+	public static final String ASSERTION = "1.3.6.1.1.12";
+
+	/**
+	 * Password modify extended operation, RFC 3062.
+	 */
+	public static final String PASSWORD_MODIFY = "1.3.6.1.4.1.4203.1.11.1";
+
+	/**
+	 * Capabilities of a server not probed: only the paged search is attempted, with a fallback on failure.
+	 */
+	public static final DirectoryCapabilities UNKNOWN = new DirectoryCapabilities(false, null, null, null, null);
+
+	/**
+	 * When <code>false</code>, the root DSE could not be read and the capabilities are guessed.
+	 */
+	private final boolean probed;
+
+	/**
+	 * Vendor name of the server, when advertised.
+	 */
+	private final String vendor;
+
+	private final Set<String> controls;
+	private final Set<String> extensions;
+	private final Set<String> features;
+
+	/**
+	 * Detected server-side referential integrity by lower case member attribute.
+	 */
+	@Getter(AccessLevel.NONE)
+	private final Map<String, Boolean> referentialIntegrity = new ConcurrentHashMap<>();
+
+	private DirectoryCapabilities(final boolean probed, final String vendor, final String[] controls,
+			final String[] extensions, final String[] features) {
+		this.probed = probed;
+		this.vendor = vendor;
+		this.controls = toSet(controls);
+		this.extensions = toSet(extensions);
+		this.features = toSet(features);
+	}
+
+	private static Set<String> toSet(final String[] values) {
+		return new TreeSet<>(Arrays.asList(ArrayUtils.nullToEmpty(values)));
+	}
+
+	/**
+	 * Return the capabilities advertised by the given root DSE.
+	 *
+	 * @param rootDse The root DSE. May be <code>null</code> when not readable.
+	 * @return The capabilities.
+	 */
+	public static DirectoryCapabilities of(final RootDSE rootDse) {
+		if (rootDse == null) {
+			return UNKNOWN;
+		}
+		return new DirectoryCapabilities(true, rootDse.getVendorName(), rootDse.getSupportedControlOIDs(),
+				rootDse.getSupportedExtendedOperationOIDs(), rootDse.getSupportedFeatureOIDs());
+	}
+
+	/**
+	 * Read the capabilities of the server accepting the writes. The replicas are expected to run the same software.
+	 *
+	 * @param client The client of the server.
+	 * @return The capabilities. {@link #UNKNOWN} when the root DSE cannot be read.
+	 */
+	public static DirectoryCapabilities probe(final UnboundIdClient client) {
+		try (var connection = client.connectWrite()) {
+			final var capabilities = of(connection.getRootDSE());
+			log.info("Directory {} supports paging={}, sort={}, vlv={}, sync={}, treeDelete={}, passwordModify={}, "
+							+ "permissiveModify={}, assertion={}", capabilities.getVendor(), capabilities.isPaging(),
+					capabilities.isSort(), capabilities.isVlv(), capabilities.isSync(), capabilities.isTreeDelete(),
+					capabilities.isPasswordModify(), capabilities.isPermissiveModify(), capabilities.isAssertion());
+			return capabilities;
+		} catch (final LDAPException e) {
+			log.info("Unable to read the root DSE, capabilities are guessed: {}", e.getMessage());
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * Return <code>true</code> when the paged search is supported, or may be supported when not probed.
+	 *
+	 * @return <code>true</code> when the paged search should be attempted.
+	 */
+	public boolean isPaging() {
+		return !probed || controls.contains(PAGED_RESULTS);
+	}
+
+	/**
+	 * Return <code>true</code> when the server-side sort is supported.
+	 *
+	 * @return <code>true</code> when the server-side sort is supported.
+	 */
+	public boolean isSort() {
+		return controls.contains(SORT);
+	}
+
+	/**
+	 * Return <code>true</code> when the virtual list view is supported. Requires the server-side sort.
+	 *
+	 * @return <code>true</code> when the virtual list view is supported.
+	 */
+	public boolean isVlv() {
+		return isSort() && controls.contains(VLV);
+	}
+
+	/**
+	 * Return <code>true</code> when a change synchronization control is supported: RFC 4533 or Active Directory.
+	 *
+	 * @return <code>true</code> when a change synchronization control is supported.
+	 */
+	public boolean isSync() {
+		return controls.contains(SYNC) || controls.contains(DIR_SYNC);
+	}
+
+	/**
+	 * Return <code>true</code> when the tree delete control is supported.
+	 *
+	 * @return <code>true</code> when the tree delete control is supported.
+	 */
+	public boolean isTreeDelete() {
+		return controls.contains(TREE_DELETE);
+	}
+
+	/**
+	 * Return <code>true</code> when the password modify extended operation is supported.
+	 *
+	 * @return <code>true</code> when the password modify extended operation is supported.
+	 */
+	public boolean isPasswordModify() {
+		return extensions.contains(PASSWORD_MODIFY);
+	}
+
+	/**
+	 * Return <code>true</code> when the permissive modify control is supported.
+	 *
+	 * @return <code>true</code> when the permissive modify control is supported.
+	 */
+	public boolean isPermissiveModify() {
+		return controls.contains(PERMISSIVE_MODIFY);
+	}
+
+	/**
+	 * Return <code>true</code> when the assertion control is supported.
+	 *
+	 * @return <code>true</code> when the assertion control is supported.
+	 */
+	public boolean isAssertion() {
+		return controls.contains(ASSERTION);
+	}
+
+	/**
+	 * Return <code>true</code> when the server rewrites by itself the member values referencing a renamed entry. The
+	 * detection is run once per member attribute for these capabilities, and at each call when they are not probed.
+	 *
+	 * @param memberAttribute The member attribute of the groups.
+	 * @param detector        The detection of the referential integrity of a member attribute, on the server.
+	 * @return <code>true</code> when the server rewrites the member values of a renamed entry.
+	 * @see ReferentialIntegrity#detect(UnboundIdClient, String)
+	 */
+	public boolean isReferentialIntegrity(final String memberAttribute, final Predicate<String> detector) {
+		if (!probed) {
+			// The server was not available, the next rebuild detects it again
+			return detector.test(memberAttribute);
+		}
+		return referentialIntegrity.computeIfAbsent(memberAttribute.toLowerCase(Locale.ENGLISH),
+				a -> detector.test(memberAttribute));
+	}
+}
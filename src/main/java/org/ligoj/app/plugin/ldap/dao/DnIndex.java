@@ -0,0 +1,217 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.ligoj.app.iam.ResourceOrg;
+import org.springframework.ldap.support.LdapUtils;
+
+import java.util.*;
+
+/**
+ * Index of resources by DN, stored as a trie of RDN from the root to the leaf. The ancestors of a DN are resolved in
+ * O(depth) and the descendants in O(subtree size), instead of a scan of all the resources.<br>
+ * The RDN are compared without case, as the DN of the cached resources.
+ *
+ * @param <T> The indexed resource type.
+ */
+public class DnIndex<T extends ResourceOrg> {
+
+	/**
+	 * A node of the trie. The value is <code>null</code> when the DN is only an intermediate level.
+	 */
+	private static class Node<T> {
+		private final Map<String, Node<T>> children = new HashMap<>();
+		private T value;
+	}
+
+	private Node<T> root = new Node<>();
+
+	private int size;
+
+	/**
+	 * Return the normalized RDN of the given DN, from the root to the leaf.
+	 */
+	private static List<String> toRdns(final String dn) {
+		return LdapUtils.newLdapName(dn).getRdns().stream().map(r -> r.toString().toLowerCase(Locale.ENGLISH)).toList();
+	}
+
+	/**
+	 * Return the node of the given DN.
+	 *
+	 * @param dn The DN to find.
+	 * @return The node, or <code>null</code> when there is no resource at or below this DN.
+	 */
+	private Node<T> find(final String dn) {
+		var node = root;
+		for (final var rdn : toRdns(dn)) {
+			node = node.children.get(rdn);
+			if (node == null) {
+				return null;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Add or replace the resource of the DN of the given resource.
+	 *
+	 * @param resource The resource to index.
+	 */
+	public synchronized void put(final T resource) {
+		var node = root;
+		for (final var rdn : toRdns(resource.getDn())) {
+			node = node.children.computeIfAbsent(rdn, k -> new Node<>());
+		}
+		if (node.value == null) {
+			size++;
+		}
+		node.value = resource;
+	}
+
+	/**
+	 * Replace all the indexed resources.
+	 *
+	 * @param resources The resources to index.
+	 */
+	public synchronized void reset(final Collection<T> resources) {
+		root = new Node<>();
+		size = 0;
+		resources.forEach(this::put);
+	}
+
+	/**
+	 * Return the resource of the given DN.
+	 *
+	 * @param dn The DN of the resource.
+	 * @return The resource or <code>null</code>.
+	 */
+	public synchronized T get(final String dn) {
+		return Optional.ofNullable(find(dn)).map(n -> n.value).orElse(null);
+	}
+
+	/**
+	 * Return the resources being equal or parent of the given DN, sorted from the root to the given DN.
+	 *
+	 * @param dn The DN of a resource, indexed or not.
+	 * @return The ancestors of this DN. May be empty.
+	 */
+	public synchronized List<T> ancestors(final String dn) {
+		final var result = new ArrayList<T>();
+		var node = root;
+		for (final var rdn : toRdns(dn)) {
+			node = node.children.get(rdn);
+			if (node == null) {
+				break;
+			}
+			if (node.value != null) {
+				result.add(node.value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the resources being equal or child of the given DN.
+	 *
+	 * @param dn The DN of the subtree.
+	 * @return The resources of this subtree, the parents before their children. May be empty.
+	 */
+	public synchronized List<T> subtree(final String dn) {
+		final var result = new ArrayList<T>();
+		Optional.ofNullable(find(dn)).ifPresent(n -> collect(n, result));
+		return result;
+	}
+
+	/**
+	 * Collect the resources of the given subtree, the parents first.
+	 */
+	private void collect(final Node<T> node, final List<T> result) {
+		final var queue = new ArrayDeque<Node<T>>();
+		queue.add(node);
+		while (!queue.isEmpty()) {
+			final var current = queue.poll();
+			if (current.value != null) {
+				result.add(current.value);
+			}
+			queue.addAll(current.children.values());
+		}
+	}
+
+	/**
+	 * Remove the resources being equal or child of the given DN.
+	 *
+	 * @param dn The DN of the subtree.
+	 * @return The removed resources, the parents before their children. May be empty.
+	 */
+	public synchronized List<T> removeSubtree(final String dn) {
+		final var rdns = toRdns(dn);
+		final var path = new ArrayList<Node<T>>();
+		var node = root;
+		for (final var rdn : rdns) {
+			path.add(node);
+			node = node.children.get(rdn);
+			if (node == null) {
+				return List.of();
+			}
+		}
+		final var result = new ArrayList<T>();
+		collect(node, result);
+		size -= result.size();
+		if (path.isEmpty()) {
+			// The whole index is removed
+			root = new Node<>();
+			return result;
+		}
+
+		// Detach the subtree and the intermediate levels without resource
+		for (var i = path.size() - 1; i >= 0; i--) {
+			final var parent = path.get(i);
+			parent.children.remove(rdns.get(i));
+			if (parent.value != null || !parent.children.isEmpty() || parent == root) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Remove the resource of the given DN, the resources of its children are kept.
+	 *
+	 * @param dn The DN of the resource.
+	 * @return The removed resource or <code>null</code>.
+	 */
+	public synchronized T remove(final String dn) {
+		final var node = find(dn);
+		if (node == null || node.value == null) {
+			return null;
+		}
+		final var value = node.value;
+		if (node.children.isEmpty()) {
+			// Also detach the intermediate levels without resource
+			removeSubtree(dn);
+		} else {
+			node.value = null;
+			size--;
+		}
+		return value;
+	}
+
+	/**
+	 * Return the amount of indexed resources.
+	 *
+	 * @return The amount of indexed resources.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Return <code>true</code> when there is no indexed resource.
+	 *
+	 * @return <code>true</code> when there is no indexed resource.
+	 */
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+}
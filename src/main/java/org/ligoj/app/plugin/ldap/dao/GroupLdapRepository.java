@@ -5,7 +5,6 @@ package org.ligoj.app.plugin.ldap.dao;
 
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.ArrayUtils;
 import org.ligoj.app.api.Normalizer;
 import org.ligoj.app.iam.GroupOrg;
 import org.ligoj.app.iam.IGroupRepository;
@@ -27,6 +26,7 @@ import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
 import java.util.*;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -48,6 +48,17 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 	private static final String DEPARTMENT_ATTRIBUTE = "businessCategory";
 	private static final int DEFAULT_GID_NUMBER = 200;
 
+	/**
+	 * Amount of membership locks. The groups sharing a lock are serialized, the other ones are updated in parallel.
+	 */
+	private static final int MEMBER_LOCKS = 64;
+
+	/**
+	 * Membership locks, striped by group identifier. Guard the check of a membership, the LDAP update and the cache
+	 * update of a group.
+	 */
+	private final Object[] memberLocks = Stream.generate(Object::new).limit(MEMBER_LOCKS).toArray();
+
 	@Autowired
 	private CacheGroupRepository cacheGroupRepository;
 
@@ -88,37 +99,63 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 	 */
 	@Override
 	public Map<String, GroupOrg> findAllNoCache() {
+		final var start = System.currentTimeMillis();
 		final var groups = new HashMap<String, GroupOrg>();
 		final var subGroupsDn = new HashMap<String, Set<String>>();
 		final var dnToGroups = new HashMap<String, GroupOrg>();
 
 		// First pass, collect the groups and dirty relationships
-		for (final var ldap : template.search(baseDn, newClassesFilter().encode(), (Object ctx) -> (DirContextAdapter) ctx)) {
-			final var members = new HashSet<String>();
-			final var dn = ldap.getDn().toString().toLowerCase(Locale.ENGLISH);
-			final var name = ldap.getStringAttribute("cn");
-			final var subGroups = new HashSet<String>();
-			for (final var memberDN : ArrayUtils.nullToEmpty(ldap.getStringAttributes(memberAttribute))) {
-				if (memberDN.startsWith("uid")) {
-					// User membership
-					members.add(memberDN);
-				} else {
-					// Group (or whatever) membership
-					subGroups.add(memberDN);
-				}
-			}
-			final var group = new GroupOrg(dn, name, members);
-			subGroupsDn.put(group.getId(), subGroups);
+		final var filter = newClassesFilter().encode();
+		final List<GroupEntry> entries;
+		if (searchClient == null) {
+			entries = template.search(baseDn, filter, newSearchControls(getReturnedAttributes()),
+					(Object ctx) -> toGroupEntry(LdapEntryReader.of((DirContextAdapter) ctx)));
+		} else {
+			entries = searchClient.search(baseDn, filter, getReturnedAttributes(), this::toGroupEntry);
+		}
+		final var fetched = System.currentTimeMillis();
+		for (final var entry : entries) {
+			final var group = entry.group;
+			subGroupsDn.put(group.getId(), entry.subGroups);
 			groups.put(group.getId(), group);
-			dnToGroups.put(dn, group);
+			dnToGroups.put(group.getDn(), group);
 		}
 
 		// Second pass to validate the subgroups and complete the opposite relation
 		updateSubGroups(groups, subGroupsDn, dnToGroups);
+		reindex(groups);
+		log.info("Groups stages: fetch and map {}ms, index and hierarchy {}ms", fetched - start,
+				System.currentTimeMillis() - fetched);
 
 		return groups;
 	}
 
+	/**
+	 * A fetched group and the DN of its members not being users.
+	 */
+	private record GroupEntry(GroupOrg group, Set<String> subGroups) {
+	}
+
+	/**
+	 * Map the given entry to a group, whatever the client library.
+	 */
+	private GroupEntry toGroupEntry(final LdapEntryReader ldap) {
+		final var members = new HashSet<String>();
+		final var dn = ldap.getDn().toLowerCase(Locale.ENGLISH);
+		final var name = ldap.getString("cn");
+		final var subGroups = new HashSet<String>();
+		for (final var memberDN : ldap.getStrings(memberAttribute)) {
+			if (memberDN.startsWith("uid")) {
+				// User membership
+				members.add(memberDN);
+			} else {
+				// Group (or whatever) membership
+				subGroups.add(memberDN);
+			}
+		}
+		return new GroupEntry(new GroupOrg(dn, name, members), subGroups);
+	}
+
 	/**
 	 * Complete the subgroups hierarchy and update the two-ways relationship
 	 */
@@ -140,8 +177,8 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 	}
 
 	/**
-	 * Delete the given group. There is no synchronized block, so error could occur; this is assumed for performance
-	 * purpose.
+	 * Delete the given group. The memberships are removed group by group, each one holding its membership lock. The
+	 * LDAP deletion and the cache eviction of the subtree hold the membership locks of all its groups.
 	 *
 	 * @param group the LDAP group.
 	 */
@@ -152,43 +189,164 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 		 * Remove from this group, all groups within (sub LDAP DN) this group. This operation is needed since we are not
 		 * rebuilding the cache from the LDAP. This save a lot of computations.
 		 */
-		for (var g : findAll().values().stream().filter(g -> DnUtils.equalsOrParentOf(group.getDn(), g.getDn())).toList()) {
-			// Remove the subgroups from LDAP
+		final var groups = findAllInSubtree(group.getDn());
+		for (var g : groups) {
+			// Remove the subgroups from LDAP, the cached instances are replaced by each change
 			final var thisGroup = findById(g.getId());
-			if (thisGroup != null) {
-				for (var child : new ArrayList<>(g.getSubGroups())) {
-					final var subGroup = findById(child);
-					if (subGroup != null) {
-						removeGroup(subGroup, g.getId());
-					}
+			if (thisGroup == null) {
+				continue;
+			}
+			for (var child : new ArrayList<>(thisGroup.getSubGroups())) {
+				final var subGroup = findById(child);
+				if (subGroup != null) {
+					removeGroup(subGroup, g.getId());
 				}
 			}
 
 			// Remove from the parent LDAP groups
-			if (g.getParent() != null && findById(g.getParent()) != null) {
-				removeGroup(g, g.getParent());
+			final var current = findById(g.getId());
+			if (current.getParent() != null && findById(current.getParent()) != null) {
+				removeGroup(current, current.getParent());
 			}
+		}
 
+		withMemberLocks(groups.stream().map(GroupOrg::getId).toList(), () -> {
 			// Remove recursively from LDAP the group. Anything that was not nicely cleaned will be deleted there.
 			unbind(group.getDn());
 
-			// Also, update the cache
-			cacheRepository.delete(group);
+			// Also, evict the whole subtree from the cache, the current instances
+			index.removeSubtree(group.getDn());
+			groups.stream().map(g -> Objects.requireNonNullElse(findById(g.getId()), g)).forEach(cacheRepository::delete);
+		});
+	}
+
+	/**
+	 * Return the identifiers of the groups having the given DN as direct member, from LDAP.
+	 *
+	 * @param dn The DN of the member, a user or a group.
+	 * @return The identifiers of the groups. Not all of them may be cached.
+	 */
+	public Set<String> findAllByMemberNoCache(final String dn) {
+		final var filter = new AndFilter().and(newClassesFilter()).and(new EqualsFilter(memberAttribute, dn));
+		return new HashSet<>(template.search(baseDn, filter.encode(), newSearchControls("cn"),
+				(Object ctx) -> Normalizer.normalize(((DirContextAdapter) ctx).getStringAttribute("cn"))));
+	}
+
+	/**
+	 * Re-read from LDAP the group of the given identifier with its members, and update the in-memory cache, the
+	 * memberships and the database cache of this group only. The members not yet cached are ignored.
+	 *
+	 * @param id The group identifier.
+	 * @return The outcome of this refresh. Empty when the group exists neither in LDAP nor in the cache.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<RefreshResult> refresh(final String id) {
+		final var filter = new AndFilter().and(newClassesFilter()).and(new EqualsFilter("cn", id));
+		final var entry = template
+				.search(baseDn, filter.encode(), newSearchControls(getReturnedAttributes()),
+						(Object ctx) -> toGroupEntry(LdapEntryReader.of((DirContextAdapter) ctx)))
+				.stream().findFirst().orElse(null);
+		final var results = new ArrayList<RefreshResult>();
+		var cached = findById(id);
+		var status = RefreshResult.Status.UNCHANGED;
+		if (cached != null && (entry == null || !cached.getDn().equals(entry.group.getDn()))) {
+			// Deleted or moved group, the moved one is created again
+			evict(cached);
+			cached = null;
+			status = RefreshResult.Status.DELETED;
+		}
+		if (entry == null) {
+			if (status == RefreshResult.Status.DELETED) {
+				results.add(new RefreshResult(CacheDataType.GROUP, id, status));
+			}
+			return results;
+		}
+		final GroupOrg group;
+		if (cached == null) {
+			group = cacheRepository.create(new GroupOrg(entry.group.getDn(), entry.group.getName(), new HashSet<>()));
+			index.put(group);
+			status = status == RefreshResult.Status.DELETED ? RefreshResult.Status.UPDATED : RefreshResult.Status.CREATED;
+		} else {
+			group = cached;
+		}
+
+		// User members
+		final var users = (Map<String, UserOrg>) cacheRepository.getData().get(CacheDataType.USER);
+		final var members = entry.group.getMembers().stream().map(DnUtils::toRdn).collect(Collectors.toSet());
+		final var current = new HashSet<>(group.getMembers());
+		final var added = members.stream().filter(m -> !current.contains(m)).map(users::get).filter(Objects::nonNull).toList();
+		final var removed = current.stream().filter(m -> !members.contains(m)).map(users::get).filter(Objects::nonNull).toList();
+		added.forEach(u -> cacheRepository.addUserToGroup(u, group));
+		removed.forEach(u -> cacheRepository.removeUserFromGroup(u, group));
+
+		// Group members and parent
+		final var groups = findAll();
+		final var subGroups = entry.subGroups.stream().map(Normalizer::normalize).map(this::findByDn)
+				.filter(Objects::nonNull).map(GroupOrg::getId).collect(Collectors.toSet());
+		final var addedGroups = subGroups.stream().filter(g -> !group.getSubGroups().contains(g)).map(groups::get).toList();
+		final var removedGroups = group.getSubGroups().stream().filter(g -> !subGroups.contains(g)).map(groups::get)
+				.filter(Objects::nonNull).toList();
+		addedGroups.forEach(g -> cacheRepository.addGroupToGroup(g, group));
+		removedGroups.forEach(g -> cacheRepository.removeGroupFromGroup(g, group));
+		final var parents = findAllByMemberNoCache(group.getDn());
+		final var parent = group.getParent();
+		final var oldParent = Optional.ofNullable(parent).filter(p -> !parents.contains(p)).map(groups::get);
+		oldParent.ifPresent(p -> cacheRepository.removeGroupFromGroup(group, p));
+		final var newParent = parent != null && parents.contains(parent) ? Optional.<GroupOrg>empty()
+				: parents.stream().map(groups::get).filter(Objects::nonNull).findFirst();
+		newParent.ifPresent(p -> cacheRepository.addGroupToGroup(group, p));
+
+		if (status == RefreshResult.Status.UNCHANGED && (!added.isEmpty() || !removed.isEmpty() || !addedGroups.isEmpty()
+				|| !removedGroups.isEmpty() || oldParent.isPresent() || newParent.isPresent())) {
+			status = RefreshResult.Status.UPDATED;
 		}
+		results.add(new RefreshResult(CacheDataType.GROUP, group.getId(), status));
+		return results;
+	}
+
+	/**
+	 * Return the cached group of the given normalized DN.
+	 */
+	private GroupOrg findByDn(final String dn) {
+		final var indexed = index.get(dn);
+		if (indexed != null && indexed == findAll().get(indexed.getId())) {
+			return indexed;
+		}
+		return findAll().values().stream().filter(g -> g.getDn().equals(dn)).findFirst().orElse(null);
+	}
+
+	/**
+	 * Evict from the caches the given group and its memberships. LDAP is not updated.
+	 */
+	@SuppressWarnings("unchecked")
+	private void evict(final GroupOrg group) {
+		final var groups = findAll();
+		new ArrayList<>(group.getSubGroups()).stream().map(groups::get).filter(Objects::nonNull)
+				.forEach(g -> cacheRepository.removeGroupFromGroup(g, group));
+		Optional.ofNullable(group.getParent()).map(groups::get).ifPresent(p -> cacheRepository.removeGroupFromGroup(group, p));
+		cacheRepository.empty(group, (Map<String, UserOrg>) cacheRepository.getData().get(CacheDataType.USER));
+		index.removeSubtree(group.getDn());
+		cacheRepository.delete(group);
 	}
 
 	@Override
 	public void empty(final GroupOrg group, final Map<String, UserOrg> users) {
-		cacheRepository.empty(group, users);
+		synchronized (getMemberLock(group.getId())) {
+			// The given instance may have been replaced by a membership change
+			Optional.ofNullable(findById(group.getId())).ifPresent(g -> cacheRepository.empty(g, users));
+		}
 	}
 
 	@Override
 	public GroupOrg create(final String dn, final String cn) {
-		return cacheRepository.create(super.create(dn, cn));
+		final var group = cacheRepository.create(super.create(dn, cn));
+		index.put(group);
+		return group;
 	}
 
 	/**
-	 * Add an "uniqueMember" to given group. Cache is not updated there.
+	 * Add an "uniqueMember" to given group. Cache is not updated there. The caller holds the membership lock of the
+	 * group.
 	 *
 	 * @param element The new member to add.
 	 * @param group   CN of the group to update. Must be normalized.
@@ -211,30 +369,109 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 	 * @param group             CN of the group to update.
 	 */
 	public void updateMemberDn(final String group, final String oldUniqueMemberDn, final String newUniqueMemberDn) {
-		final var groupLdap = findById(group);
+		synchronized (getMemberLock(group)) {
+			final var groupLdap = findById(group);
+			drain(groupLdap.getDn());
+			template.modifyAttributes(org.springframework.ldap.support.LdapUtils.newLdapName(groupLdap.getDn()),
+					newUpdateMemberDn(oldUniqueMemberDn, newUniqueMemberDn));
+		}
+	}
+
+	/**
+	 * Update the uniqueMember attribute of the user having changed DN in several groups. When the pipelined writes are
+	 * enabled, the modifications are sent without waiting for each response. Cache is not updated since.
+	 *
+	 * @param groups            CN of the groups to update.
+	 * @param oldUniqueMemberDn Old DN of the member to update.
+	 * @param newUniqueMemberDn New DN of the member to update. UID of the DN should unchanged.
+	 */
+	public void updateMemberDn(final Collection<String> groups, final String oldUniqueMemberDn, final String newUniqueMemberDn) {
+		if (writeClient == null || groups.size() < 2) {
+			groups.forEach(g -> updateMemberDn(g, oldUniqueMemberDn, newUniqueMemberDn));
+			return;
+		}
+		withMemberLocks(groups, () -> {
+			groups.forEach(g -> drain(findById(g).getDn()));
+			pinReads(0);
+			try (var pipeline = writeClient.pipeline()) {
+				groups.forEach(g -> pipeline.modify(findById(g).getDn(), newUpdateMemberDn(oldUniqueMemberDn, newUniqueMemberDn)));
+				pipeline.await();
+			}
+		});
+	}
+
+	/**
+	 * Return the modifications replacing a member DN by another one.
+	 *
+	 * @param oldUniqueMemberDn Old DN of the member.
+	 * @param newUniqueMemberDn New DN of the member.
+	 * @return The modifications to apply to a group.
+	 */
+	ModificationItem[] newUpdateMemberDn(final String oldUniqueMemberDn, final String newUniqueMemberDn) {
 		final var mods = new ModificationItem[2];
 		mods[0] = new ModificationItem(DirContext.REMOVE_ATTRIBUTE,
 				new BasicAttribute(memberAttribute, oldUniqueMemberDn));
 		mods[1] = new ModificationItem(DirContext.ADD_ATTRIBUTE, new BasicAttribute(memberAttribute, newUniqueMemberDn));
-		template.modifyAttributes(org.springframework.ldap.support.LdapUtils.newLdapName(groupLdap.getDn()), mods);
+		return mods;
+	}
+
+	/**
+	 * Return the membership lock of the given group.
+	 *
+	 * @param group CN of the group. Must be normalized.
+	 * @return The lock shared by the groups of the same stripe.
+	 */
+	Object getMemberLock(final String group) {
+		return memberLocks[getMemberStripe(group)];
+	}
+
+	private int getMemberStripe(final String group) {
+		return Math.floorMod(group.hashCode(), MEMBER_LOCKS);
+	}
+
+	/**
+	 * Run the given task holding the membership locks of the given groups. The locks are taken in the order of their
+	 * stripe, so the concurrent tasks sharing some of them do not deadlock.
+	 *
+	 * @param groups CN of the groups. Must be normalized.
+	 * @param task   The task to run.
+	 */
+	void withMemberLocks(final Collection<String> groups, final Runnable task) {
+		withMemberLocks(groups.stream().mapToInt(this::getMemberStripe).distinct().sorted().toArray(), 0, task);
+	}
+
+	private void withMemberLocks(final int[] stripes, final int index, final Runnable task) {
+		if (index == stripes.length) {
+			task.run();
+			return;
+		}
+		synchronized (memberLocks[stripes[index]]) {
+			withMemberLocks(stripes, index + 1, task);
+		}
 	}
 
 	@Override
 	public void addUser(final UserOrg user, final String group) {
-		// Add to Java cache and to SQL cache
-		cacheRepository.addUserToGroup(user, addMember(user, group));
+		synchronized (getMemberLock(group)) {
+			// Add to Java cache and to SQL cache
+			cacheRepository.addUserToGroup(user, addMember(user, group));
+		}
 	}
 
 	@Override
 	public void addGroup(final GroupOrg subGroup, final String toGroup) {
-		// Add to Java cache and to SQL cache
-		cacheRepository.addGroupToGroup(subGroup, addMember(subGroup, toGroup));
+		synchronized (getMemberLock(toGroup)) {
+			// Add to Java cache and to SQL cache
+			cacheRepository.addGroupToGroup(subGroup, addMember(subGroup, toGroup));
+		}
 	}
 
 	@Override
 	public void removeUser(final UserOrg user, final String group) {
-		// Remove from Java cache and from SQL cache
-		cacheRepository.removeUserFromGroup(user, removeMember(user, group));
+		synchronized (getMemberLock(group)) {
+			// Remove from Java cache and from SQL cache
+			cacheRepository.removeUserFromGroup(user, removeMember(user, group));
+		}
 	}
 
 	/**
@@ -244,12 +481,15 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 	 * @param group    CN of the group to update.
 	 */
 	public void removeGroup(final GroupOrg subGroup, final String group) {
-		// Remove from Java cache and from SQL cache
-		cacheRepository.removeGroupFromGroup(subGroup, removeMember(subGroup, group));
+		synchronized (getMemberLock(group)) {
+			// Remove from Java cache and from SQL cache
+			cacheRepository.removeGroupFromGroup(subGroup, removeMember(subGroup, group));
+		}
 	}
 
 	/**
-	 * Remove an "uniqueMember" from given group. Cache is not updated there.
+	 * Remove an "uniqueMember" from given group. Cache is not updated there. The caller holds the membership lock of
+	 * the group.
 	 *
 	 * @param uniqueMember DN of the member to remove.
 	 * @param group        CN of the group to update. Must be normalized.
@@ -264,6 +504,7 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 			mods[0] = new ModificationItem(DirContext.REMOVE_ATTRIBUTE,
 					new BasicAttribute(memberAttribute, uniqueMember.getDn()));
 			try {
+				drain(groupLdap.getDn());
 				template.modifyAttributes(org.springframework.ldap.support.LdapUtils.newLdapName(groupLdap.getDn()),
 						mods);
 			} catch (final org.springframework.ldap.AttributeInUseException inUseEx) {
@@ -301,6 +542,11 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 		}
 	}
 
+	@Override
+	protected String[] getMappedAttributes() {
+		return new String[]{"cn", memberAttribute};
+	}
+
 	@Override
 	protected GroupOrg newContainer(final String dn, final String cn) {
 		return new GroupOrg(dn.toLowerCase(Locale.ENGLISH), cn, new HashSet<>());
@@ -319,7 +565,7 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 				.toArray(ModificationItem[]::new);
 		try {
 			// Perform the addition
-			template.modifyAttributes(org.springframework.ldap.support.LdapUtils.newLdapName(dn), mods);
+			modify(dn, mods);
 		} catch (final org.springframework.ldap.AttributeInUseException inUseEx) {
 			if (!inUseEx.getMessage().matches(".*(value #0 already exists|error code 20|ATTRIBUTE_OR_VALUE_EXISTS).*")) {
 				throw inUseEx;
@@ -331,8 +577,8 @@ public class GroupLdapRepository extends AbstractContainerLdapRepository<GroupOr
 	@Override
 	public GroupOrg findByDepartment(final String department) {
 		final var filter = new AndFilter().and(newClassesFilter()).and(new EqualsFilter(DEPARTMENT_ATTRIBUTE, department));
-		return template.search(baseDn, filter.encode(), (Object ctx) -> (DirContextAdapter) ctx).stream()
-				.findFirst().map(c -> c.getStringAttribute("cn")).map(Normalizer::normalize).map(this::findById)
+		return template.search(baseDn, filter.encode(), newSearchControls("cn"), (Object ctx) -> (DirContextAdapter) ctx)
+				.stream().findFirst().map(c -> c.getStringAttribute("cn")).map(Normalizer::normalize).map(this::findById)
 				.orElse(null);
 	}
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.springframework.ldap.core.DirContextOperations;
+
+/**
+ * Read-only view of a fetched LDAP entry, independent of the client library.
+ */
+public interface LdapEntryReader {
+
+	/**
+	 * Return the DN of this entry, relative to the base DN of the server.
+	 *
+	 * @return The DN of this entry.
+	 */
+	String getDn();
+
+	/**
+	 * Return the first value of the given attribute.
+	 *
+	 * @param attribute The attribute name.
+	 * @return The first value, or <code>null</code> when the attribute is not present.
+	 */
+	String getString(String attribute);
+
+	/**
+	 * Return all values of the given attribute.
+	 *
+	 * @param attribute The attribute name.
+	 * @return The values. Empty when the attribute is not present.
+	 */
+	String[] getStrings(String attribute);
+
+	/**
+	 * Indicates the given attribute is present.
+	 *
+	 * @param attribute The attribute name.
+	 * @return <code>true</code> when the given attribute is present.
+	 */
+	boolean has(String attribute);
+
+	/**
+	 * Return a reader of the given Spring LDAP context.
+	 *
+	 * @param context The context of a fetched entry.
+	 * @return The reader of the given context.
+	 */
+	static LdapEntryReader of(final DirContextOperations context) {
+		return new LdapEntryReader() {
+			@Override
+			public String getDn() {
+				return context.getDn().toString();
+			}
+
+			@Override
+			public String getString(final String attribute) {
+				return context.getStringAttribute(attribute);
+			}
+
+			@Override
+			public String[] getStrings(final String attribute) {
+				return ArrayUtils.nullToEmpty(context.getStringAttributes(attribute));
+			}
+
+			@Override
+			public boolean has(final String attribute) {
+				return context.attributeExists(attribute);
+			}
+		};
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ldap.CommunicationException;
+import org.springframework.ldap.ServiceUnavailableException;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.support.LdapUtils;
+
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapContext;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Context source spreading the connections over several equivalent LDAP servers. A server failing to provide a
+ * connection is ejected immediately and the next server is tried within the same call. An ejected server is probed
+ * again in background once the retry delay is elapsed, and comes back in the rotation when this probe succeeds.
+ */
+@Slf4j
+public class LoadBalancedContextSource implements ContextSource, AutoCloseable {
+
+	/**
+	 * Server selection strategy.
+	 */
+	public enum Strategy {
+		/**
+		 * The first healthy server in the configured order.
+		 */
+		FAILOVER,
+
+		/**
+		 * Each healthy server in turn.
+		 */
+		ROUND_ROBIN,
+
+		/**
+		 * The healthy server having the fewest open connections.
+		 */
+		FEWEST_CONNECTIONS
+	}
+
+	/**
+	 * A server and its health state.
+	 */
+	@Getter
+	public static final class Server {
+		private final String url;
+		private final ContextSource source;
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicBoolean probing = new AtomicBoolean();
+
+		/**
+		 * Time stamp until this server is excluded from the rotation. <code>0</code> when healthy.
+		 */
+		private volatile long ejectedUntil;
+
+		private Server(final String url, final ContextSource source) {
+			this.url = url;
+			this.source = source;
+		}
+
+		/**
+		 * Indicates this server is in the rotation.
+		 *
+		 * @return <code>true</code> when this server is in the rotation.
+		 */
+		public boolean isHealthy() {
+			return ejectedUntil == 0;
+		}
+	}
+
+	/**
+	 * Servers in the configured order.
+	 */
+	@Getter
+	private final List<Server> servers;
+
+	@Getter
+	private final Strategy strategy;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Delay in milliseconds before probing an ejected server.
+	 */
+	@Setter
+	private long retryDelay = 30_000;
+
+	/**
+	 * Constructor with the servers and the selection strategy.
+	 *
+	 * @param sources  The context sources of each server. Key is the URL, the order is preserved.
+	 * @param strategy The server selection strategy.
+	 */
+	public LoadBalancedContextSource(final Map<String, ContextSource> sources, final Strategy strategy) {
+		this.servers = sources.entrySet().stream().map(e -> new Server(e.getKey(), e.getValue())).toList();
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Close the pools of all servers.
+	 */
+	@Override
+	public void close() {
+		servers.forEach(s -> PooledContextSource.closeSource(s.getSource()));
+	}
+
+	@Override
+	public DirContext getReadOnlyContext() {
+		return getContext(ContextSource::getReadOnlyContext);
+	}
+
+	@Override
+	public DirContext getReadWriteContext() {
+		return getContext(ContextSource::getReadWriteContext);
+	}
+
+	@Override
+	public DirContext getContext(final String principal, final String credentials) {
+		return getContext(s -> s.getContext(principal, credentials));
+	}
+
+	/**
+	 * Open a context on the first available server. Only the communication failures eject a server.
+	 */
+	private DirContext getContext(final Function<ContextSource, DirContext> opener) {
+		RuntimeException last = null;
+		for (final var server : candidates()) {
+			try {
+				final var context = opener.apply(server.source);
+				if (strategy == Strategy.FEWEST_CONNECTIONS) {
+					return track(context, server);
+				}
+				return context;
+			} catch (final CommunicationException | ServiceUnavailableException e) {
+				eject(server, e);
+				last = e;
+			}
+		}
+		throw last;
+	}
+
+	/**
+	 * Return the servers to try in order: the healthy ones ordered by the strategy, then the ejected ones as the last
+	 * resort.
+	 */
+	private List<Server> candidates() {
+		final var now = System.currentTimeMillis();
+		final var healthy = new ArrayList<Server>(servers.size());
+		final var ejected = new ArrayList<Server>();
+		for (final var server : servers) {
+			if (server.isHealthy()) {
+				healthy.add(server);
+			} else {
+				if (server.ejectedUntil <= now) {
+					probe(server);
+				}
+				ejected.add(server);
+			}
+		}
+		if (strategy == Strategy.ROUND_ROBIN && !healthy.isEmpty()) {
+			Collections.rotate(healthy, -Math.floorMod(next.getAndIncrement(), healthy.size()));
+		} else if (strategy == Strategy.FEWEST_CONNECTIONS) {
+			healthy.sort(Comparator.comparingInt(s -> s.active.get()));
+		}
+		healthy.addAll(ejected);
+		return healthy;
+	}
+
+	/**
+	 * Exclude the given server from the rotation until the retry delay is elapsed.
+	 */
+	private void eject(final Server server, final Exception e) {
+		if (server.isHealthy()) {
+			log.warn("LDAP server {} is ejected for {}ms: {}", server.url, retryDelay, e.getMessage());
+		}
+		server.ejectedUntil = System.currentTimeMillis() + retryDelay;
+	}
+
+	/**
+	 * Check in background the given ejected server and put it back in the rotation when it succeeds.
+	 */
+	private void probe(final Server server) {
+		if (server.probing.compareAndSet(false, true)) {
+			CompletableFuture.runAsync(() -> {
+				try {
+					LdapUtils.closeContext(server.source.getReadOnlyContext());
+					server.ejectedUntil = 0;
+					log.info("LDAP server {} is back in the rotation", server.url);
+				} catch (final RuntimeException e) {
+					server.ejectedUntil = System.currentTimeMillis() + retryDelay;
+					log.info("LDAP server {} is still unavailable: {}", server.url, e.getMessage());
+				} finally {
+					server.probing.set(false);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Wrap the given context to count the open connections of the given server.
+	 */
+	private DirContext track(final DirContext context, final Server server) {
+		server.active.incrementAndGet();
+		final var closed = new AtomicBoolean();
+		final var interfaces = context instanceof LdapContext ? new Class<?>[]{LdapContext.class} : new Class<?>[]{DirContext.class};
+		return (DirContext) Proxy.newProxyInstance(getClass().getClassLoader(), interfaces, (proxy, method, args) -> {
+			if ("close".equals(method.getName()) && closed.compareAndSet(false, true)) {
+				server.active.decrementAndGet();
+			}
+			try {
+				return method.invoke(context, args);
+			} catch (final InvocationTargetException e) {
+				throw e.getCause();
+			}
+		});
+	}
+}
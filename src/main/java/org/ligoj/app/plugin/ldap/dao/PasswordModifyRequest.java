@@ -0,0 +1,67 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.unboundid.ldap.sdk.extensions.PasswordModifyExtendedRequest;
+
+import javax.naming.ldap.ExtendedRequest;
+import javax.naming.ldap.ExtendedResponse;
+import java.io.Serial;
+import java.util.Arrays;
+
+/**
+ * JNDI request of the Password Modify extended operation, RFC 3062. The server checks the old password when
+ * provided, applies its password policy and hashes the new password.
+ */
+public class PasswordModifyRequest implements ExtendedRequest {
+
+	@Serial
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * BER encoded value of the request.
+	 */
+	private final byte[] value;
+
+	/**
+	 * Constructor with the password change.
+	 *
+	 * @param dn          The absolute DN of the user.
+	 * @param oldPassword The current password of the user. When <code>null</code>, the password is reset.
+	 * @param newPassword The new password.
+	 */
+	public PasswordModifyRequest(final String dn, final String oldPassword, final String newPassword) {
+		this.value = new PasswordModifyExtendedRequest(dn, oldPassword, newPassword).getValue().getValue();
+	}
+
+	@Override
+	public String getID() {
+		return PasswordModifyExtendedRequest.PASSWORD_MODIFY_REQUEST_OID;
+	}
+
+	@Override
+	public byte[] getEncodedValue() {
+		return value.clone();
+	}
+
+	@Override
+	public ExtendedResponse createExtendedResponse(final String id, final byte[] berValue, final int offset,
+			final int length) {
+		final var response = berValue == null ? null : Arrays.copyOfRange(berValue, offset, offset + length);
+		return new ExtendedResponse() {
+			@Serial
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public String getID() {
+				return id;
+			}
+
+			@Override
+			public byte[] getEncodedValue() {
+				return response;
+			}
+		};
+	}
+}
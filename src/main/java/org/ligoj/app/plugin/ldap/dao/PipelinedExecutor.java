@@ -0,0 +1,233 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.unboundid.ldap.sdk.*;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ldap.UncategorizedLdapException;
+
+import javax.naming.directory.ModificationItem;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Send several LDAP operations on a single connection without waiting for each response. The operations targeting the
+ * same DN are sent in the submission order, each one after the response of the previous one. The amount of
+ * outstanding operations is bounded, so a bulk job is limited by the server throughput rather than by the round-trip
+ * latency.<br>
+ * The DN given to this executor are relative to the base DN of the server.
+ */
+@Slf4j
+public class PipelinedExecutor implements AutoCloseable {
+
+	/**
+	 * An operation to send asynchronously.
+	 */
+	@FunctionalInterface
+	private interface Operation {
+		AsyncRequestID send(LDAPConnection connection, AsyncResultListener listener) throws LDAPException;
+	}
+
+	/**
+	 * A submitted operation and its completion.
+	 */
+	private record Pending(Operation operation, CompletableFuture<LDAPResult> future) {
+	}
+
+	private final LDAPConnection connection;
+	private final UnboundIdClient client;
+
+	/**
+	 * Limit of the operations sent without response.
+	 */
+	private final Semaphore outstanding;
+
+	/**
+	 * Operations waiting for the completion of a previous operation of the same DN. The presence of a key means an
+	 * operation of this DN is in progress.
+	 */
+	private final Map<String, Deque<Pending>> queues = new HashMap<>();
+
+	/**
+	 * All submitted operations.
+	 */
+	private final List<CompletableFuture<LDAPResult>> submitted = new ArrayList<>();
+
+	/**
+	 * Constructor with the connection used for all operations.
+	 *
+	 * @param connection The connection to use. Released to the client with this executor.
+	 * @param client     The client owning the connection, used to resolve the DN and to release the connection.
+	 * @param depth      The maximal amount of outstanding operations.
+	 */
+	public PipelinedExecutor(final LDAPConnection connection, final UnboundIdClient client, final int depth) {
+		this.connection = connection;
+		this.client = client;
+		this.outstanding = new Semaphore(Math.max(1, depth));
+	}
+
+	/**
+	 * Submit a modification of the given entry.
+	 *
+	 * @param dn            The DN of the entry to modify.
+	 * @param modifications The modifications to apply in a single request.
+	 * @return The completion of this operation.
+	 */
+	public CompletableFuture<LDAPResult> modify(final String dn, final ModificationItem... modifications) {
+		final var request = new ModifyRequest(client.toAbsolute(dn), UnboundIdClient.toModifications(modifications));
+		return submit(dn, (c, l) -> c.asyncModify(request, l));
+	}
+
+	/**
+	 * Submit a rename of the given entry. The old RDN value is removed.
+	 *
+	 * @param dn    The DN of the entry to rename.
+	 * @param newDn The new DN of the entry.
+	 * @return The completion of this operation.
+	 */
+	public CompletableFuture<LDAPResult> rename(final String dn, final String newDn) {
+		final var target = UnboundIdClient.toDn(client.toAbsolute(newDn));
+		final var request = new ModifyDNRequest(client.toAbsolute(dn), target.getRDNString(), true, target.getParentString());
+		return submit(dn, (c, l) -> c.asyncModifyDN(request, l));
+	}
+
+	/**
+	 * Submit a deletion of the given leaf entry.
+	 *
+	 * @param dn The DN of the entry to delete.
+	 * @return The completion of this operation.
+	 */
+	public CompletableFuture<LDAPResult> delete(final String dn) {
+		final var request = new DeleteRequest(client.toAbsolute(dn));
+		return submit(dn, (c, l) -> c.asyncDelete(request, l));
+	}
+
+	/**
+	 * Submit an operation, sent immediately when there is no pending operation of the same DN.
+	 */
+	private CompletableFuture<LDAPResult> submit(final String dn, final Operation operation) {
+		final var pending = new Pending(operation, new CompletableFuture<>());
+		final var key = dn.toLowerCase(Locale.ENGLISH);
+		synchronized (queues) {
+			submitted.add(pending.future);
+			final var queue = queues.get(key);
+			if (queue != null) {
+				// Will be sent after the previous operation of this DN
+				queue.add(pending);
+				return pending.future;
+			}
+			queues.put(key, new ArrayDeque<>());
+		}
+		try {
+			outstanding.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort(key, pending, new LDAPException(ResultCode.INTERRUPTED, e));
+			return pending.future;
+		}
+		send(key, pending);
+		return pending.future;
+	}
+
+	/**
+	 * Send the given operation. On response, the next operation of the same DN reuses the permit.
+	 */
+	private void send(final String key, final Pending pending) {
+		try {
+			pending.operation.send(connection, (id, result) -> {
+				if (ResultCode.SUCCESS.equals(result.getResultCode())) {
+					pending.future.complete(result);
+				} else {
+					pending.future.completeExceptionally(new LDAPException(result));
+				}
+				next(key);
+			});
+		} catch (final LDAPException e) {
+			fail(key, pending, e);
+		}
+	}
+
+	/**
+	 * Fail the given operation and the queued ones of the same DN, without permit to release.
+	 */
+	private void abort(final String key, final Pending pending, final LDAPException e) {
+		final Deque<Pending> queue;
+		synchronized (queues) {
+			queue = queues.remove(key);
+		}
+		pending.future.completeExceptionally(e);
+		queue.forEach(p -> p.future.completeExceptionally(e));
+	}
+
+	private void fail(final String key, final Pending pending, final LDAPException e) {
+		pending.future.completeExceptionally(e);
+		next(key);
+	}
+
+	/**
+	 * Send the next operation of the given DN, or release the permit.
+	 */
+	private void next(final String key) {
+		final Pending next;
+		synchronized (queues) {
+			next = queues.get(key).poll();
+			if (next == null) {
+				queues.remove(key);
+			}
+		}
+		if (next == null) {
+			outstanding.release();
+		} else {
+			send(key, next);
+		}
+	}
+
+	/**
+	 * Wait for the completion of all submitted operations.
+	 *
+	 * @throws UncategorizedLdapException When at least one operation failed.
+	 */
+	public void await() {
+		final List<CompletableFuture<LDAPResult>> futures;
+		synchronized (queues) {
+			futures = new ArrayList<>(submitted);
+			submitted.clear();
+		}
+		Throwable first = null;
+		var failures = 0;
+		for (final var future : futures) {
+			try {
+				future.get();
+			} catch (final ExecutionException e) {
+				failures++;
+				first = Objects.requireNonNullElse(first, e.getCause());
+				log.info("Pipelined LDAP operation failed: {}", e.getCause().getMessage());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new UncategorizedLdapException("Interrupted pipelined LDAP operations", e);
+			}
+		}
+		if (first != null) {
+			throw new UncategorizedLdapException(failures + "/" + futures.size() + " pipelined LDAP operations failed", first);
+		}
+	}
+
+	/**
+	 * Wait for the pending operations, then release the connection to its client.
+	 */
+	@Override
+	public void close() {
+		final CompletableFuture<?>[] futures;
+		synchronized (queues) {
+			futures = submitted.toArray(CompletableFuture[]::new);
+		}
+		try {
+			CompletableFuture.allOf(futures).exceptionally(e -> null).join();
+		} finally {
+			client.release(connection);
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.ldap.UncategorizedLdapException;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.support.LdapUtils;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.LdapContext;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of the shared LDAP connections of a server. A borrowed context is returned to the pool when it is
+ * closed. A connection whose identity has been changed, or which has failed, is closed instead of being reused.<br>
+ * There is no eviction thread: the idle connections are evicted when the pool is used.
+ */
+@Slf4j
+public class PooledContextSource implements ContextSource, AutoCloseable {
+
+	/**
+	 * Environment properties changing the identity of a connection.
+	 */
+	private static final Set<String> IDENTITY_PROPERTIES = Set.of(Context.SECURITY_PRINCIPAL, Context.SECURITY_CREDENTIALS,
+			Context.SECURITY_AUTHENTICATION);
+
+	/**
+	 * Pool statistics.
+	 *
+	 * @param active    Amount of borrowed connections.
+	 * @param idle      Amount of idle connections.
+	 * @param waiting   Amount of threads waiting for a connection.
+	 * @param created   Amount of opened connections since the creation of this pool.
+	 * @param destroyed Amount of closed connections since the creation of this pool.
+	 * @param timeouts  Amount of borrows having failed after the wait timeout since the creation of this pool.
+	 */
+	public record Statistics(int active, int idle, int waiting, long created, long destroyed, long timeouts) {
+	}
+
+	/**
+	 * An idle connection.
+	 */
+	private record Idle(DirContext context, long since) {
+	}
+
+	/**
+	 * Pool name, used in the logs and in the statistics.
+	 */
+	@Getter
+	private final String name;
+
+	/**
+	 * Source of the pooled connections.
+	 */
+	private final ContextSource source;
+
+	/**
+	 * Maximal amount of borrowed connections.
+	 */
+	@Getter
+	private final int maxTotal;
+
+	private final Semaphore permits;
+	private final Deque<Idle> idleReadOnly = new ConcurrentLinkedDeque<>();
+	private final Deque<Idle> idleReadWrite = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * Minimal amount of idle connections kept by the eviction, and opened by {@link #warmUp()}.
+	 */
+	@Setter
+	@Getter
+	private int minIdle = 0;
+
+	/**
+	 * Delay in milliseconds after which an idle connection is evicted.
+	 */
+	@Setter
+	@Getter
+	private long idleTimeout = 300_000;
+
+	/**
+	 * Maximal delay in milliseconds to wait for a connection when all of them are borrowed.
+	 */
+	@Setter
+	@Getter
+	private long maxWait = 10_000;
+
+	/**
+	 * Search filter validating an idle connection before lending it, with an object scope on the base DN. When
+	 * <code>null</code>, the connections are not validated.
+	 */
+	@Setter
+	@Getter
+	private String validationFilter;
+
+	/**
+	 * When <code>true</code>, this pool is closed and the returned connections are closed instead of being kept idle.
+	 */
+	@Getter
+	private volatile boolean closed;
+
+	/**
+	 * Constructor with the source of the connections.
+	 *
+	 * @param name     The pool name, used in the logs and in the statistics.
+	 * @param source   The source of the pooled connections. Should not pool itself the connections.
+	 * @param maxTotal The maximal amount of borrowed connections.
+	 */
+	public PooledContextSource(final String name, final ContextSource source, final int maxTotal) {
+		this.name = name;
+		this.source = source;
+		this.maxTotal = maxTotal;
+		this.permits = new Semaphore(maxTotal, true);
+	}
+
+	@Override
+	public DirContext getReadOnlyContext() {
+		return borrow(true);
+	}
+
+	@Override
+	public DirContext getReadWriteContext() {
+		return borrow(false);
+	}
+
+	@Override
+	public DirContext getContext(final String principal, final String credentials) {
+		// Authenticated connections are never shared
+		return source.getContext(principal, credentials);
+	}
+
+	/**
+	 * Return the current statistics of this pool.
+	 *
+	 * @return The current statistics of this pool.
+	 */
+	public Statistics getStatistics() {
+		return new Statistics(active.get(), idleReadOnly.size() + idleReadWrite.size(), permits.getQueueLength(),
+				created.get(), destroyed.get(), timeouts.get());
+	}
+
+	/**
+	 * Open the missing idle connections up to the minimal amount of idle connections, so the first requests do not pay
+	 * the connection cost. A failure is logged and leaves the pool partially filled.
+	 */
+	public void warmUp() {
+		final var missing = Math.min(minIdle, maxTotal) - idleReadOnly.size() - idleReadWrite.size();
+		for (var i = 0; i < missing; i++) {
+			try {
+				idleReadOnly.offerFirst(new Idle(source.getReadOnlyContext(), System.currentTimeMillis()));
+				created.incrementAndGet();
+			} catch (final RuntimeException e) {
+				log.info("LDAP pool {} warmed up with {} connections: {}", name, i, e.getMessage());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Borrow an idle valid connection, or open a new one.
+	 */
+	private DirContext borrow(final boolean readOnly) {
+		acquire();
+		try {
+			evict();
+			final var idle = readOnly ? idleReadOnly : idleReadWrite;
+			Idle entry;
+			while ((entry = idle.pollFirst()) != null) {
+				if (isValid(entry.context)) {
+					return lend(entry.context, readOnly);
+				}
+				destroy(entry.context);
+			}
+			final var context = readOnly ? source.getReadOnlyContext() : source.getReadWriteContext();
+			created.incrementAndGet();
+			return lend(context, readOnly);
+		} catch (final RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait for an available connection slot.
+	 */
+	private void acquire() {
+		try {
+			if (permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		timeouts.incrementAndGet();
+		throw new UncategorizedLdapException("No available LDAP connection in pool " + name + " after " + maxWait + "ms");
+	}
+
+	/**
+	 * Check the given idle connection is still usable.
+	 */
+	private boolean isValid(final DirContext context) {
+		if (StringUtils.isEmpty(validationFilter)) {
+			return true;
+		}
+		final var controls = new SearchControls(SearchControls.OBJECT_SCOPE, 1, 0, new String[0], false, false);
+		try {
+			context.search("", validationFilter, controls).close();
+			return true;
+		} catch (final NamingException e) {
+			log.info("LDAP connection of pool {} discarded: {}", name, e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Close the connections idle for too long, keeping at least the minimal amount of idle connections.
+	 */
+	private void evict() {
+		final var limit = System.currentTimeMillis() - idleTimeout;
+		evict(idleReadOnly, limit);
+		evict(idleReadWrite, limit);
+	}
+
+	private void evict(final Deque<Idle> idle, final long limit) {
+		// The oldest idle connections are the last ones
+		final Iterator<Idle> iterator = idle.descendingIterator();
+		while (iterator.hasNext() && idleReadOnly.size() + idleReadWrite.size() > minIdle) {
+			final var entry = iterator.next();
+			if (entry.since >= limit) {
+				break;
+			}
+			if (idle.remove(entry)) {
+				destroy(entry.context);
+			}
+		}
+	}
+
+	/**
+	 * Return the given borrowed connection to the pool.
+	 */
+	private void release(final DirContext context, final boolean readOnly, final boolean reusable) {
+		active.decrementAndGet();
+		try {
+			if (reusable && !closed) {
+				(readOnly ? idleReadOnly : idleReadWrite).offerFirst(new Idle(context, System.currentTimeMillis()));
+			} else {
+				destroy(context);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	private void destroy(final DirContext context) {
+		destroyed.incrementAndGet();
+		LdapUtils.closeContext(context);
+	}
+
+	/**
+	 * Wrap the given connection so its closing returns it to the pool.
+	 */
+	private DirContext lend(final DirContext context, final boolean readOnly) {
+		active.incrementAndGet();
+		final var closed = new AtomicBoolean();
+		final var reusable = new AtomicBoolean(true);
+		final var controls = new AtomicBoolean();
+		final var interfaces = context instanceof LdapContext ? new Class<?>[]{LdapContext.class} : new Class<?>[]{DirContext.class};
+		return (DirContext) Proxy.newProxyInstance(getClass().getClassLoader(), interfaces, (proxy, method, args) -> {
+			final var methodName = method.getName();
+			if ("close".equals(methodName)) {
+				if (closed.compareAndSet(false, true)) {
+					release(context, readOnly, reusable.get() && resetControls(context, controls.get()));
+				}
+				return null;
+			}
+			if ("reconnect".equals(methodName)
+					|| ("addToEnvironment".equals(methodName) || "removeFromEnvironment".equals(methodName))
+					&& IDENTITY_PROPERTIES.contains((String) args[0])) {
+				// This connection is bound to another identity
+				reusable.set(false);
+			} else if ("setRequestControls".equals(methodName)) {
+				controls.set(true);
+			}
+			try {
+				return method.invoke(context, args);
+			} catch (final InvocationTargetException e) {
+				if (e.getCause() instanceof javax.naming.CommunicationException
+						|| e.getCause() instanceof javax.naming.ServiceUnavailableException) {
+					reusable.set(false);
+				}
+				throw e.getCause();
+			}
+		});
+	}
+
+	/**
+	 * Remove the request controls set by the borrower.
+	 */
+	private boolean resetControls(final DirContext context, final boolean controls) {
+		if (controls) {
+			try {
+				((LdapContext) context).setRequestControls(null);
+			} catch (final NamingException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Close all idle connections. The connections still borrowed are closed when they are returned.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Idle entry;
+		while ((entry = idleReadOnly.pollFirst()) != null || (entry = idleReadWrite.pollFirst()) != null) {
+			destroy(entry.context);
+		}
+	}
+
+	/**
+	 * Close the pools behind the given context source, through the load-balanced and read/write sources wrapping them.
+	 *
+	 * @param source The context source to close. May be <code>null</code>.
+	 */
+	static void closeSource(final ContextSource source) {
+		if (source instanceof PooledContextSource pool) {
+			pool.close();
+		} else if (source instanceof ReadWriteContextSource readWrite) {
+			readWrite.close();
+		} else if (source instanceof LoadBalancedContextSource balanced) {
+			balanced.close();
+		}
+	}
+}
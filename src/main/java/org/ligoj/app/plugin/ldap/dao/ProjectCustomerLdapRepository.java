@@ -15,6 +15,7 @@ import org.springframework.ldap.filter.EqualsFilter;
 import org.springframework.stereotype.Component;
 
 import javax.cache.annotation.*;
+import javax.naming.directory.SearchControls;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -46,7 +47,7 @@ public class ProjectCustomerLdapRepository {
 	@CacheResult(cacheName = "customers")
 	public Set<String> findAll(@CacheKey final String baseDn) {
 		return getUser().getTemplate()
-				.search(baseDn, new EqualsFilter(OBJECT_CLASS, CUSTOMER_OF_PROJECT).encode(),
+				.search(baseDn, new EqualsFilter(OBJECT_CLASS, CUSTOMER_OF_PROJECT).encode(), newSearchControls(),
 						(Object ctx) -> (DirContextAdapter) ctx)
 				.stream().map(g -> DnUtils.toRdn(g.getDn().toString())).collect(Collectors.toSet());
 	}
@@ -62,7 +63,8 @@ public class ProjectCustomerLdapRepository {
 	public String findById(@CacheKey final String baseDn, @CacheKey final String id) {
 		final var filter = new AndFilter().and(new EqualsFilter(OBJECT_CLASS, CUSTOMER_OF_PROJECT))
 				.and(new EqualsFilter("ou", id));
-		return getUser().getTemplate().search(baseDn, filter.encode(), (Object ctx) -> (DirContextAdapter) ctx).stream()
+		return getUser().getTemplate()
+				.search(baseDn, filter.encode(), newSearchControls(), (Object ctx) -> (DirContextAdapter) ctx).stream()
 				.findAny().map(g -> g.getDn().toString()).orElse(null);
 	}
 
@@ -114,6 +116,20 @@ public class ProjectCustomerLdapRepository {
 		context.setAttributeValue("ou", ou);
 	}
 
+	/**
+	 * Return the subtree search controls of the customers. Only the DN is read, the OU is the smallest attribute to
+	 * request.
+	 *
+	 * @return The search controls.
+	 */
+	private SearchControls newSearchControls() {
+		final var searchControls = new SearchControls();
+		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		searchControls.setReturningAttributes(new String[]{"ou"});
+		searchControls.setReturningObjFlag(false);
+		return searchControls;
+	}
+
 	/**
 	 * User repository provider.
 	 *
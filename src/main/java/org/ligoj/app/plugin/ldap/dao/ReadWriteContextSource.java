@@ -0,0 +1,167 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.naming.directory.DirContext;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Context source routing the read-write contexts to the primary server and the read-only contexts to the replicas.
+ * {@link org.springframework.ldap.core.LdapTemplate} uses read-write contexts for <code>bind</code>,
+ * <code>modifyAttributes</code>, <code>rename</code> and <code>unbind</code>, and read-only contexts for the searches
+ * and the lookups.<br>
+ * A caller having requested a read-write context reads from the primary during a short delay, so it reads its own
+ * writes despite the replication lag. The caller is the authenticated user, whatever the thread serving its requests,
+ * or the current thread for the unauthenticated tasks. The writes sent outside this source, or from another thread,
+ * pin the submitting caller with {@link #pin(long)}. The credentials of an entry whose password has just changed are
+ * checked against the primary, see {@link #pinEntry(String)}.
+ */
+public class ReadWriteContextSource implements ContextSource, AutoCloseable {
+
+	/**
+	 * Source of the primary server, accepting the writes.
+	 */
+	@Getter
+	private final ContextSource primary;
+
+	/**
+	 * Source of the read replicas.
+	 */
+	@Getter
+	private final ContextSource replicas;
+
+	/**
+	 * Time stamp until the reads of a caller, or the credential checks of an entry, are routed to the primary. Key is
+	 * the caller or the lower case DN of the entry. The elapsed pins are removed with the next pin.
+	 */
+	private final Map<String, Long> pinnedUntil = new ConcurrentHashMap<>();
+
+	/**
+	 * Delay in milliseconds the reads are routed to the primary after a write of the same caller.
+	 */
+	@Setter
+	@Getter
+	private long readYourWritesDelay = 5_000;
+
+	/**
+	 * Constructor with the primary and the replicas.
+	 *
+	 * @param primary  Source of the primary server, accepting the writes.
+	 * @param replicas Source of the read replicas.
+	 */
+	public ReadWriteContextSource(final ContextSource primary, final ContextSource replicas) {
+		this.primary = primary;
+		this.replicas = replicas;
+	}
+
+	@Override
+	public DirContext getReadOnlyContext() {
+		if (isPinned()) {
+			return primary.getReadOnlyContext();
+		}
+		return replicas.getReadOnlyContext();
+	}
+
+	@Override
+	public DirContext getReadWriteContext() {
+		pin(0);
+		return primary.getReadWriteContext();
+	}
+
+	/**
+	 * Route the reads of the current caller to the primary during the read-your-writes delay.
+	 *
+	 * @param delay Additional delay in milliseconds, such as the delay before a queued write is actually sent.
+	 */
+	public void pin(final long delay) {
+		pin(getCaller(), delay);
+	}
+
+	/**
+	 * Route the credential checks of the given entry to the primary during the read-your-writes delay. Used after a
+	 * password change, so the new password is accepted despite the replication lag.
+	 *
+	 * @param dn The DN of the entry, relative to the base DN or absolute.
+	 */
+	public void pinEntry(final String dn) {
+		pin("dn:" + dn.toLowerCase(Locale.ENGLISH), 0);
+	}
+
+	private void pin(final String key, final long delay) {
+		final var now = System.currentTimeMillis();
+		pinnedUntil.values().removeIf(until -> until < now);
+		pinnedUntil.merge(key, now + readYourWritesDelay + delay, Math::max);
+	}
+
+	/**
+	 * Return the key of the current caller: the authenticated user, or the current thread.
+	 */
+	private String getCaller() {
+		final var authentication = SecurityContextHolder.getContext().getAuthentication();
+		if (authentication == null || authentication.getName() == null) {
+			return "thread:" + Thread.currentThread().threadId();
+		}
+		return "user:" + authentication.getName();
+	}
+
+	@Override
+	public DirContext getContext(final String principal, final String credentials) {
+		// Credentials checks are reads, unless the caller or this entry has written recently
+		if (isPinned() || isPinnedEntry(principal)) {
+			return primary.getContext(principal, credentials);
+		}
+		return replicas.getContext(principal, credentials);
+	}
+
+	/**
+	 * Indicates the reads of the current caller are routed to the primary.
+	 *
+	 * @return <code>true</code> when the current caller has written recently.
+	 */
+	public boolean isPinned() {
+		return isPinned(getCaller());
+	}
+
+	/**
+	 * Indicates the credential checks of the given entry are routed to the primary. A relative DN matches the
+	 * absolute one.
+	 */
+	private boolean isPinnedEntry(final String principal) {
+		if (principal == null) {
+			return false;
+		}
+		final var dn = principal.toLowerCase(Locale.ENGLISH);
+		return pinnedUntil.keySet().stream().filter(k -> k.startsWith("dn:")).map(k -> k.substring(3))
+				.anyMatch(k -> (k.equals(dn) || dn.startsWith(k + ",") || k.startsWith(dn + ",")) && isPinned("dn:" + k));
+	}
+
+	private boolean isPinned(final String key) {
+		final var until = pinnedUntil.get(key);
+		if (until == null) {
+			return false;
+		}
+		if (until < System.currentTimeMillis()) {
+			pinnedUntil.remove(key, until);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Close the pools of the primary and of the replicas.
+	 */
+	@Override
+	public void close() {
+		PooledContextSource.closeSource(primary);
+		PooledContextSource.closeSource(replicas);
+		pinnedUntil.clear();
+	}
+}
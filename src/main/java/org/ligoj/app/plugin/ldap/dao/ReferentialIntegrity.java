@@ -0,0 +1,103 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.unboundid.ldap.sdk.*;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Detect whether the server rewrites by itself the member values referencing a renamed entry. In this case, the
+ * client-side rewrite of the groups is useless.<br>
+ * Supported servers:
+ * <ul>
+ * <li>Active Directory, always maintaining the linked attributes, detected from the root DSE capabilities.</li>
+ * <li>OpenLDAP with the "refint" overlay, detected from the "cn=config" backend.</li>
+ * <li>389 Directory Server with the referential integrity plug-in, detected from the plug-in entry.</li>
+ * </ul>
+ * The configuration entries are usually readable only by the administrators. When they are not, the referential
+ * integrity is considered as not supported.
+ */
+@Slf4j
+public final class ReferentialIntegrity {
+
+	/**
+	 * Root DSE capability of Active Directory.
+	 */
+	static final String AD_CAPABILITY = "1.2.840.113556.1.4.800";
+
+	private static final String REFINT_389_DN = "cn=referential integrity postoperation,cn=plugins,cn=config";
+
+	private ReferentialIntegrity() {
+		// Utility class
+	}
+
+	/**
+	 * Detect the server-side referential integrity of the given member attribute on the server accepting the writes.
+	 *
+	 * @param client          The client of the server.
+	 * @param memberAttribute The member attribute of the groups.
+	 * @return <code>true</code> when the server rewrites the member values of a renamed entry.
+	 */
+	public static boolean detect(final UnboundIdClient client, final String memberAttribute) {
+		try (var connection = client.connectWrite()) {
+			final var rootDse = connection.getRootDSE();
+			final var result = rootDse != null && rootDse.hasAttributeValue("supportedCapabilities", AD_CAPABILITY)
+					|| isOpenLdap(connection, memberAttribute) || is389(connection, memberAttribute);
+			log.info("Server-side referential integrity of {}: {}", memberAttribute, result);
+			return result;
+		} catch (final LDAPException e) {
+			log.info("Unable to detect the server-side referential integrity: {}", e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Return <code>true</code> when a "refint" overlay covers the given attribute.
+	 */
+	private static boolean isOpenLdap(final LDAPConnection connection, final String memberAttribute) {
+		final var entries = search(connection, "cn=config", SearchScope.SUB, "(objectClass=olcRefintConfig)",
+				"olcRefintAttribute");
+		return entries.stream().anyMatch(e -> contains(e.getAttributeValues("olcRefintAttribute"), memberAttribute));
+	}
+
+	/**
+	 * Return <code>true</code> when the enabled referential integrity plug-in covers the given attribute.
+	 */
+	private static boolean is389(final LDAPConnection connection, final String memberAttribute) {
+		// The attributes are given either by "referint-membership-attr", either by the numbered plug-in arguments
+		final var entries = search(connection, REFINT_389_DN, SearchScope.BASE, "(objectClass=*)", "*");
+		return entries.stream().filter(e -> "on".equalsIgnoreCase(e.getAttributeValue("nsslapd-pluginEnabled")))
+				.anyMatch(e -> e.getAttributes().stream()
+						.filter(a -> StringUtils.startsWithIgnoreCase(a.getName(), "nsslapd-pluginarg")
+								|| "referint-membership-attr".equalsIgnoreCase(a.getName()))
+						.anyMatch(a -> contains(a.getValues(), memberAttribute)));
+	}
+
+	/**
+	 * Return <code>true</code> when the given values, each one being possibly a list, contain the attribute.
+	 */
+	private static boolean contains(final String[] values, final String attribute) {
+		return Arrays.stream(ArrayUtils.nullToEmpty(values)).flatMap(v -> Stream.of(StringUtils.split(v, " ,")))
+				.anyMatch(attribute::equalsIgnoreCase);
+	}
+
+	/**
+	 * Search the configuration entries, ignoring the missing or forbidden ones.
+	 */
+	private static List<SearchResultEntry> search(final LDAPConnection connection, final String base,
+			final SearchScope scope, final String filter, final String... attributes) {
+		try {
+			return connection.search(base, scope, filter, attributes).getSearchEntries();
+		} catch (final LDAPSearchException e) {
+			log.debug("Configuration {} is not readable: {}", base, e.getMessage());
+			return List.of();
+		}
+	}
+}
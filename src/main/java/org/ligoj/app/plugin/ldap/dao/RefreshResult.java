@@ -0,0 +1,41 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+
+/**
+ * Result of a targeted refresh for an entry.
+ *
+ * @param type   The type of the refreshed entry.
+ * @param id     The entry identifier.
+ * @param status The outcome of the refresh.
+ */
+public record RefreshResult(CacheDataType type, String id, Status status) {
+
+	/**
+	 * Outcome of a targeted refresh for an entry.
+	 */
+	public enum Status {
+		/**
+		 * The entry was not cached and has been added.
+		 */
+		CREATED,
+
+		/**
+		 * The cached entry or its memberships have been updated.
+		 */
+		UPDATED,
+
+		/**
+		 * The cached entry was already up-to-date.
+		 */
+		UNCHANGED,
+
+		/**
+		 * The entry no more exists and has been evicted.
+		 */
+		DELETED
+	}
+}
@@ -0,0 +1,608 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.*;
+import com.unboundid.ldap.sdk.controls.AssertionRequestControl;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import com.unboundid.ldap.sdk.controls.SubtreeDeleteRequestControl;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.ldap.NameNotFoundException;
+import org.springframework.ldap.UncategorizedLdapException;
+
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Native LDAP client used for the bulk operations. The entries are streamed to the mapper as soon as they are received,
+ * without the intermediate JNDI attribute objects.<br>
+ * The DN given to and returned by this client are relative to the base DN of the server, as with
+ * {@link org.springframework.ldap.core.LdapTemplate}.<br>
+ * The operations share the authenticated connections of a pool per server set, created with the first operation and
+ * closed with this client.
+ */
+public class UnboundIdClient implements AutoCloseable {
+
+	/**
+	 * Amount of threads mapping the received entries, shared by all clients.
+	 */
+	private static final int MAPPERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Threads mapping the received entries. Dedicated to the mapping so a large scan neither starves nor is starved
+	 * by the common pool.
+	 */
+	private static final ExecutorService MAPPER_EXECUTOR = Executors.newFixedThreadPool(MAPPERS, r -> {
+		final var thread = new Thread(r, "ldap-mapper");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Servers, tried in order.
+	 */
+	private final String[] urls;
+
+	/**
+	 * Bind DN. When empty, the connections are anonymous.
+	 */
+	private final String userDn;
+
+	private final String password;
+
+	/**
+	 * Base DN of the server.
+	 */
+	@Getter
+	private final DN base;
+
+	/**
+	 * Servers accepting the writes, tried in order. When <code>null</code>, the read servers are used.
+	 */
+	@Setter
+	private String[] writeUrls;
+
+	/**
+	 * Page size of the searches.
+	 */
+	@Setter
+	@Getter
+	private int pageSize = 1000;
+
+	/**
+	 * When <code>false</code>, the searches are not paged. Should be disabled when the server does not support the
+	 * paged results control.
+	 */
+	@Setter
+	@Getter
+	private boolean paging = true;
+
+	/**
+	 * Maximal amount of outstanding operations of a pipelined bulk write.
+	 */
+	@Setter
+	@Getter
+	private int pipelineDepth = 16;
+
+	/**
+	 * When <code>true</code>, the referrals are followed as with the "follow" JNDI referral mode. Otherwise, they are
+	 * ignored.
+	 */
+	@Setter
+	@Getter
+	private boolean followReferrals;
+
+	/**
+	 * Delay in milliseconds to establish a connection before trying the next server. <code>0</code> waits without
+	 * limit.
+	 */
+	@Setter
+	@Getter
+	private long connectTimeout = 10_000;
+
+	/**
+	 * Delay in milliseconds to wait for each response. <code>0</code> waits without limit.
+	 */
+	@Setter
+	@Getter
+	private long responseTimeout = 300_000;
+
+	/**
+	 * Maximal amount of pooled connections per server set. A connection opened beyond this limit is closed once
+	 * released.
+	 */
+	@Setter
+	@Getter
+	private int poolSize = 4;
+
+	/**
+	 * Pool of the connections to the read servers.
+	 */
+	private LDAPConnectionPool readPool;
+
+	/**
+	 * Pool of the connections to the servers accepting the writes. Same as the read pool without write servers.
+	 */
+	private LDAPConnectionPool writePool;
+
+	/**
+	 * When <code>true</code>, this client is closed and the next operations are refused.
+	 */
+	@Getter
+	private volatile boolean closed;
+
+	/**
+	 * Constructor with the connection parameters.
+	 *
+	 * @param urls     The servers, tried in order.
+	 * @param userDn   The bind DN. When empty, the connections are anonymous.
+	 * @param password The bind password.
+	 * @param base     The base DN of the server. May be empty.
+	 */
+	public UnboundIdClient(final String[] urls, final String userDn, final String password, final String base) {
+		this.urls = urls;
+		this.userDn = userDn;
+		this.password = password;
+		this.base = toDn(StringUtils.defaultString(base));
+	}
+
+	/**
+	 * Open a new authenticated connection on the first available server.
+	 *
+	 * @return A new connection the caller has to close.
+	 * @throws LDAPException When no server is available or the authentication failed.
+	 */
+	public LDAPConnection connect() throws LDAPException {
+		return connect(urls);
+	}
+
+	/**
+	 * Open a new authenticated connection on the first available server accepting the writes.
+	 *
+	 * @return A new connection the caller has to close.
+	 * @throws LDAPException When no server is available or the authentication failed.
+	 */
+	public LDAPConnection connectWrite() throws LDAPException {
+		return connect(ObjectUtils.getIfNull(writeUrls, urls));
+	}
+
+	private LDAPConnection connect(final String[] urls) throws LDAPException {
+		return newServerSet(urls).getConnection(newBindRequest());
+	}
+
+	private BindRequest newBindRequest() {
+		return StringUtils.isEmpty(userDn) ? null : new SimpleBindRequest(userDn, password);
+	}
+
+	private ServerSet newServerSet(final String[] urls) throws LDAPException {
+		final var options = new LDAPConnectionOptions();
+		options.setFollowReferrals(followReferrals);
+		options.setConnectTimeoutMillis((int) connectTimeout);
+		options.setResponseTimeoutMillis(responseTimeout);
+		final var servers = new ServerSet[urls.length];
+		for (var i = 0; i < urls.length; i++) {
+			final var url = new LDAPURL(urls[i]);
+			// Same trust store as JNDI for the secured servers only
+			final var socketFactory = "ldaps".equalsIgnoreCase(url.getScheme()) ? SSLSocketFactory.getDefault()
+					: SocketFactory.getDefault();
+			servers[i] = new SingleServerSet(url.getHost(), url.getPort(), socketFactory, options);
+		}
+		return new FailoverServerSet(servers);
+	}
+
+	/**
+	 * Return the pool of the connections to the read servers, created with the first call.
+	 *
+	 * @return The pool of the read connections.
+	 * @throws LDAPException When no server is available or the authentication failed.
+	 */
+	synchronized LDAPConnectionPool getReadPool() throws LDAPException {
+		if (readPool == null) {
+			readPool = newPool(urls);
+		}
+		return readPool;
+	}
+
+	/**
+	 * Return the pool of the connections to the servers accepting the writes, created with the first call.
+	 *
+	 * @return The pool of the write connections.
+	 * @throws LDAPException When no server is available or the authentication failed.
+	 */
+	synchronized LDAPConnectionPool getWritePool() throws LDAPException {
+		if (writeUrls == null) {
+			return getReadPool();
+		}
+		if (writePool == null) {
+			writePool = newPool(writeUrls);
+		}
+		return writePool;
+	}
+
+	private LDAPConnectionPool newPool(final String[] urls) throws LDAPException {
+		if (closed) {
+			throw new IllegalStateException("Closed LDAP client");
+		}
+		final var pool = new LDAPConnectionPool(newServerSet(urls), newBindRequest(), 1, Math.max(1, poolSize));
+		pool.setConnectionPoolName("ldap-" + String.join(",", urls));
+		pool.setRetryFailedOperationsDueToInvalidConnections(true);
+		return pool;
+	}
+
+	/**
+	 * Return the given connection borrowed by a pipelined executor to its pool. A connection whose pool is closed, or
+	 * which is no longer connected, is closed.
+	 *
+	 * @param connection The borrowed connection.
+	 */
+	synchronized void release(final LDAPConnection connection) {
+		final var pool = ObjectUtils.getIfNull(writePool, readPool);
+		if (pool == null) {
+			connection.close();
+		} else if (connection.isConnected()) {
+			pool.releaseConnection(connection);
+		} else {
+			pool.releaseDefunctConnection(connection);
+		}
+	}
+
+	/**
+	 * Close the pooled connections. The connections still borrowed are closed when they are released.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if (writePool != null) {
+			writePool.close();
+		}
+		if (readPool != null) {
+			readPool.close();
+		}
+	}
+
+	/**
+	 * Return the absolute DN of the given DN relative to the base DN.
+	 *
+	 * @param dn The relative DN. May be empty.
+	 * @return The absolute DN.
+	 */
+	public String toAbsolute(final String dn) {
+		final var relative = toDn(dn);
+		if (base.isNullDN()) {
+			return relative.toString();
+		}
+		if (relative.isNullDN()) {
+			return base.toString();
+		}
+		return relative + "," + base;
+	}
+
+	/**
+	 * Return the DN relative to the base DN of the given absolute DN.
+	 *
+	 * @param dn The absolute DN.
+	 * @return The relative DN.
+	 */
+	public String toRelative(final String dn) {
+		if (base.isNullDN()) {
+			return dn;
+		}
+		final var absolute = toDn(dn);
+		if (!absolute.isDescendantOf(base, false)) {
+			return dn;
+		}
+		final var rdns = absolute.getRDNs();
+		return new DN(Arrays.copyOf(rdns, rdns.length - base.getRDNs().length)).toString();
+	}
+
+	/**
+	 * Parse the given DN.
+	 *
+	 * @param dn The DN to parse.
+	 * @return The parsed DN.
+	 */
+	static DN toDn(final String dn) {
+		try {
+			return new DN(dn);
+		} catch (final LDAPException e) {
+			throw new UncategorizedLdapException("Invalid DN " + dn, e);
+		}
+	}
+
+	/**
+	 * Search the entries of the given subtree with a paged, when enabled, and asynchronous search. The received entries
+	 * are mapped by batches on worker threads, while the next entries and pages are still being transferred.
+	 *
+	 * @param baseDn     The DN of the subtree, relative to the base DN.
+	 * @param filter     The encoded search filter.
+	 * @param attributes The attributes to return.
+	 * @param mapper     The entry mapper. A <code>null</code> result is ignored.
+	 * @param <T>        The mapped type.
+	 * @return The mapped entries, in the reception order.
+	 */
+	public <T> List<T> search(final String baseDn, final String filter, final String[] attributes,
+			final Function<LdapEntryReader, T> mapper) {
+		final var batches = new ArrayList<CompletableFuture<List<T>>>();
+		final var pending = new ArrayList<SearchResultEntry>();
+		final Runnable flush = () -> {
+			synchronized (pending) {
+				if (!pending.isEmpty()) {
+					final var batch = new ArrayList<>(pending);
+					pending.clear();
+					batches.add(CompletableFuture.supplyAsync(() -> batch.stream().map(e -> mapper.apply(toReader(e)))
+							.filter(Objects::nonNull).toList(), MAPPER_EXECUTOR));
+				}
+			}
+		};
+		final var listener = new AsyncSearchResultListener() {
+			@Override
+			public void searchEntryReturned(final SearchResultEntry entry) {
+				synchronized (pending) {
+					pending.add(entry);
+					if (pending.size() >= pageSize) {
+						flush.run();
+					}
+				}
+			}
+
+			@Override
+			public void searchReferenceReturned(final SearchResultReference reference) {
+				// Not followed references are ignored as with the template
+			}
+
+			@Override
+			public void searchResultReceived(final AsyncRequestID requestID, final SearchResult result) {
+				// The completion is handled by the caller
+			}
+		};
+
+		LDAPConnectionPool pool = null;
+		LDAPConnection connection = null;
+		try {
+			// The pages of a search are requested on the same connection
+			pool = getReadPool();
+			connection = pool.getConnection();
+			final var absoluteBase = toAbsolute(baseDn);
+			ASN1OctetString cookie = null;
+			do {
+				final var request = new SearchRequest(listener, absoluteBase, SearchScope.SUB, filter, attributes);
+				if (paging) {
+					request.addControl(new SimplePagedResultsControl(pageSize, cookie, false));
+				}
+				final var result = (SearchResult) connection.asyncSearch(request).get();
+				if (!ResultCode.SUCCESS.equals(result.getResultCode())) {
+					throw new LDAPSearchException(result);
+				}
+
+				// Map the last entries of this page while the next page is requested
+				flush.run();
+				final var paged = paging ? SimplePagedResultsControl.get(result) : null;
+				cookie = paged != null && paged.moreResultsToReturn() ? paged.getCookie() : null;
+			} while (cookie != null);
+			pool.releaseConnection(connection);
+		} catch (final LDAPException e) {
+			release(pool, connection, e);
+			throw new UncategorizedLdapException("Search failed in " + baseDn, e);
+		} catch (final ExecutionException e) {
+			release(pool, connection, e.getCause());
+			throw new UncategorizedLdapException("Search failed in " + baseDn, e.getCause());
+		} catch (final InterruptedException e) {
+			release(pool, connection, e);
+			Thread.currentThread().interrupt();
+			throw new UncategorizedLdapException("Search interrupted in " + baseDn, e);
+		}
+		try {
+			return new ArrayList<>(batches.stream().map(CompletableFuture::join).flatMap(List::stream).toList());
+		} catch (final CompletionException e) {
+			if (e.getCause() instanceof RuntimeException re) {
+				throw re;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Release a connection after a failed operation. A connection no longer usable is closed, and the pool replaces it.
+	 */
+	private void release(final LDAPConnectionPool pool, final LDAPConnection connection, final Throwable failure) {
+		if (connection == null) {
+			return;
+		}
+		if (failure instanceof LDAPException e) {
+			pool.releaseConnectionAfterException(connection, e);
+		} else {
+			// The outcome of an interrupted or failed asynchronous operation is unknown
+			pool.releaseDefunctConnection(connection);
+		}
+	}
+
+	/**
+	 * Open a pipelined executor on a pooled connection to the server accepting the writes.
+	 *
+	 * @return The executor the caller has to close.
+	 */
+	public PipelinedExecutor pipeline() {
+		try {
+			return new PipelinedExecutor(getWritePool().getConnection(), this, pipelineDepth);
+		} catch (final LDAPException e) {
+			throw new UncategorizedLdapException("Unable to open a LDAP connection", e);
+		}
+	}
+
+	/**
+	 * Apply the given modifications to an entry, only when the entry matches the given assertion.
+	 *
+	 * @param dn            The DN of the entry to modify.
+	 * @param assertion     The assertion filter, RFC 4528. When <code>null</code>, there is no assertion.
+	 * @param modifications The modifications to apply.
+	 * @return <code>false</code> when the entry does not match the assertion, and is not modified.
+	 * @throws NameNotFoundException When the entry does not exist.
+	 */
+	public boolean modify(final String dn, final Filter assertion, final ModificationItem... modifications) {
+		try {
+			final var request = new ModifyRequest(toAbsolute(dn), toModifications(modifications));
+			if (assertion != null) {
+				request.addControl(new AssertionRequestControl(assertion));
+			}
+			// A pooled connection, already bound, is borrowed for this single request
+			getWritePool().modify(request);
+			return true;
+		} catch (final LDAPException e) {
+			if (ResultCode.ASSERTION_FAILED.equals(e.getResultCode())) {
+				return false;
+			}
+			if (ResultCode.NO_SUCH_OBJECT.equals(e.getResultCode())) {
+				throw new NameNotFoundException(new javax.naming.NameNotFoundException(dn));
+			}
+			throw new UncategorizedLdapException("Modify failed for " + dn, e);
+		}
+	}
+
+	/**
+	 * Delete the given entry and all its descendants with a single request carrying the tree delete control. The
+	 * server must advertise this control.
+	 *
+	 * @param dn The DN of the subtree to delete.
+	 * @throws NameNotFoundException When the subtree does not exist.
+	 */
+	public void deleteTree(final String dn) {
+		try {
+			final var request = new DeleteRequest(toAbsolute(dn));
+			request.addControl(new SubtreeDeleteRequestControl(true));
+			getWritePool().delete(request);
+		} catch (final LDAPException e) {
+			if (ResultCode.NO_SUCH_OBJECT.equals(e.getResultCode())) {
+				throw new NameNotFoundException(new javax.naming.NameNotFoundException(dn));
+			}
+			throw new UncategorizedLdapException("Tree delete failed for " + dn, e);
+		}
+	}
+
+	/**
+	 * Delete the given entry and all its descendants. The DN of the entries are collected with a paged, when enabled,
+	 * search on the server accepting the writes. The entries of a same depth are then deleted with pipelined requests,
+	 * the deepest ones first.
+	 *
+	 * @param dn The DN of the subtree to delete.
+	 * @throws NameNotFoundException When the subtree does not exist.
+	 */
+	public void deleteSubtree(final String dn) {
+		final var levels = new TreeMap<Integer, List<String>>(Comparator.reverseOrder());
+		LDAPConnectionPool pool = null;
+		LDAPConnection connection = null;
+		try {
+			// The pages of a search are requested on the same connection
+			pool = getWritePool();
+			connection = pool.getConnection();
+			ASN1OctetString cookie = null;
+			do {
+				final var request = new SearchRequest(toAbsolute(dn), SearchScope.SUB,
+						Filter.createPresenceFilter("objectClass"), SearchRequest.NO_ATTRIBUTES);
+				if (paging) {
+					request.addControl(new SimplePagedResultsControl(pageSize, cookie, false));
+				}
+				final var result = connection.search(request);
+				for (final var entry : result.getSearchEntries()) {
+					final var entryDn = entry.getParsedDN();
+					levels.computeIfAbsent(entryDn.getRDNs().length, k -> new ArrayList<>()).add(toRelative(entryDn.toString()));
+				}
+				final var paged = paging ? SimplePagedResultsControl.get(result) : null;
+				cookie = paged != null && paged.moreResultsToReturn() ? paged.getCookie() : null;
+			} while (cookie != null);
+			pool.releaseConnection(connection);
+		} catch (final LDAPSearchException e) {
+			release(pool, connection, e);
+			if (ResultCode.NO_SUCH_OBJECT.equals(e.getResultCode())) {
+				throw new NameNotFoundException(new javax.naming.NameNotFoundException(dn));
+			}
+			throw new UncategorizedLdapException("Search failed in " + dn, e);
+		} catch (final LDAPException e) {
+			release(pool, connection, e);
+			throw new UncategorizedLdapException("Unable to open a LDAP connection", e);
+		}
+		try (var pipeline = pipeline()) {
+			for (final var level : levels.values()) {
+				level.forEach(pipeline::delete);
+				pipeline.await();
+			}
+		}
+	}
+
+	/**
+	 * Convert the JNDI modifications to the native ones. A <code>null</code> value is dropped, so a replacement by
+	 * <code>null</code> removes the attribute as with JNDI. The binary values are kept as is.
+	 *
+	 * @param items The JNDI modifications.
+	 * @return The native modifications.
+	 */
+	public static Modification[] toModifications(final ModificationItem... items) {
+		final var modifications = new Modification[items.length];
+		for (var i = 0; i < items.length; i++) {
+			final var attribute = items[i].getAttribute();
+			final var type = switch (items[i].getModificationOp()) {
+				case DirContext.ADD_ATTRIBUTE -> ModificationType.ADD;
+				case DirContext.REMOVE_ATTRIBUTE -> ModificationType.DELETE;
+				default -> ModificationType.REPLACE;
+			};
+			final var values = new ArrayList<ASN1OctetString>();
+			try {
+				for (final var e = attribute.getAll(); e.hasMore(); ) {
+					final var value = e.next();
+					if (value instanceof byte[] bytes) {
+						values.add(new ASN1OctetString(bytes));
+					} else if (value != null) {
+						values.add(new ASN1OctetString(value.toString()));
+					}
+				}
+			} catch (final NamingException e) {
+				throw new UncategorizedLdapException("Invalid attribute " + attribute.getID(), e);
+			}
+			modifications[i] = new Modification(type, attribute.getID(), values.toArray(ASN1OctetString[]::new));
+		}
+		return modifications;
+	}
+
+	/**
+	 * Return a reader of the given entry.
+	 */
+	private LdapEntryReader toReader(final SearchResultEntry entry) {
+		final var dn = toRelative(entry.getDN());
+		return new LdapEntryReader() {
+			@Override
+			public String getDn() {
+				return dn;
+			}
+
+			@Override
+			public String getString(final String attribute) {
+				return entry.getAttributeValue(attribute);
+			}
+
+			@Override
+			public String[] getStrings(final String attribute) {
+				return ArrayUtils.nullToEmpty(entry.getAttributeValues(attribute));
+			}
+
+			@Override
+			public boolean has(final String attribute) {
+				return entry.hasAttribute(attribute);
+			}
+		};
+	}
+}
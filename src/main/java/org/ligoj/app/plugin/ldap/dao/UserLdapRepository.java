@@ -3,6 +3,7 @@
  */
 package org.ligoj.app.plugin.ldap.dao;
 
+import com.unboundid.ldap.sdk.Filter;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -25,13 +26,16 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
+import org.springframework.ldap.NameNotFoundException;
 import org.springframework.ldap.OperationNotSupportedException;
 import org.springframework.ldap.control.PagedResultsDirContextProcessor;
 import org.springframework.ldap.core.*;
 import org.springframework.ldap.core.support.AbstractContextMapper;
 import org.springframework.ldap.filter.AndFilter;
 import org.springframework.ldap.filter.EqualsFilter;
+import org.springframework.ldap.filter.HardcodedFilter;
 import org.springframework.ldap.filter.OrFilter;
+import org.springframework.ldap.filter.PresentFilter;
 import org.springframework.ldap.support.LdapUtils;
 
 import javax.naming.AuthenticationException;
@@ -45,6 +49,10 @@ import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -63,6 +71,11 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 	 */
 	private static final String PASSWORD_ATTRIBUTE = "userPassword";
 
+	/**
+	 * Requested attribute returning no attribute at all, only the DN (RFC 4511).
+	 */
+	private static final String[] NO_ATTRIBUTES = {"1.1"};
+
 	/**
 	 * This attribute contains the time that the user's account was locked. If the account has been locked, the password
 	 * may no longer be used to authenticate the user to the directory. If pwdAccountLockedTime is set to 000001010000Z,
@@ -104,13 +117,10 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 	private static final DirContextProcessor LDAP_NULL_PROCESSOR = new LdapTemplate.NullDirContextProcessor();
 
 
-	private static final class NullAuthenticationErrorCallback implements AuthenticationErrorCallback {
-		public void execute(Exception ex) {
-			// Ignore
-		}
-	}
-
-	private static final AuthenticationErrorCallback LDAP_NULL_ERROR_CALLBACK = new NullAuthenticationErrorCallback();
+	/**
+	 * Maximal amount of remembered login to DN resolutions.
+	 */
+	private static final int LOGIN_CACHE_SIZE = 1000;
 
 	private static final Map<String, Comparator<UserOrg>> COMPARATORS = new HashMap<>();
 
@@ -122,6 +132,11 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 
 	private static final int LDAP_SEARCH_PAGE_SIZE = 300_000;
 
+	/**
+	 * Maximal age in milliseconds of a prefetched user search to be used by a refresh.
+	 */
+	static final long PREFETCH_MAX_AGE = 60_000;
+
 	/**
 	 * Shared random string generator used for temporary passwords.
 	 */
@@ -206,6 +221,22 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 	@Setter
 	private String lockedValue;
 
+	/**
+	 * When <code>true</code>, the server rewrites by itself the member values of a renamed entry, and the groups are
+	 * not updated on user move.
+	 */
+	@Setter
+	@Getter
+	private boolean referentialIntegrity = false;
+
+	/**
+	 * When <code>true</code>, the passwords are changed with the Password Modify extended operation on the pooled
+	 * connections, and hashed by the server.
+	 */
+	@Setter
+	@Getter
+	private boolean passwordModify = false;
+
 	@Autowired
 	private InMemoryPagination inMemoryPagination;
 
@@ -225,6 +256,37 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 	 */
 	private final Mapper mapper = new Mapper();
 
+	/**
+	 * User search started in background by the refresh, see {@link #prefetch()}.
+	 */
+	private CompletableFuture<List<UserOrg>> prefetched;
+
+	private long prefetchedAt;
+
+	/**
+	 * Recent login to DN resolutions of the self-search authentication. Key is the lower-case login.
+	 */
+	private final Map<String, LoginEntry> logins = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(final Entry<String, LoginEntry> eldest) {
+			return size() > LOGIN_CACHE_SIZE;
+		}
+	});
+
+	/**
+	 * Native client sending the updates asserting the cached values, so a concurrent change is detected from the
+	 * result code. When <code>null</code>, the updates are sent without assertion.
+	 */
+	@Setter
+	@Getter
+	private UnboundIdClient assertionClient;
+
+	/**
+	 * Pooled connections used to check the credentials, opened on demand from the context source of the template. Closed
+	 * with this repository, and then refused.
+	 */
+	private final BindContextPool bindPool = new BindContextPool(() -> template.getContextSource());
+
 	static {
 		COMPARATORS.put("company", new CompanyComparator());
 		COMPARATORS.put("id", new LoginComparator());
@@ -266,9 +328,11 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 	 * @param value     the new value.
 	 */
 	public void set(final Name dn, final String attribute, final String value) {
-		final var mods = new ModificationItem[1];
-		mods[0] = new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute(attribute, value));
-		template.modifyAttributes(org.springframework.ldap.support.LdapUtils.newLdapName(dn), mods);
+		modify(dn.toString(), newReplace(attribute, value));
+	}
+
+	private ModificationItem newReplace(final String attribute, final String value) {
+		return new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute(attribute, value));
 	}
 
 	/**
@@ -338,6 +402,32 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 		return inMemoryPagination.newPage(result, pageable);
 	}
 
+	/**
+	 * Start the search of all user entries in background, while the companies and the groups are fetched. The next
+	 * {@link #findAllNoCache(Map)} call uses this result when not older than {@link #PREFETCH_MAX_AGE}.
+	 */
+	public void prefetch() {
+		final var future = CompletableFuture.supplyAsync(this::fetchAll);
+		synchronized (this) {
+			prefetched = future;
+			prefetchedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Return the result of the last prefetch, or <code>null</code> when there is no recent prefetch.
+	 */
+	private synchronized CompletableFuture<List<UserOrg>> takePrefetched() {
+		final var result = prefetched;
+		prefetched = null;
+		if (result != null && System.currentTimeMillis() - prefetchedAt > PREFETCH_MAX_AGE) {
+			// Outdated prefetch
+			result.cancel(false);
+			return null;
+		}
+		return result;
+	}
+
 	/**
 	 * Return all user entries.
 	 *
@@ -346,44 +436,304 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 	 */
 	@Override
 	public Map<String, UserOrg> findAllNoCache(final Map<String, GroupOrg> groups) {
+		final var start = System.currentTimeMillis();
+		final var prefetch = takePrefetched();
+		final List<UserOrg> users;
+		if (prefetch == null) {
+			users = fetchAll();
+		} else {
+			try {
+				users = prefetch.join();
+			} catch (final CompletionException e) {
+				if (e.getCause() instanceof RuntimeException re) {
+					throw re;
+				}
+				throw e;
+			}
+		}
+		final var fetched = System.currentTimeMillis();
 
-		// List of attributes to retrieve from LDAP.
+		// Index the users by the identifier
+		log.info("Prepare users {} for indexing ...", users.size());
+		final var result = new HashMap<String, UserOrg>();
+		for (final var user : users) {
+			user.setGroups(new ArrayList<>());
+			result.put(user.getId(), user);
+		}
+		final var indexed = System.currentTimeMillis();
+
+		// Update the memberships of this user
+		groups.entrySet().forEach(g -> updateMembership(result, g, (u, group) -> u.getGroups().add(group)));
+		log.info("Users stages: fetch and map {}ms{}, index {}ms, memberships {}ms", fetched - start,
+				prefetch == null ? "" : " (wait of the prefetch)", indexed - fetched, System.currentTimeMillis() - indexed);
+		return result;
+	}
+
+	/**
+	 * Fetch and map all user entries, without the memberships.
+	 */
+	private List<UserOrg> fetchAll() {
 		log.info("Fetch LDAP users ...");
-		final var returnAttrs = ArrayUtils.addAll(new String[]{SN_ATTRIBUTE, GIVEN_NAME_ATTRIBUTE, PASSWORD_ATTRIBUTE, MAIL_ATTRIBUTE,
-				uidAttribute, departmentAttribute, localIdAttribute, lockedAttribute, PWD_ACCOUNT_LOCKED_ATTRIBUTE}, customAttributes);
 
 		// Fetch users and their direct attributes
-		final var result = new HashMap<String, UserOrg>();
 		final var classFilter = newClassesFilter().encode();
+		final var users = scan(classFilter, getReturnedAttributes(), mapper::map);
+
+		// The presence of a password is read without the hashes, only the DN of the secured users are returned
+		setSecured(users, scan(newSecuredFilter(classFilter), NO_ATTRIBUTES, UserLdapRepository::toDnKey));
+		return users;
+	}
+
+	/**
+	 * Search the entries of the whole user base, with the native client or the paged template search.
+	 *
+	 * @param filter      The search filter.
+	 * @param attributes  The attributes to retrieve.
+	 * @param entryMapper The entry mapper.
+	 * @param <T>         The mapped type.
+	 * @return The mapped entries.
+	 */
+	private <T> List<T> scan(final String filter, final String[] attributes, final Function<LdapEntryReader, T> entryMapper) {
+		if (searchClient != null) {
+			// Entries are mapped by batches while the next ones are streamed
+			return searchClient.search(baseDn, filter, attributes, entryMapper);
+		}
+		final var searchControls = newSearchControls(SearchControls.SUBTREE_SCOPE, attributes);
+		final ContextMapper<T> contextMapper = ctx -> entryMapper.apply(LdapEntryReader.of((DirContextOperations) ctx));
+		if (capabilities.isPaging()) {
+			try {
+				final var processor = new PagedResultsDirContextProcessor(LDAP_SEARCH_PAGE_SIZE, null);
+				return template.search(baseDn, filter, searchControls, contextMapper, processor);
+			} catch (final OperationNotSupportedException e) {
+				log.info("Pagination is not supported, regular search ({}) ...", e.getMessage());
+			}
+		}
+		// The root DSE does not advertise the pagination, avoid the failing attempt
+		return template.search(baseDn, filter, searchControls, contextMapper, LDAP_NULL_PROCESSOR);
+	}
+
+	/**
+	 * Return the list of attributes to retrieve from LDAP for the users. The password is not retrieved, only its
+	 * presence is read by a separate search.
+	 */
+	private String[] getReturnedAttributes() {
+		return ArrayUtils.addAll(new String[]{SN_ATTRIBUTE, GIVEN_NAME_ATTRIBUTE, MAIL_ATTRIBUTE, uidAttribute,
+				departmentAttribute, localIdAttribute, lockedAttribute, PWD_ACCOUNT_LOCKED_ATTRIBUTE}, customAttributes);
+	}
+
+	/**
+	 * Return the search controls retrieving the given attributes with the given scope.
+	 */
+	private SearchControls newSearchControls(final int scope, final String... attributes) {
 		final var searchControls = new SearchControls();
-		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
-		searchControls.setReturningAttributes(returnAttrs);
+		searchControls.setSearchScope(scope);
+		searchControls.setReturningAttributes(attributes);
 		searchControls.setReturningObjFlag(false);
-		List<UserOrg> users;
+		return searchControls;
+	}
+
+	/**
+	 * Return the filter of the entries matching the given filter and having a password.
+	 */
+	private String newSecuredFilter(final String filter) {
+		return new AndFilter().and(new HardcodedFilter(filter)).and(new PresentFilter(PASSWORD_ATTRIBUTE)).encode();
+	}
+
+	/**
+	 * Return the case-insensitive key of the DN of the given entry.
+	 */
+	private static String toDnKey(final LdapEntryReader entry) {
+		return StringUtils.lowerCase(entry.getDn(), Locale.ENGLISH);
+	}
+
+	/**
+	 * Set the secured flag of the given users from the DN of the entries having a password.
+	 *
+	 * @param users   The users to update.
+	 * @param secured The case-insensitive key of the DN of the entries having a password.
+	 */
+	private void setSecured(final List<UserOrg> users, final List<String> secured) {
+		final var keys = new HashSet<>(secured);
+		users.forEach(u -> u.setSecured(keys.contains(StringUtils.lowerCase(u.getDn(), Locale.ENGLISH))));
+	}
+
+	/**
+	 * Fetch and map the user entries from the given base, without the memberships.
+	 *
+	 * @return The found users. Empty when the base does not exist.
+	 */
+	private List<UserOrg> fetch(final String base, final String filter, final int scope) {
 		try {
-			final var processor = new PagedResultsDirContextProcessor(LDAP_SEARCH_PAGE_SIZE, null);
-			users = template.search(baseDn, classFilter, searchControls, mapper, processor);
-		} catch (final OperationNotSupportedException e) {
-			log.info("Pagination is not supported, regular search ({}) ...", e.getMessage());
-			users = template.search(baseDn, classFilter, searchControls, mapper, LDAP_NULL_PROCESSOR);
+			final var users = template.search(base, filter, newSearchControls(scope, getReturnedAttributes()), mapper);
+			setSecured(users, template.search(base, newSecuredFilter(filter), newSearchControls(scope, NO_ATTRIBUTES),
+					(Object ctx) -> toDnKey(LdapEntryReader.of((DirContextOperations) ctx))));
+			return users;
+		} catch (final NameNotFoundException e) {
+			log.info("Refreshed base {} not found", base);
+			return Collections.emptyList();
 		}
+	}
 
-		// Index the users by the identifier
-		log.info("Prepare users {} for indexing ...", users.size());
-		for (final var user : users) {
-			user.setGroups(new ArrayList<>());
-			result.put(user.getId(), user);
+	/**
+	 * Re-read from LDAP the user of the given identifier or DN, and update the in-memory cache, the memberships and the
+	 * database cache of this user only. Cheaper than a full refresh when the changed entry is known.
+	 *
+	 * @param idOrDn The user identifier or DN.
+	 * @return The outcome of this refresh. Empty when the user exists neither in LDAP nor in the cache.
+	 */
+	public List<RefreshResult> refresh(final String idOrDn) {
+		final UserOrg fresh;
+		final UserOrg cached;
+		if (idOrDn.indexOf('=') == -1) {
+			final var id = Normalizer.normalize(idOrDn);
+			final var filter = new AndFilter().and(newClassesFilter()).and(new EqualsFilter(uidAttribute, id));
+			fresh = fetch(baseDn, filter.encode(), SearchControls.SUBTREE_SCOPE).stream().findFirst().orElse(null);
+			cached = findById(id);
+		} else {
+			fresh = fetch(idOrDn, newClassesFilter().encode(), SearchControls.OBJECT_SCOPE).stream().findFirst().orElse(null);
+			cached = fresh == null
+					? findAll().values().stream().filter(u -> u.getDn().equalsIgnoreCase(idOrDn)).findFirst().orElse(null)
+					: findById(fresh.getId());
 		}
+		final var results = new ArrayList<RefreshResult>();
+		refresh(cached, fresh, fresh == null ? null : groupLdapRepository.findAllByMemberNoCache(fresh.getDn()), results);
+		return results;
+	}
 
-		// Update the memberships of this user
-		groups.entrySet().forEach(g -> updateMembership(result, g));
+	/**
+	 * Re-read from LDAP the users of the given subtree, and update the in-memory cache and the database cache of these
+	 * users only. The memberships of the new users are read from LDAP, the ones of the cached users are kept. The cached
+	 * users no more in this subtree are refreshed individually, since they may have been moved.
+	 *
+	 * @param dn The DN of the subtree, usually a company.
+	 * @return The outcome of this refresh for each created, updated or deleted user.
+	 */
+	public List<RefreshResult> refreshSubtree(final String dn) {
+		final var fresh = new HashMap<String, UserOrg>();
+		fetch(dn, newClassesFilter().encode(), SearchControls.SUBTREE_SCOPE).forEach(u -> fresh.put(u.getId(), u));
+		final var results = new ArrayList<RefreshResult>();
+		fresh.values().forEach(u -> {
+			final var cached = findById(u.getId());
+			refresh(cached, u, cached == null ? groupLdapRepository.findAllByMemberNoCache(u.getDn()) : null, results);
+		});
+		findAll().values().stream().filter(u -> !fresh.containsKey(u.getId()) && DnUtils.equalsOrParentOf(dn, u.getDn()))
+				.map(UserOrg::getId).toList().forEach(id -> results.addAll(refresh(id)));
+		results.removeIf(r -> r.status() == RefreshResult.Status.UNCHANGED);
+		return results;
+	}
+
+	/**
+	 * Update the caches of a user from its fresh LDAP entry.
+	 *
+	 * @param cached  The cached user. May be <code>null</code>.
+	 * @param fresh   The fresh user. <code>null</code> when the user no more exists.
+	 * @param groups  The identifiers of the groups of the fresh user. When <code>null</code>, the memberships are kept.
+	 * @param results The outcome of this refresh.
+	 */
+	private void refresh(final UserOrg cached, final UserOrg fresh, final Set<String> groups,
+			final List<RefreshResult> results) {
+		if (fresh == null) {
+			if (cached != null) {
+				// Deleted user
+				cacheRepository.delete(cached);
+				results.add(new RefreshResult(CacheDataType.USER, cached.getId(), RefreshResult.Status.DELETED));
+			}
+			return;
+		}
+
+		final UserOrg user;
+		var status = RefreshResult.Status.UNCHANGED;
+		if (cached == null) {
+			if (companyRepository.findById(fresh.getCompany()) == null) {
+				log.warn("Refreshed user {} belongs to the unknown company {}, ignored", fresh.getId(), fresh.getCompany());
+				return;
+			}
+			fresh.setGroups(new ArrayList<>());
+			user = cacheRepository.create(fresh);
+			status = RefreshResult.Status.CREATED;
+		} else {
+			// The cached instance is published: the fresh attributes are copied into the next version
+			user = cached;
+			if (!CacheLdapSync.userFingerprint(cached).equals(CacheLdapSync.userFingerprint(fresh))) {
+				fresh.setGroups(cached.getGroups());
+				cacheRepository.update(fresh);
+				status = RefreshResult.Status.UPDATED;
+			}
+		}
+		if (groups != null && updateMemberships(user, groups) && status == RefreshResult.Status.UNCHANGED) {
+			status = RefreshResult.Status.UPDATED;
+		}
+		results.add(new RefreshResult(CacheDataType.USER, user.getId(), status));
+	}
+
+	/**
+	 * Update the cached memberships of the given user.
+	 *
+	 * @return <code>true</code> when at least one membership has changed.
+	 */
+	private boolean updateMemberships(final UserOrg user, final Set<String> groups) {
+		final var allGroups = groupLdapRepository.findAll();
+		final var current = new HashSet<>(user.getGroups());
+		final var added = groups.stream().filter(g -> !current.contains(g)).map(allGroups::get).filter(Objects::nonNull).toList();
+		final var removed = current.stream().filter(g -> !groups.contains(g)).map(allGroups::get).filter(Objects::nonNull).toList();
+		added.forEach(g -> cacheRepository.addUserToGroup(user, g));
+		removed.forEach(g -> cacheRepository.removeUserFromGroup(user, g));
+		return !added.isEmpty() || !removed.isEmpty();
+	}
+
+	/**
+	 * Link the given users to the freshly fetched groups, without user scan. The member DNs of the groups are replaced
+	 * by the user identifiers. Only the users whose memberships differ from the previous groups get a new group list,
+	 * computed from the added and the removed members of each group. The given users are not modified, they may be
+	 * shared by the readers of the cache.
+	 *
+	 * @param users    The cached users.
+	 * @param previous The previous groups, linked to the given users.
+	 * @param groups   The fetched groups with the member DNs.
+	 * @return The copies of the changed users with their new group list, by identifier.
+	 */
+	public Map<String, UserOrg> linkGroups(final Map<String, UserOrg> users, final Map<String, GroupOrg> previous,
+			final Map<String, GroupOrg> groups) {
+		final var added = new HashMap<String, Set<String>>();
+		final var removed = new HashMap<String, Set<String>>();
+		groups.entrySet().forEach(g -> {
+			// The user side is patched below
+			updateMembership(users, g, (u, group) -> {
+			});
+			final var members = g.getValue().getMembers();
+			final var oldMembers = Optional.ofNullable(previous.get(g.getKey())).map(GroupOrg::getMembers).orElse(Set.of());
+			members.stream().filter(m -> !oldMembers.contains(m))
+					.forEach(m -> added.computeIfAbsent(m, k -> new HashSet<>()).add(g.getKey()));
+			oldMembers.stream().filter(m -> !members.contains(m))
+					.forEach(m -> removed.computeIfAbsent(m, k -> new HashSet<>()).add(g.getKey()));
+		});
+		previous.entrySet().stream().filter(g -> !groups.containsKey(g.getKey())).forEach(g -> g.getValue().getMembers()
+				.forEach(m -> removed.computeIfAbsent(m, k -> new HashSet<>()).add(g.getKey())));
+
+		// Patch the group list of copies of the changed users only
+		final var changed = new HashSet<>(added.keySet());
+		changed.addAll(removed.keySet());
+		final var result = new HashMap<String, UserOrg>();
+		changed.stream().map(users::get).filter(Objects::nonNull).forEach(u -> {
+			final var copy = CacheLdapRepository.copy(u);
+			copy.getGroups().removeAll(removed.getOrDefault(u.getId(), Set.of()));
+			added.getOrDefault(u.getId(), Set.of()).stream().filter(g -> !copy.getGroups().contains(g))
+					.forEach(copy.getGroups()::add);
+			result.put(u.getId(), copy);
+		});
+		log.info("Memberships linked to the groups, {} changed users", result.size());
 		return result;
 	}
 
 	/**
 	 * Update the membership of given group. All users are checked.
+	 *
+	 * @param result     The users. Key is the user identifier.
+	 * @param groupEntry The group with the member DNs.
+	 * @param linker     Called for each valid user membership with the group identifier.
 	 */
-	private void updateMembership(final Map<String, UserOrg> result, final Entry<String, GroupOrg> groupEntry) {
+	private void updateMembership(final Map<String, UserOrg> result, final Entry<String, GroupOrg> groupEntry,
+			final BiConsumer<UserOrg, String> linker) {
 		final var groupLdap = groupEntry.getValue();
 		final var group = groupLdap.getId();
 		new ArrayList<>(groupLdap.getMembers()).forEach(dn -> {
@@ -405,7 +755,7 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 					log.warn("Broken user DN reference found '{}' --> {}, instead of {}", groupLdap.getDn(), dn,
 							user.getDn());
 				}
-				user.getGroups().add(group);
+				linker.accept(user, group);
 
 				// Finally, add the RDN (UID) of this user to replace the
 				groupLdap.getMembers().add(uid);
@@ -469,39 +819,50 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 
 		@Override
 		public UserOrg doMapFromContext(final DirContextOperations context) {
+			return map(LdapEntryReader.of(context));
+		}
+
+		/**
+		 * Map the given entry to a user, whatever the client library.
+		 *
+		 * @param entry The fetched entry.
+		 * @return The mapped user.
+		 */
+		public UserOrg map(final LdapEntryReader entry) {
 			final var user = new UserOrg();
-			user.setDn(context.getDn().toString());
-			user.setLastName(context.getStringAttribute(SN_ATTRIBUTE));
-			user.setFirstName(context.getStringAttribute(GIVEN_NAME_ATTRIBUTE));
-			user.setSecured(context.getObjectAttribute(PASSWORD_ATTRIBUTE) != null);
-			user.setId(Normalizer.normalize(context.getStringAttribute(uidAttribute)));
+			user.setDn(entry.getDn());
+			user.setLastName(entry.getString(SN_ATTRIBUTE));
+			user.setFirstName(entry.getString(GIVEN_NAME_ATTRIBUTE));
+			// Only for the lookups retrieving all attributes, the scans read the presence of the password separately
+			user.setSecured(entry.has(PASSWORD_ATTRIBUTE));
+			user.setId(Normalizer.normalize(entry.getString(uidAttribute)));
 
 			// Special and also optional attributes
 			if (departmentAttribute != null) {
-				user.setDepartment(context.getStringAttribute(departmentAttribute));
+				user.setDepartment(entry.getString(departmentAttribute));
 			}
 			if (localIdAttribute != null) {
-				user.setLocalId(context.getStringAttribute(localIdAttribute));
+				user.setLocalId(entry.getString(localIdAttribute));
 			}
 			if (lockedAttribute != null) {
-				fillLockedData(user, context.getStringAttribute(lockedAttribute));
+				fillLockedData(user, entry.getString(lockedAttribute));
 			}
 
 			// Save the normalized CN of the company
 			user.setCompany(toCompany(user.getDn()));
 
-			if (context.attributeExists(PWD_ACCOUNT_LOCKED_ATTRIBUTE)) {
+			if (entry.has(PWD_ACCOUNT_LOCKED_ATTRIBUTE)) {
 				user.setLockedBy(PASSWORD_POLICY_NAME);
-				user.setLocked(parseLdapDate(context.getStringAttribute(PWD_ACCOUNT_LOCKED_ATTRIBUTE)));
+				user.setLocked(parseLdapDate(entry.getString(PWD_ACCOUNT_LOCKED_ATTRIBUTE)));
 			}
 
-			// Save the mails
-			user.setMails(new ArrayList<>(CollectionUtils.emptyIfNull(context.getAttributeSortedStringSet(MAIL_ATTRIBUTE))));
+			// Save the sorted mails
+			user.setMails(new ArrayList<>(new TreeSet<>(Arrays.asList(entry.getStrings(MAIL_ATTRIBUTE)))));
 
 			// Save custom user attributes
 			user.setCustomAttributes(new HashMap<>());
 			for (var a : customAttributes) {
-				final String value = context.getStringAttribute(a);
+				final String value = entry.getString(a);
 				if (value != null) {
 					user.getCustomAttributes().put(a, value);
 				}
@@ -579,24 +940,111 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 	}
 
 	@Override
-	public void updateUser(final UserOrg user) {
-		final var context = template
-				.lookupContext(org.springframework.ldap.support.LdapUtils.newLdapName(user.getDn()));
+	public void updateUser(final UserOrg given) {
+		final var snapshot = findById(given.getId());
+		final var user = snapshot == null || snapshot == given ? given : withState(given, snapshot);
+		drain(user.getDn());
+		if (snapshot == null || snapshot == user || !Objects.equals(snapshot.getMails(), user.getMails())) {
+			// The resolved logins may rely on a former mail
+			forgetLogins(user);
+		}
+		if (snapshot == null || snapshot == user || !updateFromSnapshot(user, snapshot)) {
+			// No usable snapshot, read the entry to update from the server accepting the writes
+			final var dn = org.springframework.ldap.support.LdapUtils.newLdapName(user.getDn());
+			final var context = template.executeReadWrite(ctx -> (DirContextOperations) ctx.lookup(dn));
+			mapToContext(user, context);
+			template.modifyAttributes(context);
+		}
+
+		// Also, update the cache: the attributes are copied into the next version
+		cacheRepository.update(user);
+	}
+
+	/**
+	 * Return the given user with the DN, the company and the lock state of the cached one. These fields have their own
+	 * operations publishing a copy of the user, so the given instance may have been read before them.
+	 */
+	private UserOrg withState(final UserOrg user, final UserOrg cached) {
+		if (Objects.equals(user.getDn(), cached.getDn()) && Objects.equals(user.getCompany(), cached.getCompany())
+				&& Objects.equals(user.getLockedBy(), cached.getLockedBy())
+				&& Objects.equals(user.getIsolated(), cached.getIsolated())) {
+			return user;
+		}
+		final var copy = CacheLdapRepository.copy(user);
+		copy.setDn(cached.getDn());
+		copy.setCompany(cached.getCompany());
+		copy.setLocked(cached.getLocked());
+		copy.setLockedBy(cached.getLockedBy());
+		copy.setIsolated(cached.getIsolated());
+		return copy;
+	}
+
+	/**
+	 * Send only the attributes differing from the cached snapshot of the user, in a single request. When supported, an
+	 * assertion control ensures the changed attributes still have the snapshot values. The assertion failure is
+	 * detected from its result code with the native client.
+	 *
+	 * @param user     The updated user.
+	 * @param snapshot The cached user before this update.
+	 * @return <code>false</code> when the entry has been changed outside since the snapshot.
+	 */
+	private boolean updateFromSnapshot(final UserOrg user, final UserOrg snapshot) {
+		final var dn = org.springframework.ldap.support.LdapUtils.newLdapName(user.getDn());
+		final var original = new DirContextAdapter(dn);
+		mapToContext(snapshot, original);
+		final var context = new DirContextAdapter((Attributes) original.getAttributes().clone(), dn);
+		context.setUpdateMode(true);
 		mapToContext(user, context);
-		template.modifyAttributes(context);
+		final var modifications = context.getModificationItems();
+		if (modifications.length == 0) {
+			// Nothing to send
+			return true;
+		}
 
-		// Also, update the cache
-		final var userLdap = findById(user.getId());
-		user.copy((SimpleUser) userLdap);
-		userLdap.setMails(user.getMails());
+		final var assertion = capabilities.isAssertion() && assertionClient != null ? newAssertion(original, modifications)
+				: null;
+		if (assertion == null) {
+			template.modifyAttributes(dn, modifications);
+			return true;
+		}
+		pinReads(0);
+		if (assertionClient.modify(user.getDn(), assertion, modifications)) {
+			return true;
+		}
+		log.info("User {} has been changed outside since the last refresh, update the current entry", user.getId());
+		return false;
+	}
 
-		cacheRepository.update(user);
+	/**
+	 * Return the assertion filter checking the modified attributes have still the original values. The
+	 * <code>cn</code> is not cached and is not asserted.
+	 */
+	private Filter newAssertion(final DirContextOperations original, final ModificationItem[] modifications) {
+		final var filters = new ArrayList<Filter>();
+		for (final var modification : modifications) {
+			final var id = modification.getAttribute().getID();
+			if ("cn".equalsIgnoreCase(id)) {
+				continue;
+			}
+			final var values = Stream.of(ArrayUtils.nullToEmpty(original.getStringAttributes(id))).filter(Objects::nonNull)
+					.map(v -> Filter.createEqualityFilter(id, v)).toList();
+			if (values.isEmpty()) {
+				filters.add(Filter.createNOTFilter(Filter.createPresenceFilter(id)));
+			} else {
+				filters.addAll(values);
+			}
+		}
+		if (filters.isEmpty()) {
+			return null;
+		}
+		return Filter.createANDFilter(filters);
 	}
 
 	@Override
 	public void delete(final UserOrg user) {
 		// Delete the user from LDAP
 		unbind(user.getDn());
+		forgetLogins(user);
 
 		// Remove user from all groups
 		removeUserFromGroups(user, user.getGroups());
@@ -607,7 +1055,7 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 
 	@Override
 	public void lock(final String principal, final UserOrg user) {
-		lock(principal, user, false);
+		Optional.ofNullable(lockEntry(principal, user, false)).ifPresent(cacheRepository::update);
 	}
 
 	/**
@@ -616,93 +1064,384 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 	 * <li>Clear the password to prevent new authentication</li>
 	 * <li>Set the disabled flag.</li>
 	 * </ul>
+	 * The given user is not modified, it may be shared by the readers of the cache.
 	 *
 	 * @param principal Principal user requesting the lock.
 	 * @param user      The LDAP user to disable.
 	 * @param isolate   When <code>true</code>, the user will be isolated in addition.
+	 * @return The locked copy of the user, or <code>null</code> when the user is already locked.
 	 */
-	private void lock(final String principal, final UserOrg user, final boolean isolate) {
-		if (user.getLockedBy() == null) {
-			// Not yet locked
-			final var mods = new ModificationItem[2];
-			final var timeInMillis = DateUtils.newCalendar().getTimeInMillis();
-			mods[0] = new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute(lockedAttribute, String
-					.format("%s|%s|%s|%s|", lockedValue, timeInMillis, principal, isolate ? user.getCompany() : "")));
-			mods[1] = new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute(PASSWORD_ATTRIBUTE, null));
-			template.modifyAttributes(org.springframework.ldap.support.LdapUtils.newLdapName(user.getDn()), mods);
-
-			// Also update the disabled date
-			user.setLocked(Instant.ofEpochMilli(timeInMillis));
-			user.setLockedBy(principal);
+	private UserOrg lockEntry(final String principal, final UserOrg user, final boolean isolate) {
+		if (user.getLockedBy() != null) {
+			// Already locked
+			return null;
 		}
+		final var timeInMillis = DateUtils.newCalendar().getTimeInMillis();
+		modify(user.getDn(), newLock(principal, user, isolate, timeInMillis));
+
+		// Also update the disabled date
+		final var locked = CacheLdapRepository.copy(user);
+		locked.setLocked(Instant.ofEpochMilli(timeInMillis));
+		locked.setLockedBy(principal);
+		return locked;
+	}
+
+	/**
+	 * Return the modifications locking a user: the disabled flag is set and the password is cleared.
+	 */
+	private ModificationItem[] newLock(final String principal, final UserOrg user, final boolean isolate,
+			final long timeInMillis) {
+		final var mods = new ModificationItem[2];
+		mods[0] = new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute(lockedAttribute, String
+				.format("%s|%s|%s|%s|", lockedValue, timeInMillis, principal, isolate ? user.getCompany() : "")));
+		mods[1] = new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute(PASSWORD_ATTRIBUTE, null));
+		return mods;
 	}
 
 	@Override
 	public void isolate(final String principal, final UserOrg user) {
-		if (user.getIsolated() == null) {
-			// Not yet isolated
-			lock(principal, user, true);
-			final var previousCompany = user.getCompany();
-			move(user, companyRepository.findById(companyRepository.getQuarantineCompany()));
-			user.setIsolated(previousCompany);
+		Optional.ofNullable(isolateEntry(principal, user)).ifPresent(cacheRepository::update);
+	}
+
+	/**
+	 * Lock a user and move it to the quarantine company. The given user is not modified.
+	 *
+	 * @param principal Principal user requesting the isolation.
+	 * @param user      The LDAP user to isolate.
+	 * @return The isolated copy of the user, or <code>null</code> when the user is already isolated.
+	 */
+	private UserOrg isolateEntry(final String principal, final UserOrg user) {
+		if (user.getIsolated() != null) {
+			// Already isolated
+			return null;
 		}
+		final var locked = Objects.requireNonNullElse(lockEntry(principal, user, true), user);
+		final var isolated = moveEntry(locked, companyRepository.findById(companyRepository.getQuarantineCompany()));
+		isolated.setIsolated(user.getCompany());
+		return isolated;
 	}
 
 	@Override
 	public void restore(final UserOrg user) {
-		if (user.getIsolated() != null) {
-			move(user, companyRepository.findById(user.getIsolated()));
-			user.setIsolated(null);
-			unlock(user);
+		Optional.ofNullable(restoreEntry(user)).ifPresent(cacheRepository::update);
+	}
+
+	/**
+	 * Move an isolated user back to its original company and unlock it. The given user is not modified.
+	 *
+	 * @param user The LDAP user to restore.
+	 * @return The restored copy of the user, or <code>null</code> when the user is not isolated.
+	 */
+	private UserOrg restoreEntry(final UserOrg user) {
+		if (user.getIsolated() == null) {
+			return null;
 		}
+		final var restored = moveEntry(user, companyRepository.findById(user.getIsolated()));
+		restored.setIsolated(null);
+		return Objects.requireNonNullElse(unlockEntry(restored), restored);
 	}
 
 	@Override
 	public void move(final UserOrg user, final CompanyOrg company) {
+		cacheRepository.update(moveEntry(user, company));
+	}
+
+	/**
+	 * Move a user to another company. The given user is not modified, it may be shared by the readers of the cache.
+	 *
+	 * @param user    The LDAP user to move.
+	 * @param company The target company.
+	 * @return The moved copy of the user.
+	 */
+	private UserOrg moveEntry(final UserOrg user, final CompanyOrg company) {
 		final var newDn = org.springframework.ldap.support.LdapUtils
 				.newLdapName(buildDn(user.getId(), company.getDn()));
 		final var oldDn = org.springframework.ldap.support.LdapUtils.newLdapName(user.getDn());
+		drain(user.getDn());
 		template.rename(oldDn, newDn);
-		user.setDn(newDn.toString());
-		user.setCompany(company.getId());
-		cacheRepository.update(user);
-
-		// Also, update the groups of this user
-		user.getGroups().forEach(g -> groupLdapRepository.updateMemberDn(g, oldDn.toString(), newDn.toString()));
+		forgetLogins(user);
+		final var moved = CacheLdapRepository.copy(user);
+		moved.setDn(newDn.toString());
+		moved.setCompany(company.getId());
+
+		// Also, update the groups of this user, unless the server already did it. The cached membership relies on the
+		// identifiers and is unchanged.
+		if (!referentialIntegrity) {
+			groupLdapRepository.updateMemberDn(user.getGroups(), oldDn.toString(), newDn.toString());
+		}
+		return moved;
 	}
 
 	@Override
 	public void unlock(final UserOrg user) {
-		if (user.getIsolated() == null && user.getLockedBy() != null) {
+		Optional.ofNullable(unlockEntry(user)).ifPresent(cacheRepository::update);
+	}
+
+	/**
+	 * Unlock a user not isolated. The given user is not modified, it may be shared by the readers of the cache.
+	 *
+	 * @param user The LDAP user to enable.
+	 * @return The unlocked copy of the user, or <code>null</code> when the user is isolated or not locked.
+	 */
+	private UserOrg unlockEntry(final UserOrg user) {
+		if (user.getIsolated() != null || user.getLockedBy() == null) {
+			return null;
+		}
 
-			// remove locked attribute when exists
-			set(user, lockedAttribute, null);
+		// remove locked attribute when exists, and remove PASSWORD_POLICY_NAME pwdAccountLockedTime attribute when
+		// exists. Both can be merged by the write-behind queue.
+		final var unlocked = modifyAsync(user.getDn(), newReplace(lockedAttribute, null));
+		modify(user.getDn(), newReplace(PWD_ACCOUNT_LOCKED_ATTRIBUTE, null));
+		unlocked.join();
+
+		// Also clear the disabled state from cache
+		final var enabled = CacheLdapRepository.copy(user);
+		enabled.setLocked(null);
+		enabled.setLockedBy(null);
+		return enabled;
+	}
+
+	/**
+	 * Return <code>true</code> when the given operation changes the state of the user.
+	 */
+	private boolean isApplicable(final BulkOperation operation, final UserOrg user) {
+		return switch (operation) {
+			case LOCK -> user.getLockedBy() == null;
+			case UNLOCK -> user.getIsolated() == null && user.getLockedBy() != null;
+			case ISOLATE -> user.getIsolated() == null;
+			case RESTORE -> user.getIsolated() != null;
+		};
+	}
 
-			// remove PASSWORD_POLICY_NAME pwdAccountLockedTime attribute when exists
-			set(user, PWD_ACCOUNT_LOCKED_ATTRIBUTE, null);
+	/**
+	 * Apply the same operation to several users. When the pipelined writes are enabled, the directory operations are
+	 * sent without waiting for each response. Otherwise, the users are processed one by one. In both cases, the changed
+	 * users are updated in the cache with a single mutation once the directory operations are completed.
+	 *
+	 * @param principal Principal user requesting the operation.
+	 * @param operation The operation to apply.
+	 * @param users     The users to update.
+	 * @return The result for each user, in the given order.
+	 */
+	public List<BulkResult> bulk(final String principal, final BulkOperation operation, final Collection<UserOrg> users) {
+		final var updated = new ArrayList<UserOrg>();
+		final var results = writeClient == null
+				? users.stream().map(u -> bulk(principal, operation, u, updated)).toList()
+				: bulkPipelined(principal, operation, users, updated);
+		cacheRepository.update(updated);
+		return results;
+	}
 
-			// Also clear the disabled state from cache
-			user.setLocked(null);
-			user.setLockedBy(null);
+	/**
+	 * Apply the operation to a single user, and collect the changed copy of this user.
+	 */
+	private BulkResult bulk(final String principal, final BulkOperation operation, final UserOrg user,
+			final List<UserOrg> updated) {
+		if (!isApplicable(operation, user)) {
+			return new BulkResult(user.getId(), BulkResult.Status.SKIPPED, null);
+		}
+		if (operation == BulkOperation.RESTORE && companyRepository.findById(user.getIsolated()) == null) {
+			return new BulkResult(user.getId(), BulkResult.Status.FAILED, newUnknownCompany(user));
+		}
+		try {
+			final var changed = switch (operation) {
+				case LOCK -> lockEntry(principal, user, false);
+				case UNLOCK -> unlockEntry(user);
+				case ISOLATE -> isolateEntry(principal, user);
+				case RESTORE -> restoreEntry(user);
+			};
+			Optional.ofNullable(changed).ifPresent(updated::add);
+			return new BulkResult(user.getId(), BulkResult.Status.DONE, null);
+		} catch (final RuntimeException e) {
+			log.info("Bulk {} failed for {}: {}", operation, user.getId(), e.getMessage());
+			return new BulkResult(user.getId(), BulkResult.Status.FAILED, e.getMessage());
 		}
 	}
 
-	@Getter
-	static final class CaptureAuthenticatedLdapEntryContextCallback implements AuthenticatedLdapEntryContextCallback, AuthenticatedLdapEntryContextMapper<Object> {
+	/**
+	 * Progress of a pipelined bulk operation for a user.
+	 */
+	private static class BulkEntry {
+		private final UserOrg user;
 
-		private LdapEntryIdentification entry;
+		/**
+		 * Lock or unlock modification.
+		 */
+		private CompletableFuture<?> lock;
 
-		@Override
-		public void executeWithContext(DirContext ctx, LdapEntryIdentification ldapEntryIdentification) {
-			this.entry = ldapEntryIdentification;
+		/**
+		 * Move to the target company.
+		 */
+		private CompletableFuture<?> rename;
+
+		/**
+		 * Updates of the member value of this entry, one per group.
+		 */
+		private final List<CompletableFuture<?>> members = new ArrayList<>();
+		private CompanyOrg company;
+		private String newDn;
+		private boolean moved;
+		private String failure;
+
+		private BulkEntry(final UserOrg user) {
+			this.user = user;
 		}
 
-		@Override
-		public Object mapWithContext(DirContext ctx, LdapEntryIdentification ldapEntryIdentification) {
-			return null;
+		/**
+		 * Return <code>true</code> when the given operation succeeded, and keep the first failure.
+		 */
+		private boolean succeeded(final CompletableFuture<?> future) {
+			if (future == null) {
+				return false;
+			}
+			try {
+				future.join();
+				return true;
+			} catch (final CompletionException e) {
+				failure = Objects.requireNonNullElse(failure, e.getCause().getMessage());
+				return false;
+			}
 		}
 	}
 
+	/**
+	 * Apply the operation with pipelined directory operations in two stages: the lock modifications and the renames,
+	 * then the updates of the moved entries. The given users are not modified, their changed copies are collected.
+	 */
+	private List<BulkResult> bulkPipelined(final String principal, final BulkOperation operation,
+			final Collection<UserOrg> users, final List<UserOrg> updated) {
+		final var timeInMillis = DateUtils.newCalendar().getTimeInMillis();
+		final var entries = users.stream().filter(u -> isApplicable(operation, u)).map(BulkEntry::new).toList();
+		entries.forEach(e -> drain(e.user.getDn()));
+		pinReads(0);
+		final var quarantine = operation == BulkOperation.ISOLATE
+				? companyRepository.findById(companyRepository.getQuarantineCompany()) : null;
+
+		// First stage: the operations of a same entry are sent in order
+		try (var pipeline = writeClient.pipeline()) {
+			for (final var entry : entries) {
+				final var user = entry.user;
+				switch (operation) {
+					case LOCK -> entry.lock = pipeline.modify(user.getDn(), newLock(principal, user, false, timeInMillis));
+					case UNLOCK -> entry.lock = pipeline.modify(user.getDn(), newUnlock());
+					case ISOLATE -> {
+						if (user.getLockedBy() == null) {
+							entry.lock = pipeline.modify(user.getDn(), newLock(principal, user, true, timeInMillis));
+						}
+						entry.company = quarantine;
+					}
+					case RESTORE -> {
+						entry.company = companyRepository.findById(user.getIsolated());
+						if (entry.company == null) {
+							entry.failure = newUnknownCompany(user);
+						}
+					}
+				}
+				if (entry.company != null) {
+					entry.newDn = buildDn(user.getId(), entry.company.getDn());
+					entry.rename = pipeline.rename(user.getDn(), entry.newDn);
+				}
+			}
+		}
+
+		// Second stage: the moved entries, with a member value update per group and entry, so a failure is reported
+		// only to its entry
+		final var members = new ArrayList<Entry<BulkEntry, String>>();
+		final var groups = new HashSet<String>();
+		final var unlocks = new ArrayList<BulkEntry>();
+		final var moved = entries.stream().filter(e -> e.succeeded(e.rename)).toList();
+		for (final var entry : moved) {
+			entry.moved = true;
+			if (!referentialIntegrity) {
+				entry.user.getGroups().stream().map(groupLdapRepository::findById).filter(Objects::nonNull)
+						.forEach(g -> {
+							groups.add(g.getId());
+							members.add(Map.entry(entry, g.getDn()));
+						});
+			}
+			if (operation == BulkOperation.RESTORE) {
+				unlocks.add(entry);
+			}
+		}
+		if (!members.isEmpty() || !unlocks.isEmpty()) {
+			// The member values are updated holding the membership locks of the groups
+			groupLdapRepository.withMemberLocks(groups, () -> {
+				members.stream().map(Entry::getValue).distinct().forEach(this::drain);
+				try (var pipeline = writeClient.pipeline()) {
+					members.forEach(m -> m.getKey().members.add(pipeline.modify(m.getValue(),
+							groupLdapRepository.newUpdateMemberDn(m.getKey().user.getDn(), m.getKey().newDn))));
+					unlocks.forEach(e -> e.lock = pipeline.modify(e.newDn, newUnlock()));
+				}
+			});
+			moved.forEach(e -> e.members.forEach(e::succeeded));
+		}
+
+		// Collect the changed copies of the users, the cache is updated at once by the caller
+		for (final var entry : entries) {
+			final var user = entry.user;
+			final var locked = entry.succeeded(entry.lock);
+			if (!locked && !entry.moved) {
+				continue;
+			}
+			final var copy = CacheLdapRepository.copy(user);
+			if (locked) {
+				if (operation == BulkOperation.LOCK || operation == BulkOperation.ISOLATE) {
+					copy.setLocked(Instant.ofEpochMilli(timeInMillis));
+					copy.setLockedBy(principal);
+				} else {
+					copy.setLocked(null);
+					copy.setLockedBy(null);
+				}
+			}
+			if (entry.moved) {
+				forgetLogins(user);
+				copy.setDn(entry.newDn);
+				copy.setCompany(entry.company.getId());
+				copy.setIsolated(operation == BulkOperation.ISOLATE ? user.getCompany() : null);
+			}
+			updated.add(copy);
+		}
+
+		final var byUser = new IdentityHashMap<UserOrg, BulkEntry>();
+		entries.forEach(e -> byUser.put(e.user, e));
+		final var results = new ArrayList<BulkResult>();
+		for (final var user : users) {
+			final var entry = byUser.get(user);
+			if (entry == null) {
+				results.add(new BulkResult(user.getId(), BulkResult.Status.SKIPPED, null));
+			} else if (entry.failure == null) {
+				results.add(new BulkResult(user.getId(), BulkResult.Status.DONE, null));
+			} else {
+				log.info("Bulk {} failed for {}: {}", operation, user.getId(), entry.failure);
+				results.add(new BulkResult(user.getId(), BulkResult.Status.FAILED, entry.failure));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Return the failure message of a restored user whose original company does not exist anymore.
+	 */
+	private String newUnknownCompany(final UserOrg user) {
+		return "Unknown company " + user.getIsolated();
+	}
+
+	/**
+	 * Return the modifications unlocking a user: the disabled flag and the lock of the password policy are removed.
+	 */
+	private ModificationItem[] newUnlock() {
+		return new ModificationItem[]{newReplace(lockedAttribute, null), newReplace(PWD_ACCOUNT_LOCKED_ATTRIBUTE, null)};
+	}
+
+	/**
+	 * A resolved login: the absolute DN to bind and the UID of the entry.
+	 *
+	 * @param dn  The absolute DN.
+	 * @param uid The UID extracted from the DN.
+	 */
+	record LoginEntry(String dn, String uid) {
+	}
+
 	@Override
 	public UserOrg authenticate(final String name, final String password) {
 		log.info("Authenticating {} ...", name);
@@ -714,15 +1453,10 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 			if (selfSearch) {
 				// Use a search to use the actual DN of user ignoring the one stored in cache database
 				reason = "self-search";
-				final var loginFilter = loginAttributes.stream()
-						.filter(a -> !a.equalsIgnoreCase(property))
-						.reduce(new OrFilter().or(new EqualsFilter(property, name)), (f, a) -> f.or(new EqualsFilter(a, name)), (f, a) -> a);
-				final var filter = new AndFilter().and(loginFilter).and(newClassesFilter());
-				final var userCaptureCallback = new CaptureAuthenticatedLdapEntryContextCallback();
-				authResult = template.authenticate(LdapUtils.newLdapName(baseDn), filter.encode(), password, userCaptureCallback, LDAP_NULL_ERROR_CALLBACK);
-				if (authResult) {
-					final var uid = (String) userCaptureCallback.getEntry().getAbsoluteName().getRdns().getLast().getValue();
-					user = findBy(uidAttribute, uid);
+				final var entry = authenticateSelfSearch(name, password, property);
+				if (entry != null) {
+					authResult = true;
+					user = findBy(uidAttribute, entry.uid());
 				}
 			} else {
 				// Build the DN to user from the stored one in cache database without performing a lookup
@@ -731,9 +1465,7 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 					reason = "unknown user";
 				} else {
 					reason = "bind";
-					final var dn = toDn(user);
-					template.getContextSource().getContext(dn, password).close();
-					authResult = true;
+					authResult = bindPool.authenticate(toDn(user), password);
 				}
 			}
 		} catch (final Exception ne) {
@@ -743,6 +1475,87 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 		return authResult ? user : null;
 	}
 
+	/**
+	 * Resolve the DN of the given login, and check the credentials. A recent resolution of this login is tried first
+	 * without search. When this bind fails, the DN may have moved, so the resolution is done again with a search.
+	 *
+	 * @param name     The login.
+	 * @param password The clear password.
+	 * @param property The property matching the login.
+	 * @return The resolved login when the credentials are valid, <code>null</code> otherwise.
+	 */
+	private LoginEntry authenticateSelfSearch(final String name, final String password, final String property) {
+		final var key = name.toLowerCase(Locale.ENGLISH);
+		final var cached = logins.get(key);
+		if (cached != null) {
+			if (bindPool.authenticate(cached.dn(), password)) {
+				return cached;
+			}
+			logins.remove(key);
+		}
+
+		final var entry = resolveLogin(name, property);
+		if (entry == null || cached != null && entry.dn().equalsIgnoreCase(cached.dn())) {
+			// Unknown login, or the same DN has just been rejected
+			return null;
+		}
+		if (bindPool.authenticate(entry.dn(), password)) {
+			logins.put(key, entry);
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Search the single entry matching the login against the accepted login attributes.
+	 *
+	 * @param name     The login.
+	 * @param property The property matching the login.
+	 * @return The resolved login or <code>null</code> when there is not exactly one matching entry.
+	 */
+	private LoginEntry resolveLogin(final String name, final String property) {
+		final var loginFilter = loginAttributes.stream()
+				.filter(a -> !a.equalsIgnoreCase(property))
+				.reduce(new OrFilter().or(new EqualsFilter(property, name)), (f, a) -> f.or(new EqualsFilter(a, name)), (f, a) -> a);
+		final var filter = new AndFilter().and(loginFilter).and(newClassesFilter());
+		final var controls = new SearchControls();
+		controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		controls.setReturningAttributes(new String[]{uidAttribute});
+		controls.setReturningObjFlag(true);
+		final var entries = template.search(baseDn, filter.encode(), controls, (ContextMapper<LoginEntry>) ctx -> {
+			final var dn = ((DirContextOperations) ctx).getNameInNamespace();
+			return new LoginEntry(dn, (String) LdapUtils.newLdapName(dn).getRdns().getLast().getValue());
+		});
+		if (entries.size() != 1) {
+			log.info("Login {} matches {} entries", name, entries.size());
+			return null;
+		}
+		return entries.getFirst();
+	}
+
+	/**
+	 * Forget the resolved logins of the given user.
+	 *
+	 * @param user The user having changed DN or deleted.
+	 */
+	private void forgetLogins(final UserOrg user) {
+		synchronized (logins) {
+			logins.values().removeIf(e -> e.uid().equalsIgnoreCase(user.getId()));
+		}
+	}
+
+	/**
+	 * Release the connections kept by this repository. Called when this repository is replaced by a new one built from
+	 * the updated node configuration. The next authentications with this repository are refused, and the pooled
+	 * connections are closed once returned.
+	 */
+	public void close() {
+		bindPool.close();
+		logins.clear();
+		PooledContextSource.closeSource(template.getContextSource());
+		Stream.of(assertionClient, searchClient, writeClient).filter(Objects::nonNull).forEach(UnboundIdClient::close);
+	}
+
 	/**
 	 * Return an user from a property.
 	 *
@@ -808,12 +1621,40 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 
 	@Override
 	public void setPassword(final UserOrg userLdap, final String password) {
-		set(userLdap, PASSWORD_ATTRIBUTE, digest(password));
+		if (passwordModify) {
+			modifyPassword(userLdap, null, password);
+		} else {
+			set(userLdap, PASSWORD_ATTRIBUTE, digest(password));
+		}
+		pinCredentials(userLdap);
+	}
+
+	/**
+	 * Check the next credentials of the given user against the primary server, so the new password is accepted
+	 * despite the replication lag.
+	 *
+	 * @param user The user whose password has changed.
+	 */
+	private void pinCredentials(final UserOrg user) {
+		if (template.getContextSource() instanceof ReadWriteContextSource readWrite) {
+			readWrite.pinEntry(user.getDn());
+		}
 	}
 
 	@Override
 	public void setPassword(final UserOrg userLdap, final String password, final String newPassword) {
 		log.info("Changing password for {} ...", userLdap.getId());
+		if (passwordModify) {
+			// Unlock account only when the user is locked by PASSWORD_POLICY_NAME
+			if (PASSWORD_POLICY_NAME.equals(userLdap.getLockedBy())) {
+				set(userLdap, PWD_ACCOUNT_LOCKED_ATTRIBUTE, null);
+			}
+
+			// Without current password, the password is reset, no temporary password is needed
+			modifyPassword(userLdap, password, newPassword);
+			pinCredentials(userLdap);
+			return;
+		}
 		final var passwordChange = new ModificationItem[]{new ModificationItem(DirContext.REPLACE_ATTRIBUTE,
 				new BasicAttribute(PASSWORD_ATTRIBUTE, digest(newPassword)))};
 
@@ -821,6 +1662,7 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 		set(userLdap, PWD_ACCOUNT_LOCKED_ATTRIBUTE, null);
 
 		// Authenticate the user is needed before changing the password.
+		drain(userLdap.getDn());
 		template.executeReadWrite(dirCtx -> {
 			final var ctx = (LdapContext) dirCtx;
 			ctx.removeFromEnvironment(LDAP_CONNECT_POOL);
@@ -840,6 +1682,42 @@ public class UserLdapRepository extends AbstractManagedLdapRepository<UserOrg> i
 			}
 			return null;
 		});
+		pinCredentials(userLdap);
+	}
+
+	/**
+	 * Change the password with the Password Modify extended operation. A change requested by the user is sent on the
+	 * connection bound as this user, so the password policy of the server applies as with a change made by the user
+	 * itself. A reset is sent without reconnection with the administrator identity, bypassing this policy.
+	 *
+	 * @param user        The user to update.
+	 * @param oldPassword The current password checked by the server. When <code>null</code>, the password is reset.
+	 * @param newPassword The new clear password, hashed by the server.
+	 */
+	private void modifyPassword(final UserOrg user, final String oldPassword, final String newPassword) {
+		drain(user.getDn());
+		template.executeReadWrite(dirCtx -> {
+			final var ctx = (LdapContext) dirCtx;
+			final var base = ctx.getNameInNamespace();
+			final var dn = StringUtils.isEmpty(base) ? user.getDn() : user.getDn() + "," + base;
+			try {
+				if (oldPassword != null) {
+					// Bind as the user, this connection is no more shared
+					ctx.removeFromEnvironment(LDAP_CONNECT_POOL);
+					ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+					ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, oldPassword);
+					ctx.reconnect(null);
+				}
+				ctx.extendedOperation(new PasswordModifyRequest(dn, oldPassword, newPassword));
+			} catch (final AuthenticationException e) {
+				log.info("Authentication failed for {}: {}", user.getId(), e.getMessage());
+				throw new ValidationJsonException("password", "login");
+			} catch (final InvalidAttributeValueException e) {
+				log.info("Password change failed due to: {}", e.getMessage());
+				throw new ValidationJsonException("password", "password-policy");
+			}
+			return null;
+		});
 	}
 
 	/**
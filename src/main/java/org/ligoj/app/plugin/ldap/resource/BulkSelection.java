@@ -0,0 +1,32 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.resource;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Users targeted by a bulk operation. The criteria are cumulative.
+ */
+@Getter
+@Setter
+public class BulkSelection {
+
+	/**
+	 * User identifiers.
+	 */
+	private List<String> ids;
+
+	/**
+	 * Group identifier. Its direct user members are selected.
+	 */
+	private String group;
+
+	/**
+	 * Company identifier. The users of this company and its sub-companies are selected.
+	 */
+	private String company;
+}
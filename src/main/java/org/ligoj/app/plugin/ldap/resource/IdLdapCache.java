@@ -11,6 +11,7 @@ import org.springframework.context.annotation.Role;
 import org.springframework.stereotype.Component;
 
 import javax.cache.expiry.Duration;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Cache configuration for LDAP.
@@ -21,7 +22,11 @@ public class IdLdapCache implements CacheManagerAware {
 
 	@Override
 	public void onCreate(final HazelcastCacheManager cacheManager, final CacheConfigurer configurer) {
+		// The users are refreshed with all the data, the groups and the companies have their own expiration
 		cacheManager.createCache("id-ldap-data", configurer.newCacheConfig("id-ldap-data", Duration.ONE_DAY));
+		cacheManager.createCache("id-ldap-groups", configurer.newCacheConfig("id-ldap-groups", Duration.TEN_MINUTES));
+		cacheManager.createCache("id-ldap-companies",
+				configurer.newCacheConfig("id-ldap-companies", new Duration(TimeUnit.DAYS, 7)));
 		cacheManager.createCache("customers", configurer.newCacheConfig("customers", Duration.ONE_HOUR));
 		cacheManager.createCache("customers-by-id", configurer.newCacheConfig("customers-by-id", Duration.ONE_HOUR));
 	}
@@ -11,6 +11,7 @@ import jakarta.ws.rs.core.Response;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Strings;
 import org.ligoj.app.api.Normalizer;
 import org.ligoj.app.api.ServicePlugin;
 import org.ligoj.app.api.SubscriptionStatusWithData;
@@ -18,7 +19,10 @@ import org.ligoj.app.iam.Activity;
 import org.ligoj.app.iam.IamConfiguration;
 import org.ligoj.app.iam.IamProvider;
 import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.iam.dao.DelegateOrgRepository;
+import org.ligoj.app.iam.model.DelegateType;
 import org.ligoj.app.model.*;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
 import org.ligoj.app.plugin.id.dao.CacheProjectGroupRepository;
 import org.ligoj.app.plugin.id.model.ContainerScope;
 import org.ligoj.app.plugin.id.resource.AbstractPluginIdResource;
@@ -34,6 +38,7 @@ import org.ligoj.bootstrap.core.SpringUtils;
 import org.ligoj.bootstrap.core.resource.BusinessException;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.LdapContextSource;
 import org.springframework.security.core.Authentication;
@@ -42,6 +47,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -73,6 +79,86 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 	 */
 	public static final String PARAMETER_URL = KEY + ":url";
 
+	/**
+	 * Selection strategy of the server among the URLs: "failover", "round-robin" or "fewest-connections".
+	 */
+	public static final String PARAMETER_URL_STRATEGY = KEY + ":url-strategy";
+
+	/**
+	 * Delay in seconds before probing again an ejected server. Ignored with the "failover" URL strategy.
+	 */
+	public static final String PARAMETER_HEALTH_CHECK_INTERVAL = KEY + ":health-check-interval";
+
+	/**
+	 * Optional comma separated URLs of the primary server accepting the writes. When defined, the URLs of
+	 * {@link #PARAMETER_URL} are the read replicas.
+	 */
+	public static final String PARAMETER_WRITE_URL = KEY + ":write-url";
+
+	/**
+	 * Maximal amount of shared connections per server. When empty or <code>0</code>, the connections are not pooled.
+	 */
+	public static final String PARAMETER_POOL_MAX = KEY + ":pool-max";
+
+	/**
+	 * Minimal amount of idle connections per server kept by the eviction.
+	 */
+	public static final String PARAMETER_POOL_MIN = KEY + ":pool-min";
+
+	/**
+	 * Delay in seconds after which an idle pooled connection is evicted.
+	 */
+	public static final String PARAMETER_POOL_IDLE_TIMEOUT = KEY + ":pool-idle-timeout";
+
+	/**
+	 * Search filter validating an idle pooled connection before lending it. When empty, there is no validation.
+	 */
+	public static final String PARAMETER_POOL_VALIDATION = KEY + ":pool-validation";
+
+	/**
+	 * Maximal delay in seconds to wait for a pooled connection.
+	 */
+	public static final String PARAMETER_POOL_WAIT_TIMEOUT = KEY + ":pool-wait-timeout";
+
+	/**
+	 * Delay in seconds to establish a connection. <code>0</code> waits without limit.
+	 */
+	public static final String PARAMETER_CONNECT_TIMEOUT = KEY + ":connect-timeout";
+
+	/**
+	 * Delay in seconds to wait for each response of the server. <code>0</code> waits without limit.
+	 */
+	public static final String PARAMETER_RESPONSE_TIMEOUT = KEY + ":response-timeout";
+
+	/**
+	 * Client library of the bulk scans of the cache refresh: "jndi" or "unboundid".
+	 */
+	public static final String PARAMETER_SEARCH_BACKEND = KEY + ":search-backend";
+
+	/**
+	 * Maximal amount of outstanding operations of the pipelined bulk writes. When empty or <code>0</code>, the bulk
+	 * writes are sent one by one.
+	 */
+	public static final String PARAMETER_PIPELINE_DEPTH = KEY + ":pipeline-depth";
+
+	/**
+	 * Delay in milliseconds during which the modifications of a same entry are merged into a single request. When
+	 * empty or <code>0</code>, each modification is sent immediately.
+	 */
+	public static final String PARAMETER_COALESCING_WINDOW = KEY + ":coalescing-window";
+
+	/**
+	 * Server-side referential integrity of the group members: "auto", "true" or "false". When enabled or detected, the
+	 * groups are not updated by the plug-in on user move.
+	 */
+	public static final String PARAMETER_REFERENTIAL_INTEGRITY = KEY + ":referential-integrity";
+
+	/**
+	 * Password change with the Password Modify extended operation: "auto", "true" or "false". When enabled or
+	 * supported, the passwords are hashed by the server.
+	 */
+	public static final String PARAMETER_PASSWORD_MODIFY = KEY + ":password-modify";
+
 	/**
 	 * DN of the administrative user that can fetch the repository
 	 */
@@ -171,6 +257,12 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 	 */
 	public static final String PARAMETER_GROUPS_MEMBER_ATTRIBUTE = KEY + ":groups-member-attribute";
 
+	/**
+	 * Additional LDAP attributes returned by the scans of the groups, besides "cn" and the member attribute. Comma or
+	 * space separated values.
+	 */
+	public static final String PARAMETER_GROUPS_SCAN_ATTRIBUTES = KEY + ":groups-scan-attributes";
+
 	/**
 	 * DN of companies' location. Should be inside or the same as the people OU.
 	 */
@@ -188,6 +280,11 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 	 */
 	public static final String PARAMETER_COMPANIES_CLASS_CREATE = KEY + ":companies-class-create";
 
+	/**
+	 * Additional LDAP attributes returned by the scans of the companies, besides "ou". Comma or space separated values.
+	 */
+	public static final String PARAMETER_COMPANIES_SCAN_ATTRIBUTES = KEY + ":companies-scan-attributes";
+
 	/**
 	 * DN of people's location considered as internal. Can be the same as people DN.
 	 */
@@ -209,6 +306,18 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 	 */
 	public static final String PARAMETER_SELF_SEARCH = KEY + ":self-search";
 
+	/**
+	 * Connect timeout in milliseconds of the root DSE probe, so an unavailable server does not delay the build of the
+	 * repository.
+	 */
+	private static final long PROBE_TIMEOUT = 2_000;
+
+	/**
+	 * Role of the administrators, the only ones allowed to reload or refresh the cache, as for the cache operations of
+	 * the identity plugin.
+	 */
+	public static final String ADMIN_ROLE = "ADMIN";
+
 	@Autowired
 	protected ProjectCustomerLdapRepository projectCustomerLdapRepository;
 
@@ -224,6 +333,12 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 	@Autowired
 	private IamProvider[] iamProvider;
 
+	@Autowired
+	private CacheLdapRepository cacheLdapRepository;
+
+	@Autowired
+	private DelegateOrgRepository delegateRepository;
+
 	@Autowired
 	protected ServicePluginLocator servicePluginLocator;
 
@@ -231,6 +346,16 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 	@Getter
 	protected LdapPluginResource self;
 
+	/**
+	 * Last built user repository of each node.
+	 */
+	private final Map<String, UserLdapRepository> repositories = new ConcurrentHashMap<>();
+
+	/**
+	 * Probed capabilities by node and servers, kept across the rebuilds of the repositories of a node.
+	 */
+	private final Map<String, DirectoryCapabilities> capabilities = new ConcurrentHashMap<>();
+
 	/**
 	 * Convert a string to a list using Comma or space separator.
 	 */
@@ -238,6 +363,51 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 		return StringUtils.split(rawParameterValue, ", ");
 	}
 
+	/**
+	 * Return a positive or zero integer parameter value.
+	 *
+	 * @param parameters   The node parameters.
+	 * @param name         The parameter name.
+	 * @param defaultValue The value used when the parameter is not defined.
+	 * @return The parameter value.
+	 * @throws ValidationJsonException When the value is not a positive or zero integer.
+	 */
+	private long getNumber(final Map<String, String> parameters, final String name, final long defaultValue) {
+		final var value = StringUtils.trimToNull(parameters.get(name));
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			final var number = Long.parseLong(value);
+			if (number >= 0) {
+				return number;
+			}
+		} catch (final NumberFormatException e) {
+			// Reported as an invalid value below
+		}
+		throw new ValidationJsonException(name, "integer", value);
+	}
+
+	/**
+	 * Return a parameter value among the allowed ones, ignoring the case.
+	 *
+	 * @param parameters   The node parameters.
+	 * @param name         The parameter name.
+	 * @param defaultValue The value used when the parameter is not defined.
+	 * @param allowed      The allowed values.
+	 * @return The lower case parameter value.
+	 * @throws ValidationJsonException When the value is not allowed.
+	 */
+	private String getChoice(final Map<String, String> parameters, final String name, final String defaultValue,
+			final String... allowed) {
+		final var value = StringUtils.trimToNull(parameters.get(name));
+		if (value == null) {
+			return defaultValue;
+		}
+		return Arrays.stream(allowed).filter(value::equalsIgnoreCase).findFirst()
+				.orElseThrow(() -> new ValidationJsonException(name, "select", value, String.join(",", allowed)));
+	}
+
 	/**
 	 * Read main parameter from the provided list with {@link #getParameter(Map, String, String)}. Then do the same for the given parameter name
 	 * with "-create" suffix. The last step uses the first value as the default value.
@@ -249,19 +419,122 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 		repository.setClassNamesCreate(toParameterList(getParameter(parameters, name + "-create", classValues[0])));
 	}
 
-	@Override
-	protected UserLdapRepository getUserRepository(final String node) {
-		log.info("Build ldap template for node {}", node);
-		final var parameters = pvResource.getNodeParameters(node);
+	/**
+	 * Build a context source for the given URLs and the connection parameters. The connections are pooled when
+	 * {@link #PARAMETER_POOL_MAX} is defined.
+	 */
+	private ContextSource newLdapContextSource(final Map<String, String> parameters, final String... urls) {
 		final var contextSource = new LdapContextSource();
 		contextSource.setReferral(parameters.get(PARAMETER_REFERRAL));
 		contextSource.setPassword(parameters.get(PARAMETER_PASSWORD));
-		contextSource.setUrls(parameters.get(PARAMETER_URL).split(","));
+		contextSource.setUrls(urls);
 		contextSource.setUserDn(parameters.get(PARAMETER_USER));
 		contextSource.setBase(parameters.get(PARAMETER_BASE_BN));
+		contextSource.setBaseEnvironmentProperties(Map.of("com.sun.jndi.ldap.connect.timeout",
+				String.valueOf(getNumber(parameters, PARAMETER_CONNECT_TIMEOUT, 10) * 1000L), "com.sun.jndi.ldap.read.timeout",
+				String.valueOf(getNumber(parameters, PARAMETER_RESPONSE_TIMEOUT, 300) * 1000L)));
+		final var poolMax = (int) getNumber(parameters, PARAMETER_POOL_MAX, 0);
+		if (poolMax <= 0) {
+			contextSource.afterPropertiesSet();
+			return contextSource;
+		}
+
+		// Replace the JNDI pool by a sized and observable one
+		contextSource.setPooled(false);
 		contextSource.afterPropertiesSet();
+		final var pool = new PooledContextSource(String.join(",", urls), contextSource, poolMax);
+		pool.setMinIdle((int) getNumber(parameters, PARAMETER_POOL_MIN, 0));
+		pool.setIdleTimeout(getNumber(parameters, PARAMETER_POOL_IDLE_TIMEOUT, 300) * 1000L);
+		pool.setMaxWait(getNumber(parameters, PARAMETER_POOL_WAIT_TIMEOUT, 10) * 1000L);
+		pool.setValidationFilter(StringUtils.trimToNull(parameters.get(PARAMETER_POOL_VALIDATION)));
+		pool.warmUp();
+		return pool;
+	}
+
+	/**
+	 * Build a context source for the given comma separated URLs. With the "failover" strategy, the URLs are tried in
+	 * order for each connection. Otherwise, the connections are spread over the healthy servers.
+	 *
+	 * @param parameters The node parameters.
+	 * @param urls       The comma separated URLs.
+	 * @return The context source of these URLs.
+	 */
+	protected ContextSource newContextSource(final Map<String, String> parameters, final String urls) {
+		final var urlList = toParameterList(urls);
+		final var strategy = LoadBalancedContextSource.Strategy.valueOf(getChoice(parameters, PARAMETER_URL_STRATEGY,
+				"failover", "failover", "round-robin", "fewest-connections").toUpperCase(Locale.ENGLISH).replace('-', '_'));
+		if (strategy == LoadBalancedContextSource.Strategy.FAILOVER || urlList.length == 1) {
+			return newLdapContextSource(parameters, urlList);
+		}
+		final var servers = new LinkedHashMap<String, ContextSource>();
+		Arrays.stream(urlList).forEach(url -> servers.put(url, newLdapContextSource(parameters, url)));
+		final var contextSource = new LoadBalancedContextSource(servers, strategy);
+		contextSource.setRetryDelay(getNumber(parameters, PARAMETER_HEALTH_CHECK_INTERVAL, 30) * 1000L);
+		return contextSource;
+	}
+
+	/**
+	 * Return the capabilities of the servers of a node, probed once for the current URLs of this node. A failed probe
+	 * is not kept, and is attempted again with the next build of the repository.
+	 *
+	 * @param node       The node identifier.
+	 * @param parameters The node parameters.
+	 * @return The capabilities of the servers.
+	 */
+	private DirectoryCapabilities getCapabilities(final String node, final Map<String, String> parameters) {
+		final var key = String.join("|", node, parameters.get(PARAMETER_URL),
+				StringUtils.defaultString(parameters.get(PARAMETER_WRITE_URL)));
+		final var cached = capabilities.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		final var probed = DirectoryCapabilities.probe(newProbeClient(parameters));
+		if (probed.isProbed()) {
+			capabilities.put(key, probed);
+		}
+		return probed;
+	}
+
+	/**
+	 * Build a native LDAP client probing the servers with a short timeout.
+	 */
+	private UnboundIdClient newProbeClient(final Map<String, String> parameters) {
+		final var client = newUnboundIdClient(parameters);
+		client.setConnectTimeout(PROBE_TIMEOUT);
+		client.setResponseTimeout(PROBE_TIMEOUT);
+		return client;
+	}
+
+	/**
+	 * Build a native LDAP client from the connection parameters.
+	 */
+	private UnboundIdClient newUnboundIdClient(final Map<String, String> parameters) {
+		final var client = new UnboundIdClient(toParameterList(parameters.get(PARAMETER_URL)), parameters.get(PARAMETER_USER),
+				parameters.get(PARAMETER_PASSWORD), parameters.get(PARAMETER_BASE_BN));
+		final var writeUrl = parameters.get(PARAMETER_WRITE_URL);
+		if (StringUtils.isNotBlank(writeUrl)) {
+			client.setWriteUrls(toParameterList(writeUrl));
+		}
+		client.setFollowReferrals("follow".equalsIgnoreCase(parameters.get(PARAMETER_REFERRAL)));
+		client.setConnectTimeout(getNumber(parameters, PARAMETER_CONNECT_TIMEOUT, 10) * 1000L);
+		client.setResponseTimeout(getNumber(parameters, PARAMETER_RESPONSE_TIMEOUT, 300) * 1000L);
+		client.setPoolSize((int) getNumber(parameters, PARAMETER_POOL_MAX, client.getPoolSize()));
+		return client;
+	}
+
+	@Override
+	protected UserLdapRepository getUserRepository(final String node) {
+		log.info("Build ldap template for node {}", node);
+		final var parameters = pvResource.getNodeParameters(node);
 		final var template = new LdapTemplate();
-		template.setContextSource(contextSource);
+		final var contextSource = newContextSource(parameters, parameters.get(PARAMETER_URL));
+		final var writeUrl = parameters.get(PARAMETER_WRITE_URL);
+		if (StringUtils.isBlank(writeUrl)) {
+			template.setContextSource(contextSource);
+		} else {
+			// Searches and lookups go to the replicas, the writes go to the primary
+			template.setContextSource(new ReadWriteContextSource(newContextSource(parameters, writeUrl), contextSource));
+		}
 		template.setIgnorePartialResultException(true);
 
 		// A new repository instance
@@ -280,10 +553,49 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 		repository.setCompanyPattern(getParameter(parameters, PARAMETER_COMPANY_PATTERN, "[^,]+,ou=([^,]+),.*"));
 		repository.setClearPassword(Boolean.parseBoolean(parameters.get(PARAMETER_CLEAR_PASSWORD)));
 		repository.setCustomAttributes(toParameterList(getParameter(parameters, PARAMETER_PEOPLE_CUSTOM_ATTRIBUTES, "")));
+		// Select the strategies from the root DSE
+		final var capabilities = getCapabilities(node, parameters);
+		repository.setCapabilities(capabilities);
+		// Native client sharing its pooled connections between the usages below
+		final var client = newUnboundIdClient(parameters);
+		client.setPaging(capabilities.isPaging());
+		if (capabilities.isAssertion()) {
+			// Detect the assertion failures of the updates from their result code
+			repository.setAssertionClient(client);
+		}
+		if ("unboundid".equalsIgnoreCase(getChoice(parameters, PARAMETER_SEARCH_BACKEND, "jndi", "jndi", "unboundid"))) {
+			// Stream the scanned entries
+			repository.setSearchClient(client);
+		}
+		final var pipelineDepth = (int) getNumber(parameters, PARAMETER_PIPELINE_DEPTH, 0);
+		if (pipelineDepth > 0) {
+			// Send the bulk writes without waiting for each response
+			client.setPipelineDepth(pipelineDepth);
+			repository.setWriteClient(client);
+		}
+		final var coalescingWindow = getNumber(parameters, PARAMETER_COALESCING_WINDOW, 0);
+		if (coalescingWindow > 0) {
+			// Write-behind queue merging the modifications of a same entry
+			repository.setModifyQueue(new CoalescingModifyQueue(template, coalescingWindow));
+		}
+		final var passwordModify = getChoice(parameters, PARAMETER_PASSWORD_MODIFY, "false", "false", "true", "auto");
+		repository.setPasswordModify("auto".equalsIgnoreCase(passwordModify) ? capabilities.isPasswordModify()
+				: Boolean.parseBoolean(passwordModify));
+		final var integrity = getChoice(parameters, PARAMETER_REFERENTIAL_INTEGRITY, "false", "false", "true", "auto");
+		if ("auto".equalsIgnoreCase(integrity)) {
+			// Probe the root DSE and the configuration of the server accepting the writes, once with the capabilities
+			repository.setReferentialIntegrity(capabilities.isReferentialIntegrity(
+					getParameter(parameters, PARAMETER_GROUPS_MEMBER_ATTRIBUTE, "uniqueMember"),
+					a -> ReferentialIntegrity.detect(newProbeClient(parameters), a)));
+		} else {
+			repository.setReferentialIntegrity(Boolean.parseBoolean(integrity));
+		}
 
 		// Complete the bean
 		SpringUtils.getApplicationContext().getAutowireCapableBeanFactory().autowireBean(repository);
 
+		// Release the connections of the repository built from the former configuration of this node
+		Optional.ofNullable(repositories.put(node, repository)).ifPresent(UserLdapRepository::close);
 		return repository;
 	}
 
@@ -303,6 +615,7 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 		repository.setBaseDn(getParameter(parameters, PARAMETER_GROUPS_DN, ""));
 		repository.setMemberAttribute(getParameter(parameters, PARAMETER_GROUPS_MEMBER_ATTRIBUTE, "uniqueMember"));
 		setParameterClassValues(repository, parameters, PARAMETER_GROUPS_CLASS, "groupOfUniqueNames");
+		repository.setScanAttributes(toParameterList(getParameter(parameters, PARAMETER_GROUPS_SCAN_ATTRIBUTES, "")));
 
 		// Complete the bean
 		SpringUtils.getApplicationContext().getAutowireCapableBeanFactory().autowireBean(repository);
@@ -325,6 +638,7 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 		repository.setBaseDn(getParameter(parameters, PARAMETER_COMPANIES_DN, ""));
 		setParameterClassValues(repository, parameters, PARAMETER_COMPANIES_CLASS, "organizationalUnit");
 		repository.setQuarantineBaseDn(parameters.get(PARAMETER_QUARANTINE_DN));
+		repository.setScanAttributes(toParameterList(getParameter(parameters, PARAMETER_COMPANIES_SCAN_ATTRIBUTES, "")));
 
 		// Complete the bean
 		SpringUtils.getApplicationContext().getAutowireCapableBeanFactory().autowireBean(repository);
@@ -680,6 +994,178 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 		}
 	}
 
+	/**
+	 * Return the statistics of the connection pools of the given node.
+	 *
+	 * @param node The node identifier.
+	 * @return The pool statistics, where the key is the URLs of the pool. Empty when the connections are not pooled.
+	 */
+	@GET
+	@Path("pool/{node}")
+	public Map<String, PooledContextSource.Statistics> getPoolStatistics(@PathParam("node") final String node) {
+		final var result = new LinkedHashMap<String, PooledContextSource.Statistics>();
+		final var repository = (UserLdapRepository) self.getConfiguration(node).getUserRepository();
+		collectPools(repository.getTemplate().getContextSource(), result);
+		return result;
+	}
+
+	/**
+	 * Return the capabilities advertised by the root DSE of the given node and driving the strategies of the
+	 * repositories.
+	 *
+	 * @param node The node identifier.
+	 * @return The capabilities of the server.
+	 */
+	@GET
+	@Path("capabilities/{node}")
+	public DirectoryCapabilities getCapabilities(@PathParam("node") final String node) {
+		return ((UserLdapRepository) self.getConfiguration(node).getUserRepository()).getCapabilities();
+	}
+
+	/**
+	 * Lock, unlock, isolate or restore several users of the given node. The directory operations are pipelined when
+	 * the pipelined writes are enabled. The users outside the write delegates of the caller are not updated.
+	 *
+	 * @param node      The node identifier.
+	 * @param operation The operation to apply.
+	 * @param selection The targeted users.
+	 * @return The result for each user.
+	 */
+	@POST
+	@Path("bulk/{node}/{operation}")
+	@Consumes(MediaType.APPLICATION_JSON)
+	public List<BulkResult> bulk(@PathParam("node") final String node, @PathParam("operation") final BulkOperation operation,
+			final BulkSelection selection) {
+		final var configuration = self.getConfiguration(node);
+		final var repository = (UserLdapRepository) configuration.getUserRepository();
+		final var results = new ArrayList<BulkResult>();
+		final var users = new LinkedHashMap<String, UserOrg>();
+		Optional.ofNullable(selection.getIds()).orElse(List.of()).forEach(id -> {
+			final var user = repository.findById(id);
+			if (user == null) {
+				results.add(new BulkResult(id, BulkResult.Status.NOT_FOUND, null));
+			} else {
+				users.put(user.getId(), user);
+			}
+		});
+		if (selection.getGroup() != null) {
+			final var group = configuration.getGroupRepository().findById(selection.getGroup());
+			if (group == null) {
+				throw new ValidationJsonException(IdentityResource.PARAMETER_GROUP, BusinessException.KEY_UNKNOWN_ID, selection.getGroup());
+			}
+			group.getMembers().stream().map(repository::findById).filter(Objects::nonNull).forEach(u -> users.put(u.getId(), u));
+		}
+		if (selection.getCompany() != null) {
+			final var company = configuration.getCompanyRepository().findById(selection.getCompany());
+			if (company == null) {
+				throw new ValidationJsonException("company", BusinessException.KEY_UNKNOWN_ID, selection.getCompany());
+			}
+			final var suffix = "," + company.getDn();
+			repository.findAll().values().stream().filter(u -> Strings.CI.endsWith(u.getDn(), suffix))
+					.forEach(u -> users.put(u.getId(), u));
+		}
+
+		// Only the users within a write delegate of the caller, checked once per company
+		final var principal = SecurityContextHolder.getContext().getAuthentication().getName();
+		final var writable = new HashMap<String, Boolean>();
+		final var allowed = new ArrayList<UserOrg>();
+		users.values().forEach(u -> {
+			if (writable.computeIfAbsent(u.getCompany(), c -> canWrite(configuration, principal, c))) {
+				allowed.add(u);
+			} else {
+				results.add(new BulkResult(u.getId(), BulkResult.Status.FORBIDDEN, null));
+			}
+		});
+		log.info("Bulk {} of {} users ({} forbidden) requested by '{}'", operation, allowed.size(),
+				users.size() - allowed.size(), principal);
+		results.addAll(repository.bulk(principal, operation, allowed));
+		return results;
+	}
+
+	/**
+	 * Indicate the given principal has a write delegate on the given company.
+	 */
+	private boolean canWrite(final IamConfiguration configuration, final String principal, final String company) {
+		final var companyOrg = configuration.getCompanyRepository().findById(company);
+		return companyOrg != null
+				&& !delegateRepository.findByMatchingDnForWrite(principal, companyOrg.getDn(), DelegateType.COMPANY).isEmpty();
+	}
+
+	/**
+	 * Reload from LDAP all the entries of the given type. The groups are linked to the cached users without user scan,
+	 * and the users are reloaded with all the data. Reserved to the administrators.
+	 *
+	 * @param type The type of the entries to reload.
+	 */
+	@POST
+	@Path("cache/{type}")
+	public void refresh(@PathParam("type") final CacheDataType type) {
+		checkAdministrator();
+		final var start = System.currentTimeMillis();
+		cacheLdapRepository.refresh(type);
+		log.info("Reload of {} requested by '{}' in {}ms", type,
+				SecurityContextHolder.getContext().getAuthentication().getName(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Re-read from LDAP a single user, a group with its members or a company subtree with its users, and update the
+	 * in-memory cache, the memberships and the database cache of these entries only. Reserved to the administrators.
+	 *
+	 * @param node The node identifier.
+	 * @param type The type of the entry to refresh.
+	 * @param id   The entry identifier. For a user, the DN is also accepted.
+	 * @return The result for each refreshed entry.
+	 */
+	@POST
+	@Path("refresh/{node}/{type}/{id}")
+	public List<RefreshResult> refresh(@PathParam("node") final String node, @PathParam("type") final CacheDataType type,
+			@PathParam("id") final String id) {
+		checkAdministrator();
+		final var configuration = self.getConfiguration(node);
+		final var start = System.currentTimeMillis();
+		final var results = switch (type) {
+			case USER -> ((UserLdapRepository) configuration.getUserRepository()).refresh(id);
+			case GROUP -> ((GroupLdapRepository) configuration.getGroupRepository()).refresh(Normalizer.normalize(id));
+			default -> {
+				final var repository = (CompanyLdapRepository) configuration.getCompanyRepository();
+				if (repository.findById(Normalizer.normalize(id)) == null) {
+					throw new ValidationJsonException("company", BusinessException.KEY_UNKNOWN_ID, id);
+				}
+				yield repository.refresh(Normalizer.normalize(id));
+			}
+		};
+		log.info("Refresh of {} {} requested by '{}', {} entries in {}ms", type, id,
+				SecurityContextHolder.getContext().getAuthentication().getName(), results.size(),
+				System.currentTimeMillis() - start);
+		return results;
+	}
+
+	/**
+	 * Check the caller has the administrator role.
+	 *
+	 * @throws ForbiddenException When the caller is not an administrator.
+	 */
+	private void checkAdministrator() {
+		if (SecurityContextHolder.getContext().getAuthentication().getAuthorities().stream()
+				.noneMatch(a -> ADMIN_ROLE.equals(a.getAuthority()))) {
+			throw new ForbiddenException();
+		}
+	}
+
+	/**
+	 * Collect the statistics of the pools behind the given context source.
+	 */
+	private void collectPools(final ContextSource source, final Map<String, PooledContextSource.Statistics> result) {
+		if (source instanceof PooledContextSource pool) {
+			result.put(pool.getName(), pool.getStatistics());
+		} else if (source instanceof ReadWriteContextSource readWrite) {
+			collectPools(readWrite.getPrimary(), result);
+			collectPools(readWrite.getReplicas(), result);
+		} else if (source instanceof LoadBalancedContextSource balanced) {
+			balanced.getServers().forEach(s -> collectPools(s.getSource(), result));
+		}
+	}
+
 	/**
 	 * Search the LDAP groups matching to the given criteria and of type "Project". Node identifier is ignored for now.
 	 *
@@ -808,7 +1294,16 @@ public class LdapPluginResource extends AbstractPluginIdResource<UserLdapReposit
 		iam.setCompanyRepository(newCompanyLdapRepository(iam.getNode(), repository.getTemplate()));
 		iam.setGroupRepository(newGroupLdapRepository(iam.getNode(), repository.getTemplate()));
 		repository.setCompanyRepository((CompanyLdapRepository) iam.getCompanyRepository());
+		repository.getCompanyRepository().setUserRepository(repository);
 		repository.setGroupLdapRepository((GroupLdapRepository) iam.getGroupRepository());
+		repository.getCompanyRepository().setSearchClient(repository.getSearchClient());
+		repository.getCompanyRepository().setWriteClient(repository.getWriteClient());
+		((GroupLdapRepository) iam.getGroupRepository()).setSearchClient(repository.getSearchClient());
+		((GroupLdapRepository) iam.getGroupRepository()).setWriteClient(repository.getWriteClient());
+		repository.getCompanyRepository().setModifyQueue(repository.getModifyQueue());
+		repository.getCompanyRepository().setCapabilities(repository.getCapabilities());
+		((GroupLdapRepository) iam.getGroupRepository()).setCapabilities(repository.getCapabilities());
+		((GroupLdapRepository) iam.getGroupRepository()).setModifyQueue(repository.getModifyQueue());
 	}
 
 	/**
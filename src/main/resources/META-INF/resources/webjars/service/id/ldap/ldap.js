@@ -12,6 +12,19 @@ define(function () {
                 current.$super('layoutParameters')(configuration, [
                     {'section': 'server'},
                     'service:id:ldap:url',
+                    'service:id:ldap:url-strategy',
+                    'service:id:ldap:health-check-interval',
+                    'service:id:ldap:write-url',
+                    'service:id:ldap:pool-max',
+                    'service:id:ldap:pool-min',
+                    'service:id:ldap:pool-idle-timeout',
+                    'service:id:ldap:pool-validation',
+                    'service:id:ldap:pool-wait-timeout',
+                    'service:id:ldap:search-backend',
+                    'service:id:ldap:pipeline-depth',
+                    'service:id:ldap:coalescing-window',
+                    'service:id:ldap:referential-integrity',
+                    'service:id:ldap:password-modify',
                     'service:id:ldap:user-dn',
                     'service:id:ldap:password',
                     'service:id:ldap:base-dn',
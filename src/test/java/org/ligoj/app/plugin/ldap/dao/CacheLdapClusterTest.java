@@ -0,0 +1,186 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.hazelcast.cluster.Cluster;
+import com.hazelcast.cluster.Member;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.topic.ITopic;
+import com.hazelcast.topic.Message;
+import com.hazelcast.topic.MessageListener;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.iam.CompanyOrg;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.ResourceOrg;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.springframework.ldap.support.LdapUtils;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class of {@link CacheLdapCluster}
+ */
+class CacheLdapClusterTest {
+
+	private CacheLdapCluster cluster;
+	private IMap<String, byte[]> map;
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@SuppressWarnings("unchecked")
+	@BeforeEach
+	void init() throws InterruptedException {
+		final var hazelcast = mock(HazelcastInstance.class);
+		final var members = mock(Cluster.class);
+		when(members.getMembers()).thenReturn(Set.of(mock(Member.class), mock(Member.class)));
+		when(hazelcast.getCluster()).thenReturn(members);
+		map = mock(IMap.class);
+		when(hazelcast.<String, byte[]>getMap(CacheLdapCluster.MAP)).thenReturn(map);
+		when(map.tryLock(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class))).thenReturn(true);
+		cluster = new CacheLdapCluster();
+		cluster.setHazelcast(hazelcast);
+	}
+
+	private Supplier<Map<CacheDataType, Map<String, ? extends ResourceOrg>>> newLoader() {
+		return () -> {
+			loads.incrementAndGet();
+			final var data = new HashMap<CacheDataType, Map<String, ? extends ResourceOrg>>();
+			data.put(CacheDataType.COMPANY, new HashMap<>());
+			return data;
+		};
+	}
+
+	@Test
+	void refreshSingleMember() {
+		final var single = new CacheLdapCluster();
+		Assertions.assertNotNull(single.refresh(newLoader(), System.currentTimeMillis()));
+		Assertions.assertEquals(1, loads.get());
+	}
+
+	@Test
+	void refreshLeader() {
+		final var data = cluster.refresh(newLoader(), System.currentTimeMillis());
+		Assertions.assertTrue(data.containsKey(CacheDataType.COMPANY));
+		Assertions.assertEquals(1, loads.get());
+
+		// The snapshot is published for the other members
+		verify(map).set(ArgumentMatchers.eq(CacheLdapCluster.SNAPSHOT), ArgumentMatchers.any(byte[].class));
+		verify(map).unlock(ArgumentMatchers.anyString());
+	}
+
+	@Test
+	void refreshFollower() {
+		final var requested = System.currentTimeMillis();
+		when(map.get(CacheLdapCluster.SNAPSHOT)).thenReturn(CacheLdapCluster.encode(newLoader().get()));
+		final var data = cluster.refresh(newLoader(), requested);
+
+		// The snapshot of the other member is used without LDAP scan
+		Assertions.assertTrue(data.containsKey(CacheDataType.COMPANY));
+		Assertions.assertEquals(1, loads.get());
+		verify(map, never()).set(ArgumentMatchers.anyString(), ArgumentMatchers.any(byte[].class));
+	}
+
+	@Test
+	void refreshOutdatedSnapshot() {
+		when(map.get(CacheLdapCluster.SNAPSHOT)).thenReturn(CacheLdapCluster.encode(newLoader().get()));
+		cluster.setTolerance(0);
+		cluster.refresh(newLoader(), System.currentTimeMillis() + 1000);
+		Assertions.assertEquals(2, loads.get());
+		verify(map).set(ArgumentMatchers.eq(CacheLdapCluster.SNAPSHOT), ArgumentMatchers.any(byte[].class));
+	}
+
+	@Test
+	void refreshLockTimeout() throws InterruptedException {
+		when(map.tryLock(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class))).thenReturn(false);
+		cluster.refresh(newLoader(), System.currentTimeMillis());
+		Assertions.assertEquals(1, loads.get());
+		verify(map, never()).unlock(ArgumentMatchers.anyString());
+	}
+
+	@Test
+	void shareAndFetch() {
+		final var groups = new HashMap<String, GroupOrg>();
+		groups.put("group", new GroupOrg("cn=group", "group", new HashSet<>(Set.of("uid=user,ou=ing"))));
+		final var captor = ArgumentCaptor.forClass(byte[].class);
+		cluster.share(CacheDataType.GROUP, groups);
+		verify(map).set(ArgumentMatchers.eq(CacheLdapCluster.RELOADED + CacheDataType.GROUP), captor.capture());
+
+		when(map.get(CacheLdapCluster.RELOADED + CacheDataType.GROUP)).thenReturn(captor.getValue());
+		final var shared = cluster.fetch(CacheDataType.GROUP);
+		Assertions.assertEquals(Set.of("uid=user,ou=ing"), ((GroupOrg) shared.get("group")).getMembers());
+		Assertions.assertNull(cluster.fetch(CacheDataType.COMPANY));
+	}
+
+	@Test
+	void decodeInvalid() {
+		Assertions.assertNull(CacheLdapCluster.decode(new byte[]{1, 2, 3}, 0));
+		Assertions.assertNull(CacheLdapCluster.decode(null, 0));
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	@Test
+	void decodeRejectedClass() {
+		final var data = new HashMap<CacheDataType, Map<String, ? extends ResourceOrg>>();
+		data.put(CacheDataType.COMPANY, (Map) Map.of("any", new AtomicLong()));
+		Assertions.assertNull(CacheLdapCluster.decode(CacheLdapCluster.encode(data), 0));
+	}
+
+	@Test
+	void decodeEntities() {
+		final var data = new HashMap<CacheDataType, Map<String, ? extends ResourceOrg>>();
+		final var company = new CompanyOrg("ou=ing,dc=sample,dc=com", "ing");
+		company.setLdapName(LdapUtils.newLdapName(company.getDn()));
+		company.setCompanyTree(List.of(company));
+		data.put(CacheDataType.COMPANY, Map.of("ing", company));
+		final var user = new UserOrg();
+		user.setId("user");
+		user.setGroups(new ArrayList<>(List.of("group")));
+		user.setLocked(Instant.now());
+		data.put(CacheDataType.USER, Map.of("user", user));
+		data.put(CacheDataType.GROUP, Map.of("group", new GroupOrg("cn=group", "group", new HashSet<>(Set.of("user")))));
+		final var decoded = CacheLdapCluster.decode(CacheLdapCluster.encode(data), 0);
+		Assertions.assertNotNull(decoded);
+		Assertions.assertEquals("ing", decoded.get(CacheDataType.COMPANY).get("ing").getId());
+		Assertions.assertEquals(List.of("group"), ((UserOrg) decoded.get(CacheDataType.USER).get("user")).getGroups());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void listen() {
+		final var hazelcast = mock(HazelcastInstance.class);
+		final ITopic<CacheDelta> topic = mock(ITopic.class);
+		when(hazelcast.<CacheDelta>getTopic(CacheLdapCluster.TOPIC)).thenReturn(topic);
+		final var listener = mock(Consumer.class);
+		final var other = new CacheLdapCluster();
+		other.setHazelcast(hazelcast);
+		other.subscribe(listener);
+		final var captor = ArgumentCaptor.forClass(MessageListener.class);
+		verify(topic).addMessageListener(captor.capture());
+
+		// The mutation is applied by another thread than the one receiving it
+		final var delta = CacheDelta.of(CacheDataType.GROUP, CacheDelta.Operation.DELETE, "group", null);
+		final var message = mock(Message.class);
+		final var publisher = mock(Member.class);
+		when(message.getPublishingMember()).thenReturn(publisher);
+		when(message.getMessageObject()).thenReturn(delta);
+		final var threads = new HashSet<String>();
+		doAnswer(i -> threads.add(Thread.currentThread().getName())).when(listener).accept(delta);
+		captor.getValue().onMessage(message);
+		verify(listener, timeout(1000)).accept(delta);
+		Assertions.assertEquals(Set.of("ldap-cache-delta"), threads);
+	}
+}
@@ -13,6 +13,8 @@ import org.ligoj.bootstrap.AbstractDataGeneratorTest;
 import org.ligoj.bootstrap.core.INamableBean;
 import org.ligoj.bootstrap.core.SpringUtils;
 import org.springframework.context.ApplicationContext;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
@@ -31,12 +33,15 @@ class CacheLdapRepositoryTest extends AbstractDataGeneratorTest {
 	private Map<String, UserOrg> users;
 	private CacheLdapRepository repository;
 	private IdCacheDao cache;
+	private CompanyLdapRepository companyRepository;
+	private GroupLdapRepository groupRepository;
+	private UserLdapRepository userRepository;
 
 	@BeforeEach
 	void init() {
-		final var companyRepository = mock(CompanyLdapRepository.class);
-		final var groupRepository = mock(GroupLdapRepository.class);
-		final var userRepository = mock(UserLdapRepository.class);
+		companyRepository = mock(CompanyLdapRepository.class);
+		groupRepository = mock(GroupLdapRepository.class);
+		userRepository = mock(UserLdapRepository.class);
 		final var iamProvider = mock(IamProvider.class);
 		final ApplicationContext applicationContext = mock(ApplicationContext.class);
 		SpringUtils.setSharedApplicationContext(applicationContext);
@@ -84,7 +89,12 @@ class CacheLdapRepositoryTest extends AbstractDataGeneratorTest {
 		repository.setIamProvider(new IamProvider[]{iamProvider});
 		cache = mock(IdCacheDao.class);
 		repository.setCache(cache);
-		repository.self = repository;
+		repository.self = mock(CacheLdapRepository.class);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends ResourceOrg> Map<String, T> get(final CacheDataType type) {
+		return (Map<String, T>) repository.getData().get(type);
 	}
 
 	@Test
@@ -114,27 +124,36 @@ class CacheLdapRepositoryTest extends AbstractDataGeneratorTest {
 
 	@Test
 	void addUserToGroup() {
+		repository.getData();
 		Assertions.assertEquals(1, user.getGroups().size());
 
 		repository.addUserToGroup(user, groupImpl2);
 
-		Assertions.assertEquals(2, user.getGroups().size());
-		Assertions.assertTrue(user.getGroups().contains("group2"));
-		Assertions.assertTrue(groups.get("group2").getMembers().contains("u"));
+		final var updated = this.<UserOrg>get(CacheDataType.USER).get("u");
+		Assertions.assertEquals(2, updated.getGroups().size());
+		Assertions.assertTrue(updated.getGroups().contains("group2"));
+		Assertions.assertTrue(this.<GroupOrg>get(CacheDataType.GROUP).get("group2").getMembers().contains("u"));
+
+		// The published instances are copied, not modified
+		Assertions.assertEquals(1, user.getGroups().size());
+		Assertions.assertTrue(groupImpl2.getMembers().isEmpty());
 	}
 
 	@Test
 	void removeUserFromGroup() {
+		repository.getData();
 		Assertions.assertEquals(1, user.getGroups().size());
 
 		repository.removeUserFromGroup(user, groupImpl);
 
-		Assertions.assertEquals(0, user.getGroups().size());
-		Assertions.assertTrue(groups.get("group").getMembers().isEmpty());
+		Assertions.assertEquals(0, this.<UserOrg>get(CacheDataType.USER).get("u").getGroups().size());
+		Assertions.assertTrue(this.<GroupOrg>get(CacheDataType.GROUP).get("group").getMembers().isEmpty());
+		Assertions.assertEquals(1, user.getGroups().size());
 	}
 
 	@Test
 	void addGroupToGroup() {
+		repository.getData();
 		final GroupOrg parent = groupImpl2;
 		final GroupOrg child = groupImpl;
 
@@ -147,16 +166,20 @@ class CacheLdapRepositoryTest extends AbstractDataGeneratorTest {
 		repository.addGroupToGroup(child, parent);
 
 		// Check the new status
-		Assertions.assertEquals("group2", child.getParent());
-		Assertions.assertEquals(0, child.getSubGroups().size());
-		Assertions.assertNull(parent.getParent());
-		Assertions.assertEquals(1, parent.getSubGroups().size());
-		Assertions.assertTrue(parent.getSubGroups().contains("group"));
-
+		final var newChild = this.<GroupOrg>get(CacheDataType.GROUP).get("group");
+		final var newParent = this.<GroupOrg>get(CacheDataType.GROUP).get("group2");
+		Assertions.assertEquals("group2", newChild.getParent());
+		Assertions.assertEquals(0, newChild.getSubGroups().size());
+		Assertions.assertNull(newParent.getParent());
+		Assertions.assertEquals(1, newParent.getSubGroups().size());
+		Assertions.assertTrue(newParent.getSubGroups().contains("group"));
+		Assertions.assertNull(child.getParent());
+		Assertions.assertEquals(0, parent.getSubGroups().size());
 	}
 
 	@Test
 	void removeGroupFromGroup() {
+		repository.getData();
 		final GroupOrg parent = groupImpl2;
 		final GroupOrg child = groupImpl;
 		parent.getSubGroups().add(child.getId());
@@ -171,30 +194,35 @@ class CacheLdapRepositoryTest extends AbstractDataGeneratorTest {
 		repository.removeGroupFromGroup(child, parent);
 
 		// Check the new status
-		Assertions.assertNull(child.getParent());
-		Assertions.assertEquals(0, child.getSubGroups().size());
-		Assertions.assertNull(parent.getParent());
-		Assertions.assertEquals(0, parent.getSubGroups().size());
+		final var newChild = this.<GroupOrg>get(CacheDataType.GROUP).get("group");
+		final var newParent = this.<GroupOrg>get(CacheDataType.GROUP).get("group2");
+		Assertions.assertNull(newChild.getParent());
+		Assertions.assertEquals(0, newChild.getSubGroups().size());
+		Assertions.assertNull(newParent.getParent());
+		Assertions.assertEquals(0, newParent.getSubGroups().size());
 	}
 
 	@Test
 	void createGroup() {
+		repository.getData();
 		final var newGroup = new GroupOrg("dn3", "G3", new HashSet<>());
 		repository.create(newGroup);
 		verify(cache).create(newGroup, Collections.emptyMap());
-		Assertions.assertEquals(newGroup, groups.get("g3"));
+		Assertions.assertEquals(newGroup, get(CacheDataType.GROUP).get("g3"));
 	}
 
 	@Test
 	void createCompany() {
+		repository.getData();
 		final var newCompany = new CompanyOrg("dn3", "C3");
 		repository.create(newCompany);
 		verify(cache).create(newCompany);
-		Assertions.assertEquals(newCompany, companies.get("c3"));
+		Assertions.assertEquals(newCompany, get(CacheDataType.COMPANY).get("c3"));
 	}
 
 	@Test
 	void createUser() {
+		repository.getData();
 		final UserOrg newUser = new UserOrg();
 		newUser.setId("u3");
 		newUser.setFirstName("f");
@@ -205,39 +233,60 @@ class CacheLdapRepositoryTest extends AbstractDataGeneratorTest {
 
 		verify(cache).create(newUser);
 		Assertions.assertTrue(user.getGroups().contains("group"));
-		Assertions.assertSame(newUser, users.get("u3"));
+
+		// A copy of the given user is published
+		final var created = this.<UserOrg>get(CacheDataType.USER).get("u3");
+		Assertions.assertNotSame(newUser, created);
+		Assertions.assertEquals("f", created.getFirstName());
+		Assertions.assertEquals(List.of(), created.getGroups());
+		Assertions.assertNull(newUser.getGroups());
 	}
 
 	@Test
 	void updateUser() {
-		user.setFirstName("L");
-
-		repository.update(user);
-
-		verify(cache).update(user);
-		Assertions.assertSame("L", users.get("u").getFirstName());
+		repository.getData();
+		final var version = repository.getVersion();
+		final var updated = new UserOrg();
+		user.copy((SimpleUser) updated);
+		updated.setFirstName("L");
+		updated.setGroups(new ArrayList<>());
+
+		repository.update(updated);
+
+		verify(cache).update(updated);
+		final var published = this.<UserOrg>get(CacheDataType.USER).get("u");
+		Assertions.assertEquals("L", published.getFirstName());
+		Assertions.assertNotSame(updated, published);
+		Assertions.assertEquals(version + 1, repository.getVersion());
+
+		// The memberships are kept, the previous version is unchanged
+		Assertions.assertEquals(List.of("group"), published.getGroups());
+		Assertions.assertEquals("f", user.getFirstName());
 	}
 
 	@Test
 	void deleteGroup() {
+		repository.getData();
 		Assertions.assertTrue(groups.containsKey("group"));
 		Assertions.assertTrue(user.getGroups().contains("group"));
 
 		repository.delete(groups.get("group"));
 
-		Assertions.assertFalse(groups.containsKey("group"));
-		Assertions.assertFalse(user.getGroups().contains("group"));
+		Assertions.assertFalse(get(CacheDataType.GROUP).containsKey("group"));
+		Assertions.assertFalse(this.<UserOrg>get(CacheDataType.USER).get("u").getGroups().contains("group"));
 	}
 
 	@Test
 	void deleteUser() {
+		repository.getData();
 		Assertions.assertEquals(1, user.getGroups().size());
 		Assertions.assertTrue(users.containsKey("u"));
 
 		repository.delete(user);
 
 		verify(cache).delete(user);
-		Assertions.assertFalse(users.containsKey("u"));
+		Assertions.assertFalse(get(CacheDataType.USER).containsKey("u"));
+		Assertions.assertFalse(this.<GroupOrg>get(CacheDataType.GROUP).get("group").getMembers().contains("u"));
 	}
 
 	@Test
@@ -257,4 +306,296 @@ class CacheLdapRepositoryTest extends AbstractDataGeneratorTest {
 		var refreshData = repository.refreshData();
 		Assertions.assertSame(data, refreshData);
 	}
+
+	@Test
+	void publish() {
+		repository.getData();
+		final var cluster = mock(CacheLdapCluster.class);
+		repository.setCluster(cluster);
+		verify(cluster).subscribe(any());
+
+		repository.update(user);
+		repository.removeUserFromGroup(user, groupImpl);
+		verify(cluster).publish(argThat(d -> d.operation() == CacheDelta.Operation.UPDATE && d.id().equals("u")
+				&& d.fields().get("groups").equals(List.of("group"))));
+		verify(cluster).publish(argThat(d -> d.operation() == CacheDelta.Operation.REMOVE_MEMBER && d.target().equals("group")));
+	}
+
+	@Test
+	void updateBatch() {
+		repository.getData();
+		final var cluster = mock(CacheLdapCluster.class);
+		repository.setCluster(cluster);
+		final var version = repository.getVersion();
+		final var published = this.<UserOrg>get(CacheDataType.USER).get("u");
+		final var locked = CacheLdapRepository.copy(published);
+		locked.setLockedBy("junit");
+		locked.setGroups(new ArrayList<>());
+		final var locked2 = CacheLdapRepository.copy(this.<UserOrg>get(CacheDataType.USER).get("u2"));
+		locked2.setLockedBy("junit");
+		repository.update(List.of(locked, locked2));
+
+		// A single version, the memberships are unchanged
+		Assertions.assertEquals(version + 1, repository.getVersion());
+		Assertions.assertEquals("junit", this.<UserOrg>get(CacheDataType.USER).get("u").getLockedBy());
+		Assertions.assertEquals("junit", this.<UserOrg>get(CacheDataType.USER).get("u2").getLockedBy());
+		Assertions.assertEquals(List.of("group"), this.<UserOrg>get(CacheDataType.USER).get("u").getGroups());
+		Assertions.assertNull(published.getLockedBy());
+		verify(cache).update(locked);
+		verify(cache).update(locked2);
+
+		// A single delta carrying both updates
+		verify(cluster).publish(argThat(d -> d.operation() == CacheDelta.Operation.BATCH
+				&& ((List<?>) d.fields().get("deltas")).size() == 2));
+		repository.update(List.of());
+		Assertions.assertEquals(version + 1, repository.getVersion());
+	}
+
+	@Test
+	void deleteCompanies() {
+		final var sub = new CompanyOrg("ou=sub,dnc", "Sub");
+		companies.put("sub", sub);
+		repository.getData();
+		final var cluster = mock(CacheLdapCluster.class);
+		repository.setCluster(cluster);
+		final var version = repository.getVersion();
+		final var company = companies.get("company");
+		repository.delete(List.of(sub, company));
+
+		// A single version, the children deleted first from the database cache
+		Assertions.assertEquals(version + 1, repository.getVersion());
+		Assertions.assertTrue(get(CacheDataType.COMPANY).isEmpty());
+		final var order = inOrder(cache);
+		order.verify(cache).delete(sub);
+		order.verify(cache).delete(company);
+
+		// A single delta carrying both deletions
+		verify(cluster).publish(argThat(d -> d.operation() == CacheDelta.Operation.BATCH
+				&& ((List<?>) d.fields().get("deltas")).size() == 2));
+		repository.delete(List.<CompanyOrg>of());
+		Assertions.assertEquals(version + 1, repository.getVersion());
+	}
+
+	@Test
+	void applyBatch() {
+		repository.getData();
+		final var version = repository.getVersion();
+		final var peer = new UserOrg();
+		peer.setId("u2");
+		peer.setFirstName("f2");
+		peer.setLockedBy("junit");
+		final var peer3 = new UserOrg();
+		peer3.setId("u3");
+		peer3.setFirstName("f3");
+		peer3.setGroups(List.of("group2"));
+		repository.apply(CacheDelta.of(List.of(CacheDelta.of(CacheDelta.Operation.UPDATE, peer),
+				CacheDelta.of(CacheDelta.Operation.CREATE, peer3))));
+		Assertions.assertEquals(version + 1, repository.getVersion());
+		Assertions.assertEquals("junit", this.<UserOrg>get(CacheDataType.USER).get("u2").getLockedBy());
+		Assertions.assertEquals("f3", this.<UserOrg>get(CacheDataType.USER).get("u3").getFirstName());
+		Assertions.assertTrue(this.<GroupOrg>get(CacheDataType.GROUP).get("group2").getMembers().contains("u3"));
+	}
+
+	@Test
+	void publishAfterCommit() {
+		repository.getData();
+		final var cluster = mock(CacheLdapCluster.class);
+		repository.setCluster(cluster);
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			repository.update(user);
+			verify(cluster, never()).publish(any());
+
+			// The other members are notified once the database cache is committed
+			TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+			verify(cluster).publish(argThat(d -> d.operation() == CacheDelta.Operation.UPDATE && d.id().equals("u")));
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	void applyUser() {
+		repository.getData();
+		final var peer = new UserOrg();
+		peer.setId("u3");
+		peer.setFirstName("f3");
+		peer.setCompany("company");
+		peer.setGroups(List.of("group2"));
+		peer.setSecured(true);
+		repository.apply(CacheDelta.of(CacheDelta.Operation.CREATE, peer));
+		Assertions.assertEquals("f3", this.<UserOrg>get(CacheDataType.USER).get("u3").getFirstName());
+		Assertions.assertTrue(this.<UserOrg>get(CacheDataType.USER).get("u3").isSecured());
+		Assertions.assertTrue(this.<GroupOrg>get(CacheDataType.GROUP).get("group2").getMembers().contains("u3"));
+
+		// Move to another group
+		peer.setGroups(List.of("group"));
+		repository.apply(CacheDelta.of(CacheDelta.Operation.UPDATE, peer));
+		Assertions.assertFalse(this.<GroupOrg>get(CacheDataType.GROUP).get("group2").getMembers().contains("u3"));
+		Assertions.assertTrue(this.<GroupOrg>get(CacheDataType.GROUP).get("group").getMembers().contains("u3"));
+
+		repository.apply(CacheDelta.of(CacheDataType.USER, CacheDelta.Operation.ADD_MEMBER, "u3", "group2"));
+		Assertions.assertEquals(List.of("group", "group2"), this.<UserOrg>get(CacheDataType.USER).get("u3").getGroups());
+		repository.apply(CacheDelta.of(CacheDataType.USER, CacheDelta.Operation.REMOVE_MEMBER, "u3", "group"));
+		Assertions.assertFalse(this.<GroupOrg>get(CacheDataType.GROUP).get("group").getMembers().contains("u3"));
+
+		repository.apply(CacheDelta.of(CacheDataType.USER, CacheDelta.Operation.DELETE, "u3", null));
+		Assertions.assertFalse(get(CacheDataType.USER).containsKey("u3"));
+		Assertions.assertFalse(this.<GroupOrg>get(CacheDataType.GROUP).get("group2").getMembers().contains("u3"));
+
+		// The published instances are copied, not modified
+		Assertions.assertTrue(groupImpl.getMembers().contains("u"));
+		Assertions.assertFalse(groupImpl.getMembers().contains("u3"));
+		Assertions.assertTrue(groupImpl2.getMembers().isEmpty());
+
+		// The database cache is shared, not updated by the peers
+		verify(cache, never()).create(any(UserOrg.class));
+	}
+
+	@Test
+	void applyGroup() {
+		repository.getData();
+		repository.apply(CacheDelta.of(new GroupOrg("dn3", "Group3", new HashSet<>())));
+		Assertions.assertEquals("dn3", get(CacheDataType.GROUP).get("group3").getDn());
+
+		repository.apply(CacheDelta.of(CacheDataType.GROUP, CacheDelta.Operation.ADD_MEMBER, "group3", "group"));
+		Assertions.assertEquals("group", this.<GroupOrg>get(CacheDataType.GROUP).get("group3").getParent());
+		Assertions.assertTrue(this.<GroupOrg>get(CacheDataType.GROUP).get("group").getSubGroups().contains("group3"));
+		repository.apply(CacheDelta.of(CacheDataType.GROUP, CacheDelta.Operation.REMOVE_MEMBER, "group3", "group"));
+		Assertions.assertTrue(this.<GroupOrg>get(CacheDataType.GROUP).get("group").getSubGroups().isEmpty());
+
+		repository.apply(CacheDelta.of(CacheDataType.GROUP, CacheDelta.Operation.EMPTY, "group", null));
+		Assertions.assertTrue(this.<GroupOrg>get(CacheDataType.GROUP).get("group").getMembers().isEmpty());
+		Assertions.assertTrue(this.<UserOrg>get(CacheDataType.USER).get("u").getGroups().isEmpty());
+		Assertions.assertEquals(Set.of("u"), groupImpl.getMembers());
+
+		repository.apply(CacheDelta.of(CacheDataType.GROUP, CacheDelta.Operation.DELETE, "group3", null));
+		Assertions.assertFalse(get(CacheDataType.GROUP).containsKey("group3"));
+
+		// The index of the groups follows the mutations of the other members
+		verify(groupRepository).reindex(anyMap());
+		verify(groupRepository).index(argThat(g -> g.getId().equals("group3")));
+		verify(groupRepository).unindex("dn3");
+	}
+
+	@Test
+	void applyCompany() {
+		repository.getData();
+		repository.apply(CacheDelta.of(new CompanyOrg("ou=c3,dc=other", "C3")));
+		Assertions.assertEquals(1, this.<CompanyOrg>get(CacheDataType.COMPANY).get("c3").getCompanyTree().size());
+		repository.apply(CacheDelta.of(CacheDataType.COMPANY, CacheDelta.Operation.DELETE, "c3", null));
+		Assertions.assertFalse(get(CacheDataType.COMPANY).containsKey("c3"));
+		verify(companyRepository).index(argThat(c -> c.getId().equals("c3")));
+		verify(companyRepository).unindex("ou=c3,dc=other");
+	}
+
+	@Test
+	void refreshGroups() {
+		repository.getData();
+		final var cluster = mock(CacheLdapCluster.class);
+		repository.setCluster(cluster);
+		final var fresh = new HashMap<String, GroupOrg>();
+		fresh.put("group", new GroupOrg("dn", "Group", new HashSet<>(Set.of("u", "u2"))));
+		fresh.put("group2", new GroupOrg("dn2", "Group2", new HashSet<>()));
+		when(groupRepository.findAllNoCache()).thenReturn(fresh);
+		final var linked = CacheLdapRepository.copy(users.get("u2"));
+		linked.setGroups(new ArrayList<>(List.of("group")));
+		when(userRepository.linkGroups(users, groups, fresh)).thenReturn(Map.of("u2", linked));
+		final var published = users.get("u2");
+
+		repository.refresh(CacheDataType.GROUP);
+		Assertions.assertSame(fresh, repository.getData().get(CacheDataType.GROUP));
+		verify(userRepository).linkGroups(users, groups, fresh);
+
+		// The changed users are replaced by their copies in the next version
+		Assertions.assertSame(linked, get(CacheDataType.USER).get("u2"));
+		Assertions.assertSame(user, get(CacheDataType.USER).get("u"));
+		Assertions.assertEquals(List.of(), published.getGroups());
+		verify(cache).addUserToGroup(linked, fresh.get("group"));
+		verify(cluster).publish(argThat(d -> d.operation() == CacheDelta.Operation.RELOAD && d.type() == CacheDataType.GROUP));
+		verify(cluster).share(CacheDataType.GROUP, fresh);
+
+		// No user scan
+		verify(userRepository, times(1)).findAllNoCache(any());
+	}
+
+	@Test
+	void refreshCompanies() {
+		repository.getData();
+		final var fresh = new HashMap<>(companies);
+		fresh.put("c3", new CompanyOrg("ou=c3", "C3"));
+		when(companyRepository.fetchAll()).thenReturn(fresh);
+
+		repository.refresh(CacheDataType.COMPANY);
+		Assertions.assertSame(fresh, repository.getData().get(CacheDataType.COMPANY));
+		verify(cache).create(fresh.get("c3"));
+		verify(companyRepository, times(1)).findAllNoCache();
+	}
+
+	@Test
+	void refreshUsers() {
+		repository.getData();
+		repository.refresh(CacheDataType.USER);
+		verify(userRepository, times(2)).findAllNoCache(any());
+	}
+
+	@Test
+	void applyReload() {
+		repository.getData();
+		final var fresh = new HashMap<String, GroupOrg>();
+		fresh.put("group", new GroupOrg("dn", "Group", new HashSet<>(Set.of("u", "u2"))));
+		when(groupRepository.findAllNoCache()).thenReturn(fresh);
+
+		repository.apply(CacheDelta.of(CacheDataType.GROUP, CacheDelta.Operation.RELOAD, null, null));
+		Assertions.assertSame(fresh, repository.getData().get(CacheDataType.GROUP));
+		verify(groupRepository).reindex(fresh);
+
+		// The database cache is shared, not updated by the peers
+		verify(cache, never()).addUserToGroup(any(), any());
+	}
+
+	@Test
+	void applyReloadShared() {
+		repository.getData();
+		final var cluster = mock(CacheLdapCluster.class);
+		repository.setCluster(cluster);
+		final var shared = new HashMap<String, GroupOrg>();
+		shared.put("group", new GroupOrg("dn", "Group", new HashSet<>(Set.of("u", "u2"))));
+		doReturn(shared).when(cluster).fetch(CacheDataType.GROUP);
+
+		repository.apply(CacheDelta.of(CacheDataType.GROUP, CacheDelta.Operation.RELOAD, null, null));
+		Assertions.assertSame(shared, repository.getData().get(CacheDataType.GROUP));
+		verify(userRepository).linkGroups(users, groups, shared);
+
+		// Neither LDAP scan nor database update
+		verify(groupRepository, times(1)).findAllNoCache();
+		verify(cache, never()).addUserToGroup(any(), any());
+	}
+
+	@Test
+	void applyNotLoaded() {
+		repository.apply(CacheDelta.of(CacheDataType.COMPANY, CacheDelta.Operation.DELETE, "company", null));
+		Assertions.assertTrue(companies.containsKey("company"));
+	}
+
+	@Test
+	void mutationCopyOnWrite() {
+		final var data = repository.getData();
+		final var version = repository.getVersion();
+		final var userGroups = user.getGroups();
+		final var members = groupImpl2.getMembers();
+
+		repository.addUserToGroup(user, groupImpl2);
+		repository.delete(groupImpl);
+
+		// The previous version is unchanged, the readers holding it see a consistent state
+		Assertions.assertEquals(List.of("group"), userGroups);
+		Assertions.assertTrue(members.isEmpty());
+		Assertions.assertTrue(data.get(CacheDataType.GROUP).containsKey("group"));
+		Assertions.assertSame(user, data.get(CacheDataType.USER).get("u"));
+		Assertions.assertSame(userGroups, user.getGroups());
+		Assertions.assertEquals(List.of("group2"), this.<UserOrg>get(CacheDataType.USER).get("u").getGroups());
+		Assertions.assertFalse(get(CacheDataType.GROUP).containsKey("group"));
+		Assertions.assertEquals(version + 2, repository.getVersion());
+	}
 }
@@ -0,0 +1,150 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.iam.CompanyOrg;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.ResourceOrg;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
+import org.ligoj.app.plugin.id.dao.IdCacheDao;
+
+import java.util.*;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class of {@link CacheLdapSync}
+ */
+class CacheLdapSyncTest {
+
+	private IdCacheDao cache;
+
+	@BeforeEach
+	void init() {
+		cache = mock(IdCacheDao.class);
+	}
+
+	private UserOrg newUser(final String id, final String firstName, final String... groups) {
+		final var user = new UserOrg();
+		user.setId(id);
+		user.setDn("uid=" + id + ",ou=company");
+		user.setFirstName(firstName);
+		user.setCompany("company");
+		user.setGroups(new ArrayList<>(List.of(groups)));
+		return user;
+	}
+
+	/**
+	 * Return a directory of one company, two groups and 10 users.
+	 */
+	private Map<CacheDataType, Map<String, ? extends ResourceOrg>> newData() {
+		final var companies = new HashMap<String, CompanyOrg>();
+		companies.put("company", new CompanyOrg("ou=company", "Company"));
+		final var groups = new HashMap<String, GroupOrg>();
+		groups.put("group1", new GroupOrg("cn=group1", "Group1", new HashSet<>()));
+		groups.put("group2", new GroupOrg("cn=group2", "Group2", new HashSet<>()));
+		final var users = new HashMap<String, UserOrg>();
+		for (var i = 0; i < 10; i++) {
+			users.put("user" + i, newUser("user" + i, "First", "group1"));
+		}
+		final var data = new EnumMap<CacheDataType, Map<String, ? extends ResourceOrg>>(CacheDataType.class);
+		data.put(CacheDataType.COMPANY, companies);
+		data.put(CacheDataType.GROUP, groups);
+		data.put(CacheDataType.USER, users);
+		return link(data);
+	}
+
+	/**
+	 * Complete the members of the groups from the groups of the users.
+	 */
+	private Map<CacheDataType, Map<String, ? extends ResourceOrg>> link(
+			final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data) {
+		groups(data).values().forEach(g -> g.getMembers().clear());
+		users(data).values().forEach(u -> u.getGroups().forEach(g -> groups(data).get(g).getMembers().add(u.getId())));
+		return data;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, UserOrg> users(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data) {
+		return (Map<String, UserOrg>) data.get(CacheDataType.USER);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, GroupOrg> groups(final Map<CacheDataType, Map<String, ? extends ResourceOrg>> data) {
+		return (Map<String, GroupOrg>) data.get(CacheDataType.GROUP);
+	}
+
+	@Test
+	void syncNoChange() {
+		Assertions.assertTrue(CacheLdapSync.sync(cache, newData(), newData()));
+		verifyNoInteractions(cache);
+	}
+
+	@Test
+	void sync() {
+		final var data = newData();
+		users(data).get("user0").setFirstName("Changed");
+		users(data).get("user4").setSecured(true);
+		users(data).remove("user1");
+		users(data).put("user10", newUser("user10", "First", "group2"));
+		users(data).get("user2").setGroups(new ArrayList<>(List.of("group2")));
+		groups(data).get("group2").getSubGroups().add("group1");
+		groups(data).get("group1").setParent("group2");
+
+		Assertions.assertTrue(CacheLdapSync.sync(cache, newData(), link(data)));
+		verify(cache).update(users(data).get("user0"));
+		verify(cache).update(users(data).get("user4"));
+		verify(cache).delete(argThat((UserOrg u) -> u.getId().equals("user1")));
+		verify(cache).create(users(data).get("user10"));
+		verify(cache).addUserToGroup(users(data).get("user10"), groups(data).get("group2"));
+		verify(cache).addUserToGroup(users(data).get("user2"), groups(data).get("group2"));
+		verify(cache).removeUserFromGroup(users(data).get("user2"), groups(data).get("group1"));
+		verify(cache).addGroupToGroup(groups(data).get("group1"), groups(data).get("group2"));
+		verify(cache, never()).reset(any(), any(), any());
+
+		// The unchanged users are not written
+		verify(cache, never()).update(users(data).get("user3"));
+	}
+
+	@Test
+	void syncTooManyChanges() {
+		final var data = newData();
+		users(data).values().forEach(u -> {
+			u.setFirstName("Changed");
+			u.setGroups(new ArrayList<>(List.of("group2")));
+		});
+		Assertions.assertFalse(CacheLdapSync.sync(cache, newData(), link(data)));
+		verifyNoInteractions(cache);
+	}
+
+	@Test
+	void syncGroupsOnly() {
+		// The users are shared, only the groups have been reloaded
+		final var previous = newData();
+		final var data = new EnumMap<>(previous);
+		final var groups = new HashMap<String, GroupOrg>();
+		groups.put("group1", new GroupOrg("cn=group1", "Group1", new HashSet<>()));
+		groups.put("group2", new GroupOrg("cn=group2", "Group2", new HashSet<>(Set.of("user9"))));
+		users(previous).keySet().stream().filter(u -> !u.equals("user9")).forEach(groups.get("group1").getMembers()::add);
+		data.put(CacheDataType.GROUP, groups);
+
+		Assertions.assertTrue(CacheLdapSync.sync(cache, previous, data));
+		verify(cache).addUserToGroup(users(data).get("user9"), groups.get("group2"));
+		verify(cache).removeUserFromGroup(users(data).get("user9"), groups.get("group1"));
+		verify(cache, never()).update(any(UserOrg.class));
+		verify(cache, never()).create(any(GroupOrg.class), any());
+	}
+
+	@Test
+	void syncMovedGroup() {
+		final var data = newData();
+		groups(data).put("group1", new GroupOrg("cn=group1,ou=other", "Group1", new HashSet<>()));
+		Assertions.assertFalse(CacheLdapSync.sync(cache, newData(), data));
+		verifyNoInteractions(cache);
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.ldap.AttributeInUseException;
+import org.springframework.ldap.core.LdapTemplate;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapName;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class of {@link CoalescingModifyQueue}
+ */
+class CoalescingModifyQueueTest {
+
+	private ModificationItem newReplace(final String attribute, final String value) {
+		return new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute(attribute, value));
+	}
+
+	@Test
+	void submit() {
+		final var template = Mockito.mock(LdapTemplate.class);
+		final var queue = new CoalescingModifyQueue(template, 100);
+		final var first = queue.submit("uid=user,ou=people", newReplace("employeeType", null));
+		final var second = queue.submit("UID=user,ou=people", newReplace("pwdAccountLockedTime", null));
+		first.join();
+		second.join();
+
+		// Single request for both modifications
+		Mockito.verify(template).modifyAttributes(ArgumentMatchers.any(LdapName.class),
+				ArgumentMatchers.argThat((ModificationItem[] m) -> m.length == 2));
+		Mockito.verifyNoMoreInteractions(template);
+	}
+
+	@Test
+	void submitOtherDn() {
+		final var template = Mockito.mock(LdapTemplate.class);
+		final var queue = new CoalescingModifyQueue(template, 10);
+		queue.submit("uid=user1,ou=people", newReplace("employeeType", null)).join();
+		queue.submit("uid=user2,ou=people", newReplace("employeeType", null)).join();
+		Mockito.verify(template, Mockito.times(2)).modifyAttributes(ArgumentMatchers.any(LdapName.class),
+				ArgumentMatchers.any(ModificationItem[].class));
+	}
+
+	@Test
+	void submitFailed() {
+		final var template = Mockito.mock(LdapTemplate.class);
+		final var failing = newReplace("employeeType", "LOCKED");
+		Mockito.doThrow(new AttributeInUseException(new javax.naming.directory.AttributeInUseException("in use")))
+				.when(template).modifyAttributes(ArgumentMatchers.any(LdapName.class),
+						ArgumentMatchers.argThat((ModificationItem[] m) -> m.length == 2 || m[0] == failing));
+		final var queue = new CoalescingModifyQueue(template, 100);
+		final var first = queue.submit("uid=user,ou=people", failing);
+		final var second = queue.submit("uid=user,ou=people", newReplace("pwdAccountLockedTime", null));
+
+		// Only the failing modification is reported
+		final var e = Assertions.assertThrows(CompletionException.class, first::join);
+		Assertions.assertInstanceOf(AttributeInUseException.class, e.getCause());
+		second.join();
+		Mockito.verify(template, Mockito.times(3)).modifyAttributes(ArgumentMatchers.any(LdapName.class),
+				ArgumentMatchers.any(ModificationItem[].class));
+	}
+
+	@Test
+	void drain() {
+		final var template = Mockito.mock(LdapTemplate.class);
+		final var queue = new CoalescingModifyQueue(template, 60_000);
+		final var future = queue.submit("uid=user,ou=people", newReplace("employeeType", null));
+
+		// Applied without waiting for the end of the window
+		queue.drain("UID=user,ou=people");
+		Assertions.assertTrue(future.isDone());
+		Mockito.verify(template).modifyAttributes(ArgumentMatchers.any(LdapName.class),
+				ArgumentMatchers.any(ModificationItem[].class));
+
+		// Nothing left to apply
+		queue.drain("uid=user,ou=people");
+		queue.drain("uid=other,ou=people");
+		Mockito.verifyNoMoreInteractions(template);
+	}
+
+	@Test
+	void submitSerialized() throws InterruptedException {
+		final var template = Mockito.mock(LdapTemplate.class);
+		final var started = new CountDownLatch(1);
+		final var release = new CountDownLatch(1);
+		final var first = newReplace("employeeType", "LOCKED");
+		final var concurrent = new AtomicInteger();
+		final var maxConcurrent = new AtomicInteger();
+		Mockito.doAnswer(i -> {
+			maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+			if (((ModificationItem[]) i.getArgument(1))[0] == first) {
+				started.countDown();
+				release.await();
+			}
+			concurrent.decrementAndGet();
+			return null;
+		}).when(template).modifyAttributes(ArgumentMatchers.any(LdapName.class), ArgumentMatchers.any(ModificationItem[].class));
+		final var queue = new CoalescingModifyQueue(template, 1);
+		final var firstFuture = queue.submit("uid=user,ou=people", first);
+		started.await();
+
+		// This batch is flushed only after the completion of the running flush of the same DN
+		final var secondFuture = queue.submit("uid=user,ou=people", newReplace("employeeType", null));
+		Thread.sleep(50);
+		Assertions.assertFalse(secondFuture.isDone());
+		release.countDown();
+		firstFuture.join();
+		secondFuture.join();
+		Assertions.assertEquals(1, maxConcurrent.get());
+	}
+
+	@Test
+	void merge() {
+		final var add = new ModificationItem(DirContext.ADD_ATTRIBUTE, new BasicAttribute("uniqueMember", "uid=user"));
+		final var replaced = newReplace("employeeType", "LOCKED");
+		final var replacing = newReplace("EmployeeType", null);
+		final var other = newReplace("pwdAccountLockedTime", null);
+		final var merged = CoalescingModifyQueue.merge(List.of(new ModificationItem[]{add, replaced},
+				new ModificationItem[]{replacing, other}));
+		Assertions.assertArrayEquals(new ModificationItem[]{add, replacing, other}, merged);
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.LDAPException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class of {@link DirectoryCapabilities}
+ */
+class DirectoryCapabilitiesTest {
+
+	@Test
+	void probe() throws LDAPException {
+		final var config = new InMemoryDirectoryServerConfig("dc=sample,dc=com");
+		final var server = new InMemoryDirectoryServer(config);
+		server.startListening();
+		try {
+			final var client = new UnboundIdClient(new String[]{"ldap://localhost:" + server.getListenPort()}, null, null,
+					"dc=sample,dc=com");
+			final var capabilities = DirectoryCapabilities.probe(client);
+			Assertions.assertTrue(capabilities.isProbed());
+			Assertions.assertTrue(capabilities.isPaging());
+			Assertions.assertTrue(capabilities.isSort());
+			Assertions.assertTrue(capabilities.isVlv());
+			Assertions.assertTrue(capabilities.isTreeDelete());
+			Assertions.assertTrue(capabilities.isPasswordModify());
+			Assertions.assertTrue(capabilities.isPermissiveModify());
+			Assertions.assertTrue(capabilities.isAssertion());
+			Assertions.assertTrue(capabilities.getControls().contains(DirectoryCapabilities.PAGED_RESULTS));
+		} finally {
+			server.shutDown(true);
+		}
+	}
+
+	@Test
+	void probeUnavailable() {
+		final var client = new UnboundIdClient(new String[]{"ldap://localhost:1"}, null, null, "");
+		final var capabilities = DirectoryCapabilities.probe(client);
+		Assertions.assertSame(DirectoryCapabilities.UNKNOWN, capabilities);
+
+		// Paging is attempted, the other strategies are disabled
+		Assertions.assertFalse(capabilities.isProbed());
+		Assertions.assertTrue(capabilities.isPaging());
+		Assertions.assertFalse(capabilities.isSort());
+		Assertions.assertFalse(capabilities.isSync());
+		Assertions.assertFalse(capabilities.isTreeDelete());
+		Assertions.assertFalse(capabilities.isPasswordModify());
+	}
+
+	@Test
+	void ofNull() {
+		Assertions.assertSame(DirectoryCapabilities.UNKNOWN, DirectoryCapabilities.of(null));
+	}
+
+	@Test
+	void isReferentialIntegrity() throws LDAPException {
+		final var server = new InMemoryDirectoryServer(new InMemoryDirectoryServerConfig("dc=sample,dc=com"));
+		server.startListening();
+		try {
+			final var capabilities = DirectoryCapabilities.probe(new UnboundIdClient(
+					new String[]{"ldap://localhost:" + server.getListenPort()}, null, null, "dc=sample,dc=com"));
+			final var detections = new AtomicInteger();
+			Assertions.assertTrue(capabilities.isReferentialIntegrity("uniqueMember", a -> detections.incrementAndGet() > 0));
+			Assertions.assertTrue(capabilities.isReferentialIntegrity("uniquemember", a -> detections.incrementAndGet() > 0));
+			Assertions.assertFalse(capabilities.isReferentialIntegrity("member", a -> detections.incrementAndGet() < 0));
+
+			// Detected once per attribute
+			Assertions.assertEquals(2, detections.get());
+		} finally {
+			server.shutDown(true);
+		}
+	}
+
+	@Test
+	void isReferentialIntegrityNotProbed() {
+		final var detections = new AtomicInteger();
+		DirectoryCapabilities.UNKNOWN.isReferentialIntegrity("uniqueMember", a -> detections.incrementAndGet() < 0);
+		DirectoryCapabilities.UNKNOWN.isReferentialIntegrity("uniqueMember", a -> detections.incrementAndGet() < 0);
+		Assertions.assertEquals(2, detections.get());
+	}
+}
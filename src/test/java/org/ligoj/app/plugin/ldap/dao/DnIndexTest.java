@@ -0,0 +1,95 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.iam.CompanyOrg;
+
+import java.util.List;
+
+/**
+ * Test class of {@link DnIndex}
+ */
+class DnIndexTest {
+
+	private DnIndex<CompanyOrg> index;
+
+	@BeforeEach
+	void init() {
+		index = new DnIndex<>();
+		index.reset(List.of(new CompanyOrg("ou=france,ou=people,dc=sample,dc=com", "france"),
+				new CompanyOrg("ou=ligoj,ou=france,ou=people,dc=sample,dc=com", "ligoj"),
+				new CompanyOrg("ou=team,ou=ligoj,ou=france,ou=people,dc=sample,dc=com", "team"),
+				new CompanyOrg("ou=external,ou=people,dc=sample,dc=com", "external")));
+	}
+
+	private List<String> ids(final List<CompanyOrg> companies) {
+		return companies.stream().map(CompanyOrg::getId).toList();
+	}
+
+	@Test
+	void ancestors() {
+		Assertions.assertEquals(4, index.size());
+		Assertions.assertEquals(List.of("france", "ligoj", "team"),
+				ids(index.ancestors("ou=team,ou=ligoj,ou=France,ou=people,dc=sample,dc=com")));
+		Assertions.assertEquals(List.of("france", "ligoj"), ids(index.ancestors("ou=any,ou=ligoj,ou=france,ou=people,dc=sample,dc=com")));
+		Assertions.assertTrue(index.ancestors("ou=people,dc=sample,dc=com").isEmpty());
+		Assertions.assertTrue(index.ancestors("dc=any").isEmpty());
+	}
+
+	@Test
+	void subtree() {
+		Assertions.assertEquals(List.of("ligoj", "team"), ids(index.subtree("ou=ligoj,ou=france,ou=people,dc=sample,dc=com")));
+		Assertions.assertEquals(4, index.subtree("ou=people,dc=sample,dc=com").size());
+		Assertions.assertEquals(4, index.subtree("").size());
+		Assertions.assertTrue(index.subtree("ou=any,ou=people,dc=sample,dc=com").isEmpty());
+	}
+
+	@Test
+	void get() {
+		Assertions.assertEquals("ligoj", index.get("OU=ligoj,ou=france,ou=people,dc=sample,dc=com").getId());
+		Assertions.assertNull(index.get("ou=people,dc=sample,dc=com"));
+		Assertions.assertNull(index.get("ou=any,ou=people,dc=sample,dc=com"));
+	}
+
+	@Test
+	void put() {
+		index.put(new CompanyOrg("ou=ligoj,ou=france,ou=people,dc=sample,dc=com", "ligoj"));
+		Assertions.assertEquals(4, index.size());
+		index.put(new CompanyOrg("ou=people,dc=sample,dc=com", "people"));
+		Assertions.assertEquals(5, index.size());
+		Assertions.assertEquals(List.of("people", "france"), ids(index.ancestors("ou=france,ou=people,dc=sample,dc=com")));
+	}
+
+	@Test
+	void remove() {
+		Assertions.assertEquals("ligoj", index.remove("ou=ligoj,ou=france,ou=people,dc=sample,dc=com").getId());
+		Assertions.assertEquals(3, index.size());
+		Assertions.assertEquals(List.of("france", "team"),
+				ids(index.ancestors("ou=team,ou=ligoj,ou=france,ou=people,dc=sample,dc=com")));
+		Assertions.assertNull(index.remove("ou=ligoj,ou=france,ou=people,dc=sample,dc=com"));
+
+		// The leaf is detached
+		Assertions.assertEquals("team", index.remove("ou=team,ou=ligoj,ou=france,ou=people,dc=sample,dc=com").getId());
+		Assertions.assertEquals(List.of("france"), ids(index.subtree("ou=france,ou=people,dc=sample,dc=com")));
+		Assertions.assertEquals(2, index.size());
+	}
+
+	@Test
+	void removeSubtree() {
+		Assertions.assertEquals(List.of("ligoj", "team"),
+				ids(index.removeSubtree("ou=ligoj,ou=france,ou=people,dc=sample,dc=com")));
+		Assertions.assertEquals(2, index.size());
+		Assertions.assertNull(index.get("ou=team,ou=ligoj,ou=france,ou=people,dc=sample,dc=com"));
+		Assertions.assertEquals(List.of("france"), ids(index.subtree("ou=france,ou=people,dc=sample,dc=com")));
+		Assertions.assertTrue(index.removeSubtree("ou=any,ou=people,dc=sample,dc=com").isEmpty());
+
+		// Remove the intermediate levels
+		Assertions.assertEquals(2, index.removeSubtree("dc=sample,dc=com").size());
+		Assertions.assertTrue(index.isEmpty());
+		Assertions.assertTrue(index.subtree("").isEmpty());
+	}
+}
@@ -3,16 +3,28 @@
  */
 package org.ligoj.app.plugin.ldap.dao;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.UserOrg;
 import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository;
+import org.springframework.ldap.core.ContextMapper;
+import org.springframework.ldap.core.DirContextAdapter;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.support.LdapUtils;
 
+import javax.naming.Name;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.*;
 
 /**
  * Test class of {@link GroupLdapRepository}
@@ -36,6 +48,162 @@ class GroupLdapRepositorySimpleTest {
 		groupRepository.delete(broken);
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	void refresh() {
+		final var groupRepository = new GroupLdapRepository();
+		groupRepository.setMemberAttribute("uniqueMember");
+		final var template = mock(LdapTemplate.class);
+		groupRepository.setTemplate(template);
+		final var group1 = new GroupOrg("cn=group1", "group1", new HashSet<>(Set.of("user1")));
+		final var group2 = new GroupOrg("cn=group2", "group2", new HashSet<>());
+		final var user1 = new UserOrg();
+		user1.setId("user1");
+		final var user2 = new UserOrg();
+		user2.setId("user2");
+		final var cachedData = Map.of(AbstractMemCacheRepository.CacheDataType.GROUP, Map.of("group1", group1, "group2", group2),
+				AbstractMemCacheRepository.CacheDataType.USER, Map.of("user1", user1, "user2", user2));
+		groupRepository.cacheRepository = mock(CacheLdapRepository.class);
+		doReturn(cachedData).when(groupRepository.cacheRepository).getData();
+
+		// The group has now the user2 and the group2 as members, and no parent
+		final var entry = new DirContextAdapter(new BasicAttributes(true), LdapUtils.newLdapName("cn=group1"));
+		entry.setAttributeValue("cn", "group1");
+		entry.setAttributeValues("uniqueMember", new String[]{"uid=user2,ou=company", "cn=group2"});
+		when(template.search(anyString(), anyString(), any(SearchControls.class), any(ContextMapper.class))).thenAnswer(i -> {
+			if (i.getArgument(1, String.class).contains("(cn=group1)")) {
+				return List.of(i.getArgument(3, ContextMapper.class).mapFromContext(entry));
+			}
+			return List.of();
+		});
+
+		final var results = groupRepository.refresh("group1");
+		Assertions.assertEquals(RefreshResult.Status.UPDATED, results.getFirst().status());
+		verify(groupRepository.cacheRepository).addUserToGroup(user2, group1);
+		verify(groupRepository.cacheRepository).removeUserFromGroup(user1, group1);
+		verify(groupRepository.cacheRepository).addGroupToGroup(group2, group1);
+		verify(groupRepository.cacheRepository, never()).delete(any(GroupOrg.class));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void refreshDeleted() {
+		final var groupRepository = new GroupLdapRepository();
+		final var template = mock(LdapTemplate.class);
+		groupRepository.setTemplate(template);
+		final var group1 = new GroupOrg("cn=group1", "group1", new HashSet<>());
+		final var cachedData = Map.of(AbstractMemCacheRepository.CacheDataType.GROUP, Map.of("group1", group1),
+				AbstractMemCacheRepository.CacheDataType.USER, Map.of());
+		groupRepository.cacheRepository = mock(CacheLdapRepository.class);
+		doReturn(cachedData).when(groupRepository.cacheRepository).getData();
+		when(template.search(anyString(), anyString(), any(SearchControls.class), any(ContextMapper.class))).thenReturn(List.of());
+
+		Assertions.assertEquals(RefreshResult.Status.DELETED, groupRepository.refresh("group1").getFirst().status());
+		verify(groupRepository.cacheRepository).delete(group1);
+	}
+
+	@Test
+	void addUserConcurrent() throws InterruptedException {
+		final var group = new GroupOrg("cn=group", "group", new HashSet<>());
+		final var groupRepository = new GroupLdapRepository() {
+			@Override
+			public GroupOrg findById(final String id) {
+				return group;
+			}
+		};
+		groupRepository.setMemberAttribute("uniqueMember");
+		final var template = mock(LdapTemplate.class);
+		groupRepository.setTemplate(template);
+		groupRepository.cacheRepository = mock(CacheLdapRepository.class);
+
+		// The cache publishes a new member set, as the in-memory cache does
+		doAnswer(i -> {
+			final var members = new HashSet<>(group.getMembers());
+			members.add(i.getArgument(0, UserOrg.class).getId());
+			group.setMembers(members);
+			return null;
+		}).when(groupRepository.cacheRepository).addUserToGroup(any(), any());
+		final var user = new UserOrg();
+		user.setId("user1");
+		user.setDn("uid=user1");
+
+		try (var executor = Executors.newFixedThreadPool(8)) {
+			for (var i = 0; i < 32; i++) {
+				executor.execute(() -> groupRepository.addUser(user, "group"));
+			}
+			executor.shutdown();
+			Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+
+		// A single LDAP modification, the concurrent requests see the new member
+		verify(template).modifyAttributes(any(Name.class), any(ModificationItem[].class));
+		Assertions.assertSame(groupRepository.getMemberLock("group"), groupRepository.getMemberLock("group"));
+	}
+
+	@Test
+	void emptyCurrent() {
+		final var stale = new GroupOrg("cn=group", "group", new HashSet<>());
+		final var current = new GroupOrg("cn=group", "group", new HashSet<>(Set.of("user1")));
+		final var groupRepository = new GroupLdapRepository() {
+			@Override
+			public GroupOrg findById(final String id) {
+				Assertions.assertTrue(Thread.holdsLock(getMemberLock(id)));
+				return "group".equals(id) ? current : null;
+			}
+		};
+		groupRepository.cacheRepository = mock(CacheLdapRepository.class);
+		final Map<String, UserOrg> users = Map.of();
+		groupRepository.empty(stale, users);
+		groupRepository.empty(new GroupOrg("cn=any", "any", new HashSet<>()), users);
+
+		// The group is read again holding its lock, the unknown group is ignored
+		verify(groupRepository.cacheRepository).empty(current, users);
+		verifyNoMoreInteractions(groupRepository.cacheRepository);
+	}
+
+	@Test
+	void withMemberLocks() {
+		final var groupRepository = new GroupLdapRepository();
+		final var groups = List.of("group1", "group2", "group3", "group1");
+		final var ran = new boolean[1];
+		groupRepository.withMemberLocks(groups, () -> {
+			groups.forEach(g -> Assertions.assertTrue(Thread.holdsLock(groupRepository.getMemberLock(g))));
+			ran[0] = true;
+		});
+		Assertions.assertTrue(ran[0]);
+		groups.forEach(g -> Assertions.assertFalse(Thread.holdsLock(groupRepository.getMemberLock(g))));
+	}
+
+	@Test
+	void updateMemberDnLocked() {
+		final var group = new GroupOrg("cn=group", "group", new HashSet<>());
+		final var groupRepository = new GroupLdapRepository() {
+			@Override
+			public GroupOrg findById(final String id) {
+				return group;
+			}
+		};
+		groupRepository.setMemberAttribute("uniqueMember");
+		final var template = mock(LdapTemplate.class);
+		groupRepository.setTemplate(template);
+		doAnswer(i -> {
+			Assertions.assertTrue(Thread.holdsLock(groupRepository.getMemberLock("group")));
+			return null;
+		}).when(template).modifyAttributes(any(Name.class), any(ModificationItem[].class));
+		groupRepository.updateMemberDn("group", "uid=old", "uid=new");
+		verify(template).modifyAttributes(any(Name.class), any(ModificationItem[].class));
+	}
+
+	@Test
+	void scanAttributes() {
+		final var groupRepository = new GroupLdapRepository();
+		groupRepository.setMemberAttribute("member");
+		Assertions.assertArrayEquals(new String[]{"cn", "member"}, groupRepository.getReturnedAttributes());
+		groupRepository.setScanAttributes(new String[]{"description"});
+		Assertions.assertArrayEquals(new String[]{"cn", "member", "description"}, groupRepository.getReturnedAttributes());
+		Assertions.assertArrayEquals(new String[]{"ou"}, new CompanyLdapRepository().getReturnedAttributes());
+	}
+
 	private static class MyGroupLdapRepository extends GroupLdapRepository {
 		@Override
 		public GroupOrg findById(final String id) {
@@ -0,0 +1,84 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.CommunicationException;
+import org.springframework.ldap.core.ContextSource;
+
+import javax.naming.directory.DirContext;
+import java.util.LinkedHashMap;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class of {@link LoadBalancedContextSource}
+ */
+class LoadBalancedContextSourceTest {
+
+	private final ContextSource source1 = mock(ContextSource.class);
+	private final ContextSource source2 = mock(ContextSource.class);
+	private final DirContext context1 = mock(DirContext.class);
+	private final DirContext context2 = mock(DirContext.class);
+
+	private LoadBalancedContextSource newContextSource(final LoadBalancedContextSource.Strategy strategy) {
+		final var sources = new LinkedHashMap<String, ContextSource>();
+		sources.put("ldap://server1", source1);
+		sources.put("ldap://server2", source2);
+		return new LoadBalancedContextSource(sources, strategy);
+	}
+
+	@Test
+	void roundRobin() {
+		doReturn(context1).when(source1).getReadOnlyContext();
+		doReturn(context2).when(source2).getReadOnlyContext();
+		final var contextSource = newContextSource(LoadBalancedContextSource.Strategy.ROUND_ROBIN);
+		Assertions.assertSame(context1, contextSource.getReadOnlyContext());
+		Assertions.assertSame(context2, contextSource.getReadOnlyContext());
+		Assertions.assertSame(context1, contextSource.getReadOnlyContext());
+	}
+
+	@Test
+	void failover() {
+		doThrow(new CommunicationException(new javax.naming.CommunicationException())).when(source1).getReadWriteContext();
+		doReturn(context2).when(source2).getReadWriteContext();
+		final var contextSource = newContextSource(LoadBalancedContextSource.Strategy.FAILOVER);
+		contextSource.setRetryDelay(60_000);
+		Assertions.assertSame(context2, contextSource.getReadWriteContext());
+		Assertions.assertFalse(contextSource.getServers().getFirst().isHealthy());
+
+		// The ejected server is not tried anymore
+		Assertions.assertSame(context2, contextSource.getReadWriteContext());
+		verify(source1, times(1)).getReadWriteContext();
+	}
+
+	@Test
+	void allUnavailable() {
+		doThrow(new CommunicationException(new javax.naming.CommunicationException())).when(source1).getReadOnlyContext();
+		doThrow(new CommunicationException(new javax.naming.CommunicationException())).when(source2).getReadOnlyContext();
+		final var contextSource = newContextSource(LoadBalancedContextSource.Strategy.FAILOVER);
+		contextSource.setRetryDelay(60_000);
+		Assertions.assertThrows(CommunicationException.class, contextSource::getReadOnlyContext);
+		Assertions.assertFalse(contextSource.getServers().getLast().isHealthy());
+	}
+
+	@Test
+	void fewestConnections() throws Exception {
+		doReturn(context1).when(source1).getReadOnlyContext();
+		doReturn(context2).when(source2).getReadOnlyContext();
+		final var contextSource = newContextSource(LoadBalancedContextSource.Strategy.FEWEST_CONNECTIONS);
+		final var opened = contextSource.getReadOnlyContext();
+		Assertions.assertEquals(1, contextSource.getServers().getFirst().getActive().get());
+
+		// The first server is busy
+		contextSource.getReadOnlyContext();
+		Assertions.assertEquals(1, contextSource.getServers().getLast().getActive().get());
+
+		opened.close();
+		opened.close();
+		Assertions.assertEquals(0, contextSource.getServers().getFirst().getActive().get());
+		verify(context1, times(2)).close();
+	}
+}
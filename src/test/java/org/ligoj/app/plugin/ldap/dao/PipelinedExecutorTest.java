@@ -0,0 +1,182 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.NameNotFoundException;
+import org.springframework.ldap.UncategorizedLdapException;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import java.util.List;
+
+/**
+ * Test class of {@link PipelinedExecutor} and the bulk writes of {@link UnboundIdClient}
+ */
+class PipelinedExecutorTest {
+
+	private InMemoryDirectoryServer server;
+	private UnboundIdClient client;
+
+	@BeforeEach
+	void startServer() throws LDAPException {
+		final var config = new InMemoryDirectoryServerConfig("dc=sample,dc=com");
+		config.setSchema(null);
+		server = new InMemoryDirectoryServer(config);
+		server.add("dn: dc=sample,dc=com", "objectClass: domain", "dc: sample");
+		server.add("dn: ou=groups,dc=sample,dc=com", "objectClass: organizationalUnit", "ou: groups");
+		for (var i = 0; i < 20; i++) {
+			server.add("dn: cn=group" + i + ",ou=groups,dc=sample,dc=com", "objectClass: groupOfUniqueNames", "cn: group" + i,
+					"uniqueMember: uid=user,ou=old");
+		}
+		server.add("dn: ou=sub,cn=group0,ou=groups,dc=sample,dc=com", "objectClass: organizationalUnit", "ou: sub");
+		server.startListening();
+		client = new UnboundIdClient(new String[]{"ldap://localhost:" + server.getListenPort()}, null, null, "dc=sample,dc=com");
+		client.setPipelineDepth(4);
+	}
+
+	@AfterEach
+	void stopServer() {
+		client.close();
+		server.shutDown(true);
+	}
+
+	private ModificationItem[] newMove(final String from, final String to) {
+		return new ModificationItem[]{new ModificationItem(DirContext.REMOVE_ATTRIBUTE, new BasicAttribute("uniqueMember", from)),
+				new ModificationItem(DirContext.ADD_ATTRIBUTE, new BasicAttribute("uniqueMember", to))};
+	}
+
+	@Test
+	void modify() throws LDAPException {
+		try (var pipeline = client.pipeline()) {
+			for (var i = 0; i < 20; i++) {
+				pipeline.modify("cn=group" + i + ",ou=groups", newMove("uid=user,ou=old", "uid=user,ou=new"));
+			}
+			pipeline.await();
+		}
+		for (var i = 0; i < 20; i++) {
+			Assertions.assertEquals("uid=user,ou=new",
+					server.getEntry("cn=group" + i + ",ou=groups,dc=sample,dc=com").getAttributeValue("uniqueMember"));
+		}
+	}
+
+	@Test
+	void modifySameDnOrdered() throws LDAPException {
+		try (var pipeline = client.pipeline()) {
+			// Each modification requires the previous one
+			pipeline.modify("cn=group0,ou=groups", newMove("uid=user,ou=old", "uid=user,ou=a"));
+			pipeline.modify("CN=group0,ou=groups", newMove("uid=user,ou=a", "uid=user,ou=b"));
+			pipeline.modify("cn=group0,ou=groups", newMove("uid=user,ou=b", "uid=user,ou=c"));
+			pipeline.await();
+		}
+		Assertions.assertEquals("uid=user,ou=c",
+				server.getEntry("cn=group0,ou=groups,dc=sample,dc=com").getAttributeValue("uniqueMember"));
+	}
+
+	@Test
+	void modifyFailed() {
+		try (var pipeline = client.pipeline()) {
+			pipeline.modify("cn=group0,ou=groups", newMove("uid=user,ou=old", "uid=user,ou=new"));
+			pipeline.modify("cn=any,ou=groups", newMove("uid=user,ou=old", "uid=user,ou=new"));
+			final var e = Assertions.assertThrows(UncategorizedLdapException.class, pipeline::await);
+			Assertions.assertTrue(e.getMessage().startsWith("1/2 "));
+		}
+	}
+
+	@Test
+	void rename() throws LDAPException {
+		try (var pipeline = client.pipeline()) {
+			// The rename is sent after the modification of the same entry
+			pipeline.modify("cn=group1,ou=groups", newMove("uid=user,ou=old", "uid=user,ou=new"));
+			pipeline.rename("cn=group1,ou=groups", "cn=renamed,ou=groups");
+			pipeline.await();
+		}
+		Assertions.assertNull(server.getEntry("cn=group1,ou=groups,dc=sample,dc=com"));
+		Assertions.assertEquals("uid=user,ou=new",
+				server.getEntry("cn=renamed,ou=groups,dc=sample,dc=com").getAttributeValue("uniqueMember"));
+	}
+
+	@Test
+	void deleteSubtree() throws LDAPException {
+		client.deleteSubtree("ou=groups");
+		Assertions.assertNull(server.getEntry("ou=groups,dc=sample,dc=com"));
+		Assertions.assertEquals(List.of("dc=sample,dc=com"), server.search("dc=sample,dc=com", com.unboundid.ldap.sdk.SearchScope.SUB,
+				"(objectClass=*)").getSearchEntries().stream().map(com.unboundid.ldap.sdk.Entry::getDN).toList());
+	}
+
+	@Test
+	void deleteSubtreePaged() throws LDAPException {
+		client.setPageSize(5);
+		client.deleteSubtree("ou=groups");
+		Assertions.assertEquals(1, server.countEntries());
+	}
+
+	@Test
+	void pooledConnections() throws LDAPException {
+		final var move = newMove("uid=user,ou=old", "uid=user,ou=new");
+		for (var i = 0; i < 5; i++) {
+			try (var pipeline = client.pipeline()) {
+				pipeline.modify("cn=group" + (i + 10) + ",ou=groups", move);
+				pipeline.await();
+			}
+		}
+		client.deleteSubtree("ou=sub,cn=group0,ou=groups");
+
+		// The same connection is reused
+		Assertions.assertEquals(1, client.getWritePool().getConnectionPoolStatistics().getNumSuccessfulConnectionAttempts());
+		client.close();
+		Assertions.assertThrows(UncategorizedLdapException.class, client::pipeline);
+	}
+
+	@Test
+	void deleteTree() throws LDAPException {
+		client.deleteTree("ou=groups");
+		Assertions.assertNull(server.getEntry("ou=groups,dc=sample,dc=com"));
+		Assertions.assertEquals(1, server.countEntries());
+	}
+
+	@Test
+	void deleteTreeNotFound() {
+		Assertions.assertThrows(NameNotFoundException.class, () -> client.deleteTree("ou=any"));
+	}
+
+	@Test
+	void deleteSubtreeNotFound() {
+		Assertions.assertThrows(NameNotFoundException.class, () -> client.deleteSubtree("ou=any"));
+	}
+
+	@Test
+	void toModifications() {
+		final var modifications = UnboundIdClient.toModifications(
+				new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute("userPassword", null)),
+				new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute("jpegPhoto", new byte[]{0, -1})),
+				new ModificationItem(DirContext.ADD_ATTRIBUTE, new BasicAttribute("mail", "a@sample.com")));
+
+		// A null value removes the attribute
+		Assertions.assertFalse(modifications[0].hasValue());
+		Assertions.assertArrayEquals(new byte[]{0, -1}, modifications[1].getValueByteArrays()[0]);
+		Assertions.assertEquals("a@sample.com", modifications[2].getValues()[0]);
+	}
+
+	@Test
+	void modifyAssertion() throws LDAPException {
+		final var move = newMove("uid=user,ou=old", "uid=user,ou=new");
+		Assertions.assertFalse(client.modify("cn=group0,ou=groups", Filter.createEqualityFilter("uniqueMember", "uid=user,ou=new"), move));
+		Assertions.assertTrue(client.modify("cn=group0,ou=groups", Filter.createEqualityFilter("uniqueMember", "uid=user,ou=old"), move));
+		Assertions.assertEquals("uid=user,ou=new",
+				server.getEntry("cn=group0,ou=groups,dc=sample,dc=com").getAttributeValue("uniqueMember"));
+		Assertions.assertThrows(NameNotFoundException.class, () -> client.modify("cn=any,ou=groups", null, move));
+
+		// The asserted updates share a single pooled connection, including after a failure
+		Assertions.assertEquals(1, client.getWritePool().getConnectionPoolStatistics().getNumSuccessfulConnectionAttempts());
+	}
+}
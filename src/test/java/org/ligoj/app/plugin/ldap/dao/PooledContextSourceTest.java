@@ -0,0 +1,157 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.UncategorizedLdapException;
+import org.springframework.ldap.core.ContextSource;
+
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.LdapContext;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class of {@link PooledContextSource}
+ */
+class PooledContextSourceTest {
+
+	private final ContextSource source = mock(ContextSource.class);
+
+	@Test
+	void reuse() throws Exception {
+		final var context = mock(LdapContext.class);
+		doReturn(context).when(source).getReadOnlyContext();
+		final var pool = new PooledContextSource("ldap://server", source, 2);
+		final var borrowed = pool.getReadOnlyContext();
+		Assertions.assertEquals(1, pool.getStatistics().active());
+		borrowed.close();
+		borrowed.close();
+		Assertions.assertEquals(0, pool.getStatistics().active());
+		Assertions.assertEquals(1, pool.getStatistics().idle());
+
+		// The same connection is lent again
+		pool.getReadOnlyContext().close();
+		verify(source, times(1)).getReadOnlyContext();
+		verify(context, never()).close();
+		Assertions.assertEquals(1, pool.getStatistics().created());
+	}
+
+	@Test
+	void warmUp() {
+		final var context = mock(LdapContext.class);
+		doReturn(context).when(source).getReadOnlyContext();
+		final var pool = new PooledContextSource("ldap://server", source, 2);
+		pool.setMinIdle(3);
+		pool.warmUp();
+		Assertions.assertEquals(2, pool.getStatistics().idle());
+		Assertions.assertEquals(2, pool.getStatistics().created());
+		Assertions.assertEquals(0, pool.getStatistics().active());
+
+		// Already warmed up
+		pool.warmUp();
+		Assertions.assertEquals(2, pool.getStatistics().created());
+	}
+
+	@Test
+	void identityChanged() throws Exception {
+		final var context = mock(LdapContext.class);
+		doReturn(context).when(source).getReadWriteContext();
+		final var pool = new PooledContextSource("ldap://server", source, 2);
+		final var borrowed = (LdapContext) pool.getReadWriteContext();
+		borrowed.addToEnvironment(Context.SECURITY_PRINCIPAL, "uid=user");
+		borrowed.close();
+		verify(context).close();
+		Assertions.assertEquals(0, pool.getStatistics().idle());
+		Assertions.assertEquals(1, pool.getStatistics().destroyed());
+	}
+
+	@Test
+	void waitTimeout() {
+		doReturn(mock(LdapContext.class)).when(source).getReadOnlyContext();
+		final var pool = new PooledContextSource("ldap://server", source, 1);
+		pool.setMaxWait(1);
+		pool.getReadOnlyContext();
+		Assertions.assertThrows(UncategorizedLdapException.class, pool::getReadOnlyContext);
+		Assertions.assertEquals(1, pool.getStatistics().timeouts());
+	}
+
+	@Test
+	void validation() throws Exception {
+		final var invalid = mock(LdapContext.class);
+		final var valid = mock(LdapContext.class);
+		when(source.getReadOnlyContext()).thenReturn(invalid, valid);
+		when(invalid.search(eq(""), eq("(objectClass=*)"), any(SearchControls.class)))
+				.thenThrow(new javax.naming.CommunicationException());
+		final var pool = new PooledContextSource("ldap://server", source, 2);
+		pool.setValidationFilter("(objectClass=*)");
+		pool.getReadOnlyContext().close();
+
+		// The idle connection is broken, a new one is opened
+		Assertions.assertNotNull(pool.getReadOnlyContext());
+		verify(invalid).close();
+		verify(source, times(2)).getReadOnlyContext();
+	}
+
+	@Test
+	void evict() throws Exception {
+		final var context = mock(LdapContext.class);
+		doReturn(context).when(source).getReadOnlyContext();
+		final var pool = new PooledContextSource("ldap://server", source, 2);
+		doReturn(mock(LdapContext.class)).when(source).getReadWriteContext();
+		pool.setIdleTimeout(-1);
+		pool.getReadOnlyContext().close();
+		pool.getReadWriteContext();
+		verify(context).close();
+		Assertions.assertEquals(0, pool.getStatistics().idle());
+		pool.close();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void validationSucceed() throws Exception {
+		final var context = mock(LdapContext.class);
+		doReturn(context).when(source).getReadOnlyContext();
+		doReturn(mock(NamingEnumeration.class)).when(context).search(eq(""), eq("(objectClass=*)"), any(SearchControls.class));
+		final var pool = new PooledContextSource("ldap://server", source, 2);
+		pool.setValidationFilter("(objectClass=*)");
+		pool.getReadOnlyContext().close();
+		pool.getReadOnlyContext();
+		verify(source, times(1)).getReadOnlyContext();
+		verify(context, never()).close();
+	}
+
+	@Test
+	void closeSource() throws Exception {
+		final var context = mock(LdapContext.class);
+		final var replica = mock(LdapContext.class);
+		doReturn(context).when(source).getReadWriteContext();
+		final var replicaSource = mock(ContextSource.class);
+		doReturn(replica).when(replicaSource).getReadOnlyContext();
+		final var primary = new PooledContextSource("ldap://primary", source, 2);
+		final var replicas = new PooledContextSource("ldap://replica", replicaSource, 2);
+		final var readWrite = new ReadWriteContextSource(primary,
+				new LoadBalancedContextSource(Map.of("ldap://replica", replicas), LoadBalancedContextSource.Strategy.FAILOVER));
+		readWrite.getReadWriteContext().close();
+		final var borrowed = replicas.getReadOnlyContext();
+
+		PooledContextSource.closeSource(readWrite);
+		Assertions.assertTrue(primary.isClosed());
+		Assertions.assertTrue(replicas.isClosed());
+		verify(context).close();
+		Assertions.assertEquals(0, primary.getStatistics().idle());
+
+		// The connection borrowed before the closing is closed once returned
+		verify(replica, never()).close();
+		borrowed.close();
+		verify(replica).close();
+		Assertions.assertEquals(0, replicas.getStatistics().idle());
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.naming.directory.DirContext;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test class of {@link ReadWriteContextSource}
+ */
+class ReadWriteContextSourceTest {
+
+	private final ContextSource primary = mock(ContextSource.class);
+	private final ContextSource replicas = mock(ContextSource.class);
+	private final DirContext primaryRead = mock(DirContext.class);
+	private final DirContext primaryWrite = mock(DirContext.class);
+	private final DirContext replicaRead = mock(DirContext.class);
+
+	private ReadWriteContextSource newContextSource() {
+		doReturn(primaryRead).when(primary).getReadOnlyContext();
+		doReturn(primaryWrite).when(primary).getReadWriteContext();
+		doReturn(replicaRead).when(replicas).getReadOnlyContext();
+		return new ReadWriteContextSource(primary, replicas);
+	}
+
+	@Test
+	void route() {
+		final var contextSource = newContextSource();
+		Assertions.assertSame(replicaRead, contextSource.getReadOnlyContext());
+		Assertions.assertSame(primaryWrite, contextSource.getReadWriteContext());
+	}
+
+	@Test
+	void readYourWrites() {
+		final var contextSource = newContextSource();
+		Assertions.assertFalse(contextSource.isPinned());
+		contextSource.getReadWriteContext();
+		Assertions.assertTrue(contextSource.isPinned());
+		Assertions.assertSame(primaryRead, contextSource.getReadOnlyContext());
+	}
+
+	@Test
+	void readYourWritesElapsed() {
+		final var contextSource = newContextSource();
+		contextSource.setReadYourWritesDelay(-1);
+		contextSource.getReadWriteContext();
+		Assertions.assertFalse(contextSource.isPinned());
+		Assertions.assertSame(replicaRead, contextSource.getReadOnlyContext());
+	}
+
+	@Test
+	void pin() {
+		final var contextSource = newContextSource();
+		contextSource.setReadYourWritesDelay(-1);
+		contextSource.pin(60_000);
+		Assertions.assertTrue(contextSource.isPinned());
+		Assertions.assertSame(primaryRead, contextSource.getReadOnlyContext());
+	}
+
+	@Test
+	void pinUser() throws InterruptedException {
+		final var contextSource = newContextSource();
+		try {
+			SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("user1", null));
+			contextSource.getReadWriteContext();
+
+			// The pin follows the user on another thread, and is not seen by the other callers of this thread
+			final var pinned = new AtomicBoolean();
+			final var thread = new Thread(() -> {
+				SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("user1", null));
+				pinned.set(contextSource.isPinned());
+			});
+			thread.start();
+			thread.join();
+			Assertions.assertTrue(pinned.get());
+			SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("user2", null));
+			Assertions.assertFalse(contextSource.isPinned());
+			SecurityContextHolder.clearContext();
+			Assertions.assertFalse(contextSource.isPinned());
+		} finally {
+			SecurityContextHolder.clearContext();
+		}
+	}
+
+	@Test
+	void getContext() {
+		final var contextSource = newContextSource();
+		final var replicaContext = mock(DirContext.class);
+		final var primaryContext = mock(DirContext.class);
+		doReturn(replicaContext).when(replicas).getContext("uid=user1,ou=people,dc=sample,dc=com", "secret");
+		doReturn(primaryContext).when(primary).getContext("uid=user1,ou=people,dc=sample,dc=com", "secret");
+		Assertions.assertSame(replicaContext, contextSource.getContext("uid=user1,ou=people,dc=sample,dc=com", "secret"));
+
+		// After a password change, the credentials of this entry are checked against the primary
+		contextSource.pinEntry("uid=User1,ou=people");
+		Assertions.assertFalse(contextSource.isPinned());
+		Assertions.assertSame(primaryContext, contextSource.getContext("uid=user1,ou=people,dc=sample,dc=com", "secret"));
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.LDAPException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class of {@link ReferentialIntegrity}
+ */
+class ReferentialIntegrityTest {
+
+	private InMemoryDirectoryServer server;
+	private UnboundIdClient client;
+
+	@BeforeEach
+	void startServer() throws LDAPException {
+		final var config = new InMemoryDirectoryServerConfig("dc=sample,dc=com", "cn=config");
+		config.setSchema(null);
+		server = new InMemoryDirectoryServer(config);
+		server.add("dn: dc=sample,dc=com", "objectClass: domain", "dc: sample");
+		server.add("dn: cn=config", "objectClass: olcGlobal", "cn: config");
+		server.startListening();
+		client = new UnboundIdClient(new String[]{"ldap://localhost:" + server.getListenPort()}, null, null, "dc=sample,dc=com");
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.shutDown(true);
+	}
+
+	@Test
+	void detectNone() {
+		Assertions.assertFalse(ReferentialIntegrity.detect(client, "uniqueMember"));
+	}
+
+	@Test
+	void detectOpenLdap() throws LDAPException {
+		server.add("dn: olcDatabase={1}mdb,cn=config", "objectClass: olcMdbConfig", "olcDatabase: {1}mdb");
+		server.add("dn: olcOverlay={0}refint,olcDatabase={1}mdb,cn=config", "objectClass: olcOverlayConfig",
+				"objectClass: olcRefintConfig", "olcOverlay: {0}refint", "olcRefintAttribute: member",
+				"olcRefintAttribute: uniqueMember");
+		Assertions.assertTrue(ReferentialIntegrity.detect(client, "uniquemember"));
+		Assertions.assertFalse(ReferentialIntegrity.detect(client, "memberOf"));
+	}
+
+	@Test
+	void detect389() throws LDAPException {
+		server.add("dn: cn=plugins,cn=config", "objectClass: nsContainer", "cn: plugins");
+		server.add("dn: cn=referential integrity postoperation,cn=plugins,cn=config", "objectClass: nsSlapdPlugin",
+				"cn: referential integrity postoperation", "nsslapd-pluginEnabled: off", "nsslapd-pluginarg1: 0",
+				"nsslapd-pluginarg3: member", "nsslapd-pluginarg4: uniquemember");
+		Assertions.assertFalse(ReferentialIntegrity.detect(client, "uniqueMember"));
+		server.modify("dn: cn=referential integrity postoperation,cn=plugins,cn=config", "changetype: modify",
+				"replace: nsslapd-pluginEnabled", "nsslapd-pluginEnabled: on");
+		Assertions.assertTrue(ReferentialIntegrity.detect(client, "uniqueMember"));
+	}
+
+	@Test
+	void detectUnavailable() {
+		final var unavailable = new UnboundIdClient(new String[]{"ldap://localhost:1"}, null, null, "");
+		Assertions.assertFalse(ReferentialIntegrity.detect(unavailable, "uniqueMember"));
+	}
+}
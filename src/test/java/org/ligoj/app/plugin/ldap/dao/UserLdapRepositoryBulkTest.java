@@ -0,0 +1,261 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.dao;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.LDAPException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.iam.CompanyOrg;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.UserOrg;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.springframework.ldap.core.LdapTemplate;
+
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class of the bulk operations of {@link UserLdapRepository}
+ */
+class UserLdapRepositoryBulkTest {
+
+	private static final int USERS = 50;
+
+	private InMemoryDirectoryServer server;
+	private UserLdapRepository repository;
+	private CacheLdapRepository cacheRepository;
+	private final List<UserOrg> users = new ArrayList<>();
+
+	@BeforeEach
+	void startServer() throws LDAPException {
+		final var config = new InMemoryDirectoryServerConfig("dc=sample,dc=com");
+		config.setSchema(null);
+		server = new InMemoryDirectoryServer(config);
+		server.add("dn: dc=sample,dc=com", "objectClass: domain", "dc: sample");
+		server.add("dn: ou=ing,dc=sample,dc=com", "objectClass: organizationalUnit", "ou: ing");
+		server.add("dn: ou=quarantine,dc=sample,dc=com", "objectClass: organizationalUnit", "ou: quarantine");
+		server.add("dn: ou=groups,dc=sample,dc=com", "objectClass: organizationalUnit", "ou: groups");
+		final var members = new ArrayList<String>();
+		final var ids = new HashSet<String>();
+		for (var i = 0; i < USERS; i++) {
+			server.add("dn: uid=user" + i + ",ou=ing,dc=sample,dc=com", "objectClass: inetOrgPerson", "uid: user" + i,
+					"userPassword: secret");
+			members.add("uniqueMember: uid=user" + i + ",ou=ing");
+			ids.add("user" + i);
+			final var user = new UserOrg();
+			user.setId("user" + i);
+			user.setDn("uid=user" + i + ",ou=ing");
+			user.setCompany("ing");
+			user.setGroups(List.of("group"));
+			users.add(user);
+		}
+		members.addAll(0, List.of("dn: cn=group,ou=groups,dc=sample,dc=com", "objectClass: groupOfUniqueNames", "cn: group"));
+		server.add(members.toArray(String[]::new));
+		server.startListening();
+
+		final var client = new UnboundIdClient(new String[]{"ldap://localhost:" + server.getListenPort()}, null, null,
+				"dc=sample,dc=com");
+		client.setPipelineDepth(8);
+		final var groupRepository = new GroupLdapRepository() {
+			@Override
+			public GroupOrg findById(final String name) {
+				return "unknown".equals(name) ? null : new GroupOrg("cn=group,ou=groups", name, ids);
+			}
+		};
+		groupRepository.setMemberAttribute("uniqueMember");
+		final var companyRepository = mock(CompanyLdapRepository.class);
+		when(companyRepository.getQuarantineCompany()).thenReturn("quarantine");
+		when(companyRepository.findById("quarantine")).thenReturn(new CompanyOrg("ou=quarantine", "quarantine"));
+		when(companyRepository.findById("ing")).thenReturn(new CompanyOrg("ou=ing", "ing"));
+		cacheRepository = mock(CacheLdapRepository.class);
+		repository = new UserLdapRepository();
+		repository.setWriteClient(client);
+		repository.setGroupLdapRepository(groupRepository);
+		repository.setCompanyRepository(companyRepository);
+		repository.setCacheRepository(cacheRepository);
+		repository.setLockedAttribute("employeeType");
+		repository.setLockedValue("LOCKED");
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.shutDown(true);
+	}
+
+	/**
+	 * Return the users updated in the cache by the last of the given amount of batches.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<UserOrg> getUpdated(final int batches) {
+		final ArgumentCaptor<Collection<UserOrg>> captor = ArgumentCaptor.forClass(Collection.class);
+		verify(cacheRepository, times(batches)).update(captor.capture());
+		return new ArrayList<>(captor.getValue());
+	}
+
+	@Test
+	void lock() throws LDAPException {
+		users.getFirst().setLockedBy("admin");
+		final var results = repository.bulk("junit", BulkOperation.LOCK, users);
+		Assertions.assertEquals(USERS, results.size());
+		Assertions.assertEquals(BulkResult.Status.SKIPPED, results.getFirst().status());
+		Assertions.assertTrue(results.stream().skip(1).allMatch(r -> r.status() == BulkResult.Status.DONE));
+		final var entry = server.getEntry("uid=user1,ou=ing,dc=sample,dc=com");
+		Assertions.assertTrue(entry.getAttributeValue("employeeType").startsWith("LOCKED|"));
+		Assertions.assertFalse(entry.hasAttribute("userPassword"));
+
+		// The locked copies are updated in the cache at once, the given users are unchanged
+		final var updated = getUpdated(1);
+		Assertions.assertEquals(USERS - 1, updated.size());
+		Assertions.assertEquals("junit", updated.getLast().getLockedBy());
+		Assertions.assertEquals("user" + (USERS - 1), updated.getLast().getId());
+		Assertions.assertNull(users.getLast().getLockedBy());
+		verify(cacheRepository, never()).update(ArgumentMatchers.any(UserOrg.class));
+	}
+
+	@Test
+	void isolateAndRestore() throws LDAPException {
+		var results = repository.bulk("junit", BulkOperation.ISOLATE, users);
+		Assertions.assertTrue(results.stream().allMatch(r -> r.status() == BulkResult.Status.DONE));
+		final var isolated = getUpdated(1);
+		Assertions.assertEquals(USERS, isolated.size());
+		Assertions.assertEquals("uid=user1,ou=quarantine", isolated.get(1).getDn());
+		Assertions.assertEquals("quarantine", isolated.get(1).getCompany());
+		Assertions.assertEquals("ing", isolated.get(1).getIsolated());
+		Assertions.assertEquals("junit", isolated.get(1).getLockedBy());
+		Assertions.assertEquals("uid=user1,ou=ing", users.get(1).getDn());
+		Assertions.assertNotNull(server.getEntry("uid=user1,ou=quarantine,dc=sample,dc=com"));
+		final var group = server.getEntry("cn=group,ou=groups,dc=sample,dc=com");
+		Assertions.assertEquals(USERS, group.getAttributeValues("uniqueMember").length);
+		Assertions.assertTrue(group.hasAttributeValue("uniqueMember", "uid=user1,ou=quarantine"));
+
+		results = repository.bulk("junit", BulkOperation.RESTORE, isolated);
+		Assertions.assertTrue(results.stream().allMatch(r -> r.status() == BulkResult.Status.DONE));
+		final var restored = getUpdated(2);
+		Assertions.assertEquals("uid=user1,ou=ing", restored.get(1).getDn());
+		Assertions.assertNull(restored.get(1).getIsolated());
+		Assertions.assertNull(restored.get(1).getLockedBy());
+		Assertions.assertEquals("uid=user1,ou=quarantine", isolated.get(1).getDn());
+		Assertions.assertFalse(server.getEntry("uid=user1,ou=ing,dc=sample,dc=com").hasAttribute("employeeType"));
+	}
+
+	@Test
+	void restoreUnknownCompany() {
+		repository.bulk("junit", BulkOperation.ISOLATE, users);
+		final var isolated = getUpdated(1);
+		isolated.get(1).setIsolated("any");
+		final var results = repository.bulk("junit", BulkOperation.RESTORE, isolated);
+		Assertions.assertEquals(BulkResult.Status.FAILED, results.get(1).status());
+		Assertions.assertEquals("Unknown company any", results.get(1).message());
+		Assertions.assertEquals(BulkResult.Status.DONE, results.get(2).status());
+
+		// The failed user is not updated in the cache
+		final var restored = getUpdated(2);
+		Assertions.assertEquals(USERS - 1, restored.size());
+		Assertions.assertTrue(restored.stream().noneMatch(u -> u.getId().equals("user1")));
+	}
+
+	@Test
+	void isolateUncachedGroup() throws LDAPException {
+		users.get(1).setGroups(List.of("unknown", "group"));
+		final var results = repository.bulk("junit", BulkOperation.ISOLATE, users);
+		Assertions.assertTrue(results.stream().allMatch(r -> r.status() == BulkResult.Status.DONE));
+		final var group = server.getEntry("cn=group,ou=groups,dc=sample,dc=com");
+		Assertions.assertTrue(group.hasAttributeValue("uniqueMember", "uid=user1,ou=quarantine"));
+	}
+
+	@Test
+	void isolateFailed() throws LDAPException {
+		server.delete("uid=user1,ou=ing,dc=sample,dc=com");
+		final var results = repository.bulk("junit", BulkOperation.ISOLATE, users);
+		Assertions.assertEquals(BulkResult.Status.FAILED, results.get(1).status());
+		Assertions.assertNotNull(results.get(1).message());
+		Assertions.assertEquals(BulkResult.Status.DONE, results.get(2).status());
+		Assertions.assertTrue(getUpdated(1).stream().noneMatch(u -> u.getId().equals("user1")));
+	}
+
+	@Test
+	void lockNotPipelined() {
+		final var template = mock(LdapTemplate.class);
+		doThrow(new org.springframework.ldap.NameNotFoundException(new javax.naming.NameNotFoundException("user1")))
+				.when(template).modifyAttributes(ArgumentMatchers.argThat((LdapName n) -> n.toString().equals("uid=user1,ou=ing")),
+						ArgumentMatchers.any(ModificationItem[].class));
+		repository.setWriteClient(null);
+		repository.setTemplate(template);
+
+		// One by one, a failure does not stop the next users
+		final var results = repository.bulk("junit", BulkOperation.LOCK, users.subList(0, 3));
+		Assertions.assertEquals(List.of(BulkResult.Status.DONE, BulkResult.Status.FAILED, BulkResult.Status.DONE),
+				results.stream().map(BulkResult::status).toList());
+		verify(template, times(3)).modifyAttributes(ArgumentMatchers.any(LdapName.class),
+				ArgumentMatchers.any(ModificationItem[].class));
+
+		// The locked copies are updated in the cache at once
+		final var updated = getUpdated(1);
+		Assertions.assertEquals(List.of("user0", "user2"), updated.stream().map(UserOrg::getId).toList());
+		Assertions.assertTrue(updated.stream().allMatch(u -> "junit".equals(u.getLockedBy())));
+		Assertions.assertNull(users.getFirst().getLockedBy());
+		verify(cacheRepository, never()).update(ArgumentMatchers.any(UserOrg.class));
+	}
+
+	@Test
+	void lockUnlockCopy() {
+		repository.setTemplate(mock(LdapTemplate.class));
+		final var user = users.getFirst();
+		repository.lock("junit", user);
+		final var captor = ArgumentCaptor.forClass(UserOrg.class);
+		verify(cacheRepository).update(captor.capture());
+		final var locked = captor.getValue();
+		Assertions.assertEquals("junit", locked.getLockedBy());
+		Assertions.assertNotNull(locked.getLocked());
+
+		// The given user, maybe read by the cache readers, is unchanged
+		Assertions.assertNotSame(user, locked);
+		Assertions.assertNull(user.getLockedBy());
+
+		repository.unlock(locked);
+		verify(cacheRepository, times(2)).update(captor.capture());
+		Assertions.assertNull(captor.getValue().getLockedBy());
+		Assertions.assertEquals("junit", locked.getLockedBy());
+
+		// Already unlocked: nothing to publish
+		repository.unlock(user);
+		verify(cacheRepository, times(2)).update(ArgumentMatchers.any(UserOrg.class));
+	}
+
+	@Test
+	void isolateRestoreCopy() {
+		repository.setTemplate(mock(LdapTemplate.class));
+		repository.setReferentialIntegrity(true);
+		final var user = users.getFirst();
+		repository.isolate("junit", user);
+		final var captor = ArgumentCaptor.forClass(UserOrg.class);
+		verify(cacheRepository).update(captor.capture());
+		final var isolated = captor.getValue();
+		Assertions.assertEquals("junit", isolated.getLockedBy());
+		Assertions.assertEquals("ing", isolated.getIsolated());
+		Assertions.assertEquals("quarantine", isolated.getCompany());
+		Assertions.assertEquals("uid=user0,ou=quarantine", isolated.getDn());
+		Assertions.assertEquals("uid=user0,ou=ing", user.getDn());
+		Assertions.assertNull(user.getIsolated());
+
+		repository.restore(isolated);
+		verify(cacheRepository, times(2)).update(captor.capture());
+		final var restored = captor.getValue();
+		Assertions.assertNull(restored.getLockedBy());
+		Assertions.assertNull(restored.getIsolated());
+		Assertions.assertEquals("uid=user0,ou=ing", restored.getDn());
+		Assertions.assertEquals("quarantine", isolated.getCompany());
+	}
+}
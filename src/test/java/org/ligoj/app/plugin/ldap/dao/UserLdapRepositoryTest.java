@@ -3,6 +3,13 @@
  */
 package org.ligoj.app.plugin.ldap.dao;
 
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.extensions.PasswordModifyExtendedRequest;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.RootDSE;
 import org.apache.commons.collections4.MapUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,6 +21,7 @@ import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository;
 import org.ligoj.bootstrap.MatcherUtil;
 import org.ligoj.bootstrap.core.resource.BusinessException;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.springframework.ldap.NameAlreadyBoundException;
 import org.springframework.ldap.NameNotFoundException;
@@ -22,16 +30,21 @@ import org.springframework.ldap.core.*;
 import org.springframework.ldap.core.support.AbstractContextMapper;
 
 import javax.naming.AuthenticationException;
+import javax.naming.Context;
 import javax.naming.Name;
 import javax.naming.NamingException;
 import javax.naming.directory.InvalidAttributeValueException;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchControls;
+import javax.naming.ldap.ExtendedRequest;
 import javax.naming.ldap.LdapContext;
 import java.time.Instant;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.mockito.Mockito.*;
 
@@ -128,10 +141,82 @@ class UserLdapRepositoryTest {
 		}.setPassword(user, "test");
 	}
 
+	@SuppressWarnings("unchecked")
+	private LdapTemplate newSelfSearchTemplate(final LdapContext context) throws NamingException {
+		final var template = mock(LdapTemplate.class);
+		final var contextSource = mock(ContextSource.class);
+		when(template.getContextSource()).thenReturn(contextSource);
+		when(contextSource.getContext("uid=user1,dc=sample,dc=com", "secret")).thenReturn(context);
+		final var entry = mock(DirContextOperations.class);
+		when(entry.getNameInNamespace()).thenReturn("uid=user1,dc=sample,dc=com");
+		when(template.search(nullable(String.class), anyString(), any(SearchControls.class), any(ContextMapper.class)))
+				.thenAnswer(i -> List.of(((ContextMapper<Object>) i.getArgument(3)).mapFromContext(entry)));
+		return template;
+	}
+
+	private UserLdapRepository newSelfSearchRepository(final LdapTemplate template) {
+		final var repository = new UserLdapRepository() {
+			@Override
+			public UserOrg findById(final String login) {
+				final var user = new UserOrg();
+				user.setId(login);
+				return user;
+			}
+		};
+		repository.setTemplate(template);
+		repository.setSelfSearch(true);
+		repository.setUidAttribute("uid");
+		return repository;
+	}
+
+	@SuppressWarnings("unchecked")
 	@Test
-	void capture() {
-		final var entry = mock(LdapEntryIdentification.class);
-		Assertions.assertNull(new UserLdapRepository.CaptureAuthenticatedLdapEntryContextCallback().mapWithContext(null, entry));
+	void authenticateSelfSearchRememberDn() throws NamingException {
+		final var context = mock(LdapContext.class);
+		final var template = newSelfSearchTemplate(context);
+		final var repository = newSelfSearchRepository(template);
+		Assertions.assertEquals(TEST_USER, repository.authenticate(TEST_USER, "secret").getId());
+		Assertions.assertEquals(TEST_USER, repository.authenticate("User1", "secret").getId());
+
+		// Only one search, the second bind reuses the pooled connection
+		verify(template, times(1)).search(nullable(String.class), anyString(), any(SearchControls.class), any(ContextMapper.class));
+		verify(context).reconnect(null);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void authenticateSelfSearchRememberDnFailed() throws NamingException {
+		final var context = mock(LdapContext.class);
+		final var template = newSelfSearchTemplate(context);
+		final var repository = newSelfSearchRepository(template);
+		Assertions.assertNotNull(repository.authenticate(TEST_USER, "secret"));
+		doThrow(new AuthenticationException()).when(context).reconnect(null);
+
+		// The remembered DN is rejected, a new search resolves the same DN: no more bind
+		Assertions.assertNull(repository.authenticate(TEST_USER, "wrong"));
+		verify(template, times(2)).search(nullable(String.class), anyString(), any(SearchControls.class), any(ContextMapper.class));
+		verify(context).close();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void authenticateSelfSearchClosed() throws NamingException {
+		final var context = mock(LdapContext.class);
+		final var template = newSelfSearchTemplate(context);
+		final var repository = newSelfSearchRepository(template);
+		Assertions.assertNotNull(repository.authenticate(TEST_USER, "secret"));
+
+		// The pooled connection and the resolved logins are released, and no more connection is opened
+		repository.close();
+		verify(context).close();
+		Assertions.assertNull(repository.authenticate(TEST_USER, "secret"));
+		verify(template.getContextSource(), times(1)).getContext(anyString(), anyString());
+	}
+
+	@Test
+	void authenticateSelfSearchEmptyPassword() throws NamingException {
+		final var repository = newSelfSearchRepository(newSelfSearchTemplate(mock(LdapContext.class)));
+		Assertions.assertNull(repository.authenticate(TEST_USER, ""));
 	}
 
 	@Test
@@ -446,6 +531,20 @@ class UserLdapRepositoryTest {
 		repository.unbind("cn=Any");
 	}
 
+	@Test
+	void unbindTreeDelete() throws NamingException {
+		final var ldapContext = newLdapContext();
+		repository.setCapabilities(DirectoryCapabilities.of(new RootDSE(new Entry("",
+				new Attribute("supportedControl", DirectoryCapabilities.TREE_DELETE)))));
+		repository.unbind("ou=any");
+
+		// A single request, the children are deleted by the server
+		verify(ldapContext).setRequestControls(ArgumentMatchers.argThat(c -> c != null && c.length == 1
+				&& c[0].getID().equals(DirectoryCapabilities.TREE_DELETE) && c[0].isCritical()));
+		verify(ldapContext).unbind(ArgumentMatchers.any(Name.class));
+		verify(ldapContext).setRequestControls(null);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	void findAllNoCacheOperationNotSupportedException() {
@@ -471,6 +570,188 @@ class UserLdapRepositoryTest {
 		repository.findAllNoCache(Collections.emptyMap());
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	void findAllNoCachePrefetched() {
+		final var repository = new UserLdapRepository();
+		final var template = mock(LdapTemplate.class);
+		repository.setTemplate(template);
+		final var user = new UserOrg();
+		user.setId("user1");
+		// noinspection unchecked
+		when(template.search(ArgumentMatchers.nullable(String.class), anyString(), any(SearchControls.class),
+				any(ContextMapper.class), any(DirContextProcessor.class))).thenReturn(List.of(user));
+		repository.prefetch();
+		Assertions.assertSame(user, repository.findAllNoCache(Collections.emptyMap()).get("user1"));
+
+		// The prefetched search is used once
+		repository.findAllNoCache(Collections.emptyMap());
+		verify(template, times(2)).search(ArgumentMatchers.nullable(String.class),
+				argThat((String f) -> !f.contains("userPassword")), any(SearchControls.class), any(ContextMapper.class),
+				any(DirContextProcessor.class));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void findAllNoCacheSecured() {
+		final var repository = new UserLdapRepository();
+		final var template = mock(LdapTemplate.class);
+		repository.setTemplate(template);
+		final var user1 = new UserOrg();
+		user1.setId("user1");
+		user1.setDn("uid=user1,ou=company");
+		final var user2 = new UserOrg();
+		user2.setId("user2");
+		user2.setDn("uid=user2,ou=company");
+		when(template.search(ArgumentMatchers.nullable(String.class), anyString(), any(SearchControls.class),
+				any(ContextMapper.class), any(DirContextProcessor.class))).thenAnswer(i -> {
+			final var controls = i.getArgument(2, SearchControls.class);
+			if (i.getArgument(1, String.class).contains("(userPassword=*)")) {
+				// Only the DN of the secured users, without attribute
+				Assertions.assertArrayEquals(new String[]{"1.1"}, controls.getReturningAttributes());
+				return List.of("uid=user1,ou=company");
+			}
+			Assertions.assertFalse(List.of(controls.getReturningAttributes()).contains("userPassword"));
+			return List.of(user1, user2);
+		});
+
+		final var users = repository.findAllNoCache(Collections.emptyMap());
+		Assertions.assertTrue(users.get("user1").isSecured());
+		Assertions.assertFalse(users.get("user2").isSecured());
+	}
+
+	private UserOrg newRefreshedUser(final String firstName) {
+		final var user = new UserOrg();
+		user.setId("user1");
+		user.setDn("uid=user1,ou=company");
+		user.setCompany("company");
+		user.setFirstName(firstName);
+		return user;
+	}
+
+	@SuppressWarnings("unchecked")
+	private UserLdapRepository newRefreshRepository(final LdapTemplate template, final CacheLdapRepository cache,
+			final UserOrg cached) {
+		final var repository = new UserLdapRepository();
+		repository.setTemplate(template);
+		repository.setCacheRepository(cache);
+		final var users = new HashMap<String, UserOrg>();
+		if (cached != null) {
+			users.put(cached.getId(), cached);
+		}
+		when(cache.getData()).thenReturn(Map.of(AbstractMemCacheRepository.CacheDataType.USER, users));
+		final var groupRepository = mock(GroupLdapRepository.class);
+		final var group1 = new GroupOrg("cn=group1", "group1", new HashSet<>());
+		final var group2 = new GroupOrg("cn=group2", "group2", new HashSet<>());
+		when(groupRepository.findAll()).thenReturn(Map.of("group1", group1, "group2", group2));
+		when(groupRepository.findAllByMemberNoCache("uid=user1,ou=company")).thenReturn(Set.of("group2"));
+		repository.setGroupLdapRepository(groupRepository);
+		final var companyRepository = mock(CompanyLdapRepository.class);
+		when(companyRepository.findById("company")).thenReturn(new CompanyOrg("ou=company", "company"));
+		repository.setCompanyRepository(companyRepository);
+		return repository;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void refreshUpdated() {
+		final var template = mock(LdapTemplate.class);
+		final var cache = mock(CacheLdapRepository.class);
+		final var cached = newRefreshedUser("First");
+		cached.setGroups(List.of("group1"));
+		final var repository = newRefreshRepository(template, cache, cached);
+		when(template.search(anyString(), anyString(), any(SearchControls.class), any(ContextMapper.class)))
+				.thenReturn(List.of(newRefreshedUser("Changed")));
+
+		final var results = repository.refresh("user1");
+		Assertions.assertEquals(1, results.size());
+		Assertions.assertEquals(RefreshResult.Status.UPDATED, results.getFirst().status());
+		Assertions.assertEquals("First", cached.getFirstName());
+		verify(cache).update(argThat((UserOrg u) -> u.getFirstName().equals("Changed") && u.getGroups().equals(List.of("group1"))));
+		verify(cache).addUserToGroup(ArgumentMatchers.same(cached), argThat(g -> g.getId().equals("group2")));
+		verify(cache).removeUserFromGroup(ArgumentMatchers.same(cached), argThat(g -> g.getId().equals("group1")));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void refreshUnchanged() {
+		final var template = mock(LdapTemplate.class);
+		final var cache = mock(CacheLdapRepository.class);
+		final var cached = newRefreshedUser("First");
+		cached.setGroups(List.of("group2"));
+		final var repository = newRefreshRepository(template, cache, cached);
+		when(template.search(anyString(), anyString(), any(SearchControls.class), any(ContextMapper.class)))
+				.thenReturn(List.of(newRefreshedUser("First")));
+
+		Assertions.assertEquals(RefreshResult.Status.UNCHANGED, repository.refresh("uid=user1,ou=company").getFirst().status());
+		verify(cache, never()).update(any(UserOrg.class));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void refreshCreated() {
+		final var template = mock(LdapTemplate.class);
+		final var cache = mock(CacheLdapRepository.class);
+		final var repository = newRefreshRepository(template, cache, null);
+		final var fresh = newRefreshedUser("First");
+		when(template.search(anyString(), anyString(), any(SearchControls.class), any(ContextMapper.class)))
+				.thenReturn(List.of(fresh));
+		when(cache.create(fresh)).thenReturn(fresh);
+
+		Assertions.assertEquals(RefreshResult.Status.CREATED, repository.refresh("user1").getFirst().status());
+		verify(cache).addUserToGroup(ArgumentMatchers.same(fresh), argThat(g -> g.getId().equals("group2")));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void refreshDeleted() {
+		final var template = mock(LdapTemplate.class);
+		final var cache = mock(CacheLdapRepository.class);
+		final var cached = newRefreshedUser("First");
+		final var repository = newRefreshRepository(template, cache, cached);
+		when(template.search(anyString(), anyString(), any(SearchControls.class), any(ContextMapper.class)))
+				.thenThrow(new NameNotFoundException("uid=user1,ou=company"));
+
+		Assertions.assertEquals(RefreshResult.Status.DELETED, repository.refresh("uid=user1,ou=company").getFirst().status());
+		verify(cache).delete(cached);
+	}
+
+	@Test
+	void linkGroups() {
+		final var repository = new UserLdapRepository();
+		final var users = new HashMap<String, UserOrg>();
+		for (final var id : List.of("user1", "user2", "user3")) {
+			final var user = new UserOrg();
+			user.setId(id);
+			user.setDn("uid=" + id + ",ou=company");
+			users.put(id, user);
+		}
+		users.get("user1").setGroups(List.of("group1", "group2"));
+		users.get("user2").setGroups(List.of("group1"));
+		final var unchanged = List.of("group3");
+		users.get("user3").setGroups(unchanged);
+		final var previous = Map.of("group1", new GroupOrg("cn=group1", "group1", Set.of("user1", "user2")),
+				"group2", new GroupOrg("cn=group2", "group2", Set.of("user1")),
+				"group3", new GroupOrg("cn=group3", "group3", Set.of("user3")));
+
+		// user2 leaves the group1, the group2 is deleted, user3 is unchanged
+		final var groups = new HashMap<String, GroupOrg>();
+		groups.put("group1", new GroupOrg("cn=group1", "group1", new HashSet<>(Set.of("uid=user1,ou=company"))));
+		groups.put("group3", new GroupOrg("cn=group3", "group3", new HashSet<>(Set.of("uid=user3,ou=company"))));
+		final var linked = repository.linkGroups(users, previous, groups);
+
+		Assertions.assertEquals(Set.of("user1"), groups.get("group1").getMembers());
+		Assertions.assertEquals(Set.of("user1", "user2"), linked.keySet());
+		Assertions.assertEquals(List.of("group1"), linked.get("user1").getGroups());
+		Assertions.assertEquals(List.of(), linked.get("user2").getGroups());
+		Assertions.assertEquals("uid=user1,ou=company", linked.get("user1").getDn());
+
+		// The given users are not modified
+		Assertions.assertEquals(List.of("group1", "group2"), users.get("user1").getGroups());
+		Assertions.assertEquals(List.of("group1"), users.get("user2").getGroups());
+		Assertions.assertSame(unchanged, users.get("user3").getGroups());
+	}
+
 	@Test
 	void mapToContext() {
 		final var repository = new UserLdapRepository();
@@ -495,4 +776,215 @@ class UserLdapRepositoryTest {
 		Assertions.assertNull(repository.findBy("mail", "any"));
 		Assertions.assertEquals(TEST_USER, repository.findBy("id", TEST_USER).getId());
 	}
+
+	private UserOrg newSnapshot() {
+		final var snapshot = new UserOrg();
+		snapshot.setId(TEST_USER);
+		snapshot.setDn("uid=user1,ou=people");
+		snapshot.setFirstName("First");
+		snapshot.setLastName("Last");
+		snapshot.setMails(List.of("user1@sample.com"));
+		final var cacheLdapRepository = mock(CacheLdapRepository.class);
+		when(cacheLdapRepository.getData()).thenReturn(Map.of(AbstractMemCacheRepository.CacheDataType.USER, Map.of(TEST_USER, snapshot)));
+		repository.setCacheRepository(cacheLdapRepository);
+		repository.setUidAttribute("uid");
+		return snapshot;
+	}
+
+	private UserOrg newUpdate(final String lastName) {
+		final var user = new UserOrg();
+		user.setId(TEST_USER);
+		user.setDn("uid=user1,ou=people");
+		user.setFirstName("First");
+		user.setLastName(lastName);
+		user.setMails(List.of("user1@sample.com"));
+		return user;
+	}
+
+	private DirectoryCapabilities newAssertionCapabilities() {
+		return DirectoryCapabilities.of(new RootDSE(new Entry("",
+				new Attribute("supportedControl", DirectoryCapabilities.ASSERTION))));
+	}
+
+	@Test
+	void updateUserFromSnapshot() {
+		final var snapshot = newSnapshot();
+		final var template = mock(LdapTemplate.class);
+		repository.setTemplate(template);
+		final var client = mock(UnboundIdClient.class);
+		when(client.modify(ArgumentMatchers.eq("uid=user1,ou=people"), ArgumentMatchers.any(Filter.class),
+				ArgumentMatchers.any(ModificationItem[].class))).thenReturn(true);
+		repository.setAssertionClient(client);
+		repository.setCapabilities(newAssertionCapabilities());
+		repository.updateUser(newUpdate("New"));
+
+		// Only "sn" and the derived "cn" are sent, with an assertion on the previous "sn"
+		verify(client).modify(ArgumentMatchers.eq("uid=user1,ou=people"),
+				ArgumentMatchers.eq(Filter.createANDFilter(Filter.createEqualityFilter("sn", "Last"))),
+				ArgumentMatchers.argThat((ModificationItem[] m) -> m.length == 2
+						&& List.of(m).stream().allMatch(i -> i.getAttribute().getID().matches("cn|sn"))));
+		verifyNoInteractions(template);
+
+		// The cached snapshot is published, the cache copies the attributes into its next version
+		Assertions.assertEquals("Last", snapshot.getLastName());
+		verify(repository.cacheRepository).update(argThat((UserOrg u) -> u.getLastName().equals("New")));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void updateUserFromSnapshotNoAssertion() {
+		newSnapshot();
+		final var template = mock(LdapTemplate.class);
+		repository.setTemplate(template);
+		repository.setCapabilities(newAssertionCapabilities());
+		repository.updateUser(newUpdate("New"));
+
+		// Without native client, the update is sent without assertion
+		verify(template).modifyAttributes(ArgumentMatchers.any(Name.class),
+				ArgumentMatchers.argThat((ModificationItem[] m) -> m.length == 2));
+		verify(template, never()).executeReadWrite((ContextExecutor<Object>) ArgumentMatchers.any(ContextExecutor.class));
+	}
+
+	@Test
+	void updateUserFromSnapshotNoChange() {
+		newSnapshot();
+		final var template = mock(LdapTemplate.class);
+		repository.setTemplate(template);
+		repository.updateUser(newUpdate("Last"));
+		verifyNoInteractions(template);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	void updateUserFromSnapshotAssertionFailed() {
+		newSnapshot();
+		final var template = mock(LdapTemplate.class);
+		repository.setTemplate(template);
+		final var client = mock(UnboundIdClient.class);
+		when(client.modify(ArgumentMatchers.eq("uid=user1,ou=people"), ArgumentMatchers.any(Filter.class),
+				ArgumentMatchers.any(ModificationItem[].class))).thenReturn(false);
+		repository.setAssertionClient(client);
+		repository.setCapabilities(newAssertionCapabilities());
+		final var context = mock(DirContextOperations.class);
+		when(template.executeReadWrite((ContextExecutor<Object>) ArgumentMatchers.any(ContextExecutor.class)))
+				.thenReturn(context);
+		repository.updateUser(newUpdate("New"));
+
+		// Changed outside, the current entry is read and updated
+		verify(template).modifyAttributes(context);
+	}
+
+	@Test
+	void updateUserStale() {
+		final var snapshot = newSnapshot();
+		snapshot.setDn("uid=user1,ou=moved");
+		snapshot.setCompany("moved");
+		snapshot.setLockedBy("admin");
+		final var template = mock(LdapTemplate.class);
+		repository.setTemplate(template);
+		final var update = newUpdate("New");
+		repository.updateUser(update);
+
+		// The instance read before the move and the lock does not restore the former state
+		verify(template).modifyAttributes(ArgumentMatchers.eq(org.springframework.ldap.support.LdapUtils.newLdapName("uid=user1,ou=moved")),
+				ArgumentMatchers.any(ModificationItem[].class));
+		verify(repository.cacheRepository).update(argThat((UserOrg u) -> u != update && u.getLastName().equals("New")
+				&& u.getDn().equals("uid=user1,ou=moved") && u.getCompany().equals("moved") && u.getLockedBy().equals("admin")));
+		Assertions.assertEquals("uid=user1,ou=people", update.getDn());
+	}
+
+	@Test
+	void updateUserSameInstance() throws NamingException {
+		final var snapshot = newSnapshot();
+		final var ldapContext = newLdapContext();
+		final var context = mock(DirContextOperations.class);
+		when(ldapContext.lookup(ArgumentMatchers.any(Name.class))).thenReturn(context);
+		snapshot.setLastName("New");
+		repository.updateUser(snapshot);
+		verify(repository.getTemplate()).modifyAttributes(context);
+	}
+
+	private PasswordModifyExtendedRequest toPasswordModify(final ExtendedRequest request) throws LDAPException {
+		return new PasswordModifyExtendedRequest(new com.unboundid.ldap.sdk.ExtendedRequest(request.getID(),
+				new ASN1OctetString(request.getEncodedValue())));
+	}
+
+	@Test
+	void setPasswordModify() throws NamingException, LDAPException {
+		final var ldapContext = newLdapContext();
+		when(ldapContext.getNameInNamespace()).thenReturn("dc=sample,dc=com");
+		final var captor = ArgumentCaptor.forClass(ExtendedRequest.class);
+		repository.setPasswordModify(true);
+		final var user = new UserOrg();
+		user.setDn("uid=user1,ou=people");
+		user.setLockedBy("_password_policy");
+		repository.setPassword(user, "old", "new");
+
+		// Single extended operation sent as the user, the server checks the old password and its policy
+		verify(ldapContext).addToEnvironment(Context.SECURITY_PRINCIPAL, "uid=user1,ou=people,dc=sample,dc=com");
+		verify(ldapContext).addToEnvironment(Context.SECURITY_CREDENTIALS, "old");
+		verify(ldapContext).reconnect(null);
+		verify(ldapContext).extendedOperation(captor.capture());
+		final var request = toPasswordModify(captor.getValue());
+		Assertions.assertEquals("uid=user1,ou=people,dc=sample,dc=com", request.getUserIdentity());
+		Assertions.assertEquals("old", request.getOldPassword());
+		Assertions.assertEquals("new", request.getNewPassword());
+
+		// The lock of the password policy is removed
+		verify(repository.getTemplate()).modifyAttributes(ArgumentMatchers.any(Name.class), ArgumentMatchers.any(ModificationItem[].class));
+	}
+
+	@Test
+	void setPasswordModifyReset() throws NamingException, LDAPException {
+		final var ldapContext = newLdapContext();
+		when(ldapContext.getNameInNamespace()).thenReturn("");
+		final var captor = ArgumentCaptor.forClass(ExtendedRequest.class);
+		repository.setPasswordModify(true);
+		final var user = new UserOrg();
+		user.setDn("uid=user1,ou=people");
+		repository.setPassword(user, null, "new");
+
+		// No temporary password, no lock to remove
+		verify(ldapContext).extendedOperation(captor.capture());
+		final var request = toPasswordModify(captor.getValue());
+		Assertions.assertEquals("uid=user1,ou=people", request.getUserIdentity());
+		Assertions.assertNull(request.getOldPassword());
+		verify(ldapContext, never()).reconnect(ArgumentMatchers.any());
+		verify(repository.getTemplate(), never()).modifyAttributes(ArgumentMatchers.any(Name.class),
+				ArgumentMatchers.any(ModificationItem[].class));
+	}
+
+	@Test
+	void setPasswordModifyLogin() throws NamingException {
+		final var ldapContext = newLdapContext();
+		when(ldapContext.extendedOperation(ArgumentMatchers.any())).thenThrow(new AuthenticationException());
+		repository.setPasswordModify(true);
+		final var user = new UserOrg();
+		user.setDn("uid=user1,ou=people");
+		MatcherUtil.assertThrows(Assertions.assertThrows(ValidationJsonException.class,
+				() -> repository.setPassword(user, "wrong", "new")), "password", "login");
+	}
+
+	@Test
+	void setPasswordModifyLoginBind() throws NamingException {
+		final var ldapContext = newLdapContext();
+		doThrow(new AuthenticationException()).when(ldapContext).reconnect(null);
+		repository.setPasswordModify(true);
+		final var user = new UserOrg();
+		user.setDn("uid=user1,ou=people");
+		MatcherUtil.assertThrows(Assertions.assertThrows(ValidationJsonException.class,
+				() -> repository.setPassword(user, "wrong", "new")), "password", "login");
+		verify(ldapContext, never()).extendedOperation(ArgumentMatchers.any());
+	}
+
+	@Test
+	void setPasswordModifyPolicy() throws NamingException {
+		final var ldapContext = newLdapContext();
+		when(ldapContext.extendedOperation(ArgumentMatchers.any())).thenThrow(new InvalidAttributeValueException());
+		repository.setPasswordModify(true);
+		final var user = new UserOrg();
+		user.setDn("uid=user1,ou=people");
+		MatcherUtil.assertThrows(Assertions.assertThrows(ValidationJsonException.class,
+				() -> repository.setPassword(user, "new")), "password", "password-policy");
+	}
 }
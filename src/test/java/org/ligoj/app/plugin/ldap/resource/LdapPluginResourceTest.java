@@ -5,6 +5,7 @@ package org.ligoj.app.plugin.ldap.resource;
 
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
+import jakarta.ws.rs.ForbiddenException;
 import jakarta.ws.rs.NotAuthorizedException;
 import jakarta.ws.rs.core.StreamingOutput;
 import org.apache.commons.io.IOUtils;
@@ -19,6 +20,7 @@ import org.ligoj.app.iam.model.CacheUser;
 import org.ligoj.app.model.Node;
 import org.ligoj.app.model.ParameterValue;
 import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.id.dao.AbstractMemCacheRepository.CacheDataType;
 import org.ligoj.app.plugin.id.resource.IdentityResource;
 import org.ligoj.app.plugin.id.resource.UserOrgEditionVo;
 import org.ligoj.app.plugin.id.resource.UserOrgResource;
@@ -32,6 +34,8 @@ import org.mockito.ArgumentMatchers;
 import org.springframework.ldap.UncategorizedLdapException;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.annotation.Rollback;
 
 import java.io.ByteArrayInputStream;
@@ -82,6 +86,21 @@ class LdapPluginResourceTest extends AbstractLdapPluginResourceTest {
 		Assertions.assertTrue(resource.checkSubscriptionStatus(parameters).getStatus().isUp());
 	}
 
+	@Test
+	void newContextSourceInvalidStrategy() {
+		final var parameters = Map.of(LdapPluginResource.PARAMETER_URL_STRATEGY, "random");
+		MatcherUtil.assertThrows(Assertions.assertThrows(ValidationJsonException.class,
+				() -> resource.newContextSource(parameters, "ldap://a ldap://b")), LdapPluginResource.PARAMETER_URL_STRATEGY, "select");
+	}
+
+	@Test
+	void newContextSourceInvalidInterval() {
+		final var parameters = Map.of(LdapPluginResource.PARAMETER_URL_STRATEGY, "round-robin",
+				LdapPluginResource.PARAMETER_HEALTH_CHECK_INTERVAL, "-1");
+		MatcherUtil.assertThrows(Assertions.assertThrows(ValidationJsonException.class,
+				() -> resource.newContextSource(parameters, "ldap://a ldap://b")), LdapPluginResource.PARAMETER_HEALTH_CHECK_INTERVAL, "integer");
+	}
+
 	@Test
 	void getVersion() {
 		final var version = resource.getVersion(null);
@@ -362,6 +381,23 @@ class LdapPluginResourceTest extends AbstractLdapPluginResourceTest {
 		resource.delete(subscription2.getId(), false);
 	}
 
+	@Test
+	void refreshNotAdministrator() {
+		initSpringSecurityContext("fdaugan");
+		Assertions.assertThrows(ForbiddenException.class, () -> resource.refresh(CacheDataType.GROUP));
+		Assertions.assertThrows(ForbiddenException.class,
+				() -> resource.refresh("service:id:ldap:dig", CacheDataType.USER, "fdaugan"));
+	}
+
+	@Test
+	void refreshAdministrator() {
+		final var authentication = new UsernamePasswordAuthenticationToken(DEFAULT_USER, null,
+				List.of(new SimpleGrantedAuthority(LdapPluginResource.ADMIN_ROLE)));
+		SecurityContextHolder.getContext().setAuthentication(authentication);
+		final var results = resource.refresh("service:id:ldap:dig", CacheDataType.USER, "fdaugan");
+		Assertions.assertEquals("fdaugan", results.getFirst().id());
+	}
+
 	@Test
 	void linkNotVisibleProject() {
 
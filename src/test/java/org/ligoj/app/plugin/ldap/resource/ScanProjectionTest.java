@@ -0,0 +1,70 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.resource;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.core.AttributesMapper;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmark of the attribute projection of the container scans: amount of attribute bytes transferred with and
+ * without the projection.
+ */
+@Slf4j
+class ScanProjectionTest extends AbstractLdapPluginResourceTest {
+
+	/**
+	 * Return the amount of bytes of the attribute names and values of an entry.
+	 */
+	private static long size(final Attributes attributes) throws NamingException {
+		var size = 0L;
+		final var all = attributes.getAll();
+		while (all.hasMore()) {
+			final var attribute = all.next();
+			size += attribute.getID().length();
+			final var values = attribute.getAll();
+			while (values.hasMore()) {
+				final var value = values.next();
+				size += value instanceof byte[] bytes ? bytes.length : value.toString().getBytes(StandardCharsets.UTF_8).length;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Return the amount of attribute bytes returned by a subtree scan.
+	 */
+	private long scan(final String base, final String filter, final String... attributes) {
+		final var controls = new SearchControls();
+		controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		controls.setReturningAttributes(attributes);
+		return getTemplate().search(base, filter, controls, (AttributesMapper<Long>) ScanProjectionTest::size).stream()
+				.mapToLong(Long::longValue).sum();
+	}
+
+	private void assertSaved(final String type, final String base, final String filter, final String... attributes) {
+		final var all = scan(base, filter, (String[]) null);
+		final var projected = scan(base, filter, attributes);
+		log.info("Scan of the {}: {} bytes, {} bytes with the projection, {}% saved", type, all, projected,
+				all == 0 ? 0 : (all - projected) * 100 / all);
+		Assertions.assertTrue(projected > 0);
+		Assertions.assertTrue(projected < all);
+	}
+
+	@Test
+	void groups() {
+		assertSaved("groups", "dc=sample,dc=com", "(objectClass=groupOfUniqueNames)", "cn", "uniqueMember");
+	}
+
+	@Test
+	void companies() {
+		assertSaved("companies", "ou=people,dc=sample,dc=com", "(objectClass=organizationalUnit)", "ou");
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.ldap.resource;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.plugin.ldap.dao.UnboundIdClient;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * Test of the "unboundid" search backend: same results as the JNDI one.
+ */
+@Slf4j
+class UnboundIdSearchTest extends AbstractLdapPluginResourceTest {
+
+	private UnboundIdClient client;
+
+	@BeforeEach
+	void prepareClient() {
+		client = new UnboundIdClient(new String[]{"ldap://localhost:34389/"}, "uid=admin,ou=system", "secret", "");
+		client.setPageSize(10);
+	}
+
+	@AfterEach
+	void resetClient() {
+		useClient(null);
+	}
+
+	private void useClient(final UnboundIdClient client) {
+		getUser().setSearchClient(client);
+		getGroup().setSearchClient(client);
+		getCompany().setSearchClient(client);
+	}
+
+	@Test
+	void companies() {
+		final var expected = getCompany().findAllNoCache();
+		useClient(client);
+		final var companies = getCompany().findAllNoCache();
+		Assertions.assertEquals(expected.keySet(), companies.keySet());
+		expected.forEach((id, c) -> {
+			Assertions.assertEquals(c.getDn(), companies.get(id).getDn());
+			Assertions.assertEquals(c.getName(), companies.get(id).getName());
+		});
+	}
+
+	@Test
+	void groups() {
+		final var expected = getGroup().findAllNoCache();
+		useClient(client);
+		final var groups = getGroup().findAllNoCache();
+		Assertions.assertEquals(expected.keySet(), groups.keySet());
+		expected.forEach((id, g) -> {
+			Assertions.assertEquals(g.getDn(), groups.get(id).getDn());
+			Assertions.assertEquals(g.getMembers(), groups.get(id).getMembers());
+			Assertions.assertEquals(g.getSubGroups(), groups.get(id).getSubGroups());
+			Assertions.assertEquals(g.getParent(), groups.get(id).getParent());
+		});
+	}
+
+	@Test
+	void users() {
+		final var expected = getUser().findAllNoCache(getGroup().findAllNoCache());
+		useClient(client);
+		final var users = getUser().findAllNoCache(getGroup().findAllNoCache());
+		Assertions.assertEquals(expected.keySet(), users.keySet());
+		expected.forEach((id, u) -> {
+			final var user = users.get(id);
+			Assertions.assertEquals(u.getDn(), user.getDn());
+			Assertions.assertEquals(u.getFirstName(), user.getFirstName());
+			Assertions.assertEquals(u.getLastName(), user.getLastName());
+			Assertions.assertEquals(u.getCompany(), user.getCompany());
+			Assertions.assertEquals(u.getDepartment(), user.getDepartment());
+			Assertions.assertEquals(u.getLocalId(), user.getLocalId());
+			Assertions.assertEquals(u.getMails(), user.getMails());
+			Assertions.assertEquals(u.getLocked(), user.getLocked());
+			Assertions.assertEquals(u.getLockedBy(), user.getLockedBy());
+			Assertions.assertEquals(u.getIsolated(), user.getIsolated());
+			Assertions.assertEquals(u.isSecured(), user.isSecured());
+			Assertions.assertEquals(u.getGroups(), user.getGroups());
+		});
+	}
+
+	/**
+	 * Compare the duration and the allocated memory of a full scan with each backend.
+	 */
+	@Test
+	void benchmark() {
+		final var jndi = measure("jndi", this::scan);
+		useClient(client);
+		final var unboundid = measure("unboundid", this::scan);
+		Assertions.assertEquals(jndi, unboundid);
+	}
+
+	private int scan() {
+		final var groups = new HashMap<String, GroupOrg>(getGroup().findAllNoCache());
+		return getCompany().findAllNoCache().size() + groups.size() + getUser().findAllNoCache(groups).size();
+	}
+
+	private int measure(final String backend, final Supplier<Integer> scan) {
+		final var iterations = 10;
+
+		// Warm up
+		final int entries = scan.get();
+		final var start = System.nanoTime();
+		final var allocated = allocatedBytes();
+		for (var i = 0; i < iterations; i++) {
+			scan.get();
+		}
+		final var duration = (System.nanoTime() - start) / iterations;
+		final var bytes = (allocatedBytes() - allocated) / iterations;
+		log.info("Backend {}: {} entries, {}µs per scan, {} entries/s, {}KB allocated per scan", backend, entries,
+				duration / 1000, entries * 1_000_000_000L / Math.max(1, duration), bytes / 1024);
+		return entries;
+	}
+
+	/**
+	 * Return the memory allocated by all threads, including the terminated reader threads of the LDAP clients.
+	 */
+	private long allocatedBytes() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads) {
+			return threads.getTotalThreadAllocatedBytes();
+		}
+		return 0;
+	}
+}
@@ -16,7 +16,37 @@ export default {
   // LDAP connection (server)
   'service:id:ldap:base-dn': 'Base DN',
   'service:id:ldap:url': 'Connection URLs',
-  'service:id:ldap:url-description': 'Connection URLs, comma separated. Failover mode only, where the first one is used in priority',
+  'service:id:ldap:url-description': 'Connection URLs, comma separated. The way they are used depends on the URL strategy',
+  'service:id:ldap:url-strategy': 'URL strategy',
+  'service:id:ldap:url-strategy-description': 'Server selection among the URLs: failover (the first available one), round-robin or fewest-connections.',
+  'service:id:ldap:health-check-interval': 'Health check interval',
+  'service:id:ldap:health-check-interval-description': 'Delay in seconds before probing again an ejected server.',
+  'service:id:ldap:write-url': 'Write URLs',
+  'service:id:ldap:write-url-description': 'Optional URLs of the primary server accepting the writes. When defined, the connection URLs are the read replicas.',
+  'service:id:ldap:pool-max': 'Pool size',
+  'service:id:ldap:pool-max-description': 'Maximal amount of shared connections per server. When empty, the connections are not pooled.',
+  'service:id:ldap:pool-min': 'Pool minimal idle',
+  'service:id:ldap:pool-min-description': 'Minimal amount of idle connections per server, opened with the pool and kept by the eviction.',
+  'service:id:ldap:pool-idle-timeout': 'Pool idle timeout',
+  'service:id:ldap:pool-idle-timeout-description': 'Delay in seconds after which an idle connection is evicted.',
+  'service:id:ldap:pool-validation': 'Pool validation filter',
+  'service:id:ldap:pool-validation-description': 'Search filter validating an idle connection before lending it, such as (objectClass=*). When empty, no validation.',
+  'service:id:ldap:pool-wait-timeout': 'Pool wait timeout',
+  'service:id:ldap:pool-wait-timeout-description': 'Maximal delay in seconds to wait for a connection when all of them are used.',
+  'service:id:ldap:connect-timeout': 'Connect timeout',
+  'service:id:ldap:connect-timeout-description': 'Delay in seconds to establish a connection before trying the next server. 0 waits without limit.',
+  'service:id:ldap:response-timeout': 'Response timeout',
+  'service:id:ldap:response-timeout-description': 'Delay in seconds to wait for each response of the server. 0 waits without limit.',
+  'service:id:ldap:search-backend': 'Search backend',
+  'service:id:ldap:search-backend-description': 'Client library of the bulk scans of the cache refresh: jndi or unboundid, streaming and mapping the entries as they are received.',
+  'service:id:ldap:pipeline-depth': 'Pipeline depth',
+  'service:id:ldap:pipeline-depth-description': 'Maximal amount of outstanding operations of the bulk writes. When empty, the operations are sent one by one.',
+  'service:id:ldap:coalescing-window': 'Coalescing window',
+  'service:id:ldap:coalescing-window-description': 'Delay in milliseconds during which the modifications of a same entry are merged into a single request. Empty or 0 sends each modification immediately',
+  'service:id:ldap:referential-integrity': 'Referential integrity',
+  'service:id:ldap:referential-integrity-description': 'Server-side rewrite of the group members on rename (refint overlay, Active Directory): auto, true or false. When enabled or detected, the groups are not updated by the plug-in on user move',
+  'service:id:ldap:password-modify': 'Password modify operation',
+  'service:id:ldap:password-modify-description': 'Password change with the Password Modify extended operation (RFC 3062), without reconnection and hashed by the server: auto (when advertised by the server), true or false',
   'service:id:ldap:user-dn': 'Connection user',
   'service:id:ldap:password': 'Connection password',
   'service:id:ldap:clear-password': 'Clear password',
@@ -52,6 +82,8 @@ export default {
   'service:id:ldap:groups-class-create': 'Groups classes (create)',
   'service:id:ldap:groups-class-create-description': 'LDAP object classes of groups for the creation. Comma or space separated values. When empty, use the first of search classes.',
   'service:id:ldap:groups-member-attribute': 'Group member attribute',
+  'service:id:ldap:groups-scan-attributes': 'Groups scan attributes',
+  'service:id:ldap:groups-scan-attributes-description': 'Additional LDAP attributes read by the group scans, besides cn and the member attribute. Comma or space separated values.',
 
   // Companies
   'service:id:ldap:companies-dn': 'Companies DN',
@@ -59,6 +91,8 @@ export default {
   'service:id:ldap:companies-class-description': 'LDAP object classes of users for search. Comma or space separated values.',
   'service:id:ldap:companies-class-create': 'Companies classes (create)',
   'service:id:ldap:companies-class-create-description': 'LDAP object classes of companies for the creation. Comma or space separated values. When empty, use the first of search classes.',
+  'service:id:ldap:companies-scan-attributes': 'Companies scan attributes',
+  'service:id:ldap:companies-scan-attributes-description': 'Additional LDAP attributes read by the company scans, besides ou. Comma or space separated values.',
   'service:id:ldap:company-pattern': 'Company pattern capture id from DN',
 
   // Misc
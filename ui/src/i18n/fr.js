@@ -10,7 +10,37 @@ export default {
   // Connexion LDAP (serveur)
   'service:id:ldap:base-dn': 'Base DN',
   'service:id:ldap:url': 'URLs',
-  'service:id:ldap:url-description': 'URLs de connexion séparées par une virgule. Mode failover supporté uniquement, la première URL étant utilisée en priorité',
+  'service:id:ldap:url-description': 'URLs de connexion séparées par une virgule. Leur utilisation dépend de la stratégie des URLs',
+  'service:id:ldap:url-strategy': 'Stratégie des URLs',
+  'service:id:ldap:url-strategy-description': 'Sélection du serveur parmi les URLs : failover (le premier disponible), round-robin ou fewest-connections.',
+  'service:id:ldap:health-check-interval': 'Intervalle de vérification',
+  'service:id:ldap:health-check-interval-description': 'Délai en secondes avant de tester à nouveau un serveur écarté.',
+  'service:id:ldap:write-url': 'URLs d\'écriture',
+  'service:id:ldap:write-url-description': 'URLs optionnelles du serveur primaire acceptant les écritures. Si définies, les URLs de connexion sont les réplicas en lecture.',
+  'service:id:ldap:pool-max': 'Taille du pool',
+  'service:id:ldap:pool-max-description': 'Nombre maximal de connexions partagées par serveur. Si vide, les connexions ne sont pas mutualisées.',
+  'service:id:ldap:pool-min': 'Minimum inactif du pool',
+  'service:id:ldap:pool-min-description': 'Nombre minimal de connexions inactives par serveur, ouvertes avec le pool et conservées par l\'éviction.',
+  'service:id:ldap:pool-idle-timeout': 'Expiration des inactifs',
+  'service:id:ldap:pool-idle-timeout-description': 'Délai en secondes après lequel une connexion inactive est fermée.',
+  'service:id:ldap:pool-validation': 'Filtre de validation',
+  'service:id:ldap:pool-validation-description': 'Filtre de recherche validant une connexion inactive avant sa réutilisation, par exemple (objectClass=*). Si vide, pas de validation.',
+  'service:id:ldap:pool-wait-timeout': 'Attente du pool',
+  'service:id:ldap:pool-wait-timeout-description': 'Délai maximal en secondes d\'attente d\'une connexion lorsqu\'elles sont toutes utilisées.',
+  'service:id:ldap:connect-timeout': 'Délai de connexion',
+  'service:id:ldap:connect-timeout-description': 'Délai en secondes pour établir une connexion avant d\'essayer le serveur suivant. 0 attend sans limite.',
+  'service:id:ldap:response-timeout': 'Délai de réponse',
+  'service:id:ldap:response-timeout-description': 'Délai en secondes d\'attente de chaque réponse du serveur. 0 attend sans limite.',
+  'service:id:ldap:search-backend': 'Moteur de recherche',
+  'service:id:ldap:search-backend-description': 'Bibliothèque cliente des parcours complets du rafraîchissement du cache : jndi ou unboundid, qui transforme les entrées au fil de leur réception.',
+  'service:id:ldap:pipeline-depth': 'Profondeur du pipeline',
+  'service:id:ldap:pipeline-depth-description': 'Nombre maximal d\'opérations en cours des écritures en masse. Si vide, les opérations sont envoyées une à une.',
+  'service:id:ldap:coalescing-window': 'Fenêtre de regroupement',
+  'service:id:ldap:coalescing-window-description': 'Délai en millisecondes pendant lequel les modifications d\'une même entrée sont regroupées en une seule requête. Vide ou 0 envoie chaque modification immédiatement',
+  'service:id:ldap:referential-integrity': 'Intégrité référentielle',
+  'service:id:ldap:referential-integrity-description': 'Réécriture par le serveur des membres des groupes lors d\'un renommage (overlay refint, Active Directory) : auto, true ou false. Si activée ou détectée, les groupes ne sont pas mis à jour par le plug-in lors d\'un déplacement',
+  'service:id:ldap:password-modify': 'Opération de modification de mot de passe',
+  'service:id:ldap:password-modify-description': 'Changement de mot de passe avec l\'opération étendue Password Modify (RFC 3062), sans reconnexion et haché par le serveur : auto (si annoncée par le serveur), true ou false',
   'service:id:ldap:user-dn': 'Utilisateur de connexion',
   'service:id:ldap:password': 'Mot de passe de connexion',
   'service:id:ldap:clear-password': 'Mot de passe non-crypté',
@@ -46,6 +76,8 @@ export default {
   'service:id:ldap:groups-class-create': 'Classes des groupes (création)',
   'service:id:ldap:groups-class-create-description': 'Classes LDAP des groupes à créer. Séparées par des espaces ou virgules. Si vide, la première des classes de recherche est utilisée.',
   'service:id:ldap:groups-member-attribute': 'Attribut des membres',
+  'service:id:ldap:groups-scan-attributes': 'Attributs lus des groupes',
+  'service:id:ldap:groups-scan-attributes-description': 'Attributs LDAP supplémentaires lus par les parcours des groupes, en plus de cn et de l\'attribut des membres. Valeurs séparées par une virgule ou un espace.',
 
   // Sociétés
   'service:id:ldap:companies-dn': 'DN des sociétés',
@@ -53,6 +85,8 @@ export default {
   'service:id:ldap:companies-class-description': 'Classes LDAP des sociétés à rechercher. Séparées par des espaces ou virgules.',
   'service:id:ldap:companies-class-create': 'Classes des sociétés (création)',
   'service:id:ldap:companies-class-create-description': 'Classes LDAP des sociétés à créer. Séparées par des espaces ou virgules. Si vide, la première des classes de recherche est utilisée.',
+  'service:id:ldap:companies-scan-attributes': 'Attributs lus des sociétés',
+  'service:id:ldap:companies-scan-attributes-description': 'Attributs LDAP supplémentaires lus par les parcours des sociétés, en plus de ou. Valeurs séparées par une virgule ou un espace.',
   'service:id:ldap:company-pattern': 'Pattern de capture de l\'identifiant de société dans un DN',
 
   // Divers